@@ -0,0 +1,484 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.spi.MixerProvider;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sound card stand-in for the benchmarks, so they run the same on machines without audio hardware
+ * and are not disturbed by whatever else is playing. Its lines play nothing, but they consume audio
+ * at the speed of its sample rate, by the clock, as a real card does: writes block while the buffer is full,
+ * and positions move with time while a line runs.
+ *
+ * The benchmarks make it the default device with the system properties
+ * javax.sound.sampled.SourceDataLine and javax.sound.sampled.Clip set to this class's name.
+ */
+public class BenchmarkAudioDevice extends MixerProvider {
+
+    /** CONSTANTS FOR THE DEVICE */
+    private static final Mixer.Info INFO = new Mixer.Info("Benchmark", "MusicPlayer", "Paced silent output", "1.0") {
+    };
+    private static final AudioFormat ANY_PCM = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+            AudioSystem.NOT_SPECIFIED, 16, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED,
+            AudioSystem.NOT_SPECIFIED, false);
+    private static final Line.Info[] SOURCE_LINES = {
+            new DataLine.Info(SourceDataLine.class, new AudioFormat[]{ANY_PCM}, 0, AudioSystem.NOT_SPECIFIED),
+            new DataLine.Info(Clip.class, new AudioFormat[]{ANY_PCM}, 0, AudioSystem.NOT_SPECIFIED)};
+    private static final Device DEVICE = new Device();
+
+    @Override
+    public Mixer.Info[] getMixerInfo() {
+        return new Mixer.Info[]{INFO};
+    }
+
+    @Override
+    public Mixer getMixer(Mixer.Info info) {
+        if (info != null && info != INFO)
+            throw new IllegalArgumentException("not a benchmark device: " + info);
+        return DEVICE;
+    }
+
+    /**
+     * The device, which opens any number of lines.
+     */
+    private static final class Device implements Mixer {
+
+        @Override
+        public Mixer.Info getMixerInfo() {
+            return INFO;
+        }
+
+        @Override
+        public Line.Info[] getSourceLineInfo() {
+            return SOURCE_LINES.clone();
+        }
+
+        @Override
+        public Line.Info[] getTargetLineInfo() {
+            return new Line.Info[0];
+        }
+
+        @Override
+        public Line.Info[] getSourceLineInfo(Line.Info info) {
+            return this.isLineSupported(info) ? new Line.Info[]{info} : new Line.Info[0];
+        }
+
+        @Override
+        public Line.Info[] getTargetLineInfo(Line.Info info) {
+            return new Line.Info[0];
+        }
+
+        @Override
+        public boolean isLineSupported(Line.Info info) {
+            return info.getLineClass() == SourceDataLine.class || info.getLineClass() == Clip.class;
+        }
+
+        @Override
+        public Line getLine(Line.Info info) {
+            if (info.getLineClass() == Clip.class)
+                return new MemoryClip();
+            if (info.getLineClass() == SourceDataLine.class)
+                return new PacedLine();
+            throw new IllegalArgumentException("unsupported line: " + info);
+        }
+
+        @Override
+        public int getMaxLines(Line.Info info) {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+
+        @Override
+        public Line[] getSourceLines() {
+            return new Line[0];
+        }
+
+        @Override
+        public Line[] getTargetLines() {
+            return new Line[0];
+        }
+
+        @Override
+        public void synchronize(Line[] lines, boolean maintainSync) {
+            throw new IllegalArgumentException("synchronization not supported");
+        }
+
+        @Override
+        public void unsynchronize(Line[] lines) {
+            throw new IllegalArgumentException("synchronization not supported");
+        }
+
+        @Override
+        public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync) {
+            return false;
+        }
+
+        @Override
+        public Line.Info getLineInfo() {
+            return new Line.Info(Mixer.class);
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public Control[] getControls() {
+            return new Control[0];
+        }
+
+        @Override
+        public boolean isControlSupported(Control.Type control) {
+            return false;
+        }
+
+        @Override
+        public Control getControl(Control.Type control) {
+            throw new IllegalArgumentException("unsupported control: " + control);
+        }
+
+        @Override
+        public void addLineListener(LineListener listener) {
+        }
+
+        @Override
+        public void removeLineListener(LineListener listener) {
+        }
+    }
+
+    /**
+     * What source data lines and clips share: a format, and a frame position that advances
+     * with the clock while the line runs.
+     */
+    private abstract static class ClockedLine implements DataLine {
+        protected AudioFormat format;
+        protected boolean open;
+        private boolean running;
+        private long startedAt;
+        private long playedBefore;
+        private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+
+        /**
+         * @return frames after which the line runs out of audio
+         */
+        protected abstract long limit();
+
+        /**
+         * @return frames played since the line was opened
+         */
+        protected synchronized long played() {
+            if (!this.running)
+                return this.playedBefore;
+            long elapsed = System.nanoTime() - this.startedAt;
+            long played = this.playedBefore + (long) (elapsed * (double) this.format.getFrameRate() / 1e9);
+            return Math.min(played, this.limit());
+        }
+
+        /**
+         * Moves the position, as a clip's setFramePosition does.
+         */
+        protected synchronized void setPlayed(long frames) {
+            this.playedBefore = frames;
+            this.startedAt = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void start() {
+            if (this.running)
+                return;
+            this.startedAt = System.nanoTime();
+            this.running = true;
+            this.notifyAll();
+            this.fire(LineEvent.Type.START);
+        }
+
+        @Override
+        public synchronized void stop() {
+            if (!this.running)
+                return;
+            this.playedBefore = this.played();
+            this.running = false;
+            this.notifyAll();
+            this.fire(LineEvent.Type.STOP);
+        }
+
+        @Override
+        public synchronized boolean isRunning() {
+            return this.running && this.played() < this.limit();
+        }
+
+        @Override
+        public boolean isActive() {
+            return this.isRunning();
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return this.format;
+        }
+
+        @Override
+        public int getFramePosition() {
+            return (int) this.getLongFramePosition();
+        }
+
+        @Override
+        public long getLongFramePosition() {
+            return this.played();
+        }
+
+        @Override
+        public long getMicrosecondPosition() {
+            return (long) (this.played() * 1e6 / this.format.getFrameRate());
+        }
+
+        @Override
+        public float getLevel() {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+
+        @Override
+        public void open() {
+            throw new UnsupportedOperationException("open with a format");
+        }
+
+        @Override
+        public synchronized void close() {
+            this.running = false;
+            this.open = false;
+            this.notifyAll();
+            this.fire(LineEvent.Type.CLOSE);
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public Control[] getControls() {
+            return new Control[0];
+        }
+
+        @Override
+        public boolean isControlSupported(Control.Type control) {
+            return false;
+        }
+
+        @Override
+        public Control getControl(Control.Type control) {
+            throw new IllegalArgumentException("unsupported control: " + control);
+        }
+
+        @Override
+        public void addLineListener(LineListener listener) {
+            this.listeners.add(listener);
+        }
+
+        @Override
+        public void removeLineListener(LineListener listener) {
+            this.listeners.remove(listener);
+        }
+
+        private void fire(LineEvent.Type type) {
+            LineEvent event = new LineEvent(this, type, this.playedBefore);
+            for (LineListener listener : this.listeners)
+                listener.update(event);
+        }
+    }
+
+    /**
+     * Source data line with a buffer of half a second unless opened with another size.
+     */
+    private static final class PacedLine extends ClockedLine implements SourceDataLine {
+        private int bufferSize;
+        private long written;
+        private boolean flushed;
+
+        @Override
+        public synchronized void open(AudioFormat format, int bufferSize) {
+            this.format = format;
+            this.bufferSize = bufferSize - bufferSize % format.getFrameSize();
+            this.open = true;
+        }
+
+        @Override
+        public void open(AudioFormat format) {
+            this.open(format, (int) (format.getFrameRate() / 2) * format.getFrameSize());
+        }
+
+        @Override
+        protected long limit() {
+            return this.written;
+        }
+
+        @Override
+        public synchronized int write(byte[] b, int off, int len) {
+            int frameSize = this.format.getFrameSize();
+            len -= len % frameSize;
+            int done = 0;
+            this.flushed = false;
+            while (done < len && this.open && !this.flushed) {
+                int space = this.available();
+                if (space == 0) {
+                    try {
+                        // about as long as the card takes to make room for a hundredth of a second
+                        this.wait(this.isRunning() ? 10 : 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    continue;
+                }
+                // after an underrun the position waits for the new audio instead of running ahead of it
+                if (this.played() >= this.written)
+                    this.setPlayed(this.written);
+                int n = Math.min(space, len - done);
+                this.written += n / frameSize;
+                done += n;
+            }
+            return done;
+        }
+
+        @Override
+        public synchronized void drain() {
+            while (this.isRunning() && this.played() < this.written) {
+                try {
+                    this.wait(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            this.written = this.played();
+            this.setPlayed(this.written);
+            this.flushed = true;
+            this.notifyAll();
+        }
+
+        @Override
+        public int getBufferSize() {
+            return this.bufferSize;
+        }
+
+        @Override
+        public synchronized int available() {
+            long queued = (this.written - this.played()) * this.format.getFrameSize();
+            return (int) (this.bufferSize - queued);
+        }
+
+        @Override
+        public Line.Info getLineInfo() {
+            return SOURCE_LINES[0];
+        }
+    }
+
+    /**
+     * Clip holding its audio in memory, as a real clip does.
+     */
+    private static final class MemoryClip extends ClockedLine implements Clip {
+        private byte[] data;
+        private int frameLength;
+
+        @Override
+        public synchronized void open(AudioFormat format, byte[] data, int offset, int bufferSize) {
+            this.format = format;
+            this.data = new byte[bufferSize - bufferSize % format.getFrameSize()];
+            System.arraycopy(data, offset, this.data, 0, this.data.length);
+            this.frameLength = this.data.length / format.getFrameSize();
+            this.open = true;
+            this.setPlayed(0);
+        }
+
+        @Override
+        public void open(AudioInputStream stream) throws IOException {
+            byte[] data = stream.readAllBytes();
+            this.open(stream.getFormat(), data, 0, data.length);
+        }
+
+        @Override
+        public synchronized void close() {
+            super.close();
+            this.data = null;
+        }
+
+        @Override
+        protected long limit() {
+            return this.frameLength;
+        }
+
+        @Override
+        public int getFrameLength() {
+            return this.frameLength;
+        }
+
+        @Override
+        public long getMicrosecondLength() {
+            return (long) (this.frameLength * 1e6 / this.format.getFrameRate());
+        }
+
+        @Override
+        public void setFramePosition(int frames) {
+            this.setPlayed(Math.max(0, Math.min(frames, this.frameLength)));
+        }
+
+        @Override
+        public void setMicrosecondPosition(long microseconds) {
+            this.setFramePosition((int) (microseconds * this.format.getFrameRate() / 1e6));
+        }
+
+        @Override
+        public void setLoopPoints(int start, int end) {
+        }
+
+        @Override
+        public void loop(int count) {
+            this.start();
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public int getBufferSize() {
+            return this.data == null ? 0 : this.data.length;
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public Line.Info getLineInfo() {
+            return SOURCE_LINES[1];
+        }
+    }
+}
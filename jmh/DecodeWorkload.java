@@ -0,0 +1,79 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes a generated minute of MP3 to PCM through the bundled mp3spi, JLayer and Tritonus jars,
+ * for DecodeBenchmark. Each operation decodes the whole minute, so a result of t milliseconds
+ * means the decoder runs 60000 / t times faster than real time.
+ */
+public class DecodeWorkload implements AutoCloseable {
+
+    /** CONSTANTS FOR THE WORKLOAD */
+    private static final int SONG_SECONDS = 60;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final File song;
+    private final AudioFormat format;
+    private final byte[] buffer;
+    private final ParallelDecoder parallelDecoder;
+    private final Mp3FrameIndex index;
+
+    /**
+     * Constructor for the workload.
+     *
+     * @param args not used
+     * @throws IOException if the fixture cannot be written or indexed
+     * @throws UnsupportedAudioFileException if the decoder does not recognize the fixture
+     */
+    public DecodeWorkload(String[] args) throws IOException, UnsupportedAudioFileException {
+        this.song = Mp3Fixtures.get("minute.mp3", SONG_SECONDS, 3);
+        this.format = MusicPlayerModel.pcmFormat(AudioSystem.getAudioFileFormat(this.song).getFormat());
+        this.buffer = new byte[64 * 1024];
+        this.parallelDecoder = new ParallelDecoder(Runtime.getRuntime().availableProcessors());
+        this.index = Mp3FrameIndex.scan(this.song);
+    }
+
+    /**
+     * Decodes the fixture on the calling thread, as streaming playback does.
+     *
+     * @return bytes of PCM decoded
+     * @throws Exception if the fixture cannot be decoded
+     */
+    public Object decode() throws Exception {
+        try (AudioInputStream decoded = AudioSystem.getAudioInputStream(this.format,
+                AudioSystem.getAudioInputStream(this.song))) {
+            return this.drain(decoded);
+        }
+    }
+
+    /**
+     * Decodes the fixture split across every core, as clip playback does.
+     *
+     * @return bytes of PCM decoded
+     * @throws Exception if the fixture cannot be decoded
+     */
+    public Object decodeParallel() throws Exception {
+        try (AudioInputStream decoded = this.parallelDecoder.decode(this.song, this.index, this.format, () -> false)) {
+            return this.drain(decoded);
+        }
+    }
+
+    private long drain(AudioInputStream decoded) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = decoded.read(this.buffer)) > 0)
+            total += n;
+        return total;
+    }
+
+    @Override
+    public void close() {
+        this.parallelDecoder.close();
+    }
+}
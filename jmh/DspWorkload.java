@@ -0,0 +1,65 @@
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+
+/**
+ * Runs blocks of CD audio through a DspChain, for DspBenchmark. A block is as large as the ones
+ * streaming playback processes, so the result per operation is the cost of one of its blocks.
+ */
+public class DspWorkload implements AutoCloseable {
+
+    /** CONSTANTS FOR THE WORKLOAD */
+    private static final int BLOCK_FRAMES = 4096;
+    private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final DspChain chain;
+    private final byte[] pcm;
+    private final byte[] source;
+    private final boolean ramping;
+    private boolean louder;
+
+    /**
+     * Constructor for the workload.
+     *
+     * @param args gain in decibels, or "ramp" to change the gain before every block so it never stops ramping
+     */
+    public DspWorkload(String[] args) {
+        this.chain = new DspChain(FORMAT, BLOCK_FRAMES * FORMAT.getFrameSize());
+        this.source = new byte[BLOCK_FRAMES * FORMAT.getFrameSize()];
+        this.pcm = new byte[this.source.length];
+        // noise at about -10dBFS, so a boost of 6dB makes the limiter work on the loudest samples
+        Random random = new Random(5);
+        for (int i = 0; i < this.source.length; i += 2) {
+            int sample = (int) Math.max(-32768, Math.min(32767, random.nextGaussian() * 10000));
+            this.source[i] = (byte) sample;
+            this.source[i + 1] = (byte) (sample >> 8);
+        }
+        this.ramping = args[0].equals("ramp");
+        this.louder = false;
+        this.chain.setGain(this.ramping ? 0 : Float.parseFloat(args[0]));
+        // let the gain settle from its starting value
+        for (int i = 0; i < 4; i++)
+            this.process();
+    }
+
+    /**
+     * Processes one block.
+     *
+     * @return the block
+     */
+    public Object process() {
+        if (this.ramping) {
+            this.louder = !this.louder;
+            this.chain.setGain(this.louder ? 0 : -12);
+        }
+        System.arraycopy(this.source, 0, this.pcm, 0, this.pcm.length);
+        this.chain.process(this.pcm, 0, this.pcm.length);
+        return this.pcm;
+    }
+
+    @Override
+    public void close() {
+    }
+}
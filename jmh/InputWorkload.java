@@ -0,0 +1,214 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads and decodes a generated minute of MP3 through each way of opening songs, for InputBenchmark:
+ * "file" is the BufferedInputStream over a FileInputStream that AudioSystem.getAudioInputStream(File)
+ * reads through, "mapped" and "readahead" are the two streams SongInput opens. Reads go 418 bytes at
+ * a time, one 128kbps frame, as the decoder asks for them.
+ *
+ * A network mount is stood in for by a latency added to every read system call of the file and
+ * read-ahead streams. A mapped file makes no read calls to delay, and SongInput never maps files
+ * on network mounts, so its figures are the same at every latency.
+ */
+public class InputWorkload implements AutoCloseable {
+
+    /** CONSTANTS FOR THE WORKLOAD */
+    private static final int SONG_SECONDS = 60;
+    private static final int FRAME_BYTES = 418;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final File song;
+    private final AudioFormat format;
+    private final long latencyNanos;
+    private final byte[] frame;
+    private final byte[] buffer;
+
+    /**
+     * Constructor for the workload.
+     *
+     * @param args latency added to every read system call, in microseconds
+     * @throws IOException if the fixture cannot be written
+     * @throws UnsupportedAudioFileException if the decoder does not recognize the fixture
+     */
+    public InputWorkload(String[] args) throws IOException, UnsupportedAudioFileException {
+        this.song = Mp3Fixtures.get("minute.mp3", SONG_SECONDS, 3);
+        this.format = MusicPlayerModel.pcmFormat(AudioSystem.getAudioFileFormat(this.song).getFormat());
+        this.latencyNanos = Long.parseLong(args[0]) * 1000;
+        this.frame = new byte[FRAME_BYTES];
+        this.buffer = new byte[64 * 1024];
+    }
+
+    /**
+     * Reads the fixture through the stream AudioSystem opens files with.
+     *
+     * @return bytes read
+     * @throws IOException if the fixture cannot be read
+     */
+    public Object readFile() throws IOException {
+        return this.read(this.openFile());
+    }
+
+    /**
+     * Reads the fixture memory-mapped.
+     *
+     * @return bytes read
+     * @throws IOException if the fixture cannot be mapped
+     */
+    public Object readMapped() throws IOException {
+        return this.read(SongInput.mapped(this.song.toPath(), 0));
+    }
+
+    /**
+     * Reads the fixture ahead on SongInput's I/O thread.
+     *
+     * @return bytes read
+     * @throws IOException if the fixture cannot be read
+     */
+    public Object readAhead() throws IOException {
+        return this.read(this.openReadAhead());
+    }
+
+    /**
+     * Decodes the fixture read through the stream AudioSystem opens files with.
+     *
+     * @return bytes of PCM decoded
+     * @throws Exception if the fixture cannot be decoded
+     */
+    public Object decodeFile() throws Exception {
+        return this.decode(this.openFile());
+    }
+
+    /**
+     * Decodes the fixture memory-mapped.
+     *
+     * @return bytes of PCM decoded
+     * @throws Exception if the fixture cannot be decoded
+     */
+    public Object decodeMapped() throws Exception {
+        return this.decode(SongInput.mapped(this.song.toPath(), 0));
+    }
+
+    /**
+     * Decodes the fixture read ahead on SongInput's I/O thread.
+     *
+     * @return bytes of PCM decoded
+     * @throws Exception if the fixture cannot be decoded
+     */
+    public Object decodeReadAhead() throws Exception {
+        return this.decode(this.openReadAhead());
+    }
+
+    private InputStream openFile() throws IOException {
+        InputStream file = new FileInputStream(this.song);
+        return new BufferedInputStream(this.latencyNanos == 0 ? file : new FilterInputStream(file) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                LockSupport.parkNanos(InputWorkload.this.latencyNanos);
+                return super.read(b, off, len);
+            }
+        });
+    }
+
+    private InputStream openReadAhead() throws IOException {
+        FileChannel file = FileChannel.open(this.song.toPath(), StandardOpenOption.READ);
+        return SongInput.readAhead(this.latencyNanos == 0 ? file : new SlowChannel(file, this.latencyNanos), 0);
+    }
+
+    private long read(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            long total = 0;
+            int n;
+            while ((n = in.read(this.frame)) > 0)
+                total += n;
+            return total;
+        }
+    }
+
+    private long decode(InputStream input) throws Exception {
+        try (AudioInputStream decoded = AudioSystem.getAudioInputStream(this.format,
+                AudioSystem.getAudioInputStream(input))) {
+            long total = 0;
+            int n;
+            while ((n = decoded.read(this.buffer)) > 0)
+                total += n;
+            return total;
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * File channel whose reads each wait a while first, like reads from a file server.
+     */
+    private static final class SlowChannel implements SeekableByteChannel {
+        private final FileChannel file;
+        private final long latencyNanos;
+
+        private SlowChannel(FileChannel file, long latencyNanos) {
+            this.file = file;
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            LockSupport.parkNanos(this.latencyNanos);
+            return this.file.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return this.file.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.file.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            this.file.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.file.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            this.file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.file.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.file.close();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Drives a MusicPlayerModel the way the GUI does, for ModelBenchmark and TrackSwitchBenchmark.
+ * A two song playlist of generated fixtures is loaded and playing on the benchmark audio device
+ * before the first operation.
+ */
+public class ModelWorkload implements AutoCloseable {
+
+    /** CONSTANTS FOR THE WORKLOAD */
+    private static final int SONG_SECONDS = 20;
+    /** Time the preloader gets to prepare the next song before a switch is measured */
+    private static final long SETTLE_MILLIS = 1000;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final MusicPlayerModel model;
+    private final File[] songs;
+    private final SplittableRandom random;
+    private int song;
+
+    /**
+     * Constructor for the workload.
+     *
+     * @param args playback mode (CLIP or STREAMING), then "on" or "off" for the decoded song caches
+     * @throws IOException if the fixtures cannot be written
+     */
+    public ModelWorkload(String[] args) throws IOException {
+        this.songs = new File[]{Mp3Fixtures.get("song-a.mp3", SONG_SECONDS, 1),
+                Mp3Fixtures.get("song-b.mp3", SONG_SECONDS, 2)};
+        this.random = new SplittableRandom(42);
+        this.model = new MusicPlayerModel();
+        this.model.setPlaybackMode(MusicPlayerModel.PlaybackMode.valueOf(args[0]));
+        if (args.length > 1 && args[1].equals("off")) {
+            this.model.setDecodedCacheBudget(0);
+            this.model.setDiskCacheBudget(0);
+        }
+        this.model.setPlaylist(Arrays.asList(this.songs));
+        this.model.loadNextSong();
+        this.check();
+        this.model.start();
+        this.song = 0;
+    }
+
+    /**
+     * Loads the other fixture and starts it, as picking a song in the GUI does.
+     *
+     * @return the loaded song
+     */
+    public Object changeSong() {
+        this.song = 1 - this.song;
+        this.model.changeSong(this.songs[this.song]);
+        this.check();
+        this.model.start().join();
+        return this.model.getCurrentSong();
+    }
+
+    /**
+     * Moves the playing song to a random position in its first nine tenths, as dragging the song slider does.
+     *
+     * @return the position moved to
+     */
+    public Object seek() {
+        long position = this.random.nextLong(this.model.getClipLength() / 10 * 9);
+        this.model.setSongPosition(position).join();
+        return position;
+    }
+
+    /**
+     * Moves on to the next song of the playlist, as the next button does.
+     *
+     * @return the loaded song
+     */
+    public Object loadNextSong() {
+        File next = this.model.loadNextSong();
+        this.check();
+        this.model.start().join();
+        return next;
+    }
+
+    /**
+     * Lets the current song play long enough for the next one to be preloaded.
+     *
+     * @return nothing
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Object settle() throws InterruptedException {
+        Thread.sleep(SETTLE_MILLIS);
+        return null;
+    }
+
+    /**
+     * Fails the benchmark rather than timing loads that did not happen.
+     */
+    private void check() {
+        if (!this.model.hasClip())
+            throw new IllegalStateException("song did not load; is the benchmark audio device installed?");
+    }
+
+    @Override
+    public void close() {
+        this.model.close();
+    }
+}
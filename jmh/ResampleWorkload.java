@@ -0,0 +1,53 @@
+import java.util.Random;
+
+/**
+ * Runs blocks of stereo audio through a Resampler, for ResampleBenchmark. A block is as large as the ones
+ * ResamplingInputStream converts, so the result per operation is the cost of one of its blocks.
+ */
+public class ResampleWorkload implements AutoCloseable {
+
+    /** CONSTANTS FOR THE WORKLOAD */
+    public static final int BLOCK_FRAMES = 4096;
+    private static final int CHANNELS = 2;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Resampler resampler;
+    private final byte[] source;
+    private final byte[] output;
+
+    /**
+     * Constructor for the workload.
+     *
+     * @param args resampler quality, and the input and output rates as "input:output"
+     */
+    public ResampleWorkload(String[] args) {
+        String[] rates = args[1].split(":");
+        this.resampler = new Resampler(CHANNELS, Integer.parseInt(rates[0]), Integer.parseInt(rates[1]),
+                Resampler.Quality.valueOf(args[0]), BLOCK_FRAMES, false);
+        this.source = new byte[BLOCK_FRAMES * CHANNELS * 2];
+        this.output = new byte[this.resampler.maxOutputFrames(BLOCK_FRAMES) * CHANNELS * 2];
+        // noise at about -10dBFS, as loud as music usually is
+        Random random = new Random(5);
+        for (int i = 0; i < this.source.length; i += 2) {
+            int sample = (int) Math.max(-32768, Math.min(32767, random.nextGaussian() * 10000));
+            this.source[i] = (byte) sample;
+            this.source[i + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /**
+     * Converts one block, carrying on from the block before.
+     *
+     * @return the output
+     */
+    public Object process() {
+        this.resampler.process(this.source, 0, BLOCK_FRAMES, this.output, 0);
+        return this.output;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Searches a synthetic catalog of half a million tracks, for SearchBenchmark.
+ *
+ * Words are drawn from a vocabulary of 30000 made up words with a Zipf-like distribution, as words are
+ * in real song titles: a few are everywhere and most are rare. Ten tracks share an album and
+ * an album shares its artist, and paths are built from artist, album, track number and title,
+ * so the catalog has the repetition of a real library.
+ */
+public class SearchWorkload implements AutoCloseable {
+
+    /** CONSTANTS FOR THE CATALOG */
+    private static final int TRACKS = 500000;
+    private static final int VOCABULARY = 30000;
+    private static final String CONSONANTS = "bcdfghjklmnprstvwz";
+    private static final String VOWELS = "aeiouy";
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Random random;
+    private final String[] vocabulary;
+    private final List<TrackInfo> tracks;
+    private final String query;
+    private SearchIndex index;
+
+    /**
+     * Constructor for the workload. Builds the catalog, and its index unless the index is what is measured.
+     *
+     * @param args kind of query to search for (see query(String)), then "index" to build the index up front
+     */
+    public SearchWorkload(String[] args) {
+        this.random = new Random(1);
+        this.vocabulary = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 2 + this.random.nextInt(3);
+            for (int s = 0; s < syllables; s++)
+                word.append(CONSONANTS.charAt(this.random.nextInt(CONSONANTS.length())))
+                        .append(VOWELS.charAt(this.random.nextInt(VOWELS.length())));
+            if (this.random.nextBoolean())
+                word.append(CONSONANTS.charAt(this.random.nextInt(CONSONANTS.length())));
+            this.vocabulary[i] = word.toString();
+        }
+        String[] artists = new String[TRACKS / 10];
+        String[] albums = new String[TRACKS / 10];
+        for (int i = 0; i < artists.length; i++) {
+            artists[i] = this.words(1 + this.random.nextInt(2));
+            albums[i] = this.words(1 + this.random.nextInt(3));
+        }
+        this.tracks = new ArrayList<>(TRACKS);
+        for (int i = 0; i < TRACKS; i++) {
+            String artist = artists[i / 10];
+            String album = albums[i / 10];
+            String title = this.words(1 + this.random.nextInt(4));
+            int track = i % 10 + 1;
+            String path = String.format("/music/%s/%s/%02d %s.mp3", artist, album, track, title);
+            this.tracks.add(new TrackInfo(path, 0, 0, title, artist, album, 2000, track, 0, 0, 0, 2));
+        }
+        this.query = this.query(args[0]);
+        if (args.length > 1 && args[1].equals("index"))
+            this.index = new SearchIndex(this.tracks);
+    }
+
+    /**
+     * Makes up a query of one of the kinds people type.
+     *
+     * @param kind letter: a single letter; prefix: the start of the most common word; word: the most common word;
+     *             infix: the middle of a common word; rare: the rarest word; words: a common word and the start of another;
+     *             none: an empty query, which lists every track
+     * @return the query
+     */
+    private String query(String kind) {
+        switch (kind) {
+            case "letter":
+                return this.vocabulary[0].substring(0, 1);
+            case "prefix":
+                return this.vocabulary[0].substring(0, 2);
+            case "word":
+                return this.vocabulary[0];
+            case "infix":
+                return this.vocabulary[2].substring(1, 4);
+            case "rare":
+                return this.vocabulary[VOCABULARY - 1];
+            case "words":
+                return this.vocabulary[1] + " " + this.vocabulary[40].substring(0, 2);
+            case "none":
+                return "";
+            default:
+                throw new IllegalArgumentException("unknown kind of query: " + kind);
+        }
+    }
+
+    /**
+     * @return words of the vocabulary, common ones far more often than rare ones
+     */
+    private String words(int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                words.append(' ');
+            // rank r is drawn with probability about 1 / r
+            int rank = (int) Math.exp(this.random.nextDouble() * Math.log(VOCABULARY)) - 1;
+            words.append(this.vocabulary[Math.min(VOCABULARY - 1, rank)]);
+        }
+        return words.toString();
+    }
+
+    /**
+     * Searches the index for the query, as each keystroke in the library browser does.
+     *
+     * @return positions of the matching tracks
+     */
+    public Object search() {
+        return this.index.search(this.query);
+    }
+
+    /**
+     * Indexes the whole catalog, as the library browser does after each scan.
+     *
+     * @return the index
+     */
+    public Object build() {
+        this.index = new SearchIndex(this.tracks);
+        return this.index;
+    }
+
+    @Override
+    public void close() {
+    }
+}
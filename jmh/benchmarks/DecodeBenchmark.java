@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw decode throughput of the bundled MP3 decoder: milliseconds to decode one minute of 128kbps stereo,
+ * on one thread as streaming playback decodes, and on every core as clip playback does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Workload.HOME)
+public class DecodeBenchmark {
+
+    private Workload workload;
+    private Callable<Object> decode;
+    private Callable<Object> decodeParallel;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.workload = new Workload("DecodeWorkload");
+        this.decode = this.workload.operation("decode");
+        this.decodeParallel = this.workload.operation("decodeParallel");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.workload.close();
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return this.decode.call();
+    }
+
+    @Benchmark
+    public Object decodeParallel() throws Exception {
+        return this.decodeParallel.call();
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Milliseconds to read, and to decode, one minute of 128kbps MP3 through the FileInputStream AudioSystem
+ * opens, a mapped file and the read-ahead stream, on a local disk and with 200 microseconds added
+ * to every read system call, as on a network mount.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Workload.HOME)
+public class InputBenchmark {
+
+    /** Latency added to every read system call, in microseconds */
+    @Param({"0", "200"})
+    public String latency;
+
+    private Workload workload;
+    private Callable<Object> readFile;
+    private Callable<Object> readMapped;
+    private Callable<Object> readAhead;
+    private Callable<Object> decodeFile;
+    private Callable<Object> decodeMapped;
+    private Callable<Object> decodeReadAhead;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.workload = new Workload("InputWorkload", this.latency);
+        this.readFile = this.workload.operation("readFile");
+        this.readMapped = this.workload.operation("readMapped");
+        this.readAhead = this.workload.operation("readAhead");
+        this.decodeFile = this.workload.operation("decodeFile");
+        this.decodeMapped = this.workload.operation("decodeMapped");
+        this.decodeReadAhead = this.workload.operation("decodeReadAhead");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.workload.close();
+    }
+
+    @Benchmark
+    public Object readFile() throws Exception {
+        return this.readFile.call();
+    }
+
+    @Benchmark
+    public Object readMapped() throws Exception {
+        return this.readMapped.call();
+    }
+
+    @Benchmark
+    public Object readAhead() throws Exception {
+        return this.readAhead.call();
+    }
+
+    @Benchmark
+    public Object decodeFile() throws Exception {
+        return this.decodeFile.call();
+    }
+
+    @Benchmark
+    public Object decodeMapped() throws Exception {
+        return this.decodeMapped.call();
+    }
+
+    @Benchmark
+    public Object decodeReadAhead() throws Exception {
+        return this.decodeReadAhead.call();
+    }
+}
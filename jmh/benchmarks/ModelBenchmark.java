@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the model's blocking operations, end to end: changing songs with changeSong
+ * and moving within the playing song with setSongPosition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {Workload.SOURCE_DATA_LINE, Workload.CLIP, Workload.HOME})
+public class ModelBenchmark {
+
+    @Param({"STREAMING", "CLIP"})
+    public String mode;
+
+    /** Whether songs played before may come from the decoded song caches */
+    @Param({"on", "off"})
+    public String caches;
+
+    private Workload workload;
+    private Callable<Object> changeSong;
+    private Callable<Object> seek;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.workload = new Workload("ModelWorkload", this.mode, this.caches);
+        this.changeSong = this.workload.operation("changeSong");
+        this.seek = this.workload.operation("seek");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.workload.close();
+    }
+
+    @Benchmark
+    public Object changeSong() throws Exception {
+        return this.changeSong.call();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object seek() throws Exception {
+        return this.seek.call();
+    }
+}
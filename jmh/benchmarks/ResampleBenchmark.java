@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stereo input frames the resampler converts per second on one core, at each quality, from CD audio
+ * to 48kHz and back. Real time is 44100 or 48000 frames per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResampleBenchmark {
+
+    @Param({"FAST", "STANDARD", "BEST"})
+    public String quality;
+
+    /** Input and output rates, as "input:output" */
+    @Param({"44100:48000", "48000:44100"})
+    public String rates;
+
+    private Workload workload;
+    private Callable<Object> process;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.workload = new Workload("ResampleWorkload", this.quality, this.rates);
+        this.process = this.workload.operation("process");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.workload.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4096)
+    public Object process() throws Exception {
+        return this.process.call();
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency over a synthetic library of half a million tracks, for each kind of query
+ * SearchWorkload makes up. Every keystroke in the library browser runs one search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SearchBenchmark {
+
+    @Param({"letter", "prefix", "word", "infix", "rare", "words", "none"})
+    public String query;
+
+    private Workload workload;
+    private Callable<Object> search;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.workload = new Workload("SearchWorkload", this.query, "index");
+        this.search = this.workload.operation("search");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.workload.close();
+    }
+
+    @Benchmark
+    public Object search() throws Exception {
+        return this.search.call();
+    }
+}
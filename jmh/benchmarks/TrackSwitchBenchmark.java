@@ -0,0 +1,61 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of loadNextSong, moving on to a song the preloader has had time to prepare,
+ * as when the next button is pressed part way through a song. Every switch is timed on its own,
+ * after the current song has played for a second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(value = 1, jvmArgsAppend = {Workload.SOURCE_DATA_LINE, Workload.CLIP, Workload.HOME})
+public class TrackSwitchBenchmark {
+
+    @Param({"STREAMING", "CLIP"})
+    public String mode;
+
+    private Workload workload;
+    private Callable<Object> loadNextSong;
+    private Callable<Object> settle;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.workload = new Workload("ModelWorkload", this.mode);
+        this.loadNextSong = this.workload.operation("loadNextSong");
+        this.settle = this.workload.operation("settle");
+    }
+
+    @Setup(Level.Iteration)
+    public void settle() throws Exception {
+        this.settle.call();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.workload.close();
+    }
+
+    @Benchmark
+    public Object loadNextSong() throws Exception {
+        return this.loadNextSong.call();
+    }
+}
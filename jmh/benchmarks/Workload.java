@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Callable;
+
+/**
+ * One of the workload classes next to the benchmarks, reached by name.
+ *
+ * JMH refuses benchmarks in the default package, and code in a named package cannot refer to classes
+ * in the default package, where all of MusicPlayer lives. So each benchmark here only times an operation
+ * of a workload, a default package class that does the actual work, found once per trial by reflection.
+ * Its operations are bound method handles, which cost a few nanoseconds per call.
+ */
+final class Workload implements AutoCloseable {
+
+    /** JVM options of every fork: the benchmark audio device, and a home directory for the model's caches */
+    static final String SOURCE_DATA_LINE = "-Djavax.sound.sampled.SourceDataLine=BenchmarkAudioDevice";
+    static final String CLIP = "-Djavax.sound.sampled.Clip=BenchmarkAudioDevice";
+    static final String HOME = "-Duser.home=target/jmh-home";
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Object target;
+
+    /**
+     * Constructor for the workload.
+     *
+     * @param className name of the workload class, which has a public constructor taking a String[]
+     * @param args arguments of its constructor
+     * @throws Exception if the class is missing or its constructor fails
+     */
+    Workload(String className, String... args) throws Exception {
+        try {
+            this.target = Class.forName(className).getConstructor(String[].class).newInstance((Object) args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Gets an operation of the workload.
+     *
+     * @param name name of a public method of the workload without parameters returning Object
+     * @return the method, bound to the workload
+     * @throws ReflectiveOperationException if there is no such method
+     */
+    Callable<Object> operation(String name) throws ReflectiveOperationException {
+        MethodHandle method = MethodHandles.publicLookup()
+                .findVirtual(this.target.getClass(), name, MethodType.methodType(Object.class))
+                .bindTo(this.target);
+        return () -> {
+            try {
+                return method.invoke();
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws Exception {
+        ((AutoCloseable) this.target).close();
+    }
+}
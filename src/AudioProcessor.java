@@ -0,0 +1,24 @@
+/**
+ * An effect in the DSP chain of a streaming playback.
+ * Processors work in place on interleaved float samples in the range -1 to 1, and are called
+ * on the audio thread with buffers the chain allocated up front, so they should not allocate,
+ * block or hold locks the GUI thread may be waiting on.
+ */
+public interface AudioProcessor {
+
+    /**
+     * Processes a block of samples in place.
+     *
+     * @param samples interleaved samples, one per channel per frame
+     * @param frames number of frames in the block
+     * @param channels number of channels per frame
+     * @param sampleRate frames per second
+     */
+    void process(float[] samples, int frames, int channels, float sampleRate);
+
+    /**
+     * Forgets any state carried from earlier blocks, for instance after the song was repositioned.
+     */
+    default void reset() {
+    }
+}
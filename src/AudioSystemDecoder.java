@@ -0,0 +1,104 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decodes songs through javax.sound.sampled, with whatever file readers and format converters are
+ * installed: the bundled mp3spi for MP3, and any service provider added to the classpath for other formats.
+ * It is asked last, since it takes any song; AudioSystem decides when the song is opened.
+ * A stream opened part way into a song decodes the song from its start and throws away what comes before.
+ * Files are read through SongInput, mapped or read ahead, rather than the small buffer AudioSystem reads with.
+ */
+public class AudioSystemDecoder implements SongDecoder {
+
+    /** Most song formats remembered at once */
+    private static final int MAX_FORMATS = 64;
+
+    /**
+     * The format a song decodes to, with the length and modification time the song had when it was read.
+     */
+    private static final class KnownFormat {
+        private final long length;
+        private final long lastModified;
+        private final AudioFormat format;
+
+        private KnownFormat(File song, AudioFormat format) {
+            this.length = song.length();
+            this.lastModified = song.lastModified();
+            this.format = format;
+        }
+
+        private boolean matches(File song) {
+            return this.length == song.length() && this.lastModified == song.lastModified();
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Map<File, KnownFormat> formats;
+
+    /**
+     * Constructor for the decoder.
+     */
+    public AudioSystemDecoder() {
+        this.formats = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public boolean canDecode(File song) {
+        return true;
+    }
+
+    /**
+     * Gets the format a song decodes to. Reading it takes the installed file readers a few milliseconds,
+     * which every seek would spend again, so the formats of the last songs opened are remembered.
+     */
+    @Override
+    public AudioFormat getFormat(File song) throws IOException, UnsupportedAudioFileException {
+        KnownFormat known = this.formats.get(song);
+        if (known != null && known.matches(song))
+            return known.format;
+        AudioFormat format = MusicPlayerModel.pcmFormat(AudioSystem.getAudioFileFormat(song).getFormat());
+        if (this.formats.size() >= MAX_FORMATS)
+            this.formats.clear();
+        this.formats.put(song, new KnownFormat(song, format));
+        return format;
+    }
+
+    @Override
+    public AudioInputStream open(File song, long position) throws IOException, UnsupportedAudioFileException {
+        AudioFormat format = this.getFormat(song);
+        AudioInputStream decoded = AudioSystem.getAudioInputStream(format, openEncoded(song));
+        PcmStreams.skip(decoded, position * format.getFrameSize(), format.getFrameSize());
+        return decoded;
+    }
+
+    /**
+     * Opens a song as it is encoded, reading the file through SongInput. Readers that only recognize
+     * songs given as files get the file instead.
+     *
+     * @param song audio file
+     * @return stream of the song's encoded frames
+     * @throws IOException if the file cannot be read
+     * @throws UnsupportedAudioFileException if no installed reader recognizes the song
+     */
+    static AudioInputStream openEncoded(File song) throws IOException, UnsupportedAudioFileException {
+        InputStream input = SongInput.open(song, 0);
+        try {
+            return AudioSystem.getAudioInputStream(input);
+        } catch (UnsupportedAudioFileException e) {
+            input.close();
+            return AudioSystem.getAudioInputStream(song);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+}
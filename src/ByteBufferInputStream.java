@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream reading a sequence of ByteBuffers (direct or memory-mapped) one after the other.
+ * Skipping is done by moving the buffer positions, so it costs nothing however far the skip is, and
+ * marks never copy anything, so there is no limit to how far a reset goes back.
+ * The buffers given are duplicated, so several streams can read the same buffers at once.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final ByteBuffer[] buffers;
+    private final int[] starts;
+    private int current;
+    private int markedBuffer;
+    private int markedPosition;
+
+    /**
+     * Constructor for the stream.
+     *
+     * @param buffers buffers to read from, between their position and limit
+     */
+    public ByteBufferInputStream(ByteBuffer... buffers) {
+        this.buffers = new ByteBuffer[buffers.length];
+        this.starts = new int[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            this.buffers[i] = buffers[i].duplicate();
+            this.starts[i] = buffers[i].position();
+        }
+        this.current = 0;
+        this.markedBuffer = -1;
+    }
+
+    @Override
+    public int read() {
+        while (this.current < this.buffers.length) {
+            ByteBuffer b = this.buffers[this.current];
+            if (b.hasRemaining())
+                return b.get() & 0xff;
+            this.current++;
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        int total = 0;
+        while (total < len && this.current < this.buffers.length) {
+            ByteBuffer buffer = this.buffers[this.current];
+            int n = Math.min(len - total, buffer.remaining());
+            if (n == 0) {
+                this.current++;
+                continue;
+            }
+            buffer.get(b, off + total, n);
+            total += n;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        while (skipped < n && this.current < this.buffers.length) {
+            ByteBuffer buffer = this.buffers[this.current];
+            int step = (int) Math.min(n - skipped, buffer.remaining());
+            if (step == 0) {
+                this.current++;
+                continue;
+            }
+            buffer.position(buffer.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long remaining = 0;
+        for (int i = this.current; i < this.buffers.length; i++)
+            remaining += this.buffers[i].remaining();
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        this.markedBuffer = Math.min(this.current, this.buffers.length - 1);
+        this.markedPosition = this.markedBuffer < 0 ? 0 : this.buffers[this.markedBuffer].position();
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (this.markedBuffer < 0) {
+            if (this.buffers.length == 0)
+                return;
+            throw new IOException("reset without a mark");
+        }
+        // buffers after the marked one have only been read since the mark, so they go back to their start
+        for (int i = this.markedBuffer + 1; i <= Math.min(this.current, this.buffers.length - 1); i++)
+            this.buffers[i].position(this.starts[i]);
+        this.buffers[this.markedBuffer].position(this.markedPosition);
+        this.current = this.markedBuffer;
+    }
+}
@@ -0,0 +1,292 @@
+import javax.sound.sampled.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Playback that decodes the whole song into a Clip before playing it.
+ * Costs memory proportional to the length of the song, but allows instant repositioning.
+ * A Clip holds at most Integer.MAX_VALUE frames, so its positions fit the int frame API of the clip.
+ * The volume and normalization gain are applied to the song through a DSP chain as the clip reads it,
+ * so the clip plays at the right level on every mixer, whether or not it offers a MASTER_GAIN control.
+ * Later changes go through MASTER_GAIN. A clip without the control keeps its own copy of the song
+ * as decoded, and is loaded again from it at the current position to change the level.
+ */
+public class ClipPlayback implements Playback {
+
+    /** Bytes run through the DSP chain at a time while the clip is loaded */
+    private static final int DSP_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private volatile Clip clip;
+    private final OutputLinePool pool;
+    private final AudioFormat format;
+    private final byte[] source;
+    private LineListener listener;
+    private final LineListener endListener;
+    private volatile boolean stopRequested;
+    private volatile boolean ended;
+    private float loadedDecibels;
+    private float volumeDecibels;
+    private float trackDecibels;
+
+    /**
+     * Constructor for the clip playback. Fully reads the decoded stream into a Clip from the pool,
+     * applying the volume and normalization gain on the way, then closes the stream, since the clip
+     * holds its own copy of the song. A song loaded while the volume is silent is loaded at full volume
+     * and muted through MASTER_GAIN, so it can be heard once the volume is turned up.
+     *
+     * @param decodedStream PCM stream of the song, 16 bit signed
+     * @param pool pool the clip is taken from and given back to
+     * @param volumeDecibels volume to play the song at
+     * @param trackDecibels normalization gain of the song
+     * @throws LineUnavailableException if no clip can be opened
+     * @throws IOException if the stream cannot be read
+     */
+    public ClipPlayback(AudioInputStream decodedStream, OutputLinePool pool, float volumeDecibels, float trackDecibels)
+            throws LineUnavailableException, IOException {
+        this.pool = pool;
+        this.clip = pool.acquireClip();
+        this.format = decodedStream.getFormat();
+        this.volumeDecibels = volumeDecibels;
+        this.trackDecibels = trackDecibels;
+        try {
+            if (this.clip.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
+                this.source = null;
+                this.load(decodedStream, decodedStream.getFrameLength());
+            } else {
+                this.source = readAll(decodedStream);
+                this.load(new ByteArrayInputStream(this.source), this.source.length / this.format.getFrameSize());
+            }
+        } catch (LineUnavailableException | IOException | RuntimeException e) {
+            pool.release(this.clip);
+            throw e;
+        } finally {
+            decodedStream.close();
+        }
+        this.clip.setFramePosition(0);
+        this.applyGain();
+        this.stopRequested = true;
+        this.ended = false;
+        // added before the model's listener, so the end is known by the time it hears the clip stop
+        this.endListener = this::clipChanged;
+        this.clip.addLineListener(this.endListener);
+    }
+
+    /**
+     * Opens the clip with a song, applying the current volume and normalization gain on the way,
+     * or just the normalization gain if the volume is silent and the clip can be muted instead.
+     *
+     * @param pcm PCM of the song
+     * @param frameLength length of the song in frames, AudioSystem.NOT_SPECIFIED if unknown
+     */
+    private void load(InputStream pcm, long frameLength) throws LineUnavailableException, IOException {
+        float volume = this.volumeDecibels <= DspChain.MIN_GAIN_DB && this.source == null ? 0 : this.volumeDecibels;
+        DspChain dsp = new DspChain(this.format, DSP_BLOCK_SIZE);
+        dsp.setGain(volume);
+        dsp.startTrack(this.trackDecibels);
+        this.clip.open(new AudioInputStream(new GainInputStream(pcm, dsp, this.format.getFrameSize()),
+                this.format, frameLength));
+        this.loadedDecibels = gainDecibels(volume, this.trackDecibels);
+    }
+
+    @Override
+    public void start() {
+        this.stopRequested = false;
+        this.ended = false;
+        this.clip.start();
+    }
+
+    @Override
+    public void stop() {
+        this.stopRequested = true;
+        this.clip.stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.clip.isRunning();
+    }
+
+    @Override
+    public boolean isEnded() {
+        return this.ended || this.clip.getLongFramePosition() >= this.clip.getFrameLength();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return this.clip.getFormat();
+    }
+
+    @Override
+    public long getFrameLength() {
+        return this.clip.getFrameLength();
+    }
+
+    @Override
+    public long getFramePosition() {
+        return Math.min(this.clip.getLongFramePosition(), this.clip.getFrameLength());
+    }
+
+    @Override
+    public void setFramePosition(long position) {
+        this.ended = false;
+        this.clip.setFramePosition((int) Math.max(0, Math.min(position, this.clip.getFrameLength())));
+    }
+
+    /**
+     * Changes the volume of the song already in the clip through the clip's MASTER_GAIN control, by the
+     * difference from the gain the song was loaded with. A clip without the control is loaded again
+     * from the song as decoded, which can be heard as a short gap.
+     *
+     * @param decibels gain in decibels
+     */
+    @Override
+    public synchronized void setGain(float decibels) {
+        this.volumeDecibels = decibels;
+        this.applyGain();
+    }
+
+    @Override
+    public synchronized void setTrackGain(float decibels) {
+        this.trackDecibels = decibels;
+        this.applyGain();
+    }
+
+    /**
+     * Sets the clip's MASTER_GAIN to the difference between the wanted gain and the gain the song was
+     * loaded with, within the control's range, or loads the song again if the clip has no MASTER_GAIN.
+     */
+    private void applyGain() {
+        if (this.source != null) {
+            if (gainDecibels(this.volumeDecibels, this.trackDecibels) != this.loadedDecibels)
+                this.reload();
+            return;
+        }
+        FloatControl gain = (FloatControl) this.clip.getControl(FloatControl.Type.MASTER_GAIN);
+        float wanted = gainDecibels(this.volumeDecibels, this.trackDecibels);
+        float decibels = wanted <= DspChain.MIN_GAIN_DB || this.loadedDecibels <= DspChain.MIN_GAIN_DB
+                ? gain.getMinimum() : wanted - this.loadedDecibels;
+        gain.setValue(Math.max(gain.getMinimum(), Math.min(gain.getMaximum(), decibels)));
+    }
+
+    /**
+     * Loads the song into a clip again at the current gain, carrying on from the same position.
+     * The old clip's listeners are taken off before it is stopped, so its stopping is not taken for the end.
+     */
+    private void reload() {
+        long position = this.getFramePosition();
+        boolean running = this.clip.isRunning();
+        boolean wasEnded = this.ended;
+        this.clip.removeLineListener(this.endListener);
+        if (this.listener != null)
+            this.clip.removeLineListener(this.listener);
+        this.pool.release(this.clip);
+        try {
+            this.clip = this.pool.acquireClip();
+            this.load(new ByteArrayInputStream(this.source), this.source.length / this.format.getFrameSize());
+        } catch (LineUnavailableException | IOException e) {
+            // the song cannot be heard again until the next one loads, so it is over
+            this.ended = true;
+            return;
+        }
+        this.clip.setFramePosition((int) position);
+        this.clip.addLineListener(this.endListener);
+        if (this.listener != null)
+            this.clip.addLineListener(this.listener);
+        this.ended = wasEnded;
+        if (running)
+            this.clip.start();
+    }
+
+    /**
+     * Reads a whole stream of PCM.
+     *
+     * @param in stream to read
+     * @return every byte of the stream
+     */
+    private static byte[] readAll(AudioInputStream in) throws IOException {
+        long length = in.getFrameLength() * in.getFormat().getFrameSize();
+        if (in.getFrameLength() != AudioSystem.NOT_SPECIFIED && length <= Integer.MAX_VALUE - 8) {
+            byte[] pcm = new byte[(int) length];
+            int read = PcmStreams.readFully(in, pcm, 0, pcm.length);
+            return read == pcm.length ? pcm : Arrays.copyOf(pcm, read);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(DSP_BLOCK_SIZE);
+        byte[] block = new byte[DSP_BLOCK_SIZE];
+        for (int n; (n = PcmStreams.read(in, block, 0, block.length)) >= 0; )
+            out.write(block, 0, n);
+        return out.toByteArray();
+    }
+
+    /**
+     * Works out the gain the DSP chain applies for a volume and a normalization gain.
+     *
+     * @return gain in decibels, at most DspChain.MAX_GAIN_DB, or DspChain.MIN_GAIN_DB for silence
+     */
+    private static float gainDecibels(float volumeDecibels, float trackDecibels) {
+        if (volumeDecibels <= DspChain.MIN_GAIN_DB)
+            return DspChain.MIN_GAIN_DB;
+        return Math.min(volumeDecibels + trackDecibels, DspChain.MAX_GAIN_DB);
+    }
+
+    @Override
+    public synchronized void setLineListener(LineListener listener) {
+        if (this.listener != null)
+            this.clip.removeLineListener(this.listener);
+        this.listener = listener;
+        if (listener != null)
+            this.clip.addLineListener(listener);
+    }
+
+    @Override
+    public void close() {
+        this.setLineListener(null);
+        this.clip.removeLineListener(this.endListener);
+        this.pool.release(this.clip);
+    }
+
+    /**
+     * Notices the clip stopping by itself, which it only does once it has played its last frame.
+     * A clip's own position can lag the frames it has played when it stops, so it is not relied on alone.
+     *
+     * @param event event of the clip
+     */
+    private void clipChanged(LineEvent event) {
+        if (event.getType() == LineEvent.Type.STOP && !this.stopRequested && !this.clip.isRunning())
+            this.ended = true;
+    }
+
+    /**
+     * Runs the PCM read from a stream through a DSP chain. Reads whole frames only, which the
+     * AudioInputStreams on either side of it already do, so every block processed is whole frames.
+     */
+    private static final class GainInputStream extends FilterInputStream {
+        private final DspChain dsp;
+        private final int frameSize;
+
+        private GainInputStream(InputStream in, DspChain dsp, int frameSize) {
+            super(in);
+            this.dsp = dsp;
+            this.frameSize = frameSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("cannot read single bytes of " + this.frameSize + " byte frames");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = this.in.read(b, off, len - len % this.frameSize);
+            if (n > 0)
+                this.dsp.process(b, off, n - n % this.frameSize);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runs commands one at a time on a single thread, in the order they were submitted.
+ * Any number of threads can submit commands. They go onto a lock-free queue that only the loop's
+ * thread takes from, and the thread parks whenever the queue is empty, so submitting never blocks
+ * and state touched only by commands needs no locks.
+ * A command that throws is handed to the loop's failure handler, and the loop goes on with the next one.
+ */
+public class CommandLoop implements Executor {
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final ConcurrentLinkedQueue<Runnable> commands;
+    private final Consumer<Throwable> failed;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for the loop. Starts its thread straight away.
+     *
+     * @param name name of the loop's thread
+     * @param failed called on the loop's thread with whatever a command throws
+     */
+    public CommandLoop(String name, Consumer<Throwable> failed) {
+        this.commands = new ConcurrentLinkedQueue<>();
+        this.failed = failed;
+        this.closed = false;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a command to run after every command submitted before it.
+     *
+     * @param command command to run
+     * @throws RejectedExecutionException if the loop has been closed
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (this.closed)
+            throw new RejectedExecutionException("command loop closed");
+        this.commands.add(command);
+        LockSupport.unpark(this.thread);
+    }
+
+    /**
+     * Queues a command that produces a result. Called on the loop's own thread, the command runs
+     * straight away instead, so a command can wait on another without deadlocking the loop.
+     *
+     * @param command command to run
+     * @return future completing with the command's result, or exceptionally if it failed or the loop was closed
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                result.complete(command.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        };
+        if (this.isLoopThread()) {
+            task.run();
+            return result;
+        }
+        try {
+            this.execute(task);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if called from the loop's thread
+     */
+    public boolean isLoopThread() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * @return true once close() has been called
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Stops taking commands. Commands already queued still run, and unless called from a command,
+     * this waits for them to finish.
+     */
+    public void close() {
+        this.closed = true;
+        LockSupport.unpark(this.thread);
+        if (this.isLoopThread())
+            return;
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the loop's thread. Runs commands until the loop is closed and its queue is empty.
+     */
+    private void run() {
+        while (true) {
+            Runnable command = this.commands.poll();
+            if (command == null) {
+                if (this.closed)
+                    return;
+                // a command queued since the poll leaves a permit, so this returns straight away
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                command.run();
+            } catch (Throwable e) {
+                this.failed.accept(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of fully decoded songs, so songs played recently reload without decoding them again.
+ * Songs are keyed by path, modification time and decoded format. The PCM is held in direct
+ * (off-heap) ByteBuffers, so the cache does not grow the Java heap; it is bounded by a byte budget
+ * and evicts the least recently used songs to stay within it.
+ * Note that direct buffers count against -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+public class DecodedAudioCache {
+
+    /** Size of the direct buffers decoded songs are stored in */
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Identifies a decoded song: the file it came from, the version of that file and the format it was decoded to.
+     */
+    private static final class Key {
+        private final String path;
+        private final long lastModified;
+        private final long length;
+        private final String format;
+
+        private Key(File song, AudioFormat format) {
+            this.path = song.getAbsolutePath();
+            this.lastModified = song.lastModified();
+            this.length = song.length();
+            this.format = format.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return this.lastModified == k.lastModified && this.length == k.length
+                    && this.path.equals(k.path) && this.format.equals(k.format);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.path, this.lastModified, this.length, this.format);
+        }
+    }
+
+    /**
+     * A decoded song: its PCM split over direct buffers, each flipped ready for reading.
+     */
+    private static final class Entry {
+        private final ByteBuffer[] chunks;
+        private final long size;
+
+        private Entry(ByteBuffer[] chunks, long size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final LinkedHashMap<Key, Entry> entries;
+    private long budget;
+    private long size;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Constructor for the cache.
+     *
+     * @param budget maximum number of PCM bytes to hold
+     */
+    public DecodedAudioCache(long budget) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.budget = budget;
+        this.size = 0;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Opens a cached song.
+     *
+     * @param song file the song was decoded from
+     * @param format format the song was decoded to
+     * @return stream over the cached PCM with its exact frame length, or null if the song is not cached
+     */
+    public AudioInputStream open(File song, AudioFormat format) {
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(new Key(song, format));
+        }
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return new AudioInputStream(new ByteBufferInputStream(entry.chunks), format, entry.size / format.getFrameSize());
+    }
+
+    /**
+     * Wraps a decoded stream so that everything read through it is copied into the cache.
+     * The song is added to the cache once the stream has been read to its end, or to its frame length
+     * when that is known. If the stream is closed early, or the song turns out larger than the budget,
+     * nothing is added. A song whose length or estimated length is over the budget is not wrapped at all,
+     * so no direct buffers are filled for a song that could never be kept.
+     *
+     * @param song file the stream was decoded from
+     * @param decodedStream PCM stream of the song, positioned at its start
+     * @return stream to read the song through
+     */
+    public AudioInputStream caching(File song, AudioInputStream decodedStream) {
+        AudioFormat format = decodedStream.getFormat();
+        long expected = decodedStream.getFrameLength() == AudioSystem.NOT_SPECIFIED
+                ? -1 : decodedStream.getFrameLength() * format.getFrameSize();
+        long estimated = expected;
+        if (estimated < 0) {
+            try {
+                long frames = MusicPlayerModel.estimateFrameLength(song, decodedStream, format);
+                estimated = frames == Long.MAX_VALUE ? -1 : frames * format.getFrameSize();
+            } catch (IOException | UnsupportedAudioFileException e) {
+                estimated = -1;
+            }
+        }
+        if (estimated > this.getBudget())
+            return decodedStream;
+        return new AudioInputStream(new CachingInputStream(decodedStream, new Key(song, format), expected),
+                format, decodedStream.getFrameLength());
+    }
+
+    /**
+     * Changes the byte budget, evicting songs if the cache is now over it.
+     *
+     * @param budget maximum number of PCM bytes to hold
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        this.evictToFit(0);
+    }
+
+    /**
+     * Removes every song from the cache.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    /**
+     * @return maximum number of PCM bytes the cache holds
+     */
+    public synchronized long getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * @return number of PCM bytes currently held
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return number of opens that found the song cached
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return number of opens that did not find the song cached
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of songs evicted to stay within the budget
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Adds a decoded song, evicting the least recently used songs to make room.
+     *
+     * @param key identity of the song
+     * @param entry decoded PCM of the song
+     */
+    private synchronized void put(Key key, Entry entry) {
+        if (entry.size > this.budget)
+            return;
+        Entry replaced = this.entries.remove(key);
+        if (replaced != null)
+            this.size -= replaced.size;
+        this.evictToFit(entry.size);
+        this.entries.put(key, entry);
+        this.size += entry.size;
+    }
+
+    /**
+     * Evicts least recently used songs until the given number of bytes fits within the budget.
+     *
+     * @param incoming number of bytes about to be added
+     */
+    private void evictToFit(long incoming) {
+        Iterator<Map.Entry<Key, Entry>> eldest = this.entries.entrySet().iterator();
+        while (this.size + incoming > this.budget && eldest.hasNext()) {
+            this.size -= eldest.next().getValue().size;
+            eldest.remove();
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stream copying what is read through it into direct buffers, and adding them to the cache at the end of the stream.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final Key key;
+        private final long expected;
+        private List<ByteBuffer> chunks;
+        private long copied;
+
+        private CachingInputStream(InputStream in, Key key, long expected) {
+            super(in);
+            this.key = key;
+            this.expected = expected;
+            this.chunks = new ArrayList<>();
+            this.copied = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (this.chunks == null)
+                return n;
+            if (n > 0)
+                this.copy(b, off, n);
+            // a read of 0 bytes is a priming frame, not the end of the song
+            if (this.chunks != null && (n < 0 || this.copied == this.expected))
+                this.commit();
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes never reach the cache, so the song can no longer be cached whole
+            this.chunks = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.chunks = null;
+            super.close();
+        }
+
+        /**
+         * Adds the copied song to the cache.
+         */
+        private void commit() {
+            for (ByteBuffer chunk : this.chunks)
+                chunk.flip();
+            put(this.key, new Entry(this.chunks.toArray(new ByteBuffer[0]), this.copied));
+            this.chunks = null;
+        }
+
+        /**
+         * Copies bytes into the direct buffers, giving up on the song once it exceeds the budget.
+         */
+        private void copy(byte[] b, int off, int len) {
+            if (this.copied + len > getBudget()) {
+                this.chunks = null;
+                return;
+            }
+            this.copied += len;
+            while (len > 0) {
+                ByteBuffer last = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+                if (last == null || !last.hasRemaining()) {
+                    last = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                    this.chunks.add(last);
+                }
+                int n = Math.min(len, last.remaining());
+                last.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,545 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of decoded songs in a local directory, so songs decoded in an earlier session
+ * reload by memory-mapping their PCM instead of decoding the MP3 again.
+ *
+ * Each song is stored in its own file:
+ * <pre>
+ *   int    magic "MPPC"
+ *   int    container version
+ *   long   length of the source file
+ *   long   modification time of the source file
+ *   float  sample rate
+ *   int    channels
+ *   int    sample size in bits
+ *   int    flags (1 = big-endian, 2 = signed)
+ *   long   frame count
+ *   int    length of the source path, followed by the UTF-8 path
+ *   padding up to the next 4 KB boundary, followed by the PCM
+ * </pre>
+ * An entry whose source file has since changed length or modification time is deleted when opened.
+ * The directory is capped at a byte budget by deleting the least recently used entries.
+ * Entries are written on a background thread, so the decoder only waits for the disk when its writes fall
+ * far behind, and a song already decoded whole in memory is written from its buffer in one go.
+ * Temporary files left by writes that never finished, in this session or a crashed one, are deleted
+ * along with the evicted entries.
+ */
+public class DiskPcmCache {
+
+    /** CONSTANTS FOR THE CONTAINER */
+    private static final int MAGIC = 0x4D505043;
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER_SIZE = 52;
+    private static final int DATA_ALIGNMENT = 4096;
+    private static final String SUFFIX = ".pcm";
+    private static final int FLAG_BIG_ENDIAN = 1;
+    private static final int FLAG_SIGNED = 2;
+    private static final String TEMP_PREFIX = "decode";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Age after which a temporary file no write of this session owns is deleted */
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+    /** Bytes an entry's writes may fall behind its decoder before the decoder waits for them */
+    private static final int MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pcm-cache-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Path directory;
+    private volatile long budget;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final Set<Path> temps;
+
+    /**
+     * Constructor for the cache.
+     *
+     * @param directory directory to keep cached songs in, created when the first song is written
+     * @param budget maximum number of bytes the directory may hold
+     */
+    public DiskPcmCache(Path directory, long budget) {
+        this.directory = directory;
+        this.budget = budget;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.temps = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Opens a cached song by memory-mapping its PCM.
+     *
+     * @param song file the song was decoded from
+     * @param format format the song was decoded to
+     * @return stream over the mapped PCM with its exact frame length, or null if the song is not cached
+     */
+    public AudioInputStream open(File song, AudioFormat format) {
+        Path entry = this.entryFor(song, format);
+        if (this.budget <= 0 || !Files.isRegularFile(entry)) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        AudioInputStream mapped;
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            mapped = this.map(channel, song, format);
+        } catch (IOException e) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        if (mapped == null) {
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException e) {
+                // the stale entry is left for the next eviction
+            }
+            this.misses.incrementAndGet();
+            return null;
+        }
+        entry.toFile().setLastModified(System.currentTimeMillis());
+        this.hits.incrementAndGet();
+        return mapped;
+    }
+
+    /**
+     * Maps the PCM of an entry, once its header is checked against the song.
+     *
+     * @param channel open entry
+     * @param song file the song was decoded from
+     * @param format format the song was decoded to
+     * @return stream over the mapped PCM, or null if the entry is stale or cut short
+     */
+    private AudioInputStream map(FileChannel channel, File song, AudioFormat format) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0)
+                break;
+        }
+        header.flip();
+        if (header.remaining() < FIXED_HEADER_SIZE || !this.matches(header, song, format))
+            return null;
+        long frames = header.getLong(40);
+        int pathLength = header.getInt(48);
+        long dataOffset = align(FIXED_HEADER_SIZE + pathLength);
+        long dataLength = frames * format.getFrameSize();
+        if (dataOffset + dataLength > channel.size())
+            return null;
+        List<ByteBuffer> mapped = new ArrayList<>();
+        for (long offset = 0; offset < dataLength; offset += Integer.MAX_VALUE) {
+            long length = Math.min(Integer.MAX_VALUE, dataLength - offset);
+            mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + offset, length));
+        }
+        return new AudioInputStream(new ByteBufferInputStream(mapped.toArray(new ByteBuffer[0])), format, frames);
+    }
+
+    /**
+     * Wraps a decoded stream so that everything read through it is written to the cache directory.
+     * The entry is published once the stream has been read to its end, or to its frame length when that is known;
+     * if the stream is closed early or writing fails, the partial entry is deleted and the stream carries on unaffected.
+     *
+     * @param song file the stream was decoded from
+     * @param decodedStream PCM stream of the song, positioned at its start
+     * @return stream to read the song through
+     */
+    public AudioInputStream caching(File song, AudioInputStream decodedStream) {
+        if (this.budget <= 0)
+            return decodedStream;
+        return new AudioInputStream(new CachingInputStream(decodedStream, song, decodedStream.getFormat()),
+                decodedStream.getFormat(), decodedStream.getFrameLength());
+    }
+
+    /**
+     * Writes a song already decoded whole into the cache directory in the background.
+     * The buffer must not change afterwards; it is held until it has been written.
+     *
+     * @param song file the song was decoded from
+     * @param format format the song was decoded to
+     * @param pcm the whole song, in whole frames
+     */
+    public void store(File song, AudioFormat format, byte[] pcm) {
+        if (this.budget <= 0 || pcm.length > this.budget)
+            return;
+        EntryWriter entry = new EntryWriter(song, format);
+        WRITER.execute(() -> {
+            entry.create();
+            entry.write(ByteBuffer.wrap(pcm));
+            entry.publish(pcm.length / format.getFrameSize());
+        });
+    }
+
+    /**
+     * Changes the byte budget, deleting entries if the directory is now over it.
+     *
+     * @param budget maximum number of bytes the directory may hold, 0 to disable the cache
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        this.evictToFit();
+    }
+
+    /**
+     * @return maximum number of bytes the directory may hold
+     */
+    public long getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * @return directory cached songs are kept in
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return number of opens that found the song cached
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return number of opens that did not find a valid cached song
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of entries deleted to stay within the budget
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Gets the file a song is cached in. The name is a digest of the source path and decoded format.
+     *
+     * @param song file the song was decoded from
+     * @param format format the song was decoded to
+     * @return path of the entry
+     */
+    private Path entryFor(File song, AudioFormat format) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((song.getAbsolutePath() + '|' + format).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash)
+                name.append(String.format("%02x", b));
+            return this.directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+
+    /**
+     * Checks an entry header against the current state of the source and the wanted format.
+     *
+     * @param header fixed part of the header
+     * @param song source file
+     * @param format wanted format
+     * @return true if the entry is a current decode of the song in that format
+     */
+    private boolean matches(ByteBuffer header, File song, AudioFormat format) {
+        int flags = (format.isBigEndian() ? FLAG_BIG_ENDIAN : 0)
+                | (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED ? FLAG_SIGNED : 0);
+        return header.getInt(0) == MAGIC
+                && header.getInt(4) == VERSION
+                && header.getLong(8) == song.length()
+                && header.getLong(16) == song.lastModified()
+                && header.getFloat(24) == format.getSampleRate()
+                && header.getInt(28) == format.getChannels()
+                && header.getInt(32) == format.getSampleSizeInBits()
+                && header.getInt(36) == flags;
+    }
+
+    /**
+     * Builds the header of an entry.
+     *
+     * @param song source file
+     * @param format decoded format
+     * @param frames number of frames in the entry
+     * @param sourceLength length of the source when decoding started
+     * @param sourceModified modification time of the source when decoding started
+     * @return header padded to the start of the PCM
+     */
+    private static ByteBuffer header(File song, AudioFormat format, long frames, long sourceLength, long sourceModified) {
+        byte[] path = song.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate((int) align(FIXED_HEADER_SIZE + path.length));
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(sourceLength);
+        header.putLong(sourceModified);
+        header.putFloat(format.getSampleRate());
+        header.putInt(format.getChannels());
+        header.putInt(format.getSampleSizeInBits());
+        header.putInt((format.isBigEndian() ? FLAG_BIG_ENDIAN : 0)
+                | (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED ? FLAG_SIGNED : 0));
+        header.putLong(frames);
+        header.putInt(path.length);
+        header.put(path);
+        header.clear();
+        return header;
+    }
+
+    /**
+     * Rounds a header size up to the alignment of the PCM.
+     *
+     * @param size header size
+     * @return offset of the PCM
+     */
+    private static long align(long size) {
+        return (size + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+
+    /**
+     * Deletes the least recently used entries until the directory fits within the budget,
+     * and the temporary files of writes that were abandoned long ago.
+     */
+    private synchronized void evictToFit() {
+        if (!Files.isDirectory(this.directory))
+            return;
+        List<File> entries = new ArrayList<>();
+        List<File> staleTemps = new ArrayList<>();
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.endsWith(SUFFIX))
+                    entries.add(p.toFile());
+                else if (name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX) && !this.temps.contains(p)
+                        && p.toFile().lastModified() < staleBefore)
+                    staleTemps.add(p.toFile());
+            });
+        } catch (IOException e) {
+            return;
+        }
+        for (File temp : staleTemps)
+            temp.delete();
+        long total = 0;
+        for (File entry : entries)
+            total += entry.length();
+        entries.sort(Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (total <= this.budget)
+                break;
+            long length = entry.length();
+            if (entry.delete()) {
+                total -= length;
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A temporary entry being written, published under its song's name once complete. Only used on the writer thread,
+     * apart from failed, which tells the stream feeding it to stop copying.
+     */
+    private class EntryWriter {
+        private final File song;
+        private final AudioFormat format;
+        private final long sourceLength;
+        private final long sourceModified;
+        private volatile boolean failed;
+        private Path temp;
+        private FileChannel channel;
+
+        private EntryWriter(File song, AudioFormat format) {
+            this.song = song;
+            this.format = format;
+            this.sourceLength = song.length();
+            this.sourceModified = song.lastModified();
+            this.failed = false;
+        }
+
+        /**
+         * Creates the temporary entry, positioned after the room left for its header.
+         */
+        private void create() {
+            try {
+                Files.createDirectories(directory);
+                this.temp = Files.createTempFile(directory, TEMP_PREFIX, TEMP_SUFFIX);
+                temps.add(this.temp);
+                this.channel = FileChannel.open(this.temp, StandardOpenOption.WRITE);
+                this.channel.position(header(this.song, this.format, 0, this.sourceLength, this.sourceModified).capacity());
+            } catch (IOException e) {
+                this.discard();
+            }
+        }
+
+        /**
+         * Appends PCM to the temporary entry.
+         */
+        private void write(ByteBuffer data) {
+            if (this.channel == null)
+                return;
+            try {
+                while (data.hasRemaining())
+                    this.channel.write(data);
+            } catch (IOException e) {
+                this.discard();
+            }
+        }
+
+        /**
+         * Writes the header and moves the finished entry into place.
+         */
+        private void publish(long frames) {
+            if (this.channel == null)
+                return;
+            try {
+                ByteBuffer header = header(this.song, this.format, frames, this.sourceLength, this.sourceModified);
+                this.channel.position(0);
+                while (header.hasRemaining())
+                    this.channel.write(header);
+                this.channel.close();
+                this.channel = null;
+                Files.move(this.temp, entryFor(this.song, this.format),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                temps.remove(this.temp);
+                this.temp = null;
+                evictToFit();
+            } catch (IOException e) {
+                this.discard();
+            }
+        }
+
+        /**
+         * Stops writing and deletes the partial entry.
+         */
+        private void discard() {
+            this.failed = true;
+            try {
+                if (this.channel != null)
+                    this.channel.close();
+                if (this.temp != null)
+                    Files.deleteIfExists(this.temp);
+            } catch (IOException e) {
+                // the partial entry is left for the next eviction
+            }
+            if (this.temp != null)
+                temps.remove(this.temp);
+            this.channel = null;
+            this.temp = null;
+        }
+    }
+
+    /**
+     * Stream copying what is read through it to the writer thread, which writes it into a temporary entry
+     * and publishes the entry at the end of the stream. A read waits while more than MAX_PENDING_BYTES
+     * are still to be written, so a reader faster than the disk is held to its pace rather than queuing
+     * the whole song in memory.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final EntryWriter entry;
+        private final int frameSize;
+        private final long expected;
+        private final Semaphore pending;
+        private boolean writing;
+        private long written;
+
+        private CachingInputStream(AudioInputStream in, File song, AudioFormat format) {
+            super(in);
+            this.entry = new EntryWriter(song, format);
+            this.frameSize = format.getFrameSize();
+            this.expected = in.getFrameLength() == AudioSystem.NOT_SPECIFIED
+                    ? -1 : in.getFrameLength() * format.getFrameSize();
+            this.pending = new Semaphore(MAX_PENDING_BYTES);
+            this.writing = true;
+            this.written = 0;
+            WRITER.execute(this.entry::create);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (!this.writing)
+                return n;
+            if (n > 0) {
+                if (this.entry.failed || this.written + n > budget) {
+                    this.abandon();
+                    return n;
+                }
+                int permits = Math.min(n, MAX_PENDING_BYTES);
+                try {
+                    this.pending.acquire(permits);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.abandon();
+                    return n;
+                }
+                ByteBuffer data = ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + n));
+                this.written += n;
+                WRITER.execute(() -> {
+                    this.entry.write(data);
+                    this.pending.release(permits);
+                });
+            }
+            // a read of 0 bytes is a priming frame, not the end of the song
+            if (n < 0 || this.written == this.expected) {
+                this.writing = false;
+                long frames = this.written / this.frameSize;
+                WRITER.execute(() -> this.entry.publish(frames));
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes never reach the entry, so the song can no longer be cached whole
+            this.abandon();
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.abandon();
+            super.close();
+        }
+
+        /**
+         * Stops copying, and has the partial entry deleted once the writes queued before are done.
+         */
+        private void abandon() {
+            if (!this.writing)
+                return;
+            this.writing = false;
+            WRITER.execute(this.entry::discard);
+        }
+    }
+}
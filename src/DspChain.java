@@ -0,0 +1,259 @@
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-process signal chain between the decoder and the output line of a streaming playback.
+ * 16 bit PCM is converted to float, run through the effect processors, scaled by a gain that ramps
+ * smoothly to each new volume, caught by a peak limiter so boosted songs do not clip, and converted back.
+ * Volume therefore works on every line, whether or not its mixer offers a MASTER_GAIN control.
+ *
+ * All work happens in place on buffers allocated when the chain is built, so processing a block
+ * allocates nothing. The conversion and constant-gain loops are plain counted loops over arrays,
+ * which HotSpot's C2 compiler turns into SIMD instructions by itself.
+ */
+public class DspChain {
+
+    /** CONSTANTS FOR THE CHAIN */
+    public static final float MIN_GAIN_DB = -80.0f;
+    public static final float MAX_GAIN_DB = 6.0206f;
+    private static final float RAMP_SECONDS = 0.02f;
+    private static final float LIMITER_THRESHOLD = 1.0f;
+    private static final float LIMITER_RELEASE_SECONDS = 0.1f;
+    private static final float SHORT_SCALE = 1.0f / 32768.0f;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final int channels;
+    private final float sampleRate;
+    private final boolean bigEndian;
+    private final float[] work;
+    private final int rampFrames;
+    private final float releaseCoefficient;
+    private volatile float volumeDecibels;
+    private volatile float trackDecibels;
+    private volatile float targetGain;
+    private volatile AudioProcessor[] effects;
+    private volatile boolean resetPending;
+    private float gain;
+    private float rampTarget;
+    private float gainStep;
+    private int rampLeft;
+    private float envelope;
+    private boolean started;
+
+    /**
+     * Constructor for the chain.
+     *
+     * @param format format of the PCM passing through; must be 16 bit signed
+     * @param maxBytes largest block that will be processed at once
+     * @throws IllegalArgumentException if the format is not 16 bit signed PCM
+     */
+    public DspChain(AudioFormat format, int maxBytes) {
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16)
+            throw new IllegalArgumentException("the DSP chain needs 16 bit signed PCM, not " + format);
+        this.channels = format.getChannels();
+        this.sampleRate = format.getFrameRate();
+        this.bigEndian = format.isBigEndian();
+        this.work = new float[maxBytes / 2];
+        this.rampFrames = Math.max(1, (int) (this.sampleRate * RAMP_SECONDS));
+        this.releaseCoefficient = (float) Math.exp(-1.0 / (this.sampleRate * LIMITER_RELEASE_SECONDS));
+        this.volumeDecibels = 0;
+        this.trackDecibels = 0;
+        this.targetGain = 1.0f;
+        this.effects = new AudioProcessor[0];
+        this.resetPending = false;
+        this.gain = 1.0f;
+        this.rampTarget = 1.0f;
+        this.gainStep = 0;
+        this.rampLeft = 0;
+        this.envelope = 0;
+        this.started = false;
+    }
+
+    /**
+     * Sets the volume. The gain ramps to it over a few milliseconds so the change does not click.
+     * Anything at or below MIN_GAIN_DB is silence.
+     *
+     * @param decibels gain in decibels, at most MAX_GAIN_DB
+     */
+    public void setGain(float decibels) {
+        this.volumeDecibels = decibels;
+        this.updateTargetGain();
+    }
+
+    /**
+     * Sets the normalization gain of the song passing through, added to the volume.
+     * It ramps like a change of volume, so switching songs does not click either.
+     *
+     * @param decibels normalization gain in decibels
+     */
+    public void setTrackGain(float decibels) {
+        this.trackDecibels = decibels;
+        this.updateTargetGain();
+    }
+
+    /**
+     * Switches to the normalization gain of the next song at the first frame of the next block, without ramping,
+     * since the songs join there anyway and a ramp would play the start of a loud song too loud.
+     * Only called from the thread processing the blocks, between two of them.
+     *
+     * @param decibels normalization gain of the next song in decibels
+     */
+    public void startTrack(float decibels) {
+        this.setTrackGain(decibels);
+        this.started = false;
+    }
+
+    /**
+     * Works out the gain to ramp to from the volume and the normalization gain, together at most MAX_GAIN_DB.
+     */
+    private void updateTargetGain() {
+        float volume = this.volumeDecibels;
+        float clamped = Math.min(volume + this.trackDecibels, MAX_GAIN_DB);
+        this.targetGain = volume <= MIN_GAIN_DB ? 0 : (float) Math.pow(10, clamped / 20.0);
+    }
+
+    /**
+     * Replaces the effect processors, which run in order before the gain.
+     *
+     * @param effects processors to run
+     */
+    public void setEffects(List<AudioProcessor> effects) {
+        this.effects = effects.toArray(new AudioProcessor[0]);
+    }
+
+    /**
+     * @return a copy of the effect processors, in order
+     */
+    public List<AudioProcessor> getEffects() {
+        return Arrays.asList(this.effects.clone());
+    }
+
+    /**
+     * Makes the chain and its processors forget their state before the next block,
+     * because the audio that follows does not continue the audio before it.
+     */
+    public void reset() {
+        this.resetPending = true;
+    }
+
+    /**
+     * Processes a block of PCM in place. Only called from one thread at a time.
+     *
+     * @param pcm buffer holding the block
+     * @param off offset of the block
+     * @param len length of the block in bytes, a whole number of frames
+     */
+    public void process(byte[] pcm, int off, int len) {
+        if (this.resetPending) {
+            this.resetPending = false;
+            this.envelope = 0;
+            for (AudioProcessor effect : this.effects)
+                effect.reset();
+        }
+        int step = this.work.length * 2 - (this.work.length * 2) % (this.channels * 2);
+        for (int start = 0; start < len; start += step)
+            this.processBlock(pcm, off + start, Math.min(step, len - start));
+    }
+
+    /**
+     * Processes a block that fits in the work buffer.
+     */
+    private void processBlock(byte[] pcm, int off, int len) {
+        int samples = len / 2;
+        int frames = samples / this.channels;
+        float[] work = this.work;
+        toFloat(pcm, off, work, samples, this.bigEndian);
+        AudioProcessor[] effects = this.effects;
+        for (AudioProcessor effect : effects)
+            effect.process(work, frames, this.channels, this.sampleRate);
+        this.applyGain(work, frames);
+        this.limit(work, frames);
+        toPcm(work, samples, pcm, off, this.bigEndian);
+    }
+
+    /**
+     * Scales the samples by the gain, ramping linearly towards the target gain when it has changed.
+     */
+    private void applyGain(float[] work, int frames) {
+        float target = this.targetGain;
+        if (!this.started) {
+            // nothing has been heard yet, or a new song starts, so start at the volume set before the first block
+            this.started = true;
+            this.gain = target;
+            this.rampTarget = target;
+            this.rampLeft = 0;
+        }
+        if (target != this.rampTarget) {
+            this.rampTarget = target;
+            this.rampLeft = this.rampFrames;
+            this.gainStep = (target - this.gain) / this.rampFrames;
+        }
+        int channels = this.channels;
+        int frame = 0;
+        for (; frame < frames && this.rampLeft > 0; frame++, this.rampLeft--) {
+            this.gain += this.gainStep;
+            for (int c = 0, i = frame * channels; c < channels; c++, i++)
+                work[i] *= this.gain;
+        }
+        if (this.rampLeft == 0)
+            this.gain = target;
+        float gain = this.gain;
+        if (gain == 1.0f)
+            return;
+        for (int i = frame * channels, end = frames * channels; i < end; i++)
+            work[i] *= gain;
+    }
+
+    /**
+     * Keeps peaks from going past full scale. The envelope follows each frame's loudest channel at once
+     * and falls back slowly, so the reduction needs no look-ahead and does not pump.
+     * Audio that never exceeds full scale passes through untouched.
+     */
+    private void limit(float[] work, int frames) {
+        int channels = this.channels;
+        float envelope = this.envelope;
+        float release = this.releaseCoefficient;
+        for (int frame = 0, i = 0; frame < frames; frame++, i += channels) {
+            float peak = 0;
+            for (int c = 0; c < channels; c++)
+                peak = Math.max(peak, Math.abs(work[i + c]));
+            envelope = peak > envelope ? peak : envelope * release;
+            if (envelope > LIMITER_THRESHOLD) {
+                float reduction = LIMITER_THRESHOLD / envelope;
+                for (int c = 0; c < channels; c++)
+                    work[i + c] *= reduction;
+            }
+        }
+        this.envelope = envelope;
+    }
+
+    /**
+     * Converts 16 bit samples to floats.
+     */
+    private static void toFloat(byte[] pcm, int off, float[] work, int samples, boolean bigEndian) {
+        if (bigEndian) {
+            for (int i = 0, b = off; i < samples; i++, b += 2)
+                work[i] = (short) ((pcm[b] << 8) | (pcm[b + 1] & 0xFF)) * SHORT_SCALE;
+        } else {
+            for (int i = 0, b = off; i < samples; i++, b += 2)
+                work[i] = (short) ((pcm[b + 1] << 8) | (pcm[b] & 0xFF)) * SHORT_SCALE;
+        }
+    }
+
+    /**
+     * Converts floats back to 16 bit samples, rounding and clamping to the 16 bit range.
+     */
+    private static void toPcm(float[] work, int samples, byte[] pcm, int off, boolean bigEndian) {
+        int high = bigEndian ? 0 : 1;
+        int low = bigEndian ? 1 : 0;
+        for (int i = 0, b = off; i < samples; i++, b += 2) {
+            int s = Math.round(work[i] * 32768.0f);
+            s = Math.max(-32768, Math.min(32767, s));
+            pcm[b + high] = (byte) (s >> 8);
+            pcm[b + low] = (byte) s;
+        }
+    }
+}
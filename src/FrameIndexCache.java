@@ -0,0 +1,221 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the frame indexes of MP3 files, in memory for the songs used recently and on disk between sessions.
+ * Indexes are built on a background thread when a song is loaded, so they are usually ready before the
+ * first seek; a seek that comes earlier uses the Xing or VBRI table of contents of the song if it has one,
+ * and otherwise builds the index on the spot.
+ */
+public class FrameIndexCache {
+
+    /** CONSTANTS FOR THE CACHE */
+    private static final int MEMORY_ENTRIES = 16;
+    private static final String SUFFIX = ".idx";
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Path directory;
+    private final LinkedHashMap<String, Mp3FrameIndex> recent;
+    private final Map<String, Future<Mp3FrameIndex>> building;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor for the cache.
+     *
+     * @param directory directory to save indexes in, created when the first index is saved
+     */
+    public FrameIndexCache(Path directory) {
+        this.directory = directory;
+        this.recent = new LinkedHashMap<String, Mp3FrameIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Mp3FrameIndex> eldest) {
+                return this.size() > MEMORY_ENTRIES;
+            }
+        };
+        this.building = new HashMap<>();
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "frame-indexer");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * Starts building the index of a song in the background, unless it is already known.
+     *
+     * @param song MP3 file
+     */
+    public void prepare(File song) {
+        try {
+            this.lookup(song, false);
+        } catch (IOException e) {
+            // not an MPEG audio file; seeks in it decode from the start
+        }
+    }
+
+    /**
+     * Gets an index to seek in a song with: the full index if it is known, otherwise an estimate
+     * from the song's Xing or VBRI header while the full index is built in the background,
+     * otherwise the full index built right away.
+     *
+     * @param song MP3 file
+     * @return index of the song
+     * @throws IOException if the song is not an MPEG audio file
+     */
+    public Mp3FrameIndex find(File song) throws IOException {
+        Mp3FrameIndex index = this.lookup(song, false);
+        if (index != null)
+            return index;
+        Mp3FrameIndex estimate = Mp3FrameIndex.readVbrHeader(song);
+        if (estimate != null)
+            return estimate;
+        return this.lookup(song, true);
+    }
+
+    /**
+     * Gets the full index of a song, building it right away if it is not known yet.
+     *
+     * @param song MP3 file
+     * @return full index of the song
+     * @throws IOException if the song is not an MPEG audio file
+     */
+    public Mp3FrameIndex get(File song) throws IOException {
+        return this.lookup(song, true);
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Looks a song up in memory and then on disk, starting a background build if it is in neither.
+     *
+     * @param song MP3 file
+     * @param wait true to wait for the index to be built
+     * @return the index, or null if it is not known yet and wait is false
+     * @throws IOException if waiting and the index cannot be built
+     */
+    private Mp3FrameIndex lookup(File song, boolean wait) throws IOException {
+        String key = song.getAbsolutePath() + '|' + song.length() + '|' + song.lastModified();
+        Future<Mp3FrameIndex> pending;
+        synchronized (this) {
+            Mp3FrameIndex index = this.recent.get(key);
+            if (index != null)
+                return index;
+            pending = this.building.get(key);
+            if (pending == null) {
+                pending = this.executor.submit(() -> this.load(song, key));
+                this.building.put(key, pending);
+            }
+        }
+        if (!wait)
+            return pending.isDone() ? this.result(pending) : null;
+        return this.result(pending);
+    }
+
+    /**
+     * Waits for a build to finish.
+     */
+    private Mp3FrameIndex result(Future<Mp3FrameIndex> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while indexing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads the saved index of a song, or scans the song and saves its index.
+     *
+     * @param song MP3 file
+     * @param key memory key of the song
+     * @return the index
+     * @throws IOException if the song cannot be scanned
+     */
+    private Mp3FrameIndex load(File song, String key) throws IOException {
+        try {
+            Path entry = this.entryFor(song);
+            Mp3FrameIndex index = Files.isRegularFile(entry) ? Mp3FrameIndex.read(entry, song) : null;
+            if (index == null) {
+                Files.deleteIfExists(entry);
+                index = Mp3FrameIndex.scan(song);
+                this.save(song, index, entry);
+            }
+            synchronized (this) {
+                this.recent.put(key, index);
+            }
+            return index;
+        } finally {
+            synchronized (this) {
+                this.building.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Writes an index to a temporary file and moves it into place.
+     */
+    private void save(File song, Mp3FrameIndex index, Path entry) {
+        Path temp = null;
+        try {
+            Files.createDirectories(this.directory);
+            temp = Files.createTempFile(this.directory, "index", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                index.write(out, song);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // the index is simply rebuilt next time
+            }
+        }
+    }
+
+    /**
+     * Gets the file a song's index is saved in. The name is a digest of the song's path.
+     *
+     * @param song MP3 file
+     * @return path of the saved index
+     */
+    private Path entryFor(File song) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(song.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash)
+                name.append(String.format("%02x", b));
+            return this.directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+}
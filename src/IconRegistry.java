@@ -0,0 +1,58 @@
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads every icon of the GUI once, so buttons and menus share the decoded images
+ * instead of reading and decoding the PNGs again each time a graphic changes.
+ * Must be created once the JavaFX toolkit is running.
+ */
+public class IconRegistry {
+
+    /** Icons loaded up front, from the resources directory */
+    private static final String[] ICONS = {
+            "play.png", "pause.png", "rewind.png", "fastforward.png",
+            "musicnote.png", "musicnotes.png", "musicnotelarge.png"
+    };
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Map<String, Image> images;
+
+    /**
+     * Constructor for the registry. Loads and decodes every icon.
+     */
+    public IconRegistry() {
+        this.images = new HashMap<>();
+        for (String icon : ICONS)
+            this.images.put(icon, new Image(getClass().getResourceAsStream("resources/" + icon)));
+    }
+
+    /**
+     * Gets a loaded icon. The image is shared, so it must not be modified.
+     *
+     * @param filename file name of the icon in the resources directory
+     * @return the decoded icon
+     * @throws IllegalArgumentException if the icon is not one of the registry's
+     */
+    public Image get(String filename) {
+        Image image = this.images.get(filename);
+        if (image == null)
+            throw new IllegalArgumentException("unknown icon " + filename);
+        return image;
+    }
+
+    /**
+     * Builds a node showing an icon. Nodes can only sit in one place in the scene,
+     * so each button or menu item keeps its own views and swaps between them.
+     *
+     * @param filename file name of the icon in the resources directory
+     * @return new view of the shared image
+     */
+    public ImageView view(String filename) {
+        return new ImageView(this.get(filename));
+    }
+}
@@ -0,0 +1,195 @@
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Window for finding songs in the music library as you type.
+ * Every keystroke searches the SearchIndex and hands the ListView a view of the results, which the
+ * ListView only reads for the rows it shows, so no track is decoded from the library index until it
+ * scrolls into sight. Choosing a track plays the results as a playlist, starting from that track.
+ */
+public class LibraryBrowser {
+
+    /** CONSTANTS FOR THE WINDOW */
+    private static final int DEFAULT_PADDING = 5;
+    private static final int DEFAULT_WIDTH = 400;
+    private static final int DEFAULT_HEIGHT = 500;
+    private static final int CELL_HEIGHT = 24;
+
+    /** Builds search indexes off the JavaFX thread, each on a thread of its own */
+    private static final Executor INDEXER = r -> {
+        Thread t = new Thread(r, "library-search-indexer");
+        t.setDaemon(true);
+        t.start();
+    };
+
+    /**
+     * Results of a search, looked up in the library's tracks as the list reads them.
+     */
+    private static final class Results extends AbstractList<TrackInfo> {
+        private final List<TrackInfo> tracks;
+        private final int[] positions;
+
+        private Results(List<TrackInfo> tracks, int[] positions) {
+            this.tracks = tracks;
+            this.positions = positions;
+        }
+
+        @Override
+        public TrackInfo get(int i) {
+            return this.tracks.get(this.positions[i]);
+        }
+
+        @Override
+        public int size() {
+            return this.positions.length;
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final MusicLibrary library;
+    private final Consumer<List<File>> player;
+    private final Stage stage;
+    private final TextField query;
+    private final ListView<TrackInfo> list;
+    private final Label status;
+    private List<TrackInfo> tracks;
+    private SearchIndex index;
+    private int[] results;
+    private int indexing;
+
+    /**
+     * Constructor for the browser. Builds the window, hidden, and starts indexing the library.
+     *
+     * @param owner window the browser belongs to
+     * @param library library to search
+     * @param icons icons shared with the rest of the GUI
+     * @param player called with the playlist to play when a track is chosen
+     */
+    public LibraryBrowser(Stage owner, MusicLibrary library, IconRegistry icons, Consumer<List<File>> player) {
+        this.library = library;
+        this.player = player;
+        this.tracks = null;
+        this.index = null;
+        this.results = new int[0];
+        this.indexing = 0;
+
+        this.list = new ListView<>();
+        // rows of one height let the list work out what is visible without measuring any row
+        this.list.setFixedCellSize(CELL_HEIGHT);
+        this.list.setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2)
+                this.play(this.list.getSelectionModel().getSelectedIndex());
+        });
+        this.list.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER)
+                this.play(this.list.getSelectionModel().getSelectedIndex());
+        });
+
+        this.query = new TextField();
+        this.query.setPromptText("Search artist, album, title or file name");
+        this.query.textProperty().addListener((observable, oldText, newText) -> this.search());
+        this.query.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER)
+                this.play(Math.max(0, this.list.getSelectionModel().getSelectedIndex()));
+            else if (event.getCode() == KeyCode.DOWN)
+                this.list.requestFocus();
+        });
+
+        this.status = new Label();
+        VBox top = new VBox(DEFAULT_PADDING, this.query, this.status);
+        top.setPadding(new Insets(DEFAULT_PADDING));
+        BorderPane root = new BorderPane();
+        root.setTop(top);
+        root.setCenter(this.list);
+
+        this.stage = new Stage();
+        this.stage.initOwner(owner);
+        this.stage.setTitle("Library ~ MusicPlayer");
+        this.stage.getIcons().add(icons.get("musicnotelarge.png"));
+        this.stage.setScene(new Scene(root, DEFAULT_WIDTH, DEFAULT_HEIGHT));
+        this.refresh();
+    }
+
+    /**
+     * Shows the window, or brings it to the front, with the search box focused.
+     */
+    public void show() {
+        this.stage.show();
+        this.stage.toFront();
+        this.query.requestFocus();
+    }
+
+    /**
+     * Indexes the library's current tracks in the background, for instance after a rescan,
+     * then repeats the search over them. Must be called on the JavaFX thread.
+     */
+    public void refresh() {
+        List<TrackInfo> tracks = this.library.getTracks();
+        int indexing = ++this.indexing;
+        this.status.setText("Indexing " + tracks.size() + " songs...");
+        CompletableFuture.supplyAsync(() -> new SearchIndex(tracks), INDEXER)
+                .thenAcceptAsync(index -> {
+                    // an index of an older scan that finished late is not wanted any more
+                    if (indexing != this.indexing)
+                        return;
+                    this.tracks = tracks;
+                    this.index = index;
+                    this.search();
+                }, Platform::runLater);
+    }
+
+    /**
+     * Searches for the text in the search box and shows the results.
+     */
+    private void search() {
+        if (this.index == null)
+            return;
+        this.results = this.index.search(this.query.getText());
+        this.list.setItems(FXCollections.observableList(new Results(this.tracks, this.results)));
+        if (this.results.length > 0)
+            this.list.getSelectionModel().select(0);
+        this.status.setText(this.results.length + " of " + this.tracks.size() + " songs");
+    }
+
+    /**
+     * Plays the results as a playlist starting from one of them and wrapping around to the first.
+     *
+     * @param from position of the chosen track in the results
+     */
+    private void play(int from) {
+        int[] results = this.results;
+        List<TrackInfo> tracks = this.tracks;
+        if (from < 0 || from >= results.length)
+            return;
+        this.player.accept(new AbstractList<File>() {
+            @Override
+            public File get(int i) {
+                return tracks.get(results[(from + i) % results.length]).getFile();
+            }
+
+            @Override
+            public int size() {
+                return results.length;
+            }
+        });
+    }
+}
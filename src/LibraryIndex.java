@@ -0,0 +1,268 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The saved metadata of the music library, memory mapped so opening it costs no parsing at all.
+ * The file holds one fixed size record per track followed by a heap of UTF-8 strings the records point into,
+ * so any track can be read straight from the mapping, and a track is only decoded when it is asked for.
+ * Each save goes to a new generation of the file, named after it with the generation number appended,
+ * because a mapped file cannot be replaced or deleted on every platform.
+ */
+public final class LibraryIndex {
+
+    /** CONSTANTS FOR THE SAVED FORMAT */
+    private static final int MAGIC = 0x4D504C49;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 72;
+    private static final int STRINGS = 40;
+    private static final int PATH = 0, TITLE = 1, ARTIST = 2, ALBUM = 3;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final ByteBuffer data;
+    private final int count;
+
+    private LibraryIndex(ByteBuffer data, int count) {
+        this.data = data;
+        this.count = count;
+    }
+
+    /**
+     * @return an index without tracks
+     */
+    public static LibraryIndex empty() {
+        return new LibraryIndex(ByteBuffer.allocate(0), 0);
+    }
+
+    /**
+     * Maps a saved index.
+     *
+     * @param file saved index
+     * @return the index
+     * @throws IOException if the file cannot be read or is not a library index of this version
+     */
+    public static LibraryIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+                throw new IOException("not a library index: " + file);
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int count = data.getInt(8);
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION || count < 0
+                    || HEADER_SIZE + (long) count * RECORD_SIZE > length)
+                throw new IOException("not a library index of version " + VERSION + ": " + file);
+            return new LibraryIndex(data, count);
+        }
+    }
+
+    /**
+     * Finds the newest saved generation of an index.
+     *
+     * @param file where the index is saved
+     * @return the newest generation, or null if none has been saved
+     * @throws IOException if the directory of the index cannot be listed
+     */
+    public static Path latest(Path file) throws IOException {
+        List<Path> generations = generations(file);
+        return generations.isEmpty() ? null : generations.get(generations.size() - 1);
+    }
+
+    /**
+     * Writes an index to a temporary file and moves it to the next generation of the saved index,
+     * so a crash never leaves half an index behind and no file that may still be mapped is replaced.
+     * Older generations are then deleted, except ones a mapping still holds on platforms that refuse that;
+     * those go on a later save.
+     *
+     * @param file where to save the index
+     * @param tracks tracks to save, in the order they should be listed
+     * @return the generation written, to be opened
+     * @throws IOException if the index cannot be written
+     */
+    public static Path write(Path file, List<TrackInfo> tracks) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        List<Path> older = generations(file);
+        Path saved = generation(file, older.isEmpty() ? 1 : generationOf(file, older.get(older.size() - 1)) + 1);
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "library", ".tmp");
+        try {
+            byte[][] strings = new byte[tracks.size() * 4][];
+            for (int i = 0; i < tracks.size(); i++) {
+                TrackInfo track = tracks.get(i);
+                strings[i * 4 + PATH] = track.getPath().getBytes(StandardCharsets.UTF_8);
+                strings[i * 4 + TITLE] = track.getTitle().getBytes(StandardCharsets.UTF_8);
+                strings[i * 4 + ARTIST] = track.getArtist().getBytes(StandardCharsets.UTF_8);
+                strings[i * 4 + ALBUM] = track.getAlbum().getBytes(StandardCharsets.UTF_8);
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(tracks.size());
+                out.writeInt(0);
+                long heap = HEADER_SIZE + (long) tracks.size() * RECORD_SIZE;
+                for (int i = 0; i < tracks.size(); i++) {
+                    TrackInfo track = tracks.get(i);
+                    out.writeLong(track.getSize());
+                    out.writeLong(track.getLastModified());
+                    out.writeLong(track.getDurationMicros());
+                    out.writeInt(track.getBitrate());
+                    out.writeInt(track.getSampleRate());
+                    out.writeInt(track.getTrack());
+                    out.writeShort(track.getYear());
+                    out.writeByte(track.getChannels());
+                    out.writeByte(0);
+                    for (int s = 0; s < 4; s++) {
+                        byte[] string = strings[i * 4 + s];
+                        if (heap + string.length > Integer.MAX_VALUE)
+                            throw new IOException("library too large for one index");
+                        out.writeInt((int) heap);
+                        out.writeInt(string.length);
+                        heap += string.length;
+                    }
+                }
+                for (byte[] string : strings)
+                    out.write(string);
+            }
+            Files.move(temp, saved, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        for (Path old : older) {
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                // still mapped
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * @return number of tracks in the index
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Decodes a track.
+     *
+     * @param i position of the track in the index
+     * @return the track
+     */
+    public TrackInfo get(int i) {
+        int record = this.record(i);
+        ByteBuffer data = this.data;
+        return new TrackInfo(this.string(record, PATH), data.getLong(record), data.getLong(record + 8),
+                this.string(record, TITLE), this.string(record, ARTIST), this.string(record, ALBUM),
+                data.getShort(record + 36), data.getInt(record + 32), data.getLong(record + 16),
+                data.getInt(record + 24), data.getInt(record + 28), data.get(record + 38));
+    }
+
+    /**
+     * Gets the path of a track without decoding the rest of it.
+     *
+     * @param i position of the track in the index
+     * @return absolute path of the track's file
+     */
+    public String getPath(int i) {
+        return this.string(this.record(i), PATH);
+    }
+
+    /**
+     * @param i position of the track in the index
+     * @return size of the track's file when it was scanned
+     */
+    public long getSize(int i) {
+        return this.data.getLong(this.record(i));
+    }
+
+    /**
+     * @param i position of the track in the index
+     * @return modification time of the track's file when it was scanned
+     */
+    public long getLastModified(int i) {
+        return this.data.getLong(this.record(i) + 8);
+    }
+
+    private int record(int i) {
+        if (i < 0 || i >= this.count)
+            throw new IndexOutOfBoundsException("track " + i + " of " + this.count);
+        return HEADER_SIZE + i * RECORD_SIZE;
+    }
+
+    /**
+     * Decodes one of the strings of a record. Works on a duplicate of the mapping,
+     * so several threads can read the index at once.
+     */
+    private String string(int record, int which) {
+        int offset = this.data.getInt(record + STRINGS + which * 8);
+        int length = this.data.getInt(record + STRINGS + which * 8 + 4);
+        byte[] bytes = new byte[length];
+        ByteBuffer view = this.data.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lists the saved generations of an index, oldest first.
+     * A file saved under the index's own name, as before generations, counts as generation 0.
+     *
+     * @param file where the index is saved
+     * @return the generations found
+     */
+    private static List<Path> generations(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        List<Path> found = new ArrayList<>();
+        if (!Files.isDirectory(directory))
+            return found;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, p -> generationOf(file, p) >= 0)) {
+            for (Path p : files)
+                found.add(p);
+        }
+        found.sort((a, b) -> Long.compare(generationOf(file, a), generationOf(file, b)));
+        return found;
+    }
+
+    /**
+     * @param file where the index is saved
+     * @param generation number of the generation
+     * @return the file of that generation
+     */
+    private static Path generation(Path file, long generation) {
+        return file.toAbsolutePath().resolveSibling(file.getFileName() + "." + generation);
+    }
+
+    /**
+     * @param file where the index is saved
+     * @param p a file next to it
+     * @return the generation p holds, or -1 if it is not a generation of the index
+     */
+    private static long generationOf(Path file, Path p) {
+        String name = p.getFileName().toString();
+        String base = file.getFileName().toString();
+        if (name.equals(base))
+            return 0;
+        if (!name.startsWith(base + "."))
+            return -1;
+        try {
+            return Long.parseUnsignedLong(name.substring(base.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
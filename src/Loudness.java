@@ -0,0 +1,296 @@
+import java.util.Arrays;
+
+/**
+ * Loudness of a song as ITU-R BS.1770 and EBU R128 measure it: its integrated loudness, over the
+ * gated 400 ms blocks of the whole song, and its true peak, the highest sample level once the song
+ * is oversampled four times. ReplayGain 2.0 normalizes songs to the same measure, so getGain()
+ * gives the gain that brings a song to the ReplayGain reference level without clipping its peaks.
+ */
+public final class Loudness {
+
+    /** CONSTANTS FOR NORMALIZATION */
+    public static final double REFERENCE_LUFS = -18.0;
+    public static final double PEAK_CEILING_DBTP = -1.0;
+    /** Loudness of a song without a single block above the absolute gate */
+    public static final double SILENCE_LUFS = -70.0;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final double integratedLufs;
+    private final double truePeakDbtp;
+
+    /**
+     * Constructor for a measured loudness.
+     *
+     * @param integratedLufs integrated loudness in LUFS
+     * @param truePeakDbtp true peak in decibels of full scale
+     */
+    public Loudness(double integratedLufs, double truePeakDbtp) {
+        this.integratedLufs = integratedLufs;
+        this.truePeakDbtp = truePeakDbtp;
+    }
+
+    /**
+     * @return integrated loudness of the song in LUFS, SILENCE_LUFS if the song is silent
+     */
+    public double getIntegratedLufs() {
+        return this.integratedLufs;
+    }
+
+    /**
+     * @return true peak of the song in decibels of full scale
+     */
+    public double getTruePeakDbtp() {
+        return this.truePeakDbtp;
+    }
+
+    /**
+     * Gets the gain that brings the song to REFERENCE_LUFS, lowered if need be so that its true peak stays
+     * under PEAK_CEILING_DBTP. A silent song is left as it is.
+     *
+     * @return normalization gain in decibels
+     */
+    public float getGain() {
+        if (this.integratedLufs <= SILENCE_LUFS)
+            return 0;
+        double gain = REFERENCE_LUFS - this.integratedLufs;
+        return (float) Math.min(gain, Math.max(0, PEAK_CEILING_DBTP - this.truePeakDbtp));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f LUFS, %.2f dBTP", this.integratedLufs, this.truePeakDbtp);
+    }
+
+    /**
+     * Measures the loudness of a stream of 16-bit PCM as it goes past, holding none of it.
+     * Samples go through the K-weighting filter and their energy is summed in 100 ms steps, so each 400 ms
+     * block, overlapping the one before by three quarters, is four steps. Instead of every block,
+     * a histogram of block loudness in hundredths of a LU is kept for the gating, so a song of any length
+     * takes the same memory.
+     */
+    static final class Meter {
+
+        /** CONSTANTS FOR THE MEASUREMENT */
+        private static final int STEPS_PER_BLOCK = 4;
+        private static final double RELATIVE_GATE_LU = -10.0;
+        private static final double HISTOGRAM_MAX_LUFS = 10.0;
+        private static final double BIN_LU = 0.01;
+        private static final int BINS = (int) ((HISTOGRAM_MAX_LUFS - SILENCE_LUFS) / BIN_LU);
+        private static final int OVERSAMPLING = 4;
+        private static final int TAPS_PER_PHASE = 12;
+        private static final double[][] PHASES = interpolationPhases();
+
+        private final int channels;
+        private final boolean bigEndian;
+        private final int stepFrames;
+        // K-weighting: a high shelf then a high pass, each a biquad with its state per channel
+        private final double[] shelf;
+        private final double[] highPass;
+        private final double[] shelfState;
+        private final double[] highPassState;
+        private final double[] steps;
+        private final double[] history;
+        private final long[] binCounts;
+        private final double[] binEnergy;
+        private int historyAt;
+        private double stepEnergy;
+        private int stepFill;
+        private int stepsSeen;
+        private double peak;
+
+        /**
+         * @param sampleRate frames per second of the PCM
+         * @param channels channels of the PCM, each weighted alike as for mono and stereo songs
+         * @param bigEndian true if the PCM's samples are big-endian
+         */
+        Meter(float sampleRate, int channels, boolean bigEndian) {
+            this.channels = channels;
+            this.bigEndian = bigEndian;
+            this.stepFrames = Math.max(1, Math.round(sampleRate / 10));
+            this.shelf = shelfCoefficients(sampleRate);
+            this.highPass = highPassCoefficients(sampleRate);
+            this.shelfState = new double[channels * 2];
+            this.highPassState = new double[channels * 2];
+            this.steps = new double[STEPS_PER_BLOCK];
+            this.history = new double[channels * TAPS_PER_PHASE];
+            this.binCounts = new long[BINS];
+            this.binEnergy = new double[BINS];
+        }
+
+        /**
+         * Measures whole frames of PCM.
+         *
+         * @param pcm buffer of 16-bit samples
+         * @param length bytes of the buffer to measure, a multiple of the frame size
+         */
+        void add(byte[] pcm, int length) {
+            int channels = this.channels;
+            int frameSize = channels * 2;
+            for (int frame = 0; frame + frameSize <= length; frame += frameSize) {
+                double energy = 0;
+                for (int c = 0; c < channels; c++) {
+                    int i = frame + c * 2;
+                    int sample = this.bigEndian
+                            ? (pcm[i] << 8) | (pcm[i + 1] & 0xff)
+                            : (pcm[i + 1] << 8) | (pcm[i] & 0xff);
+                    double x = sample / 32768.0;
+                    this.truePeak(c, x);
+                    double y = biquad(this.shelf, this.shelfState, c, x);
+                    y = biquad(this.highPass, this.highPassState, c, y);
+                    energy += y * y;
+                }
+                this.historyAt = (this.historyAt + 1) % TAPS_PER_PHASE;
+                this.stepEnergy += energy;
+                if (++this.stepFill == this.stepFrames)
+                    this.closeStep();
+            }
+        }
+
+        /**
+         * @return the loudness of everything measured, leaving out a last block that is not whole
+         */
+        Loudness result() {
+            long blocks = 0;
+            double energy = 0;
+            for (int bin = 0; bin < BINS; bin++) {
+                blocks += this.binCounts[bin];
+                energy += this.binEnergy[bin];
+            }
+            double peakDbtp = this.peak > 0 ? 20 * Math.log10(this.peak) : Double.NEGATIVE_INFINITY;
+            if (blocks == 0)
+                return new Loudness(SILENCE_LUFS, peakDbtp);
+            double gate = loudness(energy / blocks) + RELATIVE_GATE_LU;
+            blocks = 0;
+            energy = 0;
+            for (int bin = Math.max(0, binOf(gate)); bin < BINS; bin++) {
+                blocks += this.binCounts[bin];
+                energy += this.binEnergy[bin];
+            }
+            return new Loudness(blocks == 0 ? SILENCE_LUFS : loudness(energy / blocks), peakDbtp);
+        }
+
+        /**
+         * Ends a 100 ms step, and with it a block made of the last four steps.
+         */
+        private void closeStep() {
+            this.steps[this.stepsSeen % STEPS_PER_BLOCK] = this.stepEnergy / this.stepFrames;
+            this.stepEnergy = 0;
+            this.stepFill = 0;
+            if (++this.stepsSeen < STEPS_PER_BLOCK)
+                return;
+            double block = 0;
+            for (double step : this.steps)
+                block += step;
+            block /= STEPS_PER_BLOCK;
+            int bin = binOf(loudness(block));
+            if (bin < 0)
+                return; // under the absolute gate
+            bin = Math.min(bin, BINS - 1);
+            this.binCounts[bin]++;
+            this.binEnergy[bin] += block;
+        }
+
+        /**
+         * Keeps the highest level of a channel's signal oversampled four times, as BS.1770 measures a true peak.
+         */
+        private void truePeak(int channel, double x) {
+            double[] history = this.history;
+            int base = channel * TAPS_PER_PHASE;
+            history[base + this.historyAt] = x;
+            for (double[] phase : PHASES) {
+                double y = 0;
+                for (int k = 0, at = this.historyAt; k < TAPS_PER_PHASE; k++) {
+                    y += phase[k] * history[base + at];
+                    at = at == 0 ? TAPS_PER_PHASE - 1 : at - 1;
+                }
+                this.peak = Math.max(this.peak, Math.abs(y));
+            }
+            this.peak = Math.max(this.peak, Math.abs(x));
+        }
+
+        /**
+         * Runs a sample through a biquad in transposed direct form II.
+         *
+         * @param k coefficients b0, b1, b2, a1, a2
+         * @param state two state values per channel
+         * @param channel channel of the sample
+         * @param x the sample
+         * @return the filtered sample
+         */
+        private static double biquad(double[] k, double[] state, int channel, double x) {
+            int s = channel * 2;
+            double y = k[0] * x + state[s];
+            state[s] = k[1] * x - k[3] * y + state[s + 1];
+            state[s + 1] = k[2] * x - k[4] * y;
+            return y;
+        }
+
+        /**
+         * @return the high shelf of the K-weighting at the given sample rate, from BS.1770's analog prototype
+         */
+        private static double[] shelfCoefficients(double rate) {
+            double f0 = 1681.974450955533;
+            double q = 0.7071752369554196;
+            double vh = Math.pow(10, 3.999843853973347 / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double k = Math.tan(Math.PI * f0 / rate);
+            double a0 = 1 + k / q + k * k;
+            return new double[] {
+                    (vh + vb * k / q + k * k) / a0,
+                    2 * (k * k - vh) / a0,
+                    (vh - vb * k / q + k * k) / a0,
+                    2 * (k * k - 1) / a0,
+                    (1 - k / q + k * k) / a0
+            };
+        }
+
+        /**
+         * @return the high pass of the K-weighting at the given sample rate, from BS.1770's analog prototype
+         */
+        private static double[] highPassCoefficients(double rate) {
+            double f0 = 38.13547087602444;
+            double q = 0.5003270373238773;
+            double k = Math.tan(Math.PI * f0 / rate);
+            double a0 = 1 + k / q + k * k;
+            return new double[] {1, -2, 1, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0};
+        }
+
+        /**
+         * @return the four phases of a 48 tap windowed-sinc filter interpolating between samples
+         */
+        private static double[][] interpolationPhases() {
+            int taps = OVERSAMPLING * TAPS_PER_PHASE;
+            double[][] phases = new double[OVERSAMPLING][TAPS_PER_PHASE];
+            double middle = (taps - 1) / 2.0;
+            for (int n = 0; n < taps; n++) {
+                double t = (n - middle) / OVERSAMPLING;
+                double sinc = t == 0 ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+                double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * (n + 0.5) / taps);
+                phases[n % OVERSAMPLING][n / OVERSAMPLING] = sinc * window;
+            }
+            // each phase passes a constant signal through unchanged
+            for (double[] phase : phases) {
+                double sum = Arrays.stream(phase).sum();
+                for (int k = 0; k < TAPS_PER_PHASE; k++)
+                    phase[k] /= sum;
+            }
+            return phases;
+        }
+
+        /**
+         * @return loudness in LUFS of a block's mean energy
+         */
+        private static double loudness(double energy) {
+            return energy > 0 ? -0.691 + 10 * Math.log10(energy) : Double.NEGATIVE_INFINITY;
+        }
+
+        /**
+         * @return histogram bin of a loudness, negative under the absolute gate
+         */
+        private static int binOf(double lufs) {
+            return lufs < SILENCE_LUFS ? -1 : (int) ((lufs - SILENCE_LUFS) / BIN_LU);
+        }
+    }
+}
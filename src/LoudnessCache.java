@@ -0,0 +1,312 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the loudness of songs in the background and keeps the results between sessions, so the model
+ * can normalize each song as it loads by looking its gain up, without decoding anything more.
+ * Songs are measured on a fork-join pool of at most half the machine's cores, whose threads run at the
+ * lowest priority so playback and the GUI always come first. Each song streams through the decoder into
+ * a Loudness.Meter a buffer at a time, so no song is ever held in memory.
+ *
+ * Results are saved together in a single file:
+ * <pre>
+ *   int    magic "MPLN"
+ *   int    container version
+ *   int    number of songs
+ *   for each song:
+ *     UTF    absolute path of the song
+ *     long   length of the song
+ *     long   modification time of the song
+ *     double integrated loudness in LUFS
+ *     double true peak in dBTP
+ * </pre>
+ */
+public class LoudnessCache {
+
+    /** CONSTANTS FOR THE CACHE */
+    private static final int MAGIC = 0x4D504C4E;
+    private static final int VERSION = 1;
+    private static final int SAVE_EVERY = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A song's measured loudness, with the length and modification time the song had when it was measured.
+     */
+    private static final class Entry {
+        private final long length;
+        private final long lastModified;
+        private final Loudness loudness;
+
+        private Entry(long length, long lastModified, Loudness loudness) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.loudness = loudness;
+        }
+
+        private boolean matches(File song) {
+            return this.length == song.length() && this.lastModified == song.lastModified();
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Path file;
+    private final SongOpener opener;
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<Loudness>> measuring;
+    private final ForkJoinPool pool;
+    private final AtomicInteger unsaved;
+    private volatile boolean opened;
+
+    /**
+     * Constructor for the cache. The saved results are read the first time they are needed.
+     *
+     * @param file file to save results in
+     * @param opener opens songs as PCM streams from their start
+     */
+    public LoudnessCache(Path file, SongOpener opener) {
+        this.file = file;
+        this.opener = opener;
+        this.entries = new ConcurrentHashMap<>();
+        this.measuring = new ConcurrentHashMap<>();
+        this.pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("loudness-" + t.getPoolIndex());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }, null, false);
+        this.unsaved = new AtomicInteger();
+        this.opened = false;
+    }
+
+    /**
+     * Looks up the loudness of a song without measuring it.
+     *
+     * @param song audio file
+     * @return the song's loudness, or null if it has not been measured since it last changed
+     */
+    public Loudness get(File song) {
+        this.open();
+        Entry entry = this.entries.get(song.getAbsolutePath());
+        return entry != null && entry.matches(song) ? entry.loudness : null;
+    }
+
+    /**
+     * Measures the loudness of a song in the background, unless it is already known or being measured.
+     *
+     * @param song audio file
+     * @return future completing with the song's loudness, or exceptionally if it cannot be decoded
+     */
+    public CompletableFuture<Loudness> analyze(File song) {
+        Loudness known = this.get(song);
+        if (known != null)
+            return CompletableFuture.completedFuture(known);
+        String path = song.getAbsolutePath();
+        CompletableFuture<Loudness> result = new CompletableFuture<>();
+        CompletableFuture<Loudness> measuring = this.measuring.putIfAbsent(path, result);
+        if (measuring != null)
+            return measuring;
+        try {
+            CompletableFuture.supplyAsync(() -> this.measure(song), this.pool).whenComplete((loudness, e) -> {
+                this.measuring.remove(path, result);
+                if (loudness != null && (this.unsaved.incrementAndGet() >= SAVE_EVERY || this.measuring.isEmpty()))
+                    this.save();
+                if (e != null)
+                    result.completeExceptionally(e);
+                else
+                    result.complete(loudness);
+            });
+        } catch (RejectedExecutionException e) {
+            this.measuring.remove(path, result);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Measures the loudness of every song not known yet, in the background. Songs are started a few at a
+     * time, as many as the pool measures at once, and each one that finishes starts the next, so a whole
+     * library never queues up at once. Songs that cannot be decoded are left out.
+     *
+     * @param songs audio files, which must not change until the returned future completes
+     * @return future completing with the number of songs measured once all of them are done
+     */
+    public CompletableFuture<Integer> analyzeAll(Collection<File> songs) {
+        Iterator<File> next = songs.iterator();
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        AtomicInteger measured = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger(1);
+        for (int i = 0; i < this.pool.getParallelism(); i++) {
+            running.incrementAndGet();
+            this.analyzeNext(next, measured, running, done);
+        }
+        if (running.decrementAndGet() == 0)
+            done.complete(measured.get());
+        return done;
+    }
+
+    /**
+     * Measures the next song of analyzeAll() not known yet, then the one after it, until none are left.
+     *
+     * @param next songs left to measure, taken from by one song at a time
+     * @param measured number of songs measured so far
+     * @param running number of songs being measured, plus one while analyzeAll() starts them
+     * @param done completed with the number measured once nothing is running
+     */
+    private void analyzeNext(Iterator<File> next, AtomicInteger measured, AtomicInteger running,
+                             CompletableFuture<Integer> done) {
+        File song = null;
+        synchronized (next) {
+            while (song == null && next.hasNext()) {
+                File candidate = next.next();
+                if (this.get(candidate) == null)
+                    song = candidate;
+            }
+        }
+        if (song == null || this.pool.isShutdown()) {
+            if (running.decrementAndGet() == 0)
+                done.complete(measured.get());
+            return;
+        }
+        this.analyze(song).whenComplete((loudness, e) -> {
+            if (loudness != null)
+                measured.incrementAndGet();
+            this.analyzeNext(next, measured, running, done);
+        });
+    }
+
+    /**
+     * Stops measuring and saves the results measured so far.
+     */
+    public void close() {
+        this.pool.shutdownNow();
+        if (this.unsaved.get() > 0)
+            this.save();
+    }
+
+    /**
+     * Decodes a song from its start and measures it. Runs on the pool.
+     *
+     * @param song audio file
+     * @return the song's loudness
+     * @throws CompletionException if the song cannot be decoded
+     */
+    private Loudness measure(File song) {
+        long length = song.length();
+        long lastModified = song.lastModified();
+        try (AudioInputStream pcm = this.opener.open(song, 0)) {
+            AudioFormat format = pcm.getFormat();
+            if (format.getSampleSizeInBits() != 16 || format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED)
+                throw new IOException("loudness is measured from 16-bit PCM, not " + format);
+            Loudness.Meter meter = new Loudness.Meter(format.getSampleRate(), format.getChannels(),
+                    format.isBigEndian());
+            int frameSize = format.getFrameSize();
+            byte[] buffer = new byte[BUFFER_SIZE - BUFFER_SIZE % frameSize];
+            int filled = 0;
+            while (!this.pool.isShutdown()) {
+                int n = PcmStreams.read(pcm, buffer, filled, buffer.length - filled);
+                if (n < 0)
+                    break;
+                filled += n;
+                int whole = filled - filled % frameSize;
+                meter.add(buffer, whole);
+                System.arraycopy(buffer, whole, buffer, 0, filled - whole);
+                filled -= whole;
+            }
+            if (this.pool.isShutdown())
+                throw new IOException("loudness analysis stopped");
+            Loudness loudness = meter.result();
+            this.entries.put(song.getAbsolutePath(), new Entry(length, lastModified, loudness));
+            return loudness;
+        } catch (IOException | UnsupportedAudioFileException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Reads the saved results, once.
+     */
+    private void open() {
+        if (this.opened)
+            return;
+        synchronized (this) {
+            if (this.opened)
+                return;
+            if (Files.isRegularFile(this.file)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+                    if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                        for (int count = in.readInt(); count > 0; count--) {
+                            String path = in.readUTF();
+                            Entry entry = new Entry(in.readLong(), in.readLong(),
+                                    new Loudness(in.readDouble(), in.readDouble()));
+                            this.entries.putIfAbsent(path, entry);
+                        }
+                    }
+                } catch (IOException e) {
+                    // whatever was read is kept, and the rest is measured again
+                }
+            }
+            this.opened = true;
+        }
+    }
+
+    /**
+     * Writes every result to a temporary file and moves it into place.
+     */
+    private synchronized void save() {
+        this.unsaved.set(0);
+        Path temp = null;
+        try {
+            Files.createDirectories(this.file.getParent());
+            temp = Files.createTempFile(this.file.getParent(), "loudness", ".tmp");
+            List<Map.Entry<String, Entry>> saved = new ArrayList<>(this.entries.entrySet());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(saved.size());
+                for (Map.Entry<String, Entry> song : saved) {
+                    Entry entry = song.getValue();
+                    out.writeUTF(song.getKey());
+                    out.writeLong(entry.length);
+                    out.writeLong(entry.lastModified);
+                    out.writeDouble(entry.loudness.getIntegratedLufs());
+                    out.writeDouble(entry.loudness.getTruePeakDbtp());
+                }
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // counted as unsaved again, so close() saves them if no later result does
+            this.unsaved.incrementAndGet();
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // the results are saved again with the next ones
+            }
+        }
+    }
+}
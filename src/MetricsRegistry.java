@@ -0,0 +1,94 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Where the player's metrics go. Implement it to hand them to whatever collects metrics where the player runs;
+ * SimpleMetricsRegistry keeps them in memory. The model asks for its instruments once, when it is built,
+ * and NONE hands out instruments that do nothing, so metrics cost nothing unless a registry is plugged in.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * A count that only goes up.
+     */
+    interface Counter {
+
+        /**
+         * @param amount amount to add
+         */
+        void add(long amount);
+    }
+
+    /**
+     * A distribution of values, such as latencies.
+     */
+    interface Histogram {
+
+        /**
+         * @param value value to record
+         */
+        void record(long value);
+    }
+
+    /** Registry whose instruments do nothing */
+    MetricsRegistry NONE = new MetricsRegistry() {
+        private final Counter counter = amount -> {
+        };
+        private final Histogram histogram = value -> {
+        };
+
+        @Override
+        public Counter counter(String name) {
+            return this.counter;
+        }
+
+        @Override
+        public Histogram histogram(String name) {
+            return this.histogram;
+        }
+
+        @Override
+        public void gauge(String name, LongSupplier value) {
+        }
+    };
+
+    /**
+     * Gets the registry asked for by the musicplayer.metrics system property:
+     * a SimpleMetricsRegistry if it is true, NONE otherwise.
+     *
+     * @return the registry
+     */
+    static MetricsRegistry fromSystemProperties() {
+        return Boolean.getBoolean("musicplayer.metrics") ? new SimpleMetricsRegistry() : NONE;
+    }
+
+    /**
+     * @param name name of the counter
+     * @return the counter of that name
+     */
+    Counter counter(String name);
+
+    /**
+     * @param name name of the histogram
+     * @return the histogram of that name
+     */
+    Histogram histogram(String name);
+
+    /**
+     * Registers a value that is read whenever the metrics are reported.
+     *
+     * @param name name of the gauge
+     * @param value reads the current value
+     */
+    void gauge(String name, LongSupplier value);
+
+    /**
+     * Describes the current value of every metric, one line each, for registries that keep their metrics.
+     *
+     * @return lines of the report, none by default
+     */
+    default List<String> report() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Told by MusicPlayerModel whenever its state changes: a song loading, starting, stopping or changing,
+ * the playlist moving on, or a setting changing.
+ * Listeners are called on the executor they were added with, and changes that happen while a listener
+ * has not been called yet are coalesced, so a slow listener only ever sees the latest state.
+ */
+@FunctionalInterface
+public interface ModelListener {
+
+    /**
+     * Called with the model's state after a change.
+     *
+     * @param state snapshot of the model's state, which never changes
+     */
+    void modelChanged(ModelState state);
+}
@@ -0,0 +1,177 @@
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * Snapshot of MusicPlayerModel's state, taken whenever a command changes it.
+ * A snapshot never changes, so any thread can read it without locks; the model hands out
+ * a new one after every change. The position and length of the current song are not part of it,
+ * since they move while the song plays; the model reads those from the playback itself.
+ */
+public final class ModelState {
+
+    /** State of a model with nothing loaded and default settings */
+    static final ModelState INITIAL = new ModelState(null, false, 0, false, false, false, null, false,
+            PlayQueue.RepeatMode.ALL, MusicPlayerModel.PlaybackMode.STREAMING, 0, 0);
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final File song;
+    private final boolean hasClip;
+    private final float frameRate;
+    private final boolean running;
+    private final boolean ended;
+    private final boolean hasPlaylist;
+    private final File nextSong;
+    private final boolean shuffle;
+    private final PlayQueue.RepeatMode repeatMode;
+    private final MusicPlayerModel.PlaybackMode playbackMode;
+    private final float gainDecibels;
+    private final double crossfadeSeconds;
+
+    /**
+     * Constructor for the snapshot.
+     *
+     * @param song song being heard, null if none
+     * @param hasClip true if a song is loaded
+     * @param frameRate frames per second of the loaded song, 0 if none
+     * @param running true if the loaded song is playing
+     * @param ended true if the loaded song has played to its end
+     * @param hasPlaylist true if there is a playlist
+     * @param nextSong song the playlist plays next, null if none
+     * @param shuffle true if the playlist is shuffled
+     * @param repeatMode what happens after each song of the playlist
+     * @param playbackMode how songs are played
+     * @param gainDecibels volume songs play at
+     * @param crossfadeSeconds how long songs overlap
+     */
+    ModelState(File song, boolean hasClip, float frameRate, boolean running, boolean ended, boolean hasPlaylist,
+               File nextSong, boolean shuffle, PlayQueue.RepeatMode repeatMode,
+               MusicPlayerModel.PlaybackMode playbackMode, float gainDecibels, double crossfadeSeconds) {
+        this.song = song;
+        this.hasClip = hasClip;
+        this.frameRate = frameRate;
+        this.running = running;
+        this.ended = ended;
+        this.hasPlaylist = hasPlaylist;
+        this.nextSong = nextSong;
+        this.shuffle = shuffle;
+        this.repeatMode = repeatMode;
+        this.playbackMode = playbackMode;
+        this.gainDecibels = gainDecibels;
+        this.crossfadeSeconds = crossfadeSeconds;
+    }
+
+    /**
+     * @return the song being heard, or null if none is loaded
+     */
+    public File getSong() {
+        return this.song;
+    }
+
+    /**
+     * @return true if a song is loaded
+     */
+    public boolean hasClip() {
+        return this.hasClip;
+    }
+
+    /**
+     * @return frames per second of the loaded song, or 0 if there is none
+     */
+    public float getFrameRate() {
+        return this.frameRate;
+    }
+
+    /**
+     * @return true if the loaded song is playing
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * @return true if the loaded song has played its last frame, as the playback signals once the decoder's
+     * end of stream has been heard
+     */
+    public boolean isEnded() {
+        return this.ended;
+    }
+
+    /**
+     * @return true if there is a playlist
+     */
+    public boolean hasPlaylist() {
+        return this.hasPlaylist;
+    }
+
+    /**
+     * @return the song the playlist plays after the current one, or null if there is none
+     */
+    public File getNextSong() {
+        return this.nextSong;
+    }
+
+    /**
+     * @return true if loading the next song would load a song
+     */
+    public boolean hasNextSong() {
+        return this.nextSong != null;
+    }
+
+    /**
+     * @return true if the playlist is shuffled
+     */
+    public boolean isShuffle() {
+        return this.shuffle;
+    }
+
+    /**
+     * @return what happens after each song of the playlist
+     */
+    public PlayQueue.RepeatMode getRepeatMode() {
+        return this.repeatMode;
+    }
+
+    /**
+     * @return how songs loaded from now on are played
+     */
+    public MusicPlayerModel.PlaybackMode getPlaybackMode() {
+        return this.playbackMode;
+    }
+
+    /**
+     * @return volume songs play at, in decibels
+     */
+    public float getGainDecibels() {
+        return this.gainDecibels;
+    }
+
+    /**
+     * @return how long songs of the playlist overlap, in seconds
+     */
+    public double getCrossfadeSeconds() {
+        return this.crossfadeSeconds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ModelState))
+            return false;
+        ModelState other = (ModelState) o;
+        return this.hasClip == other.hasClip && this.frameRate == other.frameRate && this.running == other.running
+                && this.ended == other.ended && this.hasPlaylist == other.hasPlaylist && this.shuffle == other.shuffle
+                && this.gainDecibels == other.gainDecibels && this.crossfadeSeconds == other.crossfadeSeconds
+                && Objects.equals(this.song, other.song) && Objects.equals(this.nextSong, other.nextSong)
+                && this.repeatMode == other.repeatMode && this.playbackMode == other.playbackMode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.song, this.hasClip, this.frameRate, this.running, this.ended, this.hasPlaylist,
+                this.nextSong, this.shuffle, this.repeatMode, this.playbackMode, this.gainDecibels,
+                this.crossfadeSeconds);
+    }
+}
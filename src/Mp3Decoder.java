@@ -0,0 +1,62 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Decodes MP3 songs with the bundled mp3spi and JLayer decoder. A stream opened part way into a song
+ * starts decoding at the MPEG frame holding the position, found with the song's frame index, rather
+ * than decoding the song from its start.
+ */
+public class Mp3Decoder extends AudioSystemDecoder {
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final FrameIndexCache frameIndexes;
+
+    /**
+     * Constructor for the decoder.
+     *
+     * @param frameIndexes frame indexes to seek in songs with
+     */
+    public Mp3Decoder(FrameIndexCache frameIndexes) {
+        this.frameIndexes = frameIndexes;
+    }
+
+    @Override
+    public boolean canDecode(File song) {
+        String name = song.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".mp3") || name.endsWith(".mp2") || name.endsWith(".mpga");
+    }
+
+    @Override
+    public AudioInputStream open(File song, long position) throws IOException, UnsupportedAudioFileException {
+        if (position == 0)
+            return super.open(song, 0);
+        AudioFormat format = this.getFormat(song);
+        AudioInputStream encoded;
+        long skip;
+        try {
+            // start decoding at the frame holding the position rather than at the start of the song
+            Mp3FrameIndex index = this.frameIndexes.find(song);
+            Mp3FrameIndex.SeekPoint at = index.seek(song, position);
+            encoded = AudioSystem.getAudioInputStream(index.open(song, at));
+            skip = Math.max(0, position - at.getSample()) * format.getFrameSize();
+        } catch (IOException e) {
+            encoded = openEncoded(song);
+            skip = position * format.getFrameSize();
+        }
+        AudioInputStream decoded = AudioSystem.getAudioInputStream(format, encoded);
+        PcmStreams.skip(decoded, skip, format.getFrameSize());
+        return decoded;
+    }
+
+    @Override
+    public void prepare(File song) {
+        this.frameIndexes.prepare(song);
+    }
+}
@@ -0,0 +1,711 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Closeable;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Table mapping sample positions of an MP3 file to the byte offsets of its frames,
+ * so decoding can start close to any position instead of from the start of the file.
+ *
+ * A full index is built by reading only the 4 byte header of every frame and jumping over the rest,
+ * which is far cheaper than decoding. Until a full index exists, the table of contents of a Xing or VBRI
+ * header in the first frame gives an estimate, accurate to about a hundredth of the song.
+ *
+ * Layer III frames may borrow up to 511 bytes of their data from the frames before them (the bit reservoir),
+ * and the decoder's filter banks carry state from one frame to the next, so decoding restarts a few
+ * priming frames before the wanted one and the samples of those frames are discarded.
+ */
+public class Mp3FrameIndex {
+
+    /** CONSTANTS FOR FRAME HEADERS */
+    private static final int[][] BITRATES = {
+            // MPEG 1 layers I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            // MPEG 2 and 2.5 layer I, then layers II and III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}};
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+    private static final int MAX_RESERVOIR = 511;
+    private static final int XING_FRAMES = 1, XING_BYTES = 2, XING_TOC = 4;
+
+    /** CONSTANTS FOR THE SAVED FORMAT */
+    private static final int MAGIC = 0x4D504649;
+    private static final int VERSION = 2;
+    /** Frame size written in place of sizes too large for a short, which follow as an int */
+    private static final int LARGE_FRAME = 0xFFFF;
+
+    /**
+     * Where to start decoding for a wanted position.
+     */
+    public static final class SeekPoint {
+        private final long offset;
+        private final long sample;
+
+        private SeekPoint(long offset, long sample) {
+            this.offset = offset;
+            this.sample = sample;
+        }
+
+        /**
+         * @return byte offset in the file of the frame to start decoding at
+         */
+        public long getOffset() {
+            return this.offset;
+        }
+
+        /**
+         * @return position of the first sample the decoder produces from that frame
+         */
+        public long getSample() {
+            return this.sample;
+        }
+    }
+
+    /**
+     * What the headers of a file tell about its audio, read without decoding it.
+     */
+    public static final class StreamInfo {
+        private final int sampleRate;
+        private final int channels;
+        private final int bitrate;
+        private final long samples;
+
+        private StreamInfo(int sampleRate, int channels, int bitrate, long samples) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.bitrate = bitrate;
+            this.samples = samples;
+        }
+
+        /**
+         * @return samples per second per channel
+         */
+        public int getSampleRate() {
+            return this.sampleRate;
+        }
+
+        /**
+         * @return 1 for mono, 2 otherwise
+         */
+        public int getChannels() {
+            return this.channels;
+        }
+
+        /**
+         * @return bitrate in kilobits per second, averaged over the song if it is VBR
+         */
+        public int getBitrate() {
+            return this.bitrate;
+        }
+
+        /**
+         * @return length of the song in samples per channel
+         */
+        public long getSampleCount() {
+            return this.samples;
+        }
+
+        /**
+         * @return length of the song in microseconds
+         */
+        public long getDurationMicros() {
+            return this.samples * 1_000_000L / this.sampleRate;
+        }
+    }
+
+    /**
+     * Fields of a frame header that stay the same for a whole file.
+     */
+    private static final class Header {
+        private final int version;
+        private final int layer;
+        private final int sampleRate;
+        private final int samplesPerFrame;
+        private final boolean mono;
+        private final int bitrate;
+        private final int frameSize;
+
+        private Header(int version, int layer, int sampleRate, int samplesPerFrame, boolean mono, int bitrate,
+                       int frameSize) {
+            this.version = version;
+            this.layer = layer;
+            this.sampleRate = sampleRate;
+            this.samplesPerFrame = samplesPerFrame;
+            this.mono = mono;
+            this.bitrate = bitrate;
+            this.frameSize = frameSize;
+        }
+
+        /**
+         * @return true if the other header could belong to the same stream
+         */
+        private boolean sameStream(Header other) {
+            return other != null && this.version == other.version && this.layer == other.layer
+                    && this.sampleRate == other.sampleRate;
+        }
+    }
+
+    /**
+     * Random access to a file through a read-ahead window, so walking from header to header
+     * does not cost a system call per frame.
+     */
+    private static final class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final long length;
+        private final byte[] window;
+        private long base;
+        private int valid;
+
+        private Reader(File song) throws IOException {
+            this.file = new RandomAccessFile(song, "r");
+            this.length = this.file.length();
+            this.window = new byte[64 * 1024];
+            this.base = 0;
+            this.valid = 0;
+        }
+
+        private long length() {
+            return this.length;
+        }
+
+        /**
+         * Copies bytes at an offset, refilling the window when they fall outside it.
+         *
+         * @return number of bytes copied, less than asked for only at the end of the file
+         */
+        private int read(long offset, byte[] dst, int len) throws IOException {
+            if (offset < this.base || offset + len > this.base + this.valid) {
+                this.file.seek(offset);
+                this.base = offset;
+                int n = (int) Math.min(this.window.length, this.length - offset);
+                this.valid = Math.max(0, this.file.read(this.window, 0, n));
+            }
+            int n = (int) Math.max(0, Math.min(len, this.base + this.valid - offset));
+            System.arraycopy(this.window, (int) (offset - this.base), dst, 0, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.file.close();
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final int sampleRate;
+    private final int samplesPerFrame;
+    private final int sideInfoSize;
+    private final long[] offsets;
+    private final long frameCount;
+    private final long dataStart;
+    private final long dataLength;
+    private final double[] toc;
+
+    private Mp3FrameIndex(int sampleRate, int samplesPerFrame, int sideInfoSize, long[] offsets, long frameCount,
+                          long dataStart, long dataLength, double[] toc) {
+        this.sampleRate = sampleRate;
+        this.samplesPerFrame = samplesPerFrame;
+        this.sideInfoSize = sideInfoSize;
+        this.offsets = offsets;
+        this.frameCount = frameCount;
+        this.dataStart = dataStart;
+        this.dataLength = dataLength;
+        this.toc = toc;
+    }
+
+    /**
+     * Builds the full index of a file by walking its frame headers.
+     *
+     * @param song MP3 file
+     * @return index with the offset of every frame
+     * @throws IOException if the file cannot be read or holds no MPEG audio frames
+     */
+    public static Mp3FrameIndex scan(File song) throws IOException {
+        try (Reader file = new Reader(song)) {
+            long length = file.length();
+            long start = findFirstFrame(file);
+            Header first = readHeader(file, start);
+            long[] offsets = new long[1024];
+            int count = 0;
+            long offset = start;
+            byte[] bytes = new byte[4];
+            while (offset + 4 <= length) {
+                Header header = readHeader(file, offset, bytes);
+                if (!first.sameStream(header)) {
+                    // a tag or damaged data: resynchronise on the next header that is followed by another one
+                    long next = resync(file, offset + 1, first);
+                    if (next < 0)
+                        break;
+                    offset = next;
+                    continue;
+                }
+                if (offset + header.frameSize > length)
+                    break;
+                if (count == offsets.length)
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = offset;
+                offset += header.frameSize;
+            }
+            if (count == 0)
+                throw new IOException("no MPEG audio frames in " + song);
+            return new Mp3FrameIndex(first.sampleRate, first.samplesPerFrame, sideInfoSize(first),
+                    Arrays.copyOf(offsets, count), count, start, offset - start, null);
+        }
+    }
+
+    /**
+     * Reads the Xing or VBRI header of a file, if it has one, without scanning the rest of the file.
+     *
+     * @param song MP3 file
+     * @return estimating index built from the header's table of contents, or null if the file has none
+     * @throws IOException if the file cannot be read or holds no MPEG audio frames
+     */
+    public static Mp3FrameIndex readVbrHeader(File song) throws IOException {
+        try (Reader file = new Reader(song)) {
+            long start = findFirstFrame(file);
+            Header first = readHeader(file, start);
+            byte[] frame = new byte[first.frameSize];
+            if (file.read(start, frame, frame.length) < frame.length)
+                return null;
+            ByteBuffer data = ByteBuffer.wrap(frame);
+            int xing = 4 + sideInfoSize(first);
+            if (xing + 8 <= frame.length && (tagAt(frame, xing, "Xing") || tagAt(frame, xing, "Info"))) {
+                int flags = data.getInt(xing + 4);
+                int position = xing + 8;
+                long frames = -1, bytes = -1;
+                if ((flags & XING_FRAMES) != 0) {
+                    frames = data.getInt(position) & 0xFFFFFFFFL;
+                    position += 4;
+                }
+                if ((flags & XING_BYTES) != 0) {
+                    bytes = data.getInt(position) & 0xFFFFFFFFL;
+                    position += 4;
+                }
+                if ((flags & XING_TOC) == 0 || frames <= 0 || position + 100 > frame.length)
+                    return null;
+                if (bytes <= 0)
+                    bytes = file.length() - start;
+                double[] toc = new double[101];
+                for (int i = 0; i < 100; i++)
+                    toc[i] = (frame[position + i] & 0xFF) / 256.0;
+                toc[100] = 1;
+                // the Xing frame itself decodes to silence, so it counts as a frame of the song
+                return new Mp3FrameIndex(first.sampleRate, first.samplesPerFrame, sideInfoSize(first), null,
+                        frames + 1, start, bytes, toc);
+            }
+            int vbri = 4 + 32;
+            if (vbri + 26 <= frame.length && tagAt(frame, vbri, "VBRI")) {
+                long bytes = data.getInt(vbri + 10) & 0xFFFFFFFFL;
+                long frames = data.getInt(vbri + 14) & 0xFFFFFFFFL;
+                int entries = data.getShort(vbri + 18) & 0xFFFF;
+                int scale = data.getShort(vbri + 20) & 0xFFFF;
+                int entrySize = data.getShort(vbri + 22) & 0xFFFF;
+                if (entries == 0 || frames <= 0 || entrySize < 1 || entrySize > 4
+                        || vbri + 26 + entries * entrySize > frame.length)
+                    return null;
+                // the VBRI table lists the byte length of equal slices of the song; turn it into
+                // the fraction of the bytes before each hundredth, like a Xing table
+                long[] sums = new long[entries + 1];
+                for (int i = 0; i < entries; i++) {
+                    long entry = 0;
+                    for (int b = 0; b < entrySize; b++)
+                        entry = entry << 8 | (frame[vbri + 26 + i * entrySize + b] & 0xFF);
+                    sums[i + 1] = sums[i] + entry * scale;
+                }
+                if (bytes <= 0)
+                    bytes = sums[entries];
+                double[] toc = new double[101];
+                for (int i = 0; i <= 100; i++) {
+                    double slice = i / 100.0 * entries;
+                    int whole = Math.min((int) slice, entries - 1);
+                    double at = sums[whole] + (slice - whole) * (sums[whole + 1] - sums[whole]);
+                    toc[i] = Math.min(1, at / bytes);
+                }
+                return new Mp3FrameIndex(first.sampleRate, first.samplesPerFrame, sideInfoSize(first), null,
+                        frames + 1, start, bytes, toc);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the length, bitrate and sample rate of a file from its first frame alone.
+     * VBR files carry their frame and byte counts in a Xing or VBRI header; for others
+     * the length follows from the constant bitrate and the size of the audio data.
+     *
+     * @param song MP3 file
+     * @return stream information of the file
+     * @throws IOException if the file cannot be read or holds no MPEG audio frames
+     */
+    public static StreamInfo probe(File song) throws IOException {
+        try (Reader file = new Reader(song)) {
+            long start = findFirstFrame(file);
+            Header first = readHeader(file, start);
+            int channels = first.mono ? 1 : 2;
+            byte[] frame = new byte[first.frameSize];
+            int n = file.read(start, frame, frame.length);
+            ByteBuffer data = ByteBuffer.wrap(frame);
+            long frames = -1, bytes = -1;
+            int xing = 4 + sideInfoSize(first);
+            int vbri = 4 + 32;
+            if (xing + 12 <= n && (tagAt(frame, xing, "Xing") || tagAt(frame, xing, "Info"))) {
+                int flags = data.getInt(xing + 4);
+                if ((flags & XING_FRAMES) != 0)
+                    frames = data.getInt(xing + 8) & 0xFFFFFFFFL;
+                if ((flags & XING_BYTES) != 0 && xing + 16 <= n)
+                    bytes = data.getInt(xing + ((flags & XING_FRAMES) != 0 ? 12 : 8)) & 0xFFFFFFFFL;
+            } else if (vbri + 18 <= n && tagAt(frame, vbri, "VBRI")) {
+                bytes = data.getInt(vbri + 10) & 0xFFFFFFFFL;
+                frames = data.getInt(vbri + 14) & 0xFFFFFFFFL;
+            }
+            long end = file.length();
+            byte[] tag = new byte[3];
+            if (end - 128 > start && file.read(end - 128, tag, 3) == 3 && tagAt(tag, 0, "TAG"))
+                end -= 128;
+            if (frames > 0) {
+                long samples = frames * first.samplesPerFrame;
+                if (bytes <= 0)
+                    bytes = end - start;
+                int bitrate = (int) Math.round(bytes * 8.0 * first.sampleRate / samples / 1000);
+                return new StreamInfo(first.sampleRate, channels, bitrate, samples);
+            }
+            long samples = (long) ((end - start) * 8.0 * first.sampleRate / first.bitrate);
+            return new StreamInfo(first.sampleRate, channels, first.bitrate / 1000, samples);
+        }
+    }
+
+    /**
+     * Finds where to start decoding in order to reach a sample position.
+     * A full index returns the exact frame, stepped back over the priming frames; an estimating index
+     * returns the offset from its table of contents, to be resynchronised on a frame header when opened.
+     *
+     * @param song MP3 file the index was built from
+     * @param sample wanted position in samples per channel
+     * @return where to start decoding
+     * @throws IOException if the file cannot be read
+     */
+    public SeekPoint seek(File song, long sample) throws IOException {
+        long frame = Math.max(0, Math.min(sample / this.samplesPerFrame, this.frameCount - 1));
+        if (this.offsets != null) {
+            int target = (int) frame;
+            int start = this.primingStart(target);
+            try (Reader file = new Reader(song)) {
+                // the decoder produces nothing for frames whose reservoir it has not seen, so find the first
+                // frame it will output, and make sure one full frame is decoded before the wanted one
+                int first = this.firstDecodedFrame(file, start, target);
+                while (start > 0 && (first < 0 || first >= target))
+                    first = this.firstDecodedFrame(file, --start, target);
+                return new SeekPoint(this.offsets[start], (long) Math.max(first, start) * this.samplesPerFrame);
+            }
+        }
+        double percent = 100.0 * frame / this.frameCount;
+        int lower = Math.min((int) percent, 99);
+        double fraction = this.toc[lower] + (percent - lower) * (this.toc[lower + 1] - this.toc[lower]);
+        long offset = this.dataStart + (long) (fraction * this.dataLength);
+        // step back enough bytes to cover the bit reservoir and the filter bank history
+        long back = MAX_RESERVOIR + 2L * this.dataLength / this.frameCount;
+        long sampleAt = (long) (this.frameCount * this.samplesPerFrame * (offset - back - this.dataStart)
+                / (double) this.dataLength);
+        return new SeekPoint(Math.max(this.dataStart, offset - back), Math.max(0, sampleAt));
+    }
+
+    /**
+     * Opens the file at a seek point. For an estimating index, the stream is moved forward to the next
+     * frame header, and the seek point's sample stays an estimate.
+     *
+     * @param song MP3 file the index was built from
+     * @param point where to start
+     * @return stream over the file starting at a frame header
+     * @throws IOException if the file cannot be read
+     */
+    public InputStream open(File song, SeekPoint point) throws IOException {
+        long offset = point.offset;
+        if (this.offsets == null) {
+            try (Reader file = new Reader(song)) {
+                Header first = readHeader(file, this.dataStart);
+                long found = resync(file, offset, first);
+                offset = found < 0 ? this.dataStart : found;
+            }
+        }
+        return SongInput.open(song, offset);
+    }
+
+    /**
+     * @return true if every frame offset is known, false if seeks are estimated from a table of contents
+     */
+    public boolean isExact() {
+        return this.offsets != null;
+    }
+
+    /**
+     * @return number of audio frames in the file
+     */
+    public long getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * @return number of samples per channel the file decodes to
+     */
+    public long getSampleCount() {
+        return this.frameCount * this.samplesPerFrame;
+    }
+
+    /**
+     * @return sample rate of the file
+     */
+    public int getSampleRate() {
+        return this.sampleRate;
+    }
+
+    /**
+     * Saves a full index.
+     *
+     * Layout: magic "MPFI", version, source length, source modification time, sample rate, samples per frame,
+     * side information size, frame count, offset of the first frame, then the size of every frame
+     * as an unsigned short. A frame followed by junk, such as a tag in the middle of the file, can be
+     * further from the next than a short holds; its size is written as 0xFFFF followed by an int.
+     *
+     * @param out stream to write to
+     * @param song file the index was built from
+     * @throws IOException if writing fails, or a frame is over 2GB from the next
+     */
+    public void write(DataOutputStream out, File song) throws IOException {
+        if (this.offsets == null)
+            throw new IllegalStateException("only full indexes are saved");
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(song.length());
+        out.writeLong(song.lastModified());
+        out.writeInt(this.sampleRate);
+        out.writeInt(this.samplesPerFrame);
+        out.writeInt(this.sideInfoSize);
+        out.writeInt(this.offsets.length);
+        out.writeLong(this.offsets[0]);
+        for (int i = 0; i < this.offsets.length; i++) {
+            long size = this.frameEnd(i) - this.offsets[i];
+            if (size < LARGE_FRAME) {
+                out.writeShort((int) size);
+            } else if (size <= Integer.MAX_VALUE) {
+                out.writeShort(LARGE_FRAME);
+                out.writeInt((int) size);
+            } else {
+                throw new IOException("frame " + i + " too far from the next to save");
+            }
+        }
+    }
+
+    /**
+     * Loads a saved index, provided the file has not changed since it was built.
+     *
+     * @param in stream to read from
+     * @param song file the index was built from
+     * @return the index, or null if it is stale or not an index
+     * @throws IOException if reading fails
+     */
+    public static Mp3FrameIndex read(DataInputStream in, File song) throws IOException {
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != song.length() || in.readLong() != song.lastModified())
+                return null;
+            int sampleRate = in.readInt();
+            int samplesPerFrame = in.readInt();
+            int sideInfoSize = in.readInt();
+            int count = in.readInt();
+            if (count <= 0)
+                return null;
+            long[] offsets = new long[count];
+            long offset = in.readLong();
+            for (int i = 0; i < count; i++) {
+                offsets[i] = offset;
+                int size = in.readUnsignedShort();
+                offset += size == LARGE_FRAME ? in.readInt() : size;
+            }
+            return new Mp3FrameIndex(sampleRate, samplesPerFrame, sideInfoSize, offsets, count,
+                    offsets[0], offset - offsets[0], null);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads a saved index from a file.
+     *
+     * @param path saved index
+     * @param song file the index was built from
+     * @return the index, or null if it is stale or unreadable
+     */
+    public static Mp3FrameIndex read(Path path, File song) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return read(in, song);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the earliest frame decoding has to start at for a frame to come out right: far enough back
+     * to hold the bit reservoir it may borrow from, plus one frame for the overlap of the filter banks.
+     *
+     * @param frame wanted frame
+     * @return frame to start decoding at
+     */
+    private int primingStart(int frame) {
+        int start = frame;
+        int reservoir = 0;
+        while (start > 0 && reservoir < MAX_RESERVOIR) {
+            start--;
+            reservoir += (int) (this.frameEnd(start) - this.offsets[start]) - 4 - this.sideInfoSize;
+        }
+        return Math.max(0, start - 1);
+    }
+
+    /**
+     * Works out the first frame the decoder outputs when started at a given frame. A layer III frame is only
+     * decoded once the data fed to the decoder since it started covers the frame's main_data_begin,
+     * the number of bytes its data starts before the frame; frames before that produce no samples.
+     *
+     * @param file MP3 file
+     * @param start frame decoding starts at
+     * @param last last frame to look at
+     * @return first frame producing samples, or -1 if none up to last does
+     */
+    private int firstDecodedFrame(Reader file, int start, int last) throws IOException {
+        if (this.sideInfoSize == 0)
+            return start;
+        boolean mpeg1 = this.samplesPerFrame == 1152;
+        byte[] bytes = new byte[8];
+        long available = 0;
+        for (int frame = start; frame <= last; frame++) {
+            if (file.read(this.offsets[frame], bytes, 8) < 8)
+                return -1;
+            boolean crc = (bytes[1] & 1) == 0;
+            int side = crc ? 6 : 4;
+            int mainDataBegin = mpeg1 ? (bytes[side] & 0xFF) << 1 | (bytes[side + 1] & 0xFF) >> 7 : bytes[side] & 0xFF;
+            if (available >= mainDataBegin)
+                return frame;
+            available += this.frameEnd(frame) - this.offsets[frame] - 4 - this.sideInfoSize - (crc ? 2 : 0);
+        }
+        return -1;
+    }
+
+    /**
+     * @return byte offset just past the end of a frame
+     */
+    private long frameEnd(int frame) {
+        return frame + 1 < this.offsets.length ? this.offsets[frame + 1] : this.dataStart + this.dataLength;
+    }
+
+    /**
+     * Skips an ID3v2 tag at the start of the file, then finds the first frame header followed by another.
+     *
+     * @param file MP3 file
+     * @return offset of the first frame
+     * @throws IOException if there is no frame
+     */
+    private static long findFirstFrame(Reader file) throws IOException {
+        long start = 0;
+        byte[] tag = new byte[10];
+        if (file.read(0, tag, 10) == 10 && tag[0] == 'I' && tag[1] == 'D' && tag[2] == '3') {
+            int size = (tag[6] & 0x7F) << 21 | (tag[7] & 0x7F) << 14 | (tag[8] & 0x7F) << 7 | (tag[9] & 0x7F);
+            start = 10 + size + ((tag[5] & 0x10) != 0 ? 10 : 0);
+        }
+        long found = resync(file, start, null);
+        if (found < 0)
+            throw new IOException("no MPEG audio frames found");
+        return found;
+    }
+
+    /**
+     * Looks for the next frame header that is followed by another header of the same stream.
+     *
+     * @param file MP3 file
+     * @param from offset to start looking at
+     * @param stream header the frame must match, or null for any
+     * @return offset of the frame, or -1 if there is none
+     */
+    private static long resync(Reader file, long from, Header stream) throws IOException {
+        byte[] bytes = new byte[4];
+        for (long offset = from; offset + 4 <= file.length(); offset++) {
+            Header header = readHeader(file, offset, bytes);
+            if (header == null || (stream != null && !stream.sameStream(header)))
+                continue;
+            long next = offset + header.frameSize;
+            if (next == file.length() || header.sameStream(readHeader(file, next, bytes)))
+                return offset;
+        }
+        return -1;
+    }
+
+    private static Header readHeader(Reader file, long offset) throws IOException {
+        Header header = readHeader(file, offset, new byte[4]);
+        if (header == null)
+            throw new IOException("no frame header at " + offset);
+        return header;
+    }
+
+    /**
+     * Parses the frame header at an offset.
+     *
+     * @return the header, or null if the bytes are not a valid header
+     */
+    private static Header readHeader(Reader file, long offset, byte[] bytes) throws IOException {
+        if (file.read(offset, bytes, 4) < 4)
+            return null;
+        if ((bytes[0] & 0xFF) != 0xFF || (bytes[1] & 0xE0) != 0xE0)
+            return null;
+        int version = (bytes[1] >> 3) & 3;      // 0 = MPEG 2.5, 2 = MPEG 2, 3 = MPEG 1
+        int layer = 4 - ((bytes[1] >> 1) & 3);  // 1, 2 or 3
+        int bitrateIndex = (bytes[2] >> 4) & 15;
+        int rateIndex = (bytes[2] >> 2) & 3;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3)
+            return null;
+        int padding = (bytes[2] >> 1) & 1;
+        boolean mono = ((bytes[3] >> 6) & 3) == 3;
+        int sampleRate = SAMPLE_RATES[rateIndex] >> (version == 3 ? 0 : version == 2 ? 1 : 2);
+        int bitrate = 1000 * (version == 3 ? BITRATES[layer - 1][bitrateIndex]
+                : BITRATES[layer == 1 ? 3 : 4][bitrateIndex]);
+        int samplesPerFrame;
+        int frameSize;
+        if (layer == 1) {
+            samplesPerFrame = 384;
+            frameSize = (12 * bitrate / sampleRate + padding) * 4;
+        } else {
+            samplesPerFrame = layer == 3 && version != 3 ? 576 : 1152;
+            frameSize = samplesPerFrame / 8 * bitrate / sampleRate + padding;
+        }
+        return new Header(version, layer, sampleRate, samplesPerFrame, mono, bitrate, frameSize);
+    }
+
+    /**
+     * @return size of the layer III side information following the header of a frame
+     */
+    private static int sideInfoSize(Header header) {
+        if (header.layer != 3)
+            return 0;
+        if (header.version == 3)
+            return header.mono ? 17 : 32;
+        return header.mono ? 9 : 17;
+    }
+
+    private static boolean tagAt(byte[] frame, int offset, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            if (frame[offset + i] != tag.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every MP3 file under the library's root directories, with its tags and length.
+ * The metadata is saved in a memory mapped LibraryIndex, so a library opens without touching the songs.
+ * A rescan walks the roots, one thread per root, and only reads the files whose size or modification time
+ * changed since the last scan; those are read on a pool of threads while the walk goes on, and only their
+ * ID3 tags and first frame are read, never their audio.
+ */
+public class MusicLibrary {
+
+    /** CONSTANTS FOR SCANNING */
+    private static final String SUFFIX = ".mp3";
+    private static final int SCAN_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final List<Path> roots;
+    private final Path indexFile;
+    private volatile LibraryIndex index;
+
+    /**
+     * Constructor for the library. Nothing is read until open() is called.
+     *
+     * @param roots directories holding the songs
+     * @param indexFile where the metadata is saved between sessions
+     */
+    public MusicLibrary(List<Path> roots, Path indexFile) {
+        this.roots = Collections.unmodifiableList(new ArrayList<>(roots));
+        this.indexFile = indexFile;
+        this.index = LibraryIndex.empty();
+    }
+
+    /**
+     * @return the Music directory in the user's home directory
+     */
+    public static Path defaultRoot() {
+        return Paths.get(System.getProperty("user.home"), "Music");
+    }
+
+    /**
+     * Maps the metadata saved by the last scan. A missing or unreadable index leaves the library empty
+     * until it is rescanned.
+     *
+     * @return number of tracks in the library
+     */
+    public int open() {
+        try {
+            Path saved = LibraryIndex.latest(this.indexFile);
+            if (saved != null)
+                this.index = LibraryIndex.open(saved);
+        } catch (IOException e) {
+            this.index = LibraryIndex.empty();
+        }
+        return this.index.size();
+    }
+
+    /**
+     * @return directories holding the songs
+     */
+    public List<Path> getRoots() {
+        return this.roots;
+    }
+
+    /**
+     * Gets the tracks of the library, sorted by path. Tracks are decoded from the index as they are read.
+     *
+     * @return read-only view of the tracks as of the last open or scan
+     */
+    public List<TrackInfo> getTracks() {
+        LibraryIndex index = this.index;
+        return new AbstractList<TrackInfo>() {
+            @Override
+            public TrackInfo get(int i) {
+                return index.get(i);
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+        };
+    }
+
+    /**
+     * Rescans the roots on a background thread.
+     *
+     * @return future completing with the number of tracks once the new index is saved
+     */
+    public CompletableFuture<Integer> rescanAsync() {
+        CompletableFuture<Integer> scan = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                scan.complete(this.rescan());
+            } catch (IOException | RuntimeException e) {
+                scan.completeExceptionally(e);
+            }
+        }, "library-scanner");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return scan;
+    }
+
+    /**
+     * Walks the roots, reads the files that are new or changed, drops the ones that are gone,
+     * and saves and maps the new index.
+     *
+     * @return number of tracks in the library
+     * @throws IOException if the new index cannot be saved
+     */
+    public synchronized int rescan() throws IOException {
+        LibraryIndex previous = this.index;
+        Map<String, Integer> known = new HashMap<>(previous.size() * 2);
+        for (int i = 0; i < previous.size(); i++)
+            known.put(previous.getPath(i), i);
+        Map<String, TrackInfo> found = new ConcurrentHashMap<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService readers = Executors.newFixedThreadPool(SCAN_THREADS, r -> {
+            Thread t = new Thread(r, "library-reader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorService walkers = Executors.newFixedThreadPool(Math.max(1, this.roots.size()), r -> {
+            Thread t = new Thread(r, "library-walker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<List<Future<?>>>> walks = new ArrayList<>();
+            for (Path root : this.roots)
+                walks.add(walkers.submit(() -> this.walk(root, previous, known, found, readers)));
+            for (Future<List<Future<?>>> walk : walks) {
+                for (Future<?> read : walk.get())
+                    read.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("library scan interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            walkers.shutdownNow();
+            readers.shutdownNow();
+        }
+        List<TrackInfo> tracks = new ArrayList<>(found.values());
+        tracks.sort((a, b) -> a.getPath().compareTo(b.getPath()));
+        this.index = LibraryIndex.open(LibraryIndex.write(this.indexFile, tracks));
+        return tracks.size();
+    }
+
+    /**
+     * Walks one root. Unchanged files are taken from the previous index right away;
+     * the others are handed to the reader threads.
+     *
+     * @return pending reads of new and changed files
+     */
+    private List<Future<?>> walk(Path root, LibraryIndex previous, Map<String, Integer> known,
+                                 Map<String, TrackInfo> found, ExecutorService readers) throws IOException {
+        List<Future<?>> reads = new ArrayList<>();
+        if (!Files.isDirectory(root))
+            return reads;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (!attributes.isRegularFile() || !file.getFileName().toString().toLowerCase().endsWith(SUFFIX))
+                    return FileVisitResult.CONTINUE;
+                String path = file.toAbsolutePath().toString();
+                long size = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                Integer i = known.get(path);
+                if (i != null && previous.getSize(i) == size && previous.getLastModified(i) == lastModified)
+                    found.put(path, previous.get(i));
+                else
+                    reads.add(readers.submit(() -> read(path, size, lastModified, found)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // unreadable files and directories are left out of the library
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return reads;
+    }
+
+    /**
+     * Reads the tags and stream information of one file. Files that are not MPEG audio are left out.
+     */
+    private static void read(String path, long size, long lastModified, Map<String, TrackInfo> found) {
+        File song = new File(path);
+        try {
+            TagReader tags = TagReader.read(song);
+            Mp3FrameIndex.StreamInfo stream = Mp3FrameIndex.probe(song);
+            String title = tags.getTitle();
+            if (title.isEmpty())
+                title = song.getName().substring(0, song.getName().length() - SUFFIX.length());
+            found.put(path, new TrackInfo(path, size, lastModified, title, tags.getArtist(), tags.getAlbum(),
+                    tags.getYear(), tags.getTrack(), stream.getDurationMicros(), stream.getBitrate(),
+                    stream.getSampleRate(), stream.getChannels()));
+        } catch (IOException | RuntimeException e) {
+            // not an MP3 file after all, or it went away during the scan
+        }
+    }
+}
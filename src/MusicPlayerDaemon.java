@@ -0,0 +1,564 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs the music player without a window, controlled through a Unix domain socket.
+ * Uses MusicPlayerModel directly, so the JavaFX toolkit is never loaded.
+ *
+ * Clients send one command per line and get "ok" or "error reason" back for each:
+ *   load FILE, play, stop, seek SECONDS, volume DECIBELS, next, prev, enqueue FILE, status, metrics
+ * metrics answers with a "metric NAME VALUE" line per metric before its "ok"; there are none unless
+ * the daemon runs with -Dmusicplayer.metrics=true.
+ * Whenever the player's state changes, every client is sent a line of the form
+ *   state STATE position=SECONDS length=SECONDS volume=DECIBELS song=FILE
+ * where STATE is idle, loading, playing, paused or ended. A client is sent the state once when it connects.
+ *
+ * All commands and events are handled on the thread that runs the selector, so the daemon needs
+ * no locking of its own; the model's listener and load callbacks hand their work over to it.
+ */
+public class MusicPlayerDaemon implements ModelListener {
+
+    /** CONSTANTS FOR THE SOCKET */
+    private static final Path DEFAULT_SOCKET = Paths.get(System.getProperty("user.home"), ".musicplayer",
+            "control.sock");
+    private static final Path DEFAULT_SESSION = Paths.get(System.getProperty("user.home"), ".musicplayer",
+            "daemon-playlist.bin");
+    private static final int MAX_LINE = 8192;
+    /** Output a client may fall behind by before it is disconnected */
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    /**
+     * A connected client, with the part of a command line it has sent so far and the output it
+     * has not read yet.
+     */
+    private static final class Client {
+        private final SocketChannel channel;
+        private final ByteBuffer input;
+        private ByteBuffer output;
+
+        private Client(SocketChannel channel) {
+            this.channel = channel;
+            this.input = ByteBuffer.allocate(MAX_LINE);
+            this.output = ByteBuffer.allocate(256);
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final MusicPlayerModel model;
+    private final Path socketFile;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Queue<Runnable> tasks;
+    private volatile boolean running;
+    private boolean playAfterLoad;
+    private double volume;
+    private String lastState;
+
+    /**
+     * Constructor for the daemon. Binds the socket, replacing one left behind by a daemon that did not
+     * shut down cleanly, and restores the playlist of the last session. The socket's directory is created
+     * readable by the user alone, so the socket is never reachable by others, even before its own permissions are set.
+     *
+     * @param model model to control
+     * @param socketFile path of the socket
+     * @param sessionFile where the playlist is kept between sessions, or null to keep none
+     * @throws IOException if the socket cannot be bound, or another daemon is listening on it
+     */
+    public MusicPlayerDaemon(MusicPlayerModel model, Path socketFile, Path sessionFile) throws IOException {
+        this.model = model;
+        this.socketFile = socketFile;
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.running = true;
+        this.playAfterLoad = false;
+        this.volume = 0;
+        this.lastState = null;
+        createPrivateDirectory(socketFile.toAbsolutePath().getParent());
+        deleteStaleSocket(socketFile);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.server.bind(UnixDomainSocketAddress.of(socketFile));
+        try {
+            // anyone who can reach the socket can play anything the user can read; the directory already keeps them out
+            Files.setPosixFilePermissions(socketFile, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // file system without POSIX permissions; the directory's permissions apply
+        }
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.model.addListener(this, this::post);
+        if (sessionFile != null)
+            this.model.restoreSessionPlaylist(sessionFile);
+    }
+
+    /**
+     * Creates a directory, and any missing parents, with permissions for the user alone.
+     *
+     * @param directory directory to create
+     * @throws IOException if the directory cannot be created
+     */
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        if (Files.isDirectory(directory))
+            return;
+        try {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            // file system without POSIX permissions
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Deletes the socket left behind by a daemon that did not shut down cleanly. A socket a daemon still
+     * accepts connections on is left alone, so a second daemon cannot take over the path of a running one.
+     *
+     * @param socketFile path of the socket
+     * @throws IOException if a daemon is listening on the socket, or the stale socket cannot be deleted
+     */
+    private static void deleteStaleSocket(Path socketFile) throws IOException {
+        if (!Files.exists(socketFile))
+            return;
+        SocketChannel probe;
+        try {
+            probe = SocketChannel.open(UnixDomainSocketAddress.of(socketFile));
+        } catch (ConnectException e) {
+            Files.deleteIfExists(socketFile);
+            return;
+        }
+        probe.close();
+        throw new IOException("another daemon is listening on " + socketFile);
+    }
+
+    /**
+     * Starts the daemon and serves clients until the process is told to exit.
+     * Clients can connect as soon as the socket file exists.
+     *
+     * @param args path of the socket, ~/.musicplayer/control.sock if not given, then the file the playlist
+     *             is kept in between sessions, ~/.musicplayer/daemon-playlist.bin if not given
+     * @throws IOException if the socket cannot be bound, or fails while serving
+     */
+    public static void main(String[] args) throws IOException {
+        Path socketFile = args.length > 0 ? Paths.get(args[0]) : DEFAULT_SOCKET;
+        Path sessionFile = args.length > 1 ? Paths.get(args[1]) : DEFAULT_SESSION;
+        MusicPlayerDaemon daemon = new MusicPlayerDaemon(new MusicPlayerModel(), socketFile, sessionFile);
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.shutdown();
+            try {
+                main.join(2000);
+            } catch (InterruptedException e) {
+                // exiting anyway
+            }
+        }, "daemon-shutdown"));
+        daemon.run();
+    }
+
+    /**
+     * Serves clients on the calling thread until shutdown() is called, then closes the socket and the model.
+     *
+     * @throws IOException if the socket fails, after the daemon has been closed
+     */
+    public void run() throws IOException {
+        try {
+            while (this.running) {
+                this.selector.select();
+                Runnable task;
+                while ((task = this.tasks.poll()) != null)
+                    task.run();
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        this.accept();
+                    else if (key.isReadable())
+                        this.read(key);
+                    if (key.isValid() && key.isWritable())
+                        this.flush(key);
+                }
+            }
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * Makes run() return. May be called from any thread.
+     */
+    public void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Called by the model on the selector thread whenever a song starts, stops or changes.
+     *
+     * @param state the model's state after the change
+     */
+    @Override
+    public void modelChanged(ModelState state) {
+        this.stateChanged();
+    }
+
+    /**
+     * Runs a task on the selector thread.
+     */
+    private void post(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Moves on to the next song of the playlist when a song ends, and tells the clients about the new state.
+     */
+    private void stateChanged() {
+        boolean ended = this.model.hasClip() && this.model.atEnd() && !this.model.isLoading();
+        if (ended && this.model.hasNextSong())
+            this.whenLoaded(this.model.loadNextSongAsync(), this.stopForLoad());
+        this.broadcastState();
+    }
+
+    /*******************************************************
+     *                                                      *
+     *  COMMANDS                                            *
+     *                                                      *
+     *******************************************************/
+
+    /**
+     * Carries out one command line.
+     *
+     * @param line command line without its line break
+     * @return "ok", or "error" followed by the reason the command was refused
+     */
+    private String handle(String line) {
+        line = line.trim();
+        int space = line.indexOf(' ');
+        String command = (space < 0 ? line : line.substring(0, space)).toLowerCase(Locale.ROOT);
+        String argument = space < 0 ? "" : line.substring(space + 1).trim();
+        try {
+            switch (command) {
+                case "load":
+                    return this.load(argument);
+                case "play":
+                    return this.play();
+                case "stop":
+                    this.playAfterLoad = false;
+                    this.model.stop();
+                    return "ok";
+                case "seek":
+                    return this.seek(Double.parseDouble(argument));
+                case "volume":
+                    this.volume = Math.max(this.model.getMinVolume(),
+                            Math.min(this.model.getMaxVolume(), Double.parseDouble(argument)));
+                    this.model.volumeChange(this.volume);
+                    this.broadcastState();
+                    return "ok";
+                case "next":
+                    if (!this.model.hasNextSong())
+                        return "error no next song";
+                    this.whenLoaded(this.model.loadNextSongAsync(), this.stopForLoad());
+                    return "ok";
+                case "prev":
+                    if (!this.model.hasPlaylist())
+                        return "error no playlist";
+                    this.whenLoaded(this.model.loadPrevSongAsync(), this.stopForLoad());
+                    return "ok";
+                case "enqueue":
+                    File song = new File(argument);
+                    if (!song.isFile())
+                        return "error no such file: " + argument;
+                    this.model.enqueue(song);
+                    return "ok";
+                case "status":
+                    this.lastState = null;
+                    this.broadcastState();
+                    return "ok";
+                case "metrics":
+                    StringBuilder report = new StringBuilder();
+                    for (String metric : this.model.getMetrics().report())
+                        report.append("metric ").append(metric).append('\n');
+                    return report.append("ok").toString();
+                default:
+                    return "error unknown command: " + command;
+            }
+        } catch (NumberFormatException e) {
+            return "error not a number: " + argument;
+        }
+    }
+
+    /**
+     * Loads a song in the background, stopping the current one. The song does not start until it is played.
+     */
+    private String load(String path) {
+        File song = new File(path);
+        if (!song.isFile())
+            return "error no such file: " + path;
+        this.model.stop();
+        this.whenLoaded(this.model.changeSongAsync(song), false);
+        return "ok";
+    }
+
+    /**
+     * Plays the current song, from the start if it has ended. With no current song the playlist's next
+     * song is loaded and played, and a song that is still loading plays once it has loaded.
+     */
+    private String play() {
+        if (this.model.isLoading()) {
+            this.playAfterLoad = true;
+        } else if (this.model.hasClip()) {
+            if (this.model.atEnd())
+                this.model.setSongPosition(0);
+            this.model.start();
+        } else if (this.model.hasNextSong()) {
+            this.whenLoaded(this.model.loadNextSongAsync(), true);
+        } else {
+            return "error nothing to play";
+        }
+        return "ok";
+    }
+
+    /**
+     * Moves the current song to a time.
+     */
+    private String seek(double seconds) {
+        if (!this.model.hasClip())
+            return "error no song loaded";
+        long microseconds = Math.round(seconds * 1e6);
+        this.model.setMicrosecondPosition(Math.max(0, Math.min(this.model.getMicrosecondLength(), microseconds)))
+                .thenRun(() -> this.post(this::broadcastState));
+        return "ok";
+    }
+
+    /**
+     * Stops the current song before another one is loaded.
+     *
+     * @return true if the loaded song should start playing, because a song was playing
+     * or a load that was going to play is being replaced
+     */
+    private boolean stopForLoad() {
+        boolean wasRunning = this.model.isLoading() && this.playAfterLoad;
+        if (this.model.hasClip() && this.model.isRunning()) {
+            this.model.stop();
+            wasRunning = true;
+        }
+        return wasRunning;
+    }
+
+    /**
+     * Starts a song once its load completes, if it should play, and reports loads that failed.
+     * Loads that are superseded by a newer load never complete, so only the latest song is started.
+     *
+     * @param load pending load of the song
+     * @param play true to start playing the song once it has loaded
+     */
+    private void whenLoaded(CompletableFuture<File> load, boolean play) {
+        this.playAfterLoad = play;
+        this.broadcastState();
+        load.whenComplete((song, failure) -> this.post(() -> {
+            if (failure != null && !(failure instanceof CancellationException)
+                    && !(failure.getCause() instanceof CancellationException)) {
+                this.broadcast("error failed to load audio");
+            } else if (song != null && this.model.hasClip() && this.playAfterLoad && !this.model.isLoading()) {
+                this.model.start();
+            }
+            this.broadcastState();
+        }));
+    }
+
+    /*******************************************************
+     *                                                      *
+     *  STATE EVENTS                                        *
+     *                                                      *
+     *******************************************************/
+
+    /**
+     * Sends the player's state to every client, unless it is the same as the state last sent.
+     */
+    private void broadcastState() {
+        String state = this.describeState();
+        if (!state.equals(this.lastState)) {
+            this.lastState = state;
+            this.broadcast(state);
+        }
+    }
+
+    /**
+     * @return the state line for the player as it is now
+     */
+    private String describeState() {
+        String state;
+        double position = 0;
+        double length = 0;
+        if (this.model.isLoading()) {
+            state = "loading";
+        } else if (!this.model.hasClip()) {
+            state = "idle";
+        } else {
+            boolean ended = this.model.atEnd();
+            if (ended && !this.model.hasNextSong())
+                state = "ended";
+            else
+                state = this.model.isRunning() && !ended ? "playing" : "paused";
+            position = this.model.getMicrosecondPosition() / 1e6;
+            length = this.model.getMicrosecondLength() / 1e6;
+        }
+        File song = this.model.getCurrentSong();
+        return String.format(Locale.ROOT, "state %s position=%.3f length=%.3f volume=%.1f song=%s",
+                state, position, length, this.volume, song == null ? "" : song.getPath());
+    }
+
+    /**
+     * Sends a line to every client.
+     */
+    private void broadcast(String line) {
+        for (SelectionKey key : this.selector.keys()) {
+            if (key.attachment() instanceof Client)
+                this.send(key, line);
+        }
+    }
+
+    /*******************************************************
+     *                                                      *
+     *  SOCKET HANDLING                                     *
+     *                                                      *
+     *******************************************************/
+
+    /**
+     * Accepts a waiting client and sends it the current state.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = this.server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ, new Client(channel));
+        this.send(key, this.describeState());
+    }
+
+    /**
+     * Reads what a client sent and carries out each complete command line in it.
+     */
+    private void read(SelectionKey key) {
+        Client client = (Client) key.attachment();
+        ByteBuffer input = client.input;
+        try {
+            if (client.channel.read(input) < 0) {
+                this.disconnect(key);
+                return;
+            }
+        } catch (IOException e) {
+            this.disconnect(key);
+            return;
+        }
+        input.flip();
+        int start = 0;
+        for (int i = 0; i < input.limit() && key.isValid(); i++) {
+            if (input.get(i) != '\n')
+                continue;
+            int end = i > start && input.get(i - 1) == '\r' ? i - 1 : i;
+            byte[] line = new byte[end - start];
+            input.get(start, line);
+            start = i + 1;
+            if (line.length > 0)
+                this.send(key, this.handle(new String(line, StandardCharsets.UTF_8)));
+        }
+        input.position(start);
+        input.compact();
+        if (!input.hasRemaining() && key.isValid()) {
+            this.send(key, "error line too long");
+            this.disconnect(key);
+        }
+    }
+
+    /**
+     * Queues a line for a client and writes as much of it as the socket takes now.
+     * The rest is written when the socket becomes writable again.
+     */
+    private void send(SelectionKey key, String line) {
+        if (!key.isValid())
+            return;
+        Client client = (Client) key.attachment();
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        if (client.output.remaining() < bytes.length) {
+            int needed = client.output.position() + bytes.length;
+            if (needed > MAX_PENDING_OUTPUT) {
+                // a client that stopped reading is not allowed to hold on to the player's events
+                this.disconnect(key);
+                return;
+            }
+            ByteBuffer output = ByteBuffer.allocate(Math.min(MAX_PENDING_OUTPUT,
+                    Math.max(needed, client.output.capacity() * 2)));
+            client.output.flip();
+            output.put(client.output);
+            client.output = output;
+        }
+        client.output.put(bytes);
+        this.flush(key);
+    }
+
+    /**
+     * Writes a client's queued output, and waits for the socket to become writable if it does not all fit.
+     */
+    private void flush(SelectionKey key) {
+        Client client = (Client) key.attachment();
+        try {
+            client.output.flip();
+            client.channel.write(client.output);
+            client.output.compact();
+        } catch (IOException e) {
+            this.disconnect(key);
+            return;
+        }
+        if (client.output.position() > 0)
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        else
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Disconnects the clients, removes the socket and releases the model.
+     */
+    private void close() {
+        for (SelectionKey key : this.selector.keys())
+            this.disconnect(key);
+        try {
+            this.selector.close();
+            Files.deleteIfExists(this.socketFile);
+        } catch (IOException e) {
+            // the next daemon replaces a socket left behind
+        }
+        this.model.removeListener(this);
+        this.model.close();
+    }
+}
@@ -1,6 +1,6 @@
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
@@ -8,21 +8,23 @@ import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
 import javafx.stage.FileChooser;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.stage.Popup;
 import javafx.geometry.Point2D;
-import javafx.util.Duration;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Observer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * View/Controller in the Model-View-Controller design pattern for MusicPlayer.
@@ -31,13 +33,16 @@ import java.util.Observer;
  * @author connoryork (cxy1054@rit.edu)
  * @author mbroman (broman334@tamu.edu)
  */
-public class MusicPlayerGUI extends Application implements Observer {
+public class MusicPlayerGUI extends Application implements ModelListener {
 
     /** CONSTANTS FOR GUI */
     private static final int DEFAULT_PADDING = 5;
     private static final int DEFAULT_SPACING = 10;
     private static final int DEFAULT_SLIDER_HEIGHT = 80;
-    private static final double DEFAULT_UPDATER_DURATION = 2.0;
+    private static final int MAX_POSITION_UPDATES_PER_SECOND = 30;
+    private static final int WAVEFORM_HEIGHT = 24;
+    private static final Path SESSION_PLAYLIST = Path.of(System.getProperty("user.home"), ".musicplayer",
+            "gui-playlist.bin");
 
     /** Model for easy access */
     private MusicPlayerModel model;
@@ -48,8 +53,31 @@ public class MusicPlayerGUI extends Application implements Observer {
     private Slider volumeSlider;
     /** Song Slider for easy access */
     private Slider songSlider;
+    /** Whether the song slider is being dragged */
+    private boolean scrubbing;
+    /** Waveform overview of the song, drawn behind the song slider */
+    private WaveformView waveformView;
+    /** Overview being computed for the song shown, cancelled when another song is shown */
+    private CompletableFuture<Waveform> waveformRequest;
     /** Stage for easy access */
     private Stage stage;
+    /** Song shown in the title, to notice songs changing without a gap */
+    private File shownSong;
+    /** Whether the song being loaded should start playing once it has loaded */
+    private boolean playAfterLoad;
+    /** Whether the play button currently shows the pause image */
+    private boolean showingPause;
+    /** Icons shared by the buttons and menus */
+    private IconRegistry icons;
+    /** Graphics the play button swaps between */
+    private ImageView playGraphic;
+    private ImageView pauseGraphic;
+    /** Moves the song slider with the song while it plays */
+    private AnimationTimer positionClock;
+    /** Rescan of the music library started when the application started */
+    private CompletableFuture<Integer> libraryScan;
+    /** Window for searching the music library */
+    private LibraryBrowser libraryBrowser;
 
     /**
      * Launches the GUI.
@@ -61,12 +89,24 @@ public class MusicPlayerGUI extends Application implements Observer {
     }
 
     /**
-     * Initializes the model and sets the GUI as an observer.
+     * Initializes the model and adds the GUI as a listener.
      */
     @Override
     public void init() {
         this.model = new MusicPlayerModel();
-        this.model.addObserver(this);
+        this.model.addListener(this, Platform::runLater);
+        // the saved library opens at once; the rescan picks up songs added or changed since the last session
+        this.model.getLibrary().open();
+        this.libraryScan = this.model.getLibrary().rescanAsync();
+        this.model.restoreSessionPlaylist(SESSION_PLAYLIST);
+    }
+
+    /**
+     * Releases the model's audio lines and threads when the application exits.
+     */
+    @Override
+    public void stop() {
+        this.model.close();
     }
 
     /**
@@ -78,20 +118,34 @@ public class MusicPlayerGUI extends Application implements Observer {
     @Override
     public void start(Stage primaryStage) throws Exception {
         this.stage = primaryStage;
+        this.icons = new IconRegistry();
+        this.libraryBrowser = new LibraryBrowser(primaryStage, this.model.getLibrary(), this.icons, playlist -> {
+            this.model.setPlaylist(playlist);
+            loadPlaylistSong();
+        });
+        this.libraryScan.thenRunAsync(this.libraryBrowser::refresh, Platform::runLater);
         Scene s = new Scene(buildRoot());
         primaryStage.initStyle(StageStyle.UTILITY);
-        primaryStage.getIcons().add(new Image("resources/musicnotelarge.png"));
+        primaryStage.getIcons().add(this.icons.get("musicnotelarge.png"));
         primaryStage.setTitle("No Song Selected ~ MusicPlayer");
         primaryStage.setScene(s);
         primaryStage.setResizable(false);
         primaryStage.setAlwaysOnTop(true);
 
-        /* Starts a TimeLine that automatically updates the gui every second.
-        This allows for the song slider to move with the song's position */
-        KeyFrame updater = new KeyFrame(Duration.seconds(DEFAULT_UPDATER_DURATION), event -> notifytheGUI());
-        Timeline t = new Timeline(updater);
-        t.setCycleCount(Timeline.INDEFINITE);
-        t.play();
+        /* The model announces when songs start, stop and change. In between, this timer moves the
+        song slider with the song's position, at most MAX_POSITION_UPDATES_PER_SECOND times a second,
+        and only runs while a song plays */
+        this.positionClock = new AnimationTimer() {
+            private long lastUpdate;
+
+            @Override
+            public void handle(long now) {
+                if (now - this.lastUpdate < 1_000_000_000L / MAX_POSITION_UPDATES_PER_SECOND)
+                    return;
+                this.lastUpdate = now;
+                showPosition();
+            }
+        };
 
         primaryStage.show();
 
@@ -117,7 +171,7 @@ public class MusicPlayerGUI extends Application implements Observer {
         bp.setCenter(buildCenter());
         bp.setRight(buildVolumeSlider());
         bp.setTop(buildMenuBar());
-        bp.setBottom(buildSongSlider());
+        bp.setBottom(buildSongBar());
         return bp;
     }
 
@@ -161,26 +215,29 @@ public class MusicPlayerGUI extends Application implements Observer {
      */
     private Button buildPlayPause() {
         Button play = new Button();
-        setImage(play, "play.png");
+        this.playGraphic = this.icons.view("play.png");
+        this.pauseGraphic = this.icons.view("pause.png");
+        play.setGraphic(this.playGraphic);
         play.setOnAction(e -> {
             if (this.model.hasClip()) {
                 if (this.model.atEnd()) { // song ended but play button was pressed
                     this.model.setSongPosition(0);
                     this.songSlider.setValue(0);
-                    setImage(play, "pause.png");
+                    showPlaying(true);
                     this.model.start();
                 } else if (!this.model.isRunning()) { // paused
-                    setImage(play, "pause.png");
+                    showPlaying(true);
                     this.model.start();
                 } else { // song was playing
-                    setImage(play, "play.png");
+                    showPlaying(false);
                     this.model.stop();
                 }
             } else {
-                setImage(play, "play.png");
+                showPlaying(false);
             }
         });
         this.play = play;
+        this.showingPause = false;
         return play;
     }
 
@@ -206,8 +263,7 @@ public class MusicPlayerGUI extends Application implements Observer {
      * @param filename filename of image
      */
     private void setImage(ButtonBase b, String filename) {
-        Image image = new Image(getClass().getResourceAsStream("resources/" + filename));
-        b.setGraphic(new ImageView(image));
+        b.setGraphic(this.icons.view(filename));
     }
 
     /**
@@ -216,7 +272,12 @@ public class MusicPlayerGUI extends Application implements Observer {
      * @return Slider which controls volume
      */
     private Slider buildVolumeSlider() {
-        Slider slider = new Slider(0, 0, 0);
+        int MIN_VOLUME = (int) this.model.getMinVolume();
+        int MAX_VOLUME = (int) this.model.getMaxVolume();
+        int half = (MAX_VOLUME + MIN_VOLUME)/2;
+        // songs are normalized by the model as they load, so the volume carries over from song to song
+        Slider slider = new Slider(half, MAX_VOLUME, (MAX_VOLUME + half)/2);
+        this.model.volumeChange(slider.getValue());
         slider.setOrientation(Orientation.VERTICAL);
         slider.setPadding(new Insets(DEFAULT_PADDING,DEFAULT_PADDING,0,DEFAULT_PADDING));
         slider.setMaxHeight(DEFAULT_SLIDER_HEIGHT);
@@ -236,44 +297,106 @@ public class MusicPlayerGUI extends Application implements Observer {
         MenuBar menuBar = new MenuBar();
         Menu menuChoose = new Menu("Choose...");
         // create the song chooser
-        MenuItem songItem = new MenuItem("Song", new ImageView(new Image("resources/musicnote.png")));
+        MenuItem songItem = new MenuItem("Song", this.icons.view("musicnote.png"));
         songItem.setOnAction(event -> {
             FileChooser songChooser = new FileChooser();
             songChooser.setTitle("Choose mp3 file");
-            songChooser.setInitialDirectory(new File(System.getProperty("user.home") + "\\Music"));
+            songChooser.setInitialDirectory(this.libraryDirectory());
             songChooser.getExtensionFilters().addAll(
                     new FileChooser.ExtensionFilter("MP3 Files", "*.mp3"),
+                    new FileChooser.ExtensionFilter("WAV and AIFF Files", "*.wav", "*.aif", "*.aiff", "*.aifc"),
                     new FileChooser.ExtensionFilter("All Files", "*.*")
             );
             File newSong = songChooser.showOpenDialog(this.stage);
             if (newSong != null) {
-                loadSong(newSong);
                 this.model.setPlaylist(null);
+                loadSong(newSong);
             }
 
         });
         // create the playlist chooser
-        MenuItem playlistItem = new MenuItem("Playlist", new ImageView(new Image("resources/musicnotes.png")));
+        MenuItem playlistItem = new MenuItem("Playlist", this.icons.view("musicnotes.png"));
         playlistItem.setOnAction(event -> {
             FileChooser playlistChooser = new FileChooser();
             playlistChooser.setTitle("Choose mp3 files");
-            playlistChooser.setInitialDirectory(new File(System.getProperty("user.home") + "\\Music"));
+            playlistChooser.setInitialDirectory(this.libraryDirectory());
             playlistChooser.getExtensionFilters().addAll(
                     new FileChooser.ExtensionFilter("MP3 Files", "*.mp3"),
+                    new FileChooser.ExtensionFilter("WAV and AIFF Files", "*.wav", "*.aif", "*.aiff", "*.aifc"),
+                    new FileChooser.ExtensionFilter("M3U Playlists", "*.m3u", "*.m3u8"),
                     new FileChooser.ExtensionFilter("All Files", "*.*")
             );
             List<File> newPlaylist = playlistChooser.showOpenMultipleDialog(this.stage);
-            if (newPlaylist != null) {
+            if (newPlaylist != null && newPlaylist.size() == 1 && isM3u(newPlaylist.get(0))) {
+                try {
+                    this.model.importPlaylist(newPlaylist.get(0));
+                    loadPlaylistSong();
+                } catch (IOException e) {
+                    this.model.getMetrics().playlistFailed(e);
+                }
+            } else if (newPlaylist != null) {
                 this.model.setPlaylist(newPlaylist);
                 loadPlaylistSong();
             }
 
         });
-        menuChoose.getItems().addAll(songItem, playlistItem);
-        menuBar.getMenus().addAll(menuChoose);
+        // search the music library
+        MenuItem libraryItem = new MenuItem("Library", this.icons.view("musicnotes.png"));
+        libraryItem.setOnAction(event -> this.libraryBrowser.show());
+        menuChoose.getItems().addAll(songItem, playlistItem, libraryItem);
+        // shuffle and repeat the playlist
+        Menu menuPlay = new Menu("Play");
+        CheckMenuItem shuffleItem = new CheckMenuItem("Shuffle");
+        shuffleItem.setOnAction(event -> this.model.setShuffle(shuffleItem.isSelected()));
+        menuPlay.setOnShowing(event -> shuffleItem.setSelected(this.model.isShuffle()));
+        ToggleGroup repeatGroup = new ToggleGroup();
+        menuPlay.getItems().add(shuffleItem);
+        menuPlay.getItems().add(new SeparatorMenuItem());
+        for (PlayQueue.RepeatMode mode : PlayQueue.RepeatMode.values()) {
+            RadioMenuItem repeatItem = new RadioMenuItem("Repeat " + mode.name().toLowerCase());
+            repeatItem.setToggleGroup(repeatGroup);
+            repeatItem.setSelected(mode == this.model.getRepeatMode());
+            repeatItem.setOnAction(event -> this.model.setRepeatMode(mode));
+            menuPlay.getItems().add(repeatItem);
+        }
+        menuBar.getMenus().addAll(menuChoose, menuPlay);
         return menuBar;
     }
 
+    /**
+     * @return true if the file is an M3U or M3U8 playlist
+     */
+    private static boolean isM3u(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".m3u") || name.endsWith(".m3u8");
+    }
+
+    /**
+     * Gets the directory the file choosers open in: the first library root that exists,
+     * or the chooser's own default if there is none.
+     *
+     * @return directory to start choosing songs in, or null
+     */
+    private File libraryDirectory() {
+        for (Path root : this.model.getLibrary().getRoots()) {
+            if (Files.isDirectory(root))
+                return root.toFile();
+        }
+        return null;
+    }
+
+    /**
+     * Builds the song slider over the waveform overview of the song.
+     *
+     * @return StackPane holding the overview and the slider
+     */
+    private StackPane buildSongBar() {
+        Slider songSlider = buildSongSlider();
+        this.waveformView = new WaveformView(WAVEFORM_HEIGHT);
+        this.waveformView.widthProperty().bind(songSlider.widthProperty());
+        return new StackPane(this.waveformView, songSlider);
+    }
+
     /**
      * Builds the song slider, which changes song position based on mouse movement
      * of the slider. Also shows time positions in the song by moving the cursor over
@@ -285,19 +408,29 @@ public class MusicPlayerGUI extends Application implements Observer {
         Slider songSlider = new Slider(0, 0, 0);
         songSlider.setShowTickMarks(true);
         songSlider.setShowTickLabels(false);
-        songSlider.setMajorTickUnit(60 * 44231.5636364);
+        // the slider counts seconds, so a major tick is a minute whatever the song's sample rate
+        songSlider.setMajorTickUnit(60);
 
         Label label = new Label();
         Popup popup = new Popup();
         popup.getContent().add(label);
-        songSlider.setOnMouseClicked(event -> this.model.setSongPosition(((int) songSlider.getValue())));
+        // dragging plays grains of the song under the thumb, and the song only moves once it is let go
+        songSlider.setOnMousePressed(event -> {
+            this.scrubbing = true;
+            this.model.beginScrub();
+        });
+        songSlider.setOnMouseDragged(event -> this.model.scrubTo(toMicroseconds(songSlider.getValue())));
+        songSlider.setOnMouseReleased(event -> {
+            this.scrubbing = false;
+            this.model.endScrub(toMicroseconds(songSlider.getValue()));
+        });
         songSlider.setOnMouseMoved(e -> {
             NumberAxis axis = (NumberAxis) songSlider.lookup(".axis");
             Point2D location = axis.sceneToLocal(e.getSceneX(), e.getSceneY());
             double mouseX = location.getX();
             double value = axis.getValueForDisplay(mouseX).doubleValue();
             if (value >= songSlider.getMin() && value <= songSlider.getMax()) {
-                label.setText(String.format("%d:%02d",(int)(value/44231.5636364)/60,(int)(value/44231.5636364)%60));
+                label.setText(String.format("%d:%02d", (long) value / 60, (long) value % 60));
             } else {
                 label.setText("");
             }
@@ -321,119 +454,157 @@ public class MusicPlayerGUI extends Application implements Observer {
      *******************************************************/
 
     /**
-     * Loads a new song. Updates the song slider and volume slider accordingly.
+     * Loads a new song in the background. Updates the song slider once it has loaded.
      *
      * @param songfile song File to load
      */
     public void loadSong(File songfile) {
         if (this.model.hasClip() && this.model.isRunning())
             this.model.stop();
-        this.model.changeSong(songfile);
-        this.stage.setTitle(songfile.getName() + " ~ MusicPlayer");
-        int MIN_VOLUME = (int) this.model.getMinVolume();
-        int MAX_VOLUME = (int) this.model.getMaxVolume();
-        // update volume slider
-        int half = (MAX_VOLUME + MIN_VOLUME)/2;
-        this.volumeSlider.setMax(MAX_VOLUME);
-        this.volumeSlider.setMin(half);
-        this.volumeSlider.setValue((MAX_VOLUME + half)/2);
-        // update song slider
-        this.songSlider.setMax(this.model.getClipLength());
-        this.songSlider.setMin(0);
-        this.songSlider.setValue(0);
+        this.whenLoaded(this.model.changeSongAsync(songfile), false);
     }
 
     /**
-     * Loads the next song from the playlist. Updates the song slider and volume slider accordingly.
+     * Loads the next song from the playlist in the background.
+     * Updates the song slider once it has loaded.
      */
     public void loadPlaylistSong() {
-        boolean wasRunning = false;
-        if (this.model.hasClip() && this.model.isRunning()) {
-            this.model.stop();
-            wasRunning = true;
-        }
-        File song = this.model.loadNextSong();
-        this.stage.setTitle(song.getName() + " ~ MusicPlayer");
-        int MIN_VOLUME = (int) this.model.getMinVolume();
-        int MAX_VOLUME = (int) this.model.getMaxVolume();
-        // update volume slider
-        int half = (MAX_VOLUME + MIN_VOLUME)/2;
-        this.volumeSlider.setMax(MAX_VOLUME);
-        this.volumeSlider.setMin(half);
-        this.volumeSlider.setValue((MAX_VOLUME + half)/2);
-        // update song slider
-        this.songSlider.setMax(this.model.getClipLength());
-        this.songSlider.setMin(0);
-        this.songSlider.setValue(0);
-        // update play/pause button
-        if (wasRunning) {
-            setImage(this.play, "pause.png");
-            this.model.start();
-        }
+        this.whenLoaded(this.model.loadNextSongAsync(), this.stopForLoad());
     }
 
     /**
-     * Loads the previous song from the playlist. Updates the song slider and volume slider accordingly.
+     * Loads the previous song from the playlist in the background.
+     * Updates the song slider once it has loaded.
      */
     public void loadPrevPlaylistSong() {
-        boolean wasRunning = false;
+        this.whenLoaded(this.model.loadPrevSongAsync(), this.stopForLoad());
+    }
+
+    /**
+     * Stops the current song before another one is loaded.
+     *
+     * @return true if the loaded song should start playing, because a song was playing
+     * or a load that was going to play is being replaced
+     */
+    private boolean stopForLoad() {
+        boolean wasRunning = this.model.isLoading() && this.playAfterLoad;
         if (this.model.hasClip() && this.model.isRunning()) {
             this.model.stop();
             wasRunning = true;
         }
-        File song = this.model.loadPrevSong();
-        this.stage.setTitle(song.getName() + " ~ MusicPlayer");
-        int MIN_VOLUME = (int) this.model.getMinVolume();
-        int MAX_VOLUME = (int) this.model.getMaxVolume();
-        // update volume slider
-        int half = (MAX_VOLUME + MIN_VOLUME)/2;
-        this.volumeSlider.setMax(MAX_VOLUME);
-        this.volumeSlider.setMin(half);
-        this.volumeSlider.setValue((MAX_VOLUME + half)/2);
-        // update song slider
-        this.songSlider.setMax(this.model.getClipLength());
-        this.songSlider.setMin(0);
-        this.songSlider.setValue(0);
-        // update play/pause button
-        if (wasRunning) {
-            setImage(this.play, "pause.png");
-            this.model.start();
+        return wasRunning;
+    }
+
+    /**
+     * Updates the GUI for a song once its load completes.
+     * Loads that are superseded by a newer load never complete, so only the latest song is shown.
+     *
+     * @param load pending load of the song
+     * @param play true to start playing the song once it has loaded
+     */
+    private void whenLoaded(CompletableFuture<File> load, boolean play) {
+        this.playAfterLoad = play;
+        load.thenAccept(song -> Platform.runLater(() -> {
+            if (song == null || !this.model.hasClip())
+                return;
+            this.stage.setTitle(song.getName() + " ~ MusicPlayer");
+            // update song slider
+            this.songSlider.setMax(toSeconds(this.model.getMicrosecondLength()));
+            this.songSlider.setMin(0);
+            this.songSlider.setValue(0);
+            // update play/pause button
+            if (this.playAfterLoad && !this.model.isLoading()) {
+                showPlaying(true);
+                this.model.start();
+            }
+        }));
+    }
+
+    /**
+     * Shows the play or pause image on the play button, unless it already shows it.
+     *
+     * @param playing true to show the pause image, false to show the play image
+     */
+    private void showPlaying(boolean playing) {
+        if (this.showingPause != playing) {
+            this.showingPause = playing;
+            this.play.setGraphic(playing ? this.pauseGraphic : this.playGraphic);
         }
     }
 
     /**
-     * Notifies the GUI to update.
+     * Shows the waveform overview of a song behind the song slider, drawing it as it is computed.
+     * The overview of the song shown before stops being computed.
      *
-     * Used by the TimeLine to update the song sliders position.
+     * @param song song to show the overview of
+     */
+    private void showWaveform(File song) {
+        if (this.waveformRequest != null)
+            this.waveformRequest.cancel(false);
+        this.waveformView.show(null);
+        this.waveformRequest = this.model.getWaveforms().request(song, waveform -> Platform.runLater(() -> {
+            // an overview of an earlier song may still arrive after it was cancelled
+            if (song.equals(this.shownSong))
+                this.waveformView.show(waveform);
+        }));
+    }
+
+    /**
+     * Moves the song slider to the song's position, unless it is already there or being dragged.
      */
-    public void notifytheGUI() {
-        this.model.announceChanges();
+    private void showPosition() {
+        if (!this.model.hasClip() || this.songSlider.isValueChanging() || this.scrubbing)
+            return;
+        double position = toSeconds(this.model.getMicrosecondPosition());
+        if (position != this.songSlider.getValue())
+            this.songSlider.setValue(position);
     }
 
 
     /**
-     * Updates GUI based on changes in the model
+     * @param microseconds time from the model
+     * @return the time in seconds, the unit of the song slider
+     */
+    private static double toSeconds(long microseconds) {
+        return microseconds / 1e6;
+    }
+
+    /**
+     * @param seconds time on the song slider
+     * @return the time in microseconds, the unit of the model
+     */
+    private static long toMicroseconds(double seconds) {
+        return Math.round(seconds * 1e6);
+    }
+
+    /**
+     * Updates GUI based on changes in the model. Called on the JavaFX thread.
      *
-     * @param o not used
-     * @param arg not used
+     * @param state the model's state after the changes
      */
     @Override
-    public void update(java.util.Observable o, Object arg) {
+    public void modelChanged(ModelState state) {
+        long started = System.nanoTime();
+        File song = state.getSong();
+        if (song != null && !song.equals(this.shownSong)) {
+            this.shownSong = song;
+            this.stage.setTitle(song.getName() + " ~ MusicPlayer");
+            if (state.hasClip())
+                this.songSlider.setMax(toSeconds(this.model.getMicrosecondLength()));
+            showWaveform(song);
+        }
+        boolean ended = state.hasClip() && state.isEnded() && !this.model.isLoading();
+        boolean hasNext = state.hasNextSong();
+        if (ended && hasNext)
+            this.loadPlaylistSong();
         // make sure play button is in sync
-        if (this.model.isRunning())
-            setImage(this.play, "pause.png");
+        boolean playing = this.model.isRunning() && !(ended && !hasNext);
+        showPlaying(playing);
+        showPosition();
+        if (playing && !ended)
+            this.positionClock.start();
         else
-            setImage(this.play, "play.png");
-        if (this.model.hasClip()) {
-            if (this.model.atEnd()) {
-                if (this.model.hasPlaylist())
-                    this.loadPlaylistSong();
-                else
-                    setImage(this.play, "play.png");
-            }
-            // update slider based on current song position
-            this.songSlider.setValue(this.model.getClipCurrentValue());
-        }
-
+            this.positionClock.stop();
+        this.model.getMetrics().uiUpdated(System.nanoTime() - started);
     }
 }
@@ -1,28 +1,132 @@
 import javax.sound.sampled.*;
-import java.io.File;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Observable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 /**
  * Model file of the Model-View-Controller design pattern.
  * Contains the variables and methods regarding the mp3 file.
  * Used by MusicPlayerGUI.java
  *
+ * The model has a single writer: every change is a command run in turn on its CommandLoop, so the
+ * current playback, the playlist and the settings are only ever touched by the loop's thread.
+ * Methods that change the model queue a command and return a future completing once it has run,
+ * and may be called from any thread, in any number. After each command the model publishes an
+ * immutable ModelState, which the methods reading the model return from without taking a lock,
+ * and which is handed to the listeners added with addListener().
+ *
  * @author connoryork (cxy1054@rit.edu)
  * @author mbroman (broman334@tamu.edu)
  */
-public class MusicPlayerModel extends Observable {
+public class MusicPlayerModel {
+
+    /**
+     * Ways the model can play a song.
+     * CLIP decodes the whole song into memory before playing it, STREAMING decodes it while it plays.
+     */
+    public enum PlaybackMode { CLIP, STREAMING }
+
+    /** Threads songs are loaded on by changeSongAsync */
+    private static final int LOADER_THREADS = 2;
+    /** Bytes of decoded PCM kept off-heap for recently played songs (about 25 minutes of CD audio) */
+    private static final long DEFAULT_DECODED_CACHE_BUDGET = 256L * 1024 * 1024;
+    /** Bytes of decoded PCM kept on disk between sessions (about 3 hours of CD audio) */
+    private static final long DEFAULT_DISK_CACHE_BUDGET = 2L * 1024 * 1024 * 1024;
+    /** Songs coming up in the playlist whose loudness is measured ahead of them */
+    private static final int LOUDNESS_WINDOW = 8;
+
+    /**
+     * A song picked by a load, with the number of the load request.
+     */
+    private static final class LoadRequest {
+        private final File song;
+        private final int number;
+
+        private LoadRequest(File song, int number) {
+            this.song = song;
+            this.number = number;
+        }
+    }
+
+    /**
+     * A listener with the latest state it has not been given yet. Only one delivery is queued on the
+     * listener's executor at a time; states published before it runs replace each other.
+     */
+    private static final class Subscription implements Runnable {
+        private final ModelListener listener;
+        private final Executor executor;
+        private final AtomicReference<ModelState> pending;
+
+        private Subscription(ModelListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+            this.pending = new AtomicReference<>();
+        }
+
+        private void offer(ModelState state) {
+            if (this.pending.getAndSet(state) != null)
+                return; // a delivery is already queued and will pick this state up
+            try {
+                this.executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                this.pending.set(null);
+            }
+        }
+
+        @Override
+        public void run() {
+            ModelState state = this.pending.getAndSet(null);
+            if (state != null)
+                this.listener.modelChanged(state);
+        }
+    }
 
     /**
      * PRIVATE DATA MEMBERS
+     * Only commands, on the loop's thread, change playback, playbackMode, decodeFormat, playlist, currentSong,
+     * crossfadeSeconds and gainDecibels; other threads read them from the published state.
      */
-    private Clip clip;
-    private AudioInputStream audioStream;
-    private AudioInputStream decodedStream;
-    private AudioFormat baseFormat;
-    private AudioFormat decodeFormat;
-    private List<File> playlist;
-    private int playlistPosition;
+    private final CommandLoop commands;
+    private volatile ModelState state;
+    private final List<Subscription> subscriptions;
+    private volatile Playback playback;
+    private PlaybackMode playbackMode;
+    private volatile AudioFormat decodeFormat;
+    private PlayQueue playlist;
+    private File currentSong;
+    private final SongPreloader preloader;
+    private final DecodedAudioCache decodedCache;
+    private final DiskPcmCache diskCache;
+    private final OutputLinePool linePool;
+    private final Scrubber scrubber;
+    private boolean resumeAfterScrub;
+    private final FrameIndexCache frameIndexes;
+    private final List<SongDecoder> decoders;
+    private final WaveformCache waveforms;
+    private final LoudnessCache loudness;
+    private volatile boolean normalizing;
+    private final ParallelDecoder parallelDecoder;
+    private volatile boolean parallelDecoding;
+    private volatile Resampler.Quality resamplerQuality;
+    private volatile float outputSampleRate;
+    private final MusicLibrary library;
+    private double crossfadeSeconds;
+    private float gainDecibels;
+    private final List<AudioProcessor> effects;
+    private final ExecutorService loader;
+    private final AtomicInteger loadRequests;
+    private final AtomicReference<CompletableFuture<File>> pendingLoad;
+    private final PlaybackMetrics metrics;
+    private volatile Path sessionPlaylist;
 
     /********************************************************
     *                                                       *
@@ -32,60 +136,851 @@ public class MusicPlayerModel extends Observable {
 
     /**
      * Constructor for the model. Essentially sets up the model with everything set to null.
+     * Metrics are kept if the musicplayer.metrics system property is true.
      */
     public MusicPlayerModel() {
-        this.clip = null;
-        this.audioStream = null;
-        this.decodedStream = null;
-        this.baseFormat = null;
+        this(MetricsRegistry.fromSystemProperties());
+    }
+
+    /**
+     * Constructor for the model, recording the metrics of the audio path into the given registry.
+     *
+     * @param registry registry for the metrics, MetricsRegistry.NONE to keep none
+     */
+    public MusicPlayerModel(MetricsRegistry registry) {
+        this.metrics = new PlaybackMetrics(registry);
+        this.commands = new CommandLoop("model-commands", this.metrics::commandFailed);
+        this.state = ModelState.INITIAL;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+        this.playback = null;
+        this.playbackMode = PlaybackMode.STREAMING;
         this.decodeFormat = null;
         this.playlist = null;
+        this.currentSong = null;
+        this.preloader = new SongPreloader(this::openPlayable, (song, position) -> this.openPlayableWhole(song, () -> false));
+        this.decodedCache = new DecodedAudioCache(DEFAULT_DECODED_CACHE_BUDGET);
+        this.linePool = new OutputLinePool();
+        this.frameIndexes = new FrameIndexCache(Paths.get(System.getProperty("user.home"), ".musicplayer", "index"));
+        this.decoders = new CopyOnWriteArrayList<>(Arrays.asList(
+                new PcmFileDecoder(), new Mp3Decoder(this.frameIndexes), new AudioSystemDecoder()));
+        this.waveforms = new WaveformCache(Paths.get(System.getProperty("user.home"), ".musicplayer", "peaks"),
+                SongInput.background(this::openForAnalysis));
+        this.loudness = new LoudnessCache(Paths.get(System.getProperty("user.home"), ".musicplayer", "loudness.bin"),
+                SongInput.background(this::openForAnalysis));
+        this.normalizing = true;
+        this.parallelDecoder = new ParallelDecoder(Runtime.getRuntime().availableProcessors());
+        this.parallelDecoding = Runtime.getRuntime().availableProcessors() > 1;
+        this.resamplerQuality = resamplerQualityProperty();
+        this.outputSampleRate = Integer.getInteger("musicplayer.outputRate", 0);
+        this.diskCache = new DiskPcmCache(Paths.get(System.getProperty("user.home"), ".musicplayer", "pcm"),
+                DEFAULT_DISK_CACHE_BUDGET);
+        this.library = new MusicLibrary(Collections.singletonList(MusicLibrary.defaultRoot()),
+                Paths.get(System.getProperty("user.home"), ".musicplayer", "library.idx"));
+        this.crossfadeSeconds = 0;
+        this.gainDecibels = 0;
+        this.effects = new CopyOnWriteArrayList<>();
+        this.loader = Executors.newFixedThreadPool(LOADER_THREADS, r -> {
+            Thread t = new Thread(r, "song-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        this.loadRequests = new AtomicInteger();
+        this.pendingLoad = new AtomicReference<>();
+        this.metrics.gauge("pcm.resident_bytes", this::getResidentPcmBytes);
+        this.scrubber = new Scrubber(this::openScrubbed, this.linePool, this.metrics);
+        this.resumeAfterScrub = false;
     }
 
     /**
      * Changes the song loaded onto the clip.
+     * In STREAMING mode only the start of the song is decoded before this returns.
+     * If the song was preloaded in the background, the preloaded streams are used.
+     * Blocks the calling thread while the song loads; see changeSongAsync(File) for the non-blocking version.
      *
      * @param mp3 file to change to currents song
      */
     public void changeSong(File mp3) {
         try {
-            this.audioStream = AudioSystem.getAudioInputStream(mp3);
-            this.baseFormat = audioStream.getFormat();
-            this.decodeFormat = new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED,
-                    baseFormat.getSampleRate(),
-                    16,
-                    baseFormat.getChannels(),
-                    baseFormat.getChannels() * 2,
-                    baseFormat.getSampleRate(),
-                    false
-            );
-            this.decodedStream = AudioSystem.getAudioInputStream(decodeFormat, audioStream);
-            this.clip = AudioSystem.getClip();
-            this.clip.open(decodedStream);
-            this.clip.setFramePosition(0);
+            // numbered on the loop, so the load sees every command queued before it
+            this.load(mp3, this.commands.submit(this.loadRequests::incrementAndGet).join());
+        } catch (RuntimeException e) {
+            // failure was already reported, and a superseded load has nothing to report
+        }
+    }
+
+    /**
+     * Changes the song loaded onto the clip without blocking the calling thread.
+     * The song is opened and decoded on a background loader thread. Starting another load
+     * supersedes this one: a superseded load stops decoding as soon as it notices and its
+     * future completes with a CancellationException, leaving the current song untouched.
+     *
+     * @param mp3 file to change to currents song
+     * @return future completing with mp3 once it is the current song
+     */
+    public CompletableFuture<File> changeSongAsync(File mp3) {
+        return this.loadAsync(() -> mp3);
+    }
+
+    /**
+     * Returns whether or not a song is being loaded in the background.
+     *
+     * @return true if an asynchronous load has not completed yet, false otherwise
+     */
+    public boolean isLoading() {
+        CompletableFuture<File> load = this.pendingLoad.get();
+        return load != null && !load.isDone();
+    }
+
+    /**
+     * Loads a song on a loader thread. The song is picked by a command, so it can come from the playlist,
+     * and the load supersedes the loads before it only if a song was picked.
+     *
+     * @param pick picks the song to load on the loop's thread, returning null for none
+     * @return future completing with the song once it is the current song, or with null if none was picked
+     */
+    private CompletableFuture<File> loadAsync(Callable<File> pick) {
+        CompletableFuture<LoadRequest> picked = this.call(() -> {
+            File song = pick.call();
+            return song == null ? null : new LoadRequest(song, this.loadRequests.incrementAndGet());
+        });
+        CompletableFuture<File> load = picked.thenApplyAsync(
+                request -> request == null ? null : this.load(request.song, request.number), this.loader);
+        picked.thenAccept(request -> {
+            if (request == null)
+                return;
+            CompletableFuture<File> previous = this.pendingLoad.getAndSet(load);
+            if (previous != null)
+                previous.cancel(false);
+        });
+        return load;
+    }
+
+    /**
+     * Opens a song and makes it the current song, unless a newer load request arrives first.
+     * The song is opened and decoded on the calling thread; only making it the current song is a command.
+     *
+     * @param mp3 file to load
+     * @param request number of the load request, compared against loadRequests to detect newer requests
+     * @return mp3 once it is the current song
+     * @throws CancellationException if a newer request superseded this one
+     * @throws CompletionException if the song could not be loaded
+     */
+    private File load(File mp3, int request) {
+        if (this.isSuperseded(request))
+            throw new CancellationException();
+        long started = System.nanoTime();
+        PlaybackEvents.TrackLoad event = new PlaybackEvents.TrackLoad();
+        event.begin();
+        ModelState settings = this.state;
+        PlaybackMode mode = settings.getPlaybackMode();
+        SongPreloader.PreloadedSong preloaded = this.preloader.take(mp3);
+        AudioInputStream decodedStream = null;
+        Playback playback = null;
+        try {
+            long frameLength;
+            if (preloaded != null) {
+                decodedStream = preloaded.getDecodedStream();
+                frameLength = preloaded.getFrameLength();
+            } else if (mode == PlaybackMode.CLIP) {
+                decodedStream = this.openPlayableWhole(mp3, () -> this.isSuperseded(request));
+                frameLength = estimateFrameLength(mp3, decodedStream, decodedStream.getFormat());
+            } else {
+                decodedStream = this.openPlayable(mp3, 0);
+                frameLength = estimateFrameLength(mp3, decodedStream, decodedStream.getFormat());
+            }
+            AudioFormat decodeFormat = decodedStream.getFormat();
+            float rate = decodeFormat.getSampleRate();
+            if (mode == PlaybackMode.CLIP) {
+                // decoding a whole clip takes a while, so give up part way if a newer request arrives
+                AudioInputStream cancellable = new AudioInputStream(
+                        new CancellableInputStream(decodedStream, () -> this.isSuperseded(request)),
+                        decodeFormat, decodedStream.getFrameLength());
+                playback = new ClipPlayback(cancellable, this.linePool, settings.getGainDecibels(),
+                        this.trackGain(mp3));
+                // the whole song is on the line now, so its first sample is as ready as it gets
+                this.metrics.firstSample(System.nanoTime() - started);
+                event.decodedBytes = playback.getFrameLength() * decodeFormat.getFrameSize();
+            } else {
+                StreamingPlayback streaming = new StreamingPlayback(mp3, decodedStream, frameLength, this.linePool,
+                        (song, position) -> this.openPlayable(song, position, rate), this.metrics, started);
+                streaming.setGain(settings.getGainDecibels());
+                streaming.setTrackGain(this.trackGain(mp3));
+                streaming.getDspChain().setEffects(this.effects);
+                streaming.setCrossfadeFrames((int) (settings.getCrossfadeSeconds() * decodeFormat.getFrameRate()));
+                streaming.setTransitionListener(new StreamingPlayback.TransitionListener() {
+                    @Override
+                    public void songChanged(File song) {
+                        post(() -> gaplessSongChanged(song));
+                    }
+
+                    @Override
+                    public void nextDiscarded(File song) {
+                        post(MusicPlayerModel.this::preloadNextSong);
+                    }
+                });
+                playback = streaming;
+            }
+            Playback loaded = playback;
+            if (!this.call(() -> this.install(mp3, request, loaded, decodeFormat)).join())
+                throw new CancellationException();
+            this.decoderFor(mp3).prepare(mp3);
+            this.metrics.loaded(System.nanoTime() - started);
+            if (event.shouldCommit()) {
+                event.song = mp3.getPath();
+                event.mode = mode.name();
+                event.preloaded = preloaded != null;
+                event.fileBytes = mp3.length();
+                event.format = decodeFormat.toString();
+                event.commit();
+            }
+        } catch (CancellationException e) {
+            discard(playback, decodedStream);
+            throw e;
         } catch (Exception e) {
-            System.out.println("Failed to load audio.");
-        } finally {
-            announceChanges();
+            discard(playback, decodedStream);
+            if (this.isSuperseded(request) || this.commands.isClosed())
+                throw new CancellationException();
+            this.metrics.loadFailed(e);
+            if (event.shouldCommit()) {
+                event.song = mp3.getPath();
+                event.mode = mode.name();
+                event.preloaded = preloaded != null;
+                event.fileBytes = mp3.length();
+                event.failure = e.toString();
+                event.commit();
+            }
+            this.post(() -> {
+                if (!this.isSuperseded(request))
+                    this.closePlayback();
+            });
+            throw new CompletionException(e);
+        }
+        return mp3;
+    }
+
+    /**
+     * Makes a loaded song the current song, closing the current playback. Runs as a command.
+     *
+     * @param mp3 the loaded song
+     * @param request number of the load request
+     * @param playback playback of the song
+     * @param decodeFormat format the song was decoded to
+     * @return true if the song is now the current one, false if a newer request superseded the load
+     */
+    private boolean install(File mp3, int request, Playback playback, AudioFormat decodeFormat) {
+        if (this.isSuperseded(request))
+            return false;
+        this.closePlayback();
+        this.decodeFormat = decodeFormat;
+        this.playback = playback;
+        this.currentSong = mp3;
+        playback.setLineListener(this::playbackChanged);
+        this.preloadNextSong();
+        return true;
+    }
+
+    /**
+     * Checks whether a newer load request has been made.
+     *
+     * @param request number of the load request to check
+     * @return true if request is no longer the latest, false otherwise
+     */
+    private boolean isSuperseded(int request) {
+        return request != this.loadRequests.get();
+    }
+
+    /**
+     * Releases what a load that did not complete had opened.
+     *
+     * @param playback playback built by the load, may be null
+     * @param decodedStream stream opened by the load, may be null
+     */
+    private static void discard(Playback playback, AudioInputStream decodedStream) {
+        if (playback != null)
+            playback.close();
+        if (decodedStream != null) {
+            try {
+                decodedStream.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+
+    /**
+     * Input stream that fails its reads once the load it belongs to is cancelled.
+     */
+    private static class CancellableInputStream extends FilterInputStream {
+        private final BooleanSupplier cancelled;
+
+        private CancellableInputStream(InputStream in, BooleanSupplier cancelled) {
+            super(in);
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.cancelled.getAsBoolean())
+                throw new InterruptedIOException("load superseded");
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.cancelled.getAsBoolean())
+                throw new InterruptedIOException("load superseded");
+            return super.read(b, off, len);
+        }
+    }
+
+    /**
+     * Opens a song as a decoded PCM stream positioned at the given frame, with the first decoder that can decode it.
+     * Songs in the decoded cache are read straight from it, and songs in the disk cache are memory-mapped.
+     * Otherwise the song is decoded, and when it is opened from its start everything decoded is also
+     * written to both caches. Songs mapped from the disk cache are not copied into the decoded cache,
+     * since the operating system's page cache already keeps them in memory. Songs that are PCM already
+     * are never cached, since their decoder reads them as they are.
+     *
+     * @param song file to open
+     * @param position frame the stream should start at
+     * @return decoded stream of the song starting at position
+     */
+    private AudioInputStream openDecoded(File song, long position) throws IOException, UnsupportedAudioFileException {
+        SongDecoder decoder = this.decoderFor(song);
+        if (!decoder.isCacheable())
+            return decoder.open(song, position);
+        AudioFormat format = decoder.getFormat(song);
+        AudioInputStream cached = this.decodedCache.open(song, format);
+        if (cached == null)
+            cached = this.diskCache.open(song, format);
+        if (cached != null) {
+            cached.skip(position * format.getFrameSize());
+            return cached;
+        }
+        if (position == 0)
+            return this.decodedCache.caching(song, this.diskCache.caching(song, decoder.open(song, 0)));
+        return decoder.open(song, position);
+    }
+
+    /**
+     * Finds the decoder for a song: the first of the model's decoders that can decode it.
+     *
+     * @param song audio file
+     * @return decoder of the song, AudioSystemDecoder if no other can decode it
+     */
+    private SongDecoder decoderFor(File song) {
+        for (SongDecoder decoder : this.decoders) {
+            if (decoder.canDecode(song))
+                return decoder;
+        }
+        return this.decoders.get(this.decoders.size() - 1);
+    }
+
+    /**
+     * Adds a decoder for a kind of audio file, asked before the decoders added earlier and the built-in ones.
+     *
+     * @param decoder decoder to add
+     */
+    public void addDecoder(SongDecoder decoder) {
+        this.decoders.add(0, decoder);
+    }
+
+    /**
+     * Opens a song to be read whole, as CLIP mode does. Unless the song is cached, an MP3 song is decoded in parallel
+     * segments when parallel decoding is on. The result goes into the decoded cache like a serial decode would,
+     * and is written to the disk cache straight from its buffer.
+     * Other songs, and songs the parallel decoder cannot handle, are opened for a serial decode instead.
+     *
+     * @param song file to open
+     * @param cancelled polled during a parallel decode; returning true abandons it
+     * @return PCM stream of the song positioned at its start
+     */
+    private AudioInputStream openDecodedWhole(File song, BooleanSupplier cancelled)
+            throws IOException, UnsupportedAudioFileException {
+        SongDecoder decoder = this.decoderFor(song);
+        if (!this.parallelDecoding || !(decoder instanceof Mp3Decoder))
+            return this.openDecoded(song, 0);
+        AudioFormat format = decoder.getFormat(song);
+        AudioInputStream cached = this.decodedCache.open(song, format);
+        if (cached == null)
+            cached = this.diskCache.open(song, format);
+        if (cached != null)
+            return cached;
+        byte[] pcm;
+        try {
+            pcm = this.parallelDecoder.decodePcm(song, this.frameIndexes.get(song), format, cancelled);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            return this.openDecoded(song, 0);
+        }
+        this.diskCache.store(song, format, pcm);
+        AudioInputStream decoded = new AudioInputStream(new ByteArrayInputStream(pcm), format,
+                pcm.length / format.getFrameSize());
+        return this.decodedCache.caching(song, decoded);
+    }
+
+    /**
+     * Opens a song as a PCM stream at the rate the output plays it at: the rate set by setOutputSampleRate(float),
+     * or else the one the output line pool finds the device takes for the song's format.
+     *
+     * @param song file to open
+     * @param position frame the stream should start at, at the output rate
+     * @return PCM stream of the song at the output rate, starting at position
+     */
+    private AudioInputStream openPlayable(File song, long position) throws IOException, UnsupportedAudioFileException {
+        return this.openPlayable(song, position, this.outputRate(this.decoderFor(song).getFormat(song)));
+    }
+
+    /**
+     * Opens a song as a PCM stream at a sample rate, resampling it if it decodes to another.
+     * Seeks in a playback use the rate it was loaded at, so they match it whatever the settings are now.
+     *
+     * @param song file to open
+     * @param position frame the stream should start at, at the given rate
+     * @param rate sample rate of the stream
+     * @return PCM stream of the song at the rate, starting at position
+     */
+    private AudioInputStream openPlayable(File song, long position, float rate)
+            throws IOException, UnsupportedAudioFileException {
+        AudioFormat format = this.decoderFor(song).getFormat(song);
+        if (rate == format.getSampleRate() || !Resampler.canResample(format))
+            return this.openDecoded(song, position);
+        return ResamplingInputStream.open(this::openDecoded, song, position, format, (int) rate, this.resamplerQuality);
+    }
+
+    /**
+     * Opens a song to be read whole, as openDecodedWhole(File, BooleanSupplier) does, at the rate the output plays it at.
+     *
+     * @param song file to open
+     * @param cancelled polled during a parallel decode; returning true abandons it
+     * @return PCM stream of the song at the output rate, positioned at its start
+     */
+    private AudioInputStream openPlayableWhole(File song, BooleanSupplier cancelled)
+            throws IOException, UnsupportedAudioFileException {
+        AudioInputStream decoded = this.openDecodedWhole(song, cancelled);
+        float rate = this.outputRate(decoded.getFormat());
+        if (rate == decoded.getFormat().getSampleRate())
+            return decoded;
+        return ResamplingInputStream.resample(decoded, (int) rate, this.resamplerQuality);
+    }
+
+    /**
+     * Opens a song for the scrubber, at the rate of the playback being scrubbed.
+     *
+     * @param song file to open
+     * @param position frame the stream should start at
+     * @return PCM stream of the song at the playback's rate, starting at position
+     */
+    private AudioInputStream openScrubbed(File song, long position) throws IOException, UnsupportedAudioFileException {
+        Playback playback = this.playback;
+        if (playback == null)
+            return this.openPlayable(song, position);
+        return this.openPlayable(song, position, playback.getFormat().getSampleRate());
+    }
+
+    /**
+     * Finds the sample rate to play a format at.
+     *
+     * @param format format a song decodes to
+     * @return the rate set by setOutputSampleRate(float), or else the one the output device takes,
+     *         or the format's own if it cannot be resampled
+     */
+    private float outputRate(AudioFormat format) {
+        if (!Resampler.canResample(format))
+            return format.getSampleRate();
+        float rate = this.outputSampleRate;
+        return rate > 0 ? rate : this.linePool.getOutputRate(format);
+    }
+
+    /**
+     * Reads the resampler quality from the musicplayer.resampler system property: FAST, STANDARD or BEST.
+     *
+     * @return quality named by the property, STANDARD if it names none
+     */
+    private static Resampler.Quality resamplerQualityProperty() {
+        String name = System.getProperty("musicplayer.resampler", "");
+        for (Resampler.Quality quality : Resampler.Quality.values()) {
+            if (quality.name().equalsIgnoreCase(name))
+                return quality;
+        }
+        return Resampler.Quality.STANDARD;
+    }
+
+    /**
+     * Opens a song from its start for its waveform overview or its loudness. Cached songs are read from the caches,
+     * but a song decoded for an analysis is not written to them, since it is read once and may never be played.
+     *
+     * @param song file to open
+     * @param position ignored; songs are always analyzed from the start
+     * @return PCM stream of the song positioned at its start
+     */
+    private AudioInputStream openForAnalysis(File song, long position)
+            throws IOException, UnsupportedAudioFileException {
+        SongDecoder decoder = this.decoderFor(song);
+        if (!decoder.isCacheable())
+            return decoder.open(song, 0);
+        AudioFormat format = decoder.getFormat(song);
+        AudioInputStream cached = this.decodedCache.open(song, format);
+        if (cached == null)
+            cached = this.diskCache.open(song, format);
+        if (cached != null)
+            return cached;
+        return decoder.open(song, 0);
+    }
+
+    /**
+     * Gets the waveform overviews of songs, computed in the background and kept between sessions.
+     *
+     * @return the waveform overview cache
+     */
+    public WaveformCache getWaveforms() {
+        return this.waveforms;
+    }
+
+    /**
+     * Gets the normalization gain of a song, from its loudness if it has been measured. A song not measured
+     * yet plays as it is this time, and is measured in the background for the next time it loads.
+     *
+     * @param song song being loaded
+     * @return normalization gain of the song in decibels
+     */
+    private float trackGain(File song) {
+        if (!this.normalizing)
+            return 0;
+        Loudness measured = this.loudness.get(song);
+        if (measured != null)
+            return measured.getGain();
+        this.loudness.analyze(song);
+        return 0;
+    }
+
+    /**
+     * Measures the loudness of the next few songs of a playlist in the background, so they are normalized
+     * when they load. Only a window ahead of the current song is measured, however long the playlist is,
+     * and the window moves along as songs change. Called by commands.
+     *
+     * @param playlist playlist to measure
+     */
+    private void analyzeLoudness(PlayQueue playlist) {
+        if (!this.normalizing)
+            return;
+        this.loudness.analyzeAll(playlist.upcoming(LOUDNESS_WINDOW));
+    }
+
+    /**
+     * Measures the loudness of every song in the music library in the background, for songs to be
+     * normalized as they load. Only runs when asked for; playlists are measured a few songs ahead as they play.
+     *
+     * @return future completing with the number of songs measured
+     */
+    public CompletableFuture<Integer> analyzeLibraryLoudness() {
+        List<File> songs = new ArrayList<>();
+        for (TrackInfo track : this.library.getTracks())
+            songs.add(track.getFile());
+        return this.loudness.analyzeAll(songs);
+    }
+
+    /**
+     * Turns loudness normalization on or off. It is on by default, and applies to songs loaded from now on.
+     *
+     * @param normalize true to bring songs to the same loudness as they load
+     */
+    public void setNormalization(boolean normalize) {
+        this.normalizing = normalize;
+    }
+
+    /**
+     * Gets the measured loudness of songs, kept between sessions.
+     *
+     * @return the loudness cache
+     */
+    public LoudnessCache getLoudness() {
+        return this.loudness;
+    }
+
+    /**
+     * Turns parallel decoding of whole songs on or off. It is on by default on machines with more than one core.
+     *
+     * @param parallel true to decode whole songs in parallel segments
+     */
+    public void setParallelDecoding(boolean parallel) {
+        this.parallelDecoding = parallel;
+    }
+
+    /**
+     * Sets the quality of the resampler converting songs to the output's sample rate, for the songs loaded after.
+     * It is STANDARD by default, or what the musicplayer.resampler system property names.
+     *
+     * @param quality resampler quality
+     */
+    public void setResamplerQuality(Resampler.Quality quality) {
+        this.resamplerQuality = quality;
+    }
+
+    /**
+     * Sets the sample rate songs are played at, for the songs loaded after. Songs decoding to another rate are
+     * resampled. By default, or if the rate is 0, songs play at their own rate unless the output device cannot
+     * take it; the musicplayer.outputRate system property sets the rate at startup.
+     *
+     * @param rate rate in hertz, 0 to follow the output device
+     */
+    public void setOutputSampleRate(float rate) {
+        this.outputSampleRate = Math.max(0, rate);
+    }
+
+    /**
+     * Gets the cache of decoded songs, for its hit, miss and eviction counters.
+     *
+     * @return the decoded song cache
+     */
+    public DecodedAudioCache getDecodedCache() {
+        return this.decodedCache;
+    }
+
+    /**
+     * Gets the on-disk cache of decoded songs, for its hit, miss and eviction counters.
+     *
+     * @return the disk cache
+     */
+    public DiskPcmCache getDiskCache() {
+        return this.diskCache;
+    }
+
+    /**
+     * Sets how many bytes of decoded PCM are kept on disk between sessions.
+     *
+     * @param bytes byte budget of the disk cache, 0 to disable it
+     */
+    public void setDiskCacheBudget(long bytes) {
+        this.diskCache.setBudget(bytes);
+    }
+
+    /**
+     * Sets how many bytes of decoded PCM are kept off-heap for recently played songs.
+     *
+     * @param bytes byte budget of the decoded song cache, 0 to disable it
+     */
+    public void setDecodedCacheBudget(long bytes) {
+        this.decodedCache.setBudget(bytes);
+    }
+
+    /**
+     * Closes the current playback, if any, without triggering any transitions.
+     */
+    private void closePlayback() {
+        this.scrubber.end();
+        this.resumeAfterScrub = false;
+        if (this.playback != null) {
+            if (this.playback instanceof StreamingPlayback)
+                ((StreamingPlayback) this.playback).setTransitionListener(null);
+            this.playback.setLineListener(null);
+            this.playback.close();
+            this.playback = null;
+        }
+    }
+
+    /**
+     * Builds the format songs are decoded to: 16 bit signed little-endian PCM
+     * at the sample rate and channel count of the source.
+     *
+     * @param baseFormat format of the encoded source
+     * @return PCM format to decode the source to
+     */
+    static AudioFormat pcmFormat(AudioFormat baseFormat) {
+        return new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED,
+                baseFormat.getSampleRate(),
+                16,
+                baseFormat.getChannels(),
+                baseFormat.getChannels() * 2,
+                baseFormat.getSampleRate(),
+                false
+        );
+    }
+
+    /**
+     * Estimates the length in frames of the decoded song without decoding it.
+     * Uses the length of the decoded stream when known, otherwise the duration reported by the file reader.
+     *
+     * @param song file the stream was opened from
+     * @param decodedStream PCM stream of the song
+     * @param decodeFormat format of decodedStream
+     * @return estimated length of the song in frames, Long.MAX_VALUE if it cannot be estimated
+     */
+    static long estimateFrameLength(File song, AudioInputStream decodedStream, AudioFormat decodeFormat)
+            throws IOException, UnsupportedAudioFileException {
+        if (decodedStream.getFrameLength() != AudioSystem.NOT_SPECIFIED)
+            return decodedStream.getFrameLength();
+        Object duration = AudioSystem.getAudioFileFormat(song).properties().get("duration");
+        if (duration instanceof Long)
+            return (long) ((Long) duration * (double) decodeFormat.getFrameRate() / 1000000);
+        return Long.MAX_VALUE;
+    }
+
+    /*******************************************************
+    *                                                      *
+    *  PRELOADING AND GAPLESS PLAYBACK                     *
+    *                                                      *
+    *******************************************************/
+
+    /**
+     * Starts preloading the song at the current playlist position in the background.
+     * Called by commands whenever a song becomes the current one.
+     * In CLIP mode the whole song is decoded; in STREAMING mode only its start is, and the song
+     * is queued onto the current playback as soon as it is ready so the two join without a gap.
+     */
+    private void preloadNextSong() {
+        PlayQueue playlist = this.playlist;
+        if (playlist != null)
+            this.analyzeLoudness(playlist);
+        File next = playlist == null ? null : playlist.peekNext();
+        if (next == null)
+            return;
+        this.preloader.preload(next, this.playbackMode == PlaybackMode.CLIP, this::nextSongReady);
+    }
+
+    /**
+     * Called on the preloader thread once the next song is ready. Queues it onto a streaming playback.
+     *
+     * @param song the preloaded song
+     */
+    private void nextSongReady(File song) {
+        this.post(() -> {
+            Playback current = this.playback;
+            if (current instanceof StreamingPlayback) {
+                StreamingPlayback streaming = (StreamingPlayback) current;
+                this.preloader.handOff(song, preloaded -> streaming.queueNext(preloaded.getSong(),
+                        preloaded.getDecodedStream(), preloaded.getFrameLength(), this.trackGain(preloaded.getSong())));
+            }
+        });
+    }
+
+    /**
+     * Run as a command once a queued song has started playing on the audio thread.
+     * Moves the playlist along as loadNextSong() would have, and preloads the song after it.
+     *
+     * @param song the song now playing
+     */
+    private void gaplessSongChanged(File song) {
+        PlayQueue playlist = this.playlist;
+        if (playlist != null && song.equals(playlist.peekNext()))
+            playlist.next();
+        this.currentSong = song;
+        this.preloadNextSong();
+    }
+
+    /**
+     * Cancels the background preload and removes any song queued onto the current playback. Called by commands.
+     */
+    private void cancelNextSong() {
+        this.preloader.cancel();
+        if (this.playback instanceof StreamingPlayback)
+            ((StreamingPlayback) this.playback).cancelNext();
+    }
+
+    /**
+     * Sets how long songs in a playlist overlap when one follows another in STREAMING mode.
+     *
+     * @param seconds length of the crossfade, 0 for a gapless join without overlap
+     * @return future completing once the crossfade is set
+     */
+    public CompletableFuture<Void> setCrossfade(double seconds) {
+        return this.command(() -> {
+            this.crossfadeSeconds = Math.max(0, seconds);
+            if (this.playback instanceof StreamingPlayback)
+                ((StreamingPlayback) this.playback).setCrossfadeFrames((int) (this.crossfadeSeconds * this.decodeFormat.getFrameRate()));
+        });
+    }
+
+    /**
+     * Releases everything the model holds: the current playback and its output line, the song
+     * being preloaded, the loader threads and the pooled lines, and saves the playlist for the next session
+     * if restoreSessionPlaylist(Path) asked for that.
+     * The model cannot be used afterwards.
+     */
+    public void close() {
+        this.loader.shutdownNow();
+        try {
+            await(this.call(() -> {
+                this.cancelNextSong();
+                this.closePlayback();
+                this.currentSong = null;
+                Path session = this.sessionPlaylist;
+                if (session != null && this.playlist != null)
+                    this.playlist.save(session);
+                return null;
+            }));
+        } catch (IOException e) {
+            // the next session simply starts without a playlist
+        }
+        this.commands.close();
+        this.scrubber.close();
+        this.linePool.close();
+        this.frameIndexes.close();
+        this.waveforms.close();
+        this.loudness.close();
+        this.parallelDecoder.close();
+    }
+
+    /**
+     * Restores the playlist the last session ended with, if it had one, and saves the playlist there when
+     * the model closes. Each program that keeps sessions has its own file, so one does not replace another's.
+     * A session that ends without a playlist leaves the file as it was.
+     *
+     * @param file where the session's playlist is kept
+     * @return true if a playlist was restored
+     */
+    public boolean restoreSessionPlaylist(Path file) {
+        this.sessionPlaylist = file;
+        try {
+            if (!Files.isRegularFile(file))
+                return false;
+            this.restorePlaylist(file);
+            return true;
+        } catch (IOException e) {
+            return false;
         }
     }
 
+    /**
+     * Gets the music library, which lists the songs under the user's Music directory.
+     * It is empty until it is opened or scanned.
+     *
+     * @return the library
+     */
+    public MusicLibrary getLibrary() {
+        return this.library;
+    }
+
+    /**
+     * Gets the song currently being heard.
+     *
+     * @return file of the current song, or null if none is loaded
+     */
+    public File getCurrentSong() {
+        return this.state.getSong();
+    }
+
     /**
      * Loads the next song in the playlist, if possible.
      *
      * @return File (.mp3) that was changed to the current song
      */
     public File loadNextSong() {
-        if (this.playlist != null) {
-            this.changeSong(this.playlist.get(this.playlistPosition));
-            File song = this.playlist.get(this.playlistPosition);
-            this.playlistPosition++;
-            if (this.playlistPosition >= this.playlist.size())
-                this.playlistPosition = 0;
-            return song;
-        }
-        return null;
+        File song = this.call(this::nextPlaylistSong).join();
+        if (song != null)
+            this.changeSong(song);
+        return song;
+    }
+
+    /**
+     * Loads the next song in the playlist, if possible, without blocking the calling thread.
+     *
+     * @return future completing with the File (.mp3) once it is the current song, or with null if there is no playlist
+     */
+    public CompletableFuture<File> loadNextSongAsync() {
+        return this.loadAsync(this::nextPlaylistSong);
     }
 
     /**
@@ -94,138 +989,543 @@ public class MusicPlayerModel extends Observable {
      * @return File (.mp3) that was changed to the current song
      */
     public File loadPrevSong() {
-        if (this.playlist != null) {
-            this.playlistPosition--;
-            if (this.playlistPosition < 0)
-                this.playlistPosition = this.playlist.size() - 1;
-            this.changeSong(this.playlist.get(this.playlistPosition));
-            return this.playlist.get(this.playlistPosition);
-        }
-        return null;
+        File song = this.call(this::prevPlaylistSong).join();
+        if (song != null)
+            this.changeSong(song);
+        return song;
+    }
+
+    /**
+     * Loads the previous song on the playlist without blocking the calling thread.
+     *
+     * @return future completing with the File (.mp3) once it is the current song, or with null if there is no playlist
+     */
+    public CompletableFuture<File> loadPrevSongAsync() {
+        return this.loadAsync(this::prevPlaylistSong);
+    }
+
+    /**
+     * Moves the playlist on to its next song. Called by commands.
+     *
+     * @return the next song, or null if there is no playlist or it has ended
+     */
+    private File nextPlaylistSong() {
+        PlayQueue playlist = this.playlist;
+        return playlist == null ? null : playlist.next();
+    }
+
+    /**
+     * Moves the playlist back to the song before the current one. Called by commands.
+     *
+     * @return the previous song, or null if there is no playlist
+     */
+    private File prevPlaylistSong() {
+        PlayQueue playlist = this.playlist;
+        if (playlist == null)
+            return null;
+        this.cancelNextSong();
+        return playlist.previous();
+    }
+
+    /**
+     * Loads a song of the playlist by its place in the playlist, without blocking the calling thread.
+     *
+     * @param index place of the song in the playlist's own order, which shuffling does not change
+     * @return future completing with the File (.mp3) once it is the current song, or with null if there is no playlist
+     */
+    public CompletableFuture<File> jumpToSongAsync(int index) {
+        return this.loadAsync(() -> {
+            PlayQueue playlist = this.playlist;
+            if (playlist == null)
+                return null;
+            this.cancelNextSong();
+            return playlist.jump(index);
+        });
+    }
+
+    /**
+     * Puts a song in front of the rest of the playlist, to be played after the current song.
+     * Starts a playlist if there is none.
+     *
+     * @param song file to play next
+     * @return future completing once the song is on the playlist
+     */
+    public CompletableFuture<Void> playNext(File song) {
+        return this.command(() -> {
+            this.playlistOrNew().playNext(song);
+            this.cancelNextSong();
+            this.preloadNextSong();
+        });
+    }
+
+    /**
+     * Adds a song to the end of the playlist. Starts a playlist if there is none.
+     *
+     * @param song file to add
+     * @return future completing once the song is on the playlist
+     */
+    public CompletableFuture<Void> enqueue(File song) {
+        return this.command(() -> {
+            PlayQueue playlist = this.playlistOrNew();
+            boolean wasLast = playlist.peekNext() == null;
+            playlist.enqueue(song);
+            // a playlist that had run out has a next song again
+            if (wasLast)
+                this.preloadNextSong();
+        });
+    }
+
+    /**
+     * @return the playlist, starting an empty one if there is none. Called by commands.
+     */
+    private PlayQueue playlistOrNew() {
+        if (this.playlist == null)
+            this.playlist = new PlayQueue();
+        return this.playlist;
+    }
+
+    /**
+     * Turns shuffling of the playlist on or off. The song preloaded to follow the current one is
+     * dropped, since a different song follows it now.
+     *
+     * @param shuffle true to shuffle
+     * @return future completing once the playlist is shuffled or in order
+     */
+    public CompletableFuture<Void> setShuffle(boolean shuffle) {
+        return this.command(() -> {
+            PlayQueue playlist = this.playlist;
+            if (playlist == null)
+                return;
+            this.cancelNextSong();
+            playlist.setShuffle(shuffle);
+            this.preloadNextSong();
+        });
+    }
+
+    /**
+     * @return true if the playlist is shuffled
+     */
+    public boolean isShuffle() {
+        return this.state.isShuffle();
+    }
+
+    /**
+     * Sets what happens after each song of the playlist, and after the last one.
+     *
+     * @param repeatMode OFF to stop after the last song, ALL to start over, ONE to repeat the current song
+     * @return future completing once the repeat mode is set
+     */
+    public CompletableFuture<Void> setRepeatMode(PlayQueue.RepeatMode repeatMode) {
+        return this.command(() -> {
+            PlayQueue playlist = this.playlistOrNew();
+            this.cancelNextSong();
+            playlist.setRepeatMode(repeatMode);
+            this.preloadNextSong();
+        });
+    }
+
+    /**
+     * @return what happens after each song of the playlist
+     */
+    public PlayQueue.RepeatMode getRepeatMode() {
+        return this.state.getRepeatMode();
+    }
+
+    /**
+     * Replaces the playlist with the songs of an M3U or M3U8 playlist file.
+     * The file is read on the calling thread.
+     *
+     * @param m3u playlist file
+     * @return future completing once the playlist is replaced
+     * @throws IOException if the playlist file cannot be read
+     */
+    public CompletableFuture<Void> importPlaylist(File m3u) throws IOException {
+        PlayQueue imported = PlayQueue.importM3u(m3u);
+        return this.replacePlaylist(imported);
+    }
+
+    /**
+     * Saves the playlist, with its position, shuffle order and repeat mode, to be restored next session.
+     * Does nothing if there is no playlist.
+     *
+     * @param file where to save the playlist
+     * @throws IOException if the playlist cannot be written
+     */
+    public void savePlaylist(Path file) throws IOException {
+        await(this.call(() -> {
+            if (this.playlist != null)
+                this.playlist.save(file);
+            return null;
+        }));
+    }
+
+    /**
+     * Restores a playlist saved by savePlaylist(Path). Loading the next song goes on from where it was saved.
+     * The file is read on the calling thread.
+     *
+     * @param file saved playlist
+     * @return future completing once the playlist is replaced
+     * @throws IOException if the saved playlist cannot be read
+     */
+    public CompletableFuture<Void> restorePlaylist(Path file) throws IOException {
+        PlayQueue restored = PlayQueue.load(file);
+        return this.replacePlaylist(restored);
+    }
+
+    /**
+     * Makes a playlist the current one.
+     *
+     * @param playlist new playlist, null for none
+     * @return future completing once the playlist is replaced
+     */
+    private CompletableFuture<Void> replacePlaylist(PlayQueue playlist) {
+        return this.command(() -> {
+            this.cancelNextSong();
+            this.playlist = playlist;
+            if (playlist != null)
+                this.analyzeLoudness(playlist);
+        });
     }
 
     /**
      * Starts the song from its current position.
+     *
+     * @return future completing once the song has started
      */
-    public void start() {
-        if (this.hasClip() && !this.clip.isRunning()) {
-            this.clip.start();
-        }
+    public CompletableFuture<Void> start() {
+        return this.command(() -> {
+            if (this.playback != null && !this.playback.isRunning())
+                this.playback.start();
+        });
     }
 
     /**
      * Pauses the clip.
+     *
+     * @return future completing once the song has stopped
      */
-    public void stop() {
-        if (this.hasClip() && this.clip.isRunning()) {
-            this.clip.stop();
-        }
+    public CompletableFuture<Void> stop() {
+        return this.command(() -> {
+            if (this.playback != null && this.playback.isRunning())
+                this.playback.stop();
+        });
     }
 
     /**
      * Changes the clips loudness.
      *
      * @param decibels decibels desired by the user
+     * @return future completing once the volume has changed
      */
-    public void volumeChange(double decibels) {
-        if (this.hasClip()) {
-            FloatControl gainControl = (FloatControl) this.clip.getControl(FloatControl.Type.MASTER_GAIN);
-            if (decibels == ((int) getMaxVolume() + (int) getMinVolume()) / 2) {
-                gainControl.setValue((float) this.getMinVolume());
-            } else
-                gainControl.setValue((float) decibels);
-        }
+    public CompletableFuture<Void> volumeChange(double decibels) {
+        return this.command(() -> {
+            if (decibels == ((int) getMaxVolume() + (int) getMinVolume()) / 2)
+                this.gainDecibels = (float) this.getMinVolume();
+            else
+                this.gainDecibels = (float) decibels;
+            if (this.playback != null)
+                this.playback.setGain(this.gainDecibels);
+        });
+    }
+
+    /**
+     * Adds an effect to the DSP chain songs play through in STREAMING mode. Effects run in the order
+     * they were added, before the volume is applied, and carry over from song to song.
+     *
+     * @param effect processor to add
+     * @return future completing once the current song plays through the effect
+     */
+    public CompletableFuture<Void> addEffect(AudioProcessor effect) {
+        this.effects.add(effect);
+        return this.command(this::applyEffects);
+    }
+
+    /**
+     * Removes an effect from the DSP chain.
+     *
+     * @param effect processor to remove
+     * @return future completing once the current song no longer plays through the effect
+     */
+    public CompletableFuture<Void> removeEffect(AudioProcessor effect) {
+        this.effects.remove(effect);
+        return this.command(this::applyEffects);
+    }
+
+    /**
+     * Hands the current effects to the current playback, if it streams. Called by commands.
+     */
+    private void applyEffects() {
+        Playback playback = this.playback;
+        if (playback instanceof StreamingPlayback)
+            ((StreamingPlayback) playback).getDspChain().setEffects(this.effects);
     }
 
     /**
      * Rewinds the clip to the start.
+     *
+     * @return future completing once the song is at its start
      */
-    public void rewindToStart() {
-        if (this.hasClip()) {
-            boolean prevRun = this.clip.isRunning();
-            this.clip.stop();
-            this.clip.setFramePosition(0);
-            if(prevRun) {
-                this.clip.start();
-            }
-        }
+    public CompletableFuture<Void> rewindToStart() {
+        return this.setSongPosition(0);
+    }
+
+    /**
+     * Moves the song to a time.
+     *
+     * @param microseconds time to move the song to, from its start
+     * @return future completing once the song is at the time
+     */
+    public CompletableFuture<Void> setMicrosecondPosition(long microseconds) {
+        return this.command(() -> {
+            Playback playback = this.playback;
+            if (playback != null)
+                this.setSongPosition(toFrames(microseconds, playback.getFormat()));
+        });
     }
 
     /**
      * Sets the clip's position to the new value.
      *
-     * @param position frame position to set song at (0 < position < this.clip.getFrameLength())
+     * @param position frame position to set song at (0 <= position <= getClipLength())
+     * @return future completing once the song is at the position
      */
-    public void setSongPosition(int position) {
-        if (this.hasClip()) {
-            boolean prevRun = this.clip.isRunning();
-            this.clip.stop();
-            this.clip.setFramePosition(position);
-            if (prevRun) {
-                this.clip.start();
-            }
+    public CompletableFuture<Void> setSongPosition(long position) {
+        return this.command(() -> {
+            Playback playback = this.playback;
+            if (playback != null)
+                this.seek(playback, position, playback.isRunning());
+        });
+    }
+
+    /**
+     * Starts scrubbing the song: playback pauses, and scrubTo() plays short grains of the song
+     * wherever the song slider is dragged, until endScrub() moves the song there.
+     *
+     * @return future completing once scrubbing has started
+     */
+    public CompletableFuture<Void> beginScrub() {
+        return this.command(() -> {
+            Playback playback = this.playback;
+            if (playback == null || this.scrubber.isScrubbing())
+                return;
+            this.resumeAfterScrub = playback.isRunning();
+            playback.stop();
+            this.scrubber.begin(this.currentSong, playback.getFormat(), playback.getFrameLength(),
+                    playback.getFramePosition(), this.gainDecibels, this.trackGain(this.currentSong));
+        });
+    }
+
+    /**
+     * Plays a grain of the song at a time while scrubbing. Unlike the other methods, it does not queue
+     * behind the model's commands, so the grain starts at once: call it for every move of the slider,
+     * and the positions the grains cannot keep up with are skipped.
+     *
+     * @param microseconds time to play a grain at, from the start of the song
+     */
+    public void scrubTo(long microseconds) {
+        Playback playback = this.playback;
+        if (playback != null && this.scrubber.isScrubbing())
+            this.scrubber.moveTo(toFrames(microseconds, playback.getFormat()));
+    }
+
+    /**
+     * Stops scrubbing and moves the song to a time, playing on from there if it was playing when scrubbing began.
+     *
+     * @param microseconds time to move the song to, from its start
+     * @return future completing once the song is at the time
+     */
+    public CompletableFuture<Void> endScrub(long microseconds) {
+        return this.command(() -> {
+            this.scrubber.end();
+            boolean resume = this.resumeAfterScrub;
+            this.resumeAfterScrub = false;
+            Playback playback = this.playback;
+            if (playback != null)
+                this.seek(playback, toFrames(microseconds, playback.getFormat()), resume || playback.isRunning());
+        });
+    }
+
+    /**
+     * Moves the song to a frame. Called by commands.
+     *
+     * @param playback playback of the song
+     * @param position frame position to set song at (0 <= position <= getClipLength())
+     * @param run whether to play on from the position
+     */
+    private void seek(Playback playback, long position, boolean run) {
+        long started = System.nanoTime();
+        PlaybackEvents.Seek event = new PlaybackEvents.Seek();
+        event.begin();
+        event.fromFrame = playback.getFramePosition();
+        playback.stop();
+        playback.setFramePosition(position);
+        if (run) {
+            playback.start();
         }
+        this.metrics.seeked(System.nanoTime() - started);
+        if (event.shouldCommit()) {
+            event.song = this.currentSong == null ? null : this.currentSong.getPath();
+            event.toFrame = position;
+            event.commit();
+        }
+    }
+
+    /**
+     * Sets how songs loaded after this call are played.
+     *
+     * @param mode CLIP to decode songs fully into memory, STREAMING to decode them while they play
+     * @return future completing once the mode is set
+     */
+    public CompletableFuture<Void> setPlaybackMode(PlaybackMode mode) {
+        return this.command(() -> this.playbackMode = mode);
+    }
+
+    /**
+     * Gets how songs are currently played.
+     *
+     * @return the current playback mode
+     */
+    public PlaybackMode getPlaybackMode() {
+        return this.state.getPlaybackMode();
     }
 
     /**
      * Sets the playlist to a new list.
      *
      * @param playlist list of Files to set the new playlist as
+     * @return future completing once the playlist is replaced
      */
-    public void setPlaylist(List<File> playlist) {
-        this.playlist = playlist;
-        this.playlistPosition = 0;
+    public CompletableFuture<Void> setPlaylist(List<File> playlist) {
+        return this.replacePlaylist(playlist == null ? null : PlayQueue.of(playlist));
     }
 
     /**
-     * Gets the minimum decibel volume of the clip.
-     * Implies that there is a current song stored in this.clip.
+     * Gets the minimum decibel volume, which silences the song.
      *
-     * @return min decibel volume of the current clip
+     * @return min decibel volume
      */
     public double getMinVolume() {
-        FloatControl gainControl = (FloatControl) this.clip.getControl(FloatControl.Type.MASTER_GAIN);
-        return gainControl.getMinimum();
+        return DspChain.MIN_GAIN_DB;
     }
 
     /**
-     * Gets the maximum decibel volume of the clip.
-     * Implies that there is a current song stored in this.clip.
+     * Gets the maximum decibel volume. Volumes above 0 boost the song, and the DSP chain's limiter
+     * keeps the boosted peaks from clipping.
      *
-     * @return max decibel volume of the current clip
+     * @return max decibel volume
      */
     public double getMaxVolume() {
-        FloatControl gainControl = (FloatControl) this.clip.getControl(FloatControl.Type.MASTER_GAIN);
-        return gainControl.getMaximum();
+        return DspChain.MAX_GAIN_DB;
+    }
+
+    /**
+     * Gets the total length of the current clip in frames, read from the playback since it is corrected
+     * while a streamed song decodes.
+     *
+     * @return length of the current clip, or 0 if there is no current song
+     */
+    public long getClipLength() {
+        Playback playback = this.playback;
+        return playback == null ? 0 : playback.getFrameLength();
+    }
+
+    /**
+     * Gets the current position of the song in frames, read from the playback.
+     *
+     * @return the current position of the song, or 0 if there is no current song
+     */
+    public long getClipCurrentValue() {
+        Playback playback = this.playback;
+        return playback == null ? 0 : playback.getFramePosition();
+    }
+
+    /**
+     * Gets the total length of the current song as time, at the sample rate it was decoded at.
+     *
+     * @return length of the current song in microseconds, or 0 if there is no current song
+     */
+    public long getMicrosecondLength() {
+        Playback playback = this.playback;
+        return playback == null ? 0 : toMicroseconds(playback.getFrameLength(), playback.getFormat());
+    }
+
+    /**
+     * Gets the current position of the song as time, at the sample rate it was decoded at.
+     *
+     * @return position of the current song in microseconds, or 0 if there is no current song
+     */
+    public long getMicrosecondPosition() {
+        Playback playback = this.playback;
+        return playback == null ? 0 : toMicroseconds(playback.getFramePosition(), playback.getFormat());
+    }
+
+    /**
+     * Gets how many frames of the current song play each second, to turn the positions of
+     * getClipLength() and getClipCurrentValue() into time.
+     *
+     * @return frames per second of the current song, or 0 if there is no current song
+     */
+    public float getFrameRate() {
+        return this.state.getFrameRate();
+    }
+
+    /**
+     * Turns a number of frames into time.
+     *
+     * @param frames number of frames
+     * @param format format giving the frame rate
+     * @return duration of the frames in microseconds, Long.MAX_VALUE for lengths that are not known
+     */
+    static long toMicroseconds(long frames, AudioFormat format) {
+        if (frames == Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+        // exact for the whole-number rates audio uses, and fits a long for songs of up to six years at 44.1 kHz
+        return frames * 1000000 / (long) format.getFrameRate();
     }
 
     /**
-     * Gets the total length of the current clip.
-     * Implies that there is a current song stored in this.clip.
+     * Turns time into a number of frames, rounding down so the frame is never later than the time.
      *
-     * @return length of the current clip
+     * @param microseconds time from the start of the song
+     * @param format format giving the frame rate
+     * @return the frame playing at that time
      */
-    public int getClipLength() {
-        return this.clip.getFrameLength();
+    static long toFrames(long microseconds, AudioFormat format) {
+        return Math.max(0, microseconds) * (long) format.getFrameRate() / 1000000;
     }
 
     /**
-     * Gets the current position of the song.
-     * Implies that there is a current song stored in this.clip.
+     * Gets the metrics of the audio path, which record nothing unless the model was given a registry
+     * or the musicplayer.metrics system property is true.
      *
-     * @return the current integer position of the song
+     * @return the model's metrics
      */
-    public int getClipCurrentValue() {
-        return this.clip.getFramePosition();
+    public PlaybackMetrics getMetrics() {
+        return this.metrics;
     }
 
     /**
-     * Checks if the song is at the end.
+     * Counts the bytes of decoded PCM held in memory: the decoded cache and, in CLIP mode, the current clip.
+     *
+     * @return bytes of decoded PCM resident
+     */
+    private long getResidentPcmBytes() {
+        long bytes = this.decodedCache.getSize();
+        Playback playback = this.playback;
+        AudioFormat format = this.decodeFormat;
+        if (playback instanceof ClipPlayback && format != null)
+            bytes += playback.getFrameLength() * format.getFrameSize();
+        return bytes;
+    }
+
+    /**
+     * Checks if the song has played to its end, as signalled by the playback once its last frame has played.
      *
      * @return true if at the end, false otherwise
      */
     public boolean atEnd() {
-        return this.clip.getFramePosition() >= this.clip.getFrameLength() - 100;
+        Playback playback = this.playback;
+        return playback != null && playback.isEnded();
     }
 
     /**
@@ -234,7 +1534,7 @@ public class MusicPlayerModel extends Observable {
      * @return true if song is playing, false otherwise
      */
     public boolean isRunning() {
-        return this.hasClip() && (this.clip.isRunning() || this.atEnd());
+        return this.hasClip() && (this.state.isRunning() || this.atEnd());
     }
 
     /**
@@ -243,7 +1543,7 @@ public class MusicPlayerModel extends Observable {
      * @return true if song exists, false otherwise
      */
     public boolean hasClip() {
-        return this.clip != null;
+        return this.state.hasClip();
     }
 
     /**
@@ -252,14 +1552,157 @@ public class MusicPlayerModel extends Observable {
      * @return true if has a playlist, false otherwise
      */
     public boolean hasPlaylist() {
-        return this.playlist != null;
+        return this.state.hasPlaylist();
+    }
+
+    /**
+     * Returns whether the playlist has a song to play after the current one.
+     * A playlist that does not repeat has none once its last song is playing.
+     *
+     * @return true if loading the next song would load a song, false otherwise
+     */
+    public boolean hasNextSong() {
+        return this.state.hasNextSong();
+    }
+
+    /*******************************************************
+    *                                                      *
+    *  COMMANDS AND STATE                                  *
+    *                                                      *
+    *******************************************************/
+
+    /**
+     * Gets the model's state as of the last command to run.
+     *
+     * @return snapshot of the model's state
+     */
+    public ModelState getState() {
+        return this.state;
+    }
+
+    /**
+     * Adds a listener told about every change to the model's state.
+     *
+     * @param listener listener to add
+     * @param executor runs the listener, e.g. Platform::runLater for the JavaFX thread
+     */
+    public void addListener(ModelListener listener, Executor executor) {
+        this.subscriptions.add(new Subscription(listener, executor));
+    }
+
+    /**
+     * Removes a listener. It may still be called once if a change was already on its way to it.
+     *
+     * @param listener listener to remove
+     */
+    public void removeListener(ModelListener listener) {
+        this.subscriptions.removeIf(subscription -> subscription.listener == listener);
+    }
+
+    /**
+     * Queues a command that changes the model. The model's state is published once it has run.
+     *
+     * @param command command to run on the loop's thread
+     * @return future completing once the command has run
+     */
+    private CompletableFuture<Void> command(Runnable command) {
+        return this.call(() -> {
+            command.run();
+            return null;
+        });
     }
 
     /**
-     * Utility function to notify GUI that changes were made with the model's instance variables.
+     * Queues a command that changes the model and produces a result. The model's state is published once it has run,
+     * whether or not it failed.
+     *
+     * @param command command to run on the loop's thread
+     * @return future completing with the command's result once it has run
+     */
+    private <T> CompletableFuture<T> call(Callable<T> command) {
+        return this.commands.submit(() -> {
+            try {
+                return command.call();
+            } finally {
+                this.publish();
+            }
+        });
+    }
+
+    /**
+     * Queues a command for something that happened on another thread, such as the audio threads.
+     * Unlike command(), it is queued even when called from a command, so it runs once that command
+     * has finished, and it is dropped once the model is closed.
+     *
+     * @param command command to run on the loop's thread
+     */
+    private void post(Runnable command) {
+        try {
+            this.commands.execute(() -> {
+                command.run();
+                this.publish();
+            });
+        } catch (RejectedExecutionException e) {
+            // the model is closed
+        }
+    }
+
+    /**
+     * Takes a snapshot of the model's state and, if it changed, hands it to the listeners. Called by commands.
      */
-    public void announceChanges() {
-        setChanged();
-        notifyObservers();
+    private void publish() {
+        Playback playback = this.playback;
+        PlayQueue playlist = this.playlist;
+        ModelState state = new ModelState(this.currentSong, playback != null,
+                playback == null ? 0 : playback.getFormat().getFrameRate(), playback != null && playback.isRunning(),
+                playback != null && playback.isEnded(),
+                playlist != null, playlist == null ? null : playlist.peekNext(),
+                playlist != null && playlist.isShuffle(),
+                playlist == null ? PlayQueue.RepeatMode.ALL : playlist.getRepeatMode(),
+                this.playbackMode, this.gainDecibels, this.crossfadeSeconds);
+        if (state.equals(this.state))
+            return;
+        this.state = state;
+        for (Subscription subscription : this.subscriptions)
+            subscription.offer(state);
+    }
+
+    /**
+     * Waits for a command, passing on an IOException it failed with.
+     *
+     * @param command future of the command
+     * @return the command's result
+     * @throws IOException if the command failed with one
+     */
+    private static <T> T await(CompletableFuture<T> command) throws IOException {
+        try {
+            return command.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Publishes the model's state when the song starts or stops playing, including when it plays to its end,
+     * so listeners do not have to poll for it. Called on the audio threads.
+     *
+     * @param event START or STOP event of the playback
+     */
+    private void playbackChanged(LineEvent event) {
+        if (event.getType() == LineEvent.Type.START || event.getType() == LineEvent.Type.STOP)
+            this.publishLater();
+    }
+
+    /**
+     * Queues a command that only publishes the model's state, for changes made outside the command loop.
+     */
+    private void publishLater() {
+        try {
+            this.commands.execute(this::publish);
+        } catch (RejectedExecutionException e) {
+            // the model is closed
+        }
     }
-}
\ No newline at end of file
+}
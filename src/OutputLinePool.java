@@ -0,0 +1,239 @@
+import javax.sound.sampled.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps output lines open between songs so they can be reused.
+ * Opening a SourceDataLine goes through the mixers every time and can take a noticeable while,
+ * so a line released by a finished song stays open and is handed to the next song decoded to
+ * the same format. Clip objects are kept too, and reopened with the next song's data.
+ * Only a few idle lines are kept; the rest are closed straight away.
+ */
+public class OutputLinePool {
+
+    /** Most open lines kept idle at once */
+    private static final int MAX_IDLE_LINES = 2;
+    /** Rates to convert to, in order, when an output device cannot play a song's own */
+    private static final int[] PREFERRED_RATES = {48000, 44100};
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Deque<SourceDataLine> idleLines;
+    private final Map<String, Float> outputRates;
+    private Clip idleClip;
+    private int linesOpened;
+    private int linesReused;
+    private boolean closed;
+
+    /**
+     * Constructor for the pool. Starts empty.
+     */
+    public OutputLinePool() {
+        this.idleLines = new ArrayDeque<>();
+        this.outputRates = new ConcurrentHashMap<>();
+        this.idleClip = null;
+        this.linesOpened = 0;
+        this.linesReused = 0;
+        this.closed = false;
+    }
+
+    /**
+     * Gets an open, stopped and empty line accepting the given format, reusing an idle line if one matches.
+     * If no line can be opened while idle lines of other formats are open, they are closed and the open is tried again.
+     *
+     * @param format format the line must accept
+     * @return an open line for the format
+     * @throws LineUnavailableException if a new line is needed and none can be opened
+     */
+    public synchronized SourceDataLine acquireLine(AudioFormat format) throws LineUnavailableException {
+        Iterator<SourceDataLine> idle = this.idleLines.iterator();
+        while (idle.hasNext()) {
+            SourceDataLine line = idle.next();
+            if (line.isOpen() && line.getFormat().matches(format)) {
+                idle.remove();
+                this.linesReused++;
+                lineOpened(line, true);
+                return line;
+            }
+        }
+        SourceDataLine line;
+        try {
+            line = openLine(format);
+        } catch (LineUnavailableException e) {
+            // a device that plays one stream at a time stays busy while the idle lines of other formats hold it
+            if (this.idleLines.isEmpty())
+                throw e;
+            while (!this.idleLines.isEmpty())
+                closeLine(this.idleLines.removeFirst());
+            line = openLine(format);
+        }
+        this.linesOpened++;
+        lineOpened(line, false);
+        return line;
+    }
+
+    /**
+     * Finds the sample rate to play a format at: its own if an output line takes it, and otherwise a rate
+     * the first mixer with lines for its kind of PCM offers, 48kHz or 44.1kHz if it has them, or else the
+     * lowest above the format's, or the highest below it. The mixers are asked once per rate and channel count.
+     *
+     * @param format format songs decode to
+     * @return rate to play the format at, the format's own if no line says what it takes
+     */
+    public float getOutputRate(AudioFormat format) {
+        String key = format.getEncoding() + "/" + format.getSampleRate() + "/" + format.getSampleSizeInBits()
+                + "/" + format.getChannels();
+        return this.outputRates.computeIfAbsent(key, k -> findOutputRate(format));
+    }
+
+    private static float findOutputRate(AudioFormat format) {
+        if (AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, format)))
+            return format.getSampleRate();
+        for (Mixer.Info info : AudioSystem.getMixerInfo()) {
+            TreeSet<Float> rates = new TreeSet<>();
+            for (Line.Info line : AudioSystem.getMixer(info).getSourceLineInfo()) {
+                if (!(line instanceof DataLine.Info) || !SourceDataLine.class.isAssignableFrom(line.getLineClass()))
+                    continue;
+                for (AudioFormat supported : ((DataLine.Info) line).getFormats()) {
+                    if (supported.getEncoding().equals(format.getEncoding())
+                            && supported.getSampleSizeInBits() == format.getSampleSizeInBits()
+                            && supported.getChannels() == format.getChannels()) {
+                        // a mixer taking any rate would have taken the format's own
+                        if (supported.getSampleRate() == AudioSystem.NOT_SPECIFIED)
+                            return format.getSampleRate();
+                        rates.add(supported.getSampleRate());
+                    }
+                }
+            }
+            if (rates.isEmpty())
+                continue;
+            if (rates.contains(format.getSampleRate()))
+                return format.getSampleRate();
+            for (int preferred : PREFERRED_RATES) {
+                if (rates.contains((float) preferred))
+                    return preferred;
+            }
+            Float above = rates.higher(format.getSampleRate());
+            return above != null ? above : rates.last();
+        }
+        return format.getSampleRate();
+    }
+
+    /**
+     * Takes back a line that is no longer needed. The line is stopped and emptied, and kept open
+     * for reuse unless the pool already holds enough idle lines, in which case the oldest is closed.
+     *
+     * @param line line to release
+     */
+    public synchronized void release(SourceDataLine line) {
+        line.stop();
+        line.flush();
+        if (this.closed || !line.isOpen()) {
+            closeLine(line);
+            return;
+        }
+        this.idleLines.addFirst(line);
+        while (this.idleLines.size() > MAX_IDLE_LINES)
+            closeLine(this.idleLines.removeLast());
+    }
+
+    /**
+     * Gets a closed Clip ready to be opened with a song, reusing the last released one if there is one.
+     *
+     * @return a closed clip
+     * @throws LineUnavailableException if no clip can be obtained
+     */
+    public synchronized Clip acquireClip() throws LineUnavailableException {
+        if (this.idleClip != null) {
+            Clip clip = this.idleClip;
+            this.idleClip = null;
+            return clip;
+        }
+        return AudioSystem.getClip();
+    }
+
+    /**
+     * Takes back a Clip that is no longer needed. The clip is closed, which frees the song
+     * data it holds, and kept so it can be opened again with the next song.
+     *
+     * @param clip clip to release
+     */
+    public synchronized void release(Clip clip) {
+        clip.stop();
+        clip.flush();
+        clip.close();
+        if (!this.closed)
+            this.idleClip = clip;
+    }
+
+    /**
+     * Closes every idle line. Lines released afterwards are closed instead of kept.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        for (SourceDataLine line : this.idleLines)
+            closeLine(line);
+        this.idleLines.clear();
+        this.idleClip = null;
+    }
+
+    /**
+     * Gets a new line for a format from the mixers and opens it.
+     */
+    private static SourceDataLine openLine(AudioFormat format) throws LineUnavailableException {
+        SourceDataLine line = AudioSystem.getSourceDataLine(format);
+        line.open(format);
+        return line;
+    }
+
+    /**
+     * Records a line being handed out as a LineOpen event.
+     *
+     * @param line line handed out
+     * @param reused true if the line was idle in the pool, false if it was just opened
+     */
+    private static void lineOpened(SourceDataLine line, boolean reused) {
+        PlaybackEvents.LineOpen event = new PlaybackEvents.LineOpen();
+        if (event.shouldCommit()) {
+            event.format = line.getFormat().toString();
+            event.bufferSize = line.getBufferSize();
+            event.reused = reused;
+            event.commit();
+        }
+    }
+
+    /**
+     * Closes a line and records it as a LineClose event.
+     *
+     * @param line line to close
+     */
+    private static void closeLine(SourceDataLine line) {
+        PlaybackEvents.LineClose event = new PlaybackEvents.LineClose();
+        event.begin();
+        String format = line.getFormat().toString();
+        line.close();
+        if (event.shouldCommit()) {
+            event.format = format;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return number of lines opened by the pool
+     */
+    public synchronized int getLinesOpened() {
+        return this.linesOpened;
+    }
+
+    /**
+     * @return number of times an idle line was handed out instead of opening a new one
+     */
+    public synchronized int getLinesReused() {
+        return this.linesReused;
+    }
+}
@@ -0,0 +1,162 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decodes whole MP3 files on several cores at once.
+ * The file is split at frame boundaries taken from its frame index, and each segment is decoded
+ * on its own ForkJoinPool worker, starting a few priming frames early for the bit reservoir exactly
+ * as a seek does. Every segment writes its samples straight into its place in one shared buffer,
+ * so the result is the same, byte for byte, as decoding the file from start to end.
+ */
+public class ParallelDecoder {
+
+    /** CONSTANTS FOR SPLITTING SONGS */
+    private static final int MIN_SEGMENT_FRAMES = 256;
+    private static final int SEGMENTS_PER_THREAD = 2;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor for the decoder.
+     *
+     * @param parallelism number of segments decoded at once
+     */
+    public ParallelDecoder(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("parallel-decoder-" + t.getName().substring(t.getName().lastIndexOf('-') + 1));
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Decodes a whole song.
+     *
+     * @param song MP3 file
+     * @param index full frame index of the song
+     * @param format PCM format to decode to
+     * @param cancelled polled while decoding; returning true abandons the decode
+     * @return stream over the decoded song with its exact frame length
+     * @throws IOException if a segment cannot be decoded, the song is too long for one buffer, or the decode
+     * was cancelled or interrupted
+     */
+    public AudioInputStream decode(File song, Mp3FrameIndex index, AudioFormat format, BooleanSupplier cancelled)
+            throws IOException {
+        byte[] pcm = this.decodePcm(song, index, format, cancelled);
+        return new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / format.getFrameSize());
+    }
+
+    /**
+     * Decodes a whole song into one buffer, as decode() does.
+     *
+     * @param song MP3 file
+     * @param index full frame index of the song
+     * @param format PCM format to decode to
+     * @param cancelled polled while decoding; returning true abandons the decode
+     * @return the decoded song, exactly its length
+     * @throws IOException if a segment cannot be decoded, the song is too long for one buffer, or the decode
+     * was cancelled or interrupted
+     */
+    public byte[] decodePcm(File song, Mp3FrameIndex index, AudioFormat format, BooleanSupplier cancelled)
+            throws IOException {
+        int frameSize = format.getFrameSize();
+        long samples = index.getSampleCount();
+        if (!index.isExact() || samples * frameSize > Integer.MAX_VALUE - 8)
+            throw new IOException("song cannot be decoded into one buffer");
+        byte[] pcm = new byte[(int) (samples * frameSize)];
+        long frames = index.getFrameCount();
+        int samplesPerFrame = (int) (samples / frames);
+        int segments = (int) Math.max(1, Math.min(frames / MIN_SEGMENT_FRAMES,
+                (long) this.pool.getParallelism() * SEGMENTS_PER_THREAD));
+        AtomicBoolean abandoned = new AtomicBoolean();
+        BooleanSupplier stop = () -> abandoned.get() || cancelled.getAsBoolean();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < segments; i++) {
+            long first = frames * i / segments;
+            long end = frames * (i + 1) / segments;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                decodeSegment(song, index, format, first * samplesPerFrame, end * samplesPerFrame, pcm, stop);
+                return null;
+            }));
+        }
+        Future<?> all = this.pool.submit(() -> ForkJoinTask.invokeAll(tasks));
+        try {
+            all.get();
+        } catch (InterruptedException e) {
+            abandoned.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("decode interrupted");
+        } catch (ExecutionException e) {
+            abandoned.set(true);
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        if (cancelled.getAsBoolean())
+            throw new InterruptedIOException("decode cancelled");
+        return pcm;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void close() {
+        this.pool.shutdownNow();
+    }
+
+    /**
+     * Decodes the samples of one segment into the shared buffer.
+     *
+     * @param song MP3 file
+     * @param index full frame index of the song
+     * @param format PCM format to decode to
+     * @param from first sample of the segment
+     * @param to sample just past the segment
+     * @param pcm buffer of the whole song
+     * @param stop returns true once the decode is abandoned
+     * @throws IOException if the segment cannot be decoded or comes out short
+     */
+    private static void decodeSegment(File song, Mp3FrameIndex index, AudioFormat format, long from, long to,
+                                      byte[] pcm, BooleanSupplier stop) throws IOException {
+        int frameSize = format.getFrameSize();
+        Mp3FrameIndex.SeekPoint at = index.seek(song, from);
+        try (AudioInputStream decoded = AudioSystem.getAudioInputStream(format,
+                AudioSystem.getAudioInputStream(index.open(song, at)))) {
+            // discard the samples of the priming frames
+            if (PcmStreams.skip(decoded, (from - at.getSample()) * frameSize, frameSize) > 0)
+                throw new IOException("segment ended during its priming frames");
+            int chunk = 16 * 1024 - (16 * 1024) % frameSize;
+            int offset = (int) (from * frameSize);
+            int end = (int) (to * frameSize);
+            while (offset < end) {
+                if (stop.getAsBoolean())
+                    throw new InterruptedIOException("decode abandoned");
+                int n = PcmStreams.read(decoded, pcm, offset, Math.min(chunk, end - offset));
+                if (n < 0)
+                    throw new IOException("segment ended " + (end - offset) / frameSize + " samples early");
+                offset += n;
+            }
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads WAV and AIFF songs holding uncompressed integer PCM, by memory-mapping their sample data.
+ * A song whose samples are already 16-bit signed little-endian, the format the model plays, is handed
+ * over as it is, straight from the mapped file: nothing is converted, nothing is copied before the
+ * playback reads it, and seeking only moves a position. Songs with other sample sizes or byte orders
+ * go through the JDK's PCM converters, and songs in WAV or AIFF files that are not plain PCM are
+ * left to AudioSystemDecoder. Since the songs are PCM already, nothing they decode to is cached.
+ */
+public class PcmFileDecoder implements SongDecoder {
+
+    /** CONSTANTS FOR THE FILE FORMATS */
+    private static final int HEADER_BYTES = 64 * 1024;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    /**
+     * Where the samples of a song are in its file, and what format they are in.
+     */
+    private static final class Layout {
+        private final AudioFormat format;
+        private final long dataOffset;
+        private final long frames;
+
+        private Layout(AudioFormat format, long dataOffset, long frames) {
+            this.format = format;
+            this.dataOffset = dataOffset;
+            this.frames = frames;
+        }
+    }
+
+    @Override
+    public boolean canDecode(File song) {
+        String name = song.getName().toLowerCase(Locale.ROOT);
+        if (!(name.endsWith(".wav") || name.endsWith(".wave") || name.endsWith(".aif") || name.endsWith(".aiff")
+                || name.endsWith(".aifc")))
+            return false;
+        try {
+            Layout layout = read(song);
+            AudioFormat format = MusicPlayerModel.pcmFormat(layout.format);
+            return layout.format.matches(format) || AudioSystem.isConversionSupported(format, layout.format);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public AudioFormat getFormat(File song) throws IOException, UnsupportedAudioFileException {
+        return MusicPlayerModel.pcmFormat(read(song).format);
+    }
+
+    @Override
+    public AudioInputStream open(File song, long position) throws IOException, UnsupportedAudioFileException {
+        Layout layout = read(song);
+        AudioFormat source = layout.format;
+        long frameSize = source.getFrameSize();
+        List<ByteBuffer> mapped = new ArrayList<>();
+        long frames;
+        long start;
+        try (FileChannel channel = FileChannel.open(song.toPath(), StandardOpenOption.READ)) {
+            // a file cut short, or written while streaming, may hold fewer frames than its header says
+            frames = Math.min(layout.frames, Math.max(0, channel.size() - layout.dataOffset) / frameSize);
+            start = Math.min(Math.max(0, position), frames);
+            long offset = layout.dataOffset + start * frameSize;
+            long length = (frames - start) * frameSize;
+            for (long at = 0; at < length; at += Integer.MAX_VALUE) {
+                long size = Math.min(Integer.MAX_VALUE, length - at);
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, offset + at, size));
+            }
+        }
+        AudioInputStream pcm = new AudioInputStream(new ByteBufferInputStream(mapped.toArray(new ByteBuffer[0])),
+                source, frames - start);
+        AudioFormat format = MusicPlayerModel.pcmFormat(source);
+        if (source.matches(format))
+            return pcm;
+        return AudioSystem.getAudioInputStream(format, pcm);
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Reads the header of a WAV or AIFF file.
+     *
+     * @param song audio file
+     * @return where the song's samples are and their format
+     * @throws UnsupportedAudioFileException if the file is neither, or does not hold integer PCM
+     */
+    private static Layout read(File song) throws IOException, UnsupportedAudioFileException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(song.toPath(), StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read until the buffer is full or the file ends
+            }
+        }
+        header.flip();
+        if (header.remaining() < 12)
+            throw new UnsupportedAudioFileException("too short for a WAV or AIFF file");
+        int magic = header.getInt(0);
+        int type = header.getInt(8);
+        if (magic == 0x52494646 && type == 0x57415645)
+            return readWave(header.order(ByteOrder.LITTLE_ENDIAN));
+        if (magic == 0x464F524D && (type == 0x41494646 || type == 0x41494643))
+            return readAiff(header, type == 0x41494643);
+        throw new UnsupportedAudioFileException("not a WAV or AIFF file");
+    }
+
+    /**
+     * Finds the fmt and data chunks of a RIFF WAVE file.
+     */
+    private static Layout readWave(ByteBuffer header) throws UnsupportedAudioFileException {
+        AudioFormat format = null;
+        int at = 12;
+        while (at + 8 <= header.limit()) {
+            // chunk ids read as text, so big-endian, like the constants they are compared to
+            int id = Integer.reverseBytes(header.getInt(at));
+            long size = header.getInt(at + 4) & 0xFFFFFFFFL;
+            if (id == 0x666D7420 && at + 24 <= header.limit()) { // "fmt "
+                int tag = header.getShort(at + 8) & 0xFFFF;
+                if (tag == WAVE_FORMAT_EXTENSIBLE && at + 34 <= header.limit())
+                    tag = header.getShort(at + 32) & 0xFFFF; // the sub-format GUID starts with the tag
+                int channels = header.getShort(at + 10) & 0xFFFF;
+                int rate = header.getInt(at + 12);
+                int blockAlign = header.getShort(at + 20) & 0xFFFF;
+                int bits = header.getShort(at + 22) & 0xFFFF;
+                if (tag != WAVE_FORMAT_PCM || channels == 0 || bits % 8 != 0 || blockAlign != channels * bits / 8)
+                    throw new UnsupportedAudioFileException("WAV file does not hold integer PCM");
+                format = new AudioFormat(bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                        rate, bits, channels, blockAlign, rate, false);
+            } else if (id == 0x64617461) { // "data"
+                if (format == null)
+                    throw new UnsupportedAudioFileException("WAV data comes before its format");
+                return new Layout(format, at + 8, size / format.getFrameSize());
+            }
+            if (size > header.limit())
+                break;
+            at += 8 + size + (size & 1);
+        }
+        throw new UnsupportedAudioFileException("WAV file has no data");
+    }
+
+    /**
+     * Finds the COMM and SSND chunks of an AIFF or AIFF-C file.
+     */
+    private static Layout readAiff(ByteBuffer header, boolean compressed) throws UnsupportedAudioFileException {
+        AudioFormat format = null;
+        long frames = 0;
+        int at = 12;
+        while (at + 8 <= header.limit()) {
+            int id = header.getInt(at);
+            long size = header.getInt(at + 4) & 0xFFFFFFFFL;
+            if (id == 0x434F4D4D && at + 26 <= header.limit()) { // "COMM"
+                int channels = header.getShort(at + 8) & 0xFFFF;
+                frames = header.getInt(at + 10) & 0xFFFFFFFFL;
+                int bits = header.getShort(at + 14) & 0xFFFF;
+                float rate = (float) extended(header, at + 16);
+                boolean bigEndian = true;
+                if (compressed && at + 30 <= header.limit()) {
+                    int compression = header.getInt(at + 26);
+                    if (compression == 0x736F7774) // "sowt", little-endian samples
+                        bigEndian = false;
+                    else if (compression != 0x4E4F4E45) // "NONE"
+                        throw new UnsupportedAudioFileException("AIFF-C file is compressed");
+                }
+                if (channels == 0 || bits == 0 || bits > 32)
+                    throw new UnsupportedAudioFileException("AIFF file does not hold integer PCM");
+                int bytes = (bits + 7) / 8;
+                format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, rate, bytes * 8, channels,
+                        channels * bytes, rate, bigEndian);
+            } else if (id == 0x53534E44 && at + 16 <= header.limit()) { // "SSND"
+                if (format == null)
+                    throw new UnsupportedAudioFileException("AIFF sound data comes before its format");
+                long offset = header.getInt(at + 8) & 0xFFFFFFFFL;
+                return new Layout(format, at + 16 + offset, frames);
+            }
+            if (size > header.limit())
+                break;
+            at += 8 + size + (size & 1);
+        }
+        throw new UnsupportedAudioFileException("AIFF file has no sound data");
+    }
+
+    /**
+     * Reads the 80-bit IEEE extended float AIFF gives its sample rate in.
+     */
+    private static double extended(ByteBuffer header, int at) {
+        int exponent = header.getShort(at) & 0x7FFF;
+        long mantissa = header.getLong(at + 2);
+        double value = (mantissa >>> 1) * Math.pow(2, exponent - 16383 - 62);
+        return (header.get(at) & 0x80) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Bounded ring buffer of decoded PCM bytes shared between a decoding thread (writer)
+ * and an audio output thread (reader).
+ * Writers block while the buffer is full, readers block while it is empty, so the amount
+ * of decoded audio held in memory never exceeds the capacity given at construction.
+ * Besides copying through write and read, the one writer and the one reader can work on the buffer's array
+ * in place: awaitWritable and awaitReadable hand out a region of it, which counts as written or read
+ * once given to commitWrite or commitRead.
+ */
+public class PcmRingBuffer {
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final byte[] buffer;
+    private int readIndex;
+    private int writeIndex;
+    private int size;
+    private boolean endOfStream;
+
+    /**
+     * Constructor for the ring buffer.
+     *
+     * @param capacity maximum number of bytes the buffer can hold
+     */
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.buffer = new byte[capacity];
+        this.readIndex = 0;
+        this.writeIndex = 0;
+        this.size = 0;
+        this.endOfStream = false;
+    }
+
+    /**
+     * Writes all of the given bytes into the buffer, blocking while it is full.
+     *
+     * @param b source array
+     * @param off offset into the source array
+     * @param len number of bytes to write
+     * @throws InterruptedException if the writing thread is interrupted while waiting
+     */
+    public synchronized void write(byte[] b, int off, int len) throws InterruptedException {
+        while (len > 0) {
+            while (this.size == this.buffer.length)
+                wait();
+            int chunk = Math.min(len, Math.min(this.buffer.length - this.size, this.buffer.length - this.writeIndex));
+            System.arraycopy(b, off, this.buffer, this.writeIndex, chunk);
+            this.writeIndex = (this.writeIndex + chunk) % this.buffer.length;
+            this.size += chunk;
+            off += chunk;
+            len -= chunk;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reads up to len bytes from the buffer, blocking while it is empty.
+     *
+     * @param b destination array
+     * @param off offset into the destination array
+     * @param len maximum number of bytes to read
+     * @return number of bytes read, or -1 if the end of stream was marked and the buffer is drained
+     * @throws InterruptedException if the reading thread is interrupted while waiting
+     */
+    public synchronized int read(byte[] b, int off, int len) throws InterruptedException {
+        while (this.size == 0) {
+            if (this.endOfStream)
+                return -1;
+            wait();
+        }
+        int total = 0;
+        while (total < len && this.size > 0) {
+            int chunk = Math.min(len - total, Math.min(this.size, this.buffer.length - this.readIndex));
+            System.arraycopy(this.buffer, this.readIndex, b, off + total, chunk);
+            this.readIndex = (this.readIndex + chunk) % this.buffer.length;
+            this.size -= chunk;
+            total += chunk;
+        }
+        notifyAll();
+        return total;
+    }
+
+    /**
+     * Waits for free space and gives the writer the free bytes that follow writeOffset() without wrapping,
+     * so it can fill them in place.
+     *
+     * @param max maximum number of bytes wanted
+     * @return number of free bytes from writeOffset() on, at least 1 and at most max
+     * @throws InterruptedException if the writing thread is interrupted while waiting
+     */
+    public synchronized int awaitWritable(int max) throws InterruptedException {
+        while (this.size == this.buffer.length)
+            wait();
+        return Math.min(max, Math.min(this.buffer.length - this.size, this.buffer.length - this.writeIndex));
+    }
+
+    /**
+     * @return index in array() where the next written byte goes
+     */
+    public synchronized int writeOffset() {
+        return this.writeIndex;
+    }
+
+    /**
+     * Counts bytes filled in place after awaitWritable as written.
+     *
+     * @param len number of bytes filled from writeOffset() on, no more than awaitWritable returned
+     */
+    public synchronized void commitWrite(int len) {
+        this.writeIndex = (this.writeIndex + len) % this.buffer.length;
+        this.size += len;
+        notifyAll();
+    }
+
+    /**
+     * Waits for buffered bytes and gives the reader the ones that follow readOffset() without wrapping,
+     * so it can use them in place. They stay buffered until given to commitRead.
+     *
+     * @param max maximum number of bytes wanted
+     * @return number of buffered bytes from readOffset() on, at most max,
+     * or -1 if the end of stream was marked and the buffer is drained
+     * @throws InterruptedException if the reading thread is interrupted while waiting
+     */
+    public synchronized int awaitReadable(int max) throws InterruptedException {
+        while (this.size == 0) {
+            if (this.endOfStream)
+                return -1;
+            wait();
+        }
+        return Math.min(max, Math.min(this.size, this.buffer.length - this.readIndex));
+    }
+
+    /**
+     * @return index in array() of the next byte to read
+     */
+    public synchronized int readOffset() {
+        return this.readIndex;
+    }
+
+    /**
+     * Counts bytes used in place after awaitReadable as read, freeing their space for the writer.
+     *
+     * @param len number of bytes used from readOffset() on, no more than awaitReadable returned
+     */
+    public synchronized void commitRead(int len) {
+        this.readIndex = (this.readIndex + len) % this.buffer.length;
+        this.size -= len;
+        notifyAll();
+    }
+
+    /**
+     * Gets the array the bytes are kept in, for the regions handed out by awaitWritable and awaitReadable.
+     *
+     * @return the buffer's array
+     */
+    public byte[] array() {
+        return this.buffer;
+    }
+
+    /**
+     * Marks that the writer will not write any more bytes.
+     * Readers drain what is left and then receive -1.
+     */
+    public synchronized void markEndOfStream() {
+        this.endOfStream = true;
+        notifyAll();
+    }
+
+    /**
+     * Discards all buffered bytes and clears the end of stream mark.
+     * Neither the writer nor the reader may hold a region handed out in place while it runs.
+     */
+    public synchronized void clear() {
+        this.readIndex = 0;
+        this.writeIndex = 0;
+        this.size = 0;
+        this.endOfStream = false;
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of bytes currently buffered.
+     *
+     * @return buffered byte count
+     */
+    public synchronized int available() {
+        return this.size;
+    }
+
+    /**
+     * Gets the capacity of the buffer.
+     *
+     * @return capacity in bytes
+     */
+    public int capacity() {
+        return this.buffer.length;
+    }
+}
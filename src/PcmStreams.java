@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads decoded PCM streams. A decoder started part way into an MP3 produces no samples for the frames
+ * whose bit reservoir it missed, and the mp3spi decoder reports each of those as a read of 0 bytes,
+ * so a read of 0 bytes is not the end of a stream. Only -1 is, or more empty reads in a row than
+ * the priming of a seek ever gives, which a stream stuck returning nothing is taken to have ended at.
+ */
+public final class PcmStreams {
+
+    /** Empty reads in a row taken as the end of a stream */
+    public static final int MAX_EMPTY_READS = 64;
+
+    private PcmStreams() {
+    }
+
+    /**
+     * Reads some bytes of a stream, reading again as long as it reads none.
+     *
+     * @param in stream to read
+     * @param b array to read into
+     * @param off offset in b to read at
+     * @param len most bytes to read
+     * @return number of bytes read, or -1 at the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    public static int read(InputStream in, byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        for (int empty = 0; empty <= MAX_EMPTY_READS; empty++) {
+            int n = in.read(b, off, len);
+            if (n != 0)
+                return n;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads bytes of a stream until len have been read or the stream ends.
+     *
+     * @param in stream to read
+     * @param b array to read into
+     * @param off offset in b to read at
+     * @param len number of bytes to read
+     * @return number of bytes read, less than len only if the stream ended
+     * @throws IOException if the stream cannot be read
+     */
+    public static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int n = read(in, b, off + read, len - read);
+            if (n < 0)
+                break;
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Skips bytes of a stream by reading and discarding them, since decoded MP3 streams skip
+     * the encoded bytes rather than the decoded ones.
+     *
+     * @param in stream to skip
+     * @param bytes number of bytes to skip, a multiple of the frame size
+     * @param frameSize size of a frame of the stream in bytes
+     * @return number of bytes that could not be skipped because the stream ended
+     * @throws IOException if the stream cannot be read
+     */
+    public static long skip(InputStream in, long bytes, int frameSize) throws IOException {
+        byte[] scratch = new byte[16 * 1024 - (16 * 1024) % frameSize];
+        while (bytes > 0) {
+            int n = read(in, scratch, 0, (int) Math.min(scratch.length, bytes));
+            if (n < 0)
+                break;
+            bytes -= n;
+        }
+        return bytes;
+    }
+}
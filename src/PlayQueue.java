@@ -0,0 +1,597 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The playlist of the model: the songs in order, a cursor, shuffle and repeat, and songs to play next.
+ *
+ * Songs are kept as track ids, numbers into a table that stores each distinct path once as UTF-8 bytes,
+ * and the queue itself is a few int arrays, so a queue of a million songs costs a few arrays rather than
+ * a million objects. Shuffle is an incremental Fisher-Yates shuffle: each step draws one of the songs
+ * not played yet, in constant time, and the songs drawn so far are the shuffled order to step back through.
+ *
+ * All methods are synchronized, so the queue can be read and moved along from any thread.
+ */
+public class PlayQueue {
+
+    /**
+     * What happens after the last song, or after any song.
+     * OFF stops after the last song, ALL starts over, ONE plays the same song again.
+     */
+    public enum RepeatMode { OFF, ALL, ONE }
+
+    /** CONSTANTS FOR THE SAVED FORMAT */
+    private static final int MAGIC = 0x4D505051;
+    private static final int VERSION = 2;
+    private static final int IO_CHUNK = 64 * 1024;
+
+    /**
+     * Distinct paths of the queue's songs, as UTF-8 bytes back to back, numbered in the order they were added.
+     */
+    private static final class TrackTable {
+        private byte[] bytes = new byte[16 * 1024];
+        private int[] starts = new int[256];
+        private int[] table = new int[512];
+        private int size = 0;
+
+        private TrackTable() {
+            Arrays.fill(this.table, -1);
+        }
+
+        /**
+         * @return id of the path, added if it is new
+         */
+        private int add(String path) {
+            byte[] utf8 = path.getBytes(StandardCharsets.UTF_8);
+            int mask = this.table.length - 1;
+            int slot = hash(utf8, 0, utf8.length) & mask;
+            for (int id; (id = this.table[slot]) >= 0; slot = (slot + 1) & mask) {
+                if (this.equals(id, utf8))
+                    return id;
+            }
+            int start = this.starts[this.size];
+            if (start + utf8.length > this.bytes.length)
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, start + utf8.length));
+            if (this.size + 2 > this.starts.length)
+                this.starts = Arrays.copyOf(this.starts, this.starts.length * 2);
+            System.arraycopy(utf8, 0, this.bytes, start, utf8.length);
+            this.starts[this.size + 1] = start + utf8.length;
+            this.table[slot] = this.size;
+            this.size++;
+            if (2 * this.size > this.table.length)
+                this.rehash(this.table.length * 2);
+            return this.size - 1;
+        }
+
+        private String get(int id) {
+            return new String(this.bytes, this.starts[id], this.starts[id + 1] - this.starts[id],
+                    StandardCharsets.UTF_8);
+        }
+
+        private boolean equals(int id, byte[] utf8) {
+            int start = this.starts[id];
+            if (this.starts[id + 1] - start != utf8.length)
+                return false;
+            for (int i = 0; i < utf8.length; i++) {
+                if (this.bytes[start + i] != utf8[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private void rehash(int capacity) {
+            this.table = new int[capacity];
+            Arrays.fill(this.table, -1);
+            int mask = capacity - 1;
+            for (int id = 0; id < this.size; id++) {
+                int slot = hash(this.bytes, this.starts[id], this.starts[id + 1]) & mask;
+                while (this.table[slot] >= 0)
+                    slot = (slot + 1) & mask;
+                this.table[slot] = id;
+            }
+        }
+
+        private static int hash(byte[] bytes, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++)
+                h = 31 * h + bytes[i];
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Random random;
+    private TrackTable tracks;
+    private int[] entries;
+    private int size;
+    private int[] upNext;
+    private int upNextHead;
+    private int upNextSize;
+    private int playing;
+    private int playingTrack;
+    private boolean fromUpNext;
+    private RepeatMode repeatMode;
+    private boolean shuffle;
+    private int[] order;
+    private int[] where;
+    private int drawn;
+
+    /**
+     * Constructor for an empty queue, repeating all songs and not shuffled.
+     */
+    public PlayQueue() {
+        this.random = new Random();
+        this.tracks = new TrackTable();
+        this.entries = new int[16];
+        this.size = 0;
+        this.upNext = new int[16];
+        this.upNextHead = 0;
+        this.upNextSize = 0;
+        this.playing = -1;
+        this.playingTrack = -1;
+        this.fromUpNext = false;
+        this.repeatMode = RepeatMode.ALL;
+        this.shuffle = false;
+        this.order = null;
+        this.where = null;
+        this.drawn = 0;
+    }
+
+    /**
+     * Builds a queue of songs.
+     *
+     * @param songs songs in playing order
+     * @return the queue
+     */
+    public static PlayQueue of(List<File> songs) {
+        PlayQueue queue = new PlayQueue();
+        for (File song : songs)
+            queue.enqueue(song);
+        return queue;
+    }
+
+    /**
+     * Reads an M3U or M3U8 playlist a line at a time, adding each song to the queue as it is read,
+     * so even huge playlists never sit in memory as text. Comment and #EXT lines are skipped, relative
+     * paths are resolved against the playlist's directory, and entries that are web addresses are left out.
+     * M3U8 files are UTF-8; plain M3U files are read as Latin-1, as the format was defined.
+     *
+     * @param playlist M3U or M3U8 file
+     * @return queue of the playlist's songs
+     * @throws IOException if the playlist cannot be read
+     */
+    public static PlayQueue importM3u(File playlist) throws IOException {
+        Charset charset = playlist.getName().toLowerCase().endsWith(".m3u8")
+                ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+        File directory = playlist.getAbsoluteFile().getParentFile();
+        PlayQueue queue = new PlayQueue();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(playlist.toPath()), charset), IO_CHUNK)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                line = line.trim();
+                if (!line.isEmpty() && line.charAt(0) == '\uFEFF')
+                    line = line.substring(1);
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                File song;
+                if (line.startsWith("file:")) {
+                    try {
+                        song = new File(URI.create(line));
+                    } catch (IllegalArgumentException e) {
+                        continue;
+                    }
+                } else if (line.contains("://")) {
+                    continue;
+                } else {
+                    song = new File(line.replace('\\', File.separatorChar));
+                    if (!song.isAbsolute())
+                        song = new File(directory, song.getPath());
+                }
+                queue.enqueue(song);
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Reads a queue saved by save(Path), with its position, shuffle order and repeat mode.
+     *
+     * @param file saved queue
+     * @return the queue
+     * @throws IOException if the file cannot be read or is not a saved queue of this version
+     */
+    public static PlayQueue load(Path file) throws IOException {
+        // read rather than mapped, since Windows cannot move a new file over one still mapped, as save() does
+        if (Files.size(file) > Integer.MAX_VALUE - 8)
+            throw new IOException("not a saved queue: " + file);
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if (data.getInt() != MAGIC || data.getInt() != VERSION)
+                throw new IOException("not a saved queue of version " + VERSION + ": " + file);
+            PlayQueue queue = new PlayQueue();
+            queue.repeatMode = RepeatMode.values()[data.getInt()];
+            queue.shuffle = data.getInt() != 0;
+            queue.playing = data.getInt();
+            queue.playingTrack = data.getInt();
+            queue.fromUpNext = data.getInt() != 0;
+            queue.drawn = data.getInt();
+            TrackTable tracks = new TrackTable();
+            tracks.size = data.getInt();
+            tracks.starts = readInts(data, tracks.size + 1, tracks.size + 2);
+            tracks.bytes = new byte[tracks.starts[tracks.size]];
+            data.get(tracks.bytes);
+            tracks.rehash(Integer.highestOneBit(Math.max(256, tracks.size)) * 4);
+            queue.tracks = tracks;
+            queue.size = data.getInt();
+            queue.entries = readInts(data, queue.size, Math.max(16, queue.size));
+            queue.upNextSize = data.getInt();
+            queue.upNext = readInts(data, queue.upNextSize, Math.max(16, queue.upNextSize));
+            if (queue.shuffle) {
+                queue.order = readInts(data, queue.size, queue.entries.length);
+                queue.where = readInts(data, queue.size, queue.entries.length);
+            }
+            return queue;
+        } catch (RuntimeException e) {
+            throw new IOException("damaged saved queue: " + file, e);
+        }
+    }
+
+    /**
+     * Saves the queue in a compact binary form: the path table's bytes and the int arrays, as they are
+     * in memory. Written to a temporary file and moved into place.
+     *
+     * @param file where to save the queue
+     * @throws IOException if the queue cannot be written
+     */
+    public synchronized void save(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "queue", ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK);
+            int[] header = {MAGIC, VERSION, this.repeatMode.ordinal(), this.shuffle ? 1 : 0,
+                    this.playing, this.playingTrack, this.fromUpNext ? 1 : 0, this.drawn, this.tracks.size};
+            writeInts(channel, buffer, header, header.length);
+            writeInts(channel, buffer, this.tracks.starts, this.tracks.size + 1);
+            for (int at = 0, end = this.tracks.starts[this.tracks.size]; at < end; ) {
+                if (!buffer.hasRemaining())
+                    flush(channel, buffer);
+                int n = Math.min(buffer.remaining(), end - at);
+                buffer.put(this.tracks.bytes, at, n);
+                at += n;
+            }
+            writeInts(channel, buffer, new int[]{this.size}, 1);
+            writeInts(channel, buffer, this.entries, this.size);
+            // the up next songs are saved in playing order, starting at the front of the array
+            int[] upNext = new int[this.upNextSize];
+            for (int i = 0; i < upNext.length; i++)
+                upNext[i] = this.upNext[(this.upNextHead + i) % this.upNext.length];
+            writeInts(channel, buffer, new int[]{upNext.length}, 1);
+            writeInts(channel, buffer, upNext, upNext.length);
+            // places past the end of the queue were never swapped, so they are all zero
+            if (this.shuffle) {
+                writeInts(channel, buffer, this.order, this.size);
+                writeInts(channel, buffer, this.where, this.size);
+            }
+            flush(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return number of songs in the queue, not counting songs to play next
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets a song by its place in the queue's own order, which shuffling does not change.
+     *
+     * @param index place of the song
+     * @return the song
+     */
+    public synchronized File get(int index) {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("song " + index + " of " + this.size);
+        return new File(this.tracks.get(this.entries[index]));
+    }
+
+    /**
+     * @return the song last returned by next(), previous() or jump(int), or null if none was
+     */
+    public synchronized File getCurrent() {
+        return this.playingTrack < 0 ? null : new File(this.tracks.get(this.playingTrack));
+    }
+
+    /**
+     * Adds a song to the end of the queue. When shuffling, it joins the songs not drawn yet.
+     *
+     * @param song song to add
+     */
+    public synchronized void enqueue(File song) {
+        if (this.size == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, this.size * 2);
+            // new places in the shuffle order start out in their own place, like the rest of the lazy order
+            if (this.shuffle) {
+                this.order = Arrays.copyOf(this.order, this.entries.length);
+                this.where = Arrays.copyOf(this.where, this.entries.length);
+            }
+        }
+        this.entries[this.size++] = this.tracks.add(song.getPath());
+    }
+
+    /**
+     * Puts a song in front of everything else, to be played next. Songs put in front this way
+     * play in the order they were added, before the queue goes on.
+     *
+     * @param song song to play next
+     */
+    public synchronized void playNext(File song) {
+        if (this.upNextSize == this.upNext.length) {
+            int[] grown = new int[this.upNext.length * 2];
+            for (int i = 0; i < this.upNextSize; i++)
+                grown[i] = this.upNext[(this.upNextHead + i) % this.upNext.length];
+            this.upNext = grown;
+            this.upNextHead = 0;
+        }
+        this.upNext[(this.upNextHead + this.upNextSize++) % this.upNext.length] = this.tracks.add(song.getPath());
+    }
+
+    /**
+     * Finds the song that next() would return, without moving on.
+     * When shuffling, this draws the next song if it has not been drawn yet, so next() returns the same one.
+     *
+     * @return the next song, or null if there is none
+     */
+    public synchronized File peekNext() {
+        int track = this.nextTrack(false);
+        return track < 0 ? null : new File(this.tracks.get(track));
+    }
+
+    /**
+     * Lists the songs coming up after the current one, without moving on: the songs put in front, then
+     * the songs after the current one in playing order, as far as that order is known. When shuffling,
+     * songs not drawn yet are not known, and the list stops at them. Costs no more than the songs listed.
+     *
+     * @param count most songs to list
+     * @return the songs, in the order they come up
+     */
+    public synchronized List<File> upcoming(int count) {
+        List<File> songs = new ArrayList<>(Math.min(count, this.upNextSize + this.size));
+        for (int i = 0; i < this.upNextSize && songs.size() < count; i++)
+            songs.add(new File(this.tracks.get(this.upNext[(this.upNextHead + i) % this.upNext.length])));
+        int known = this.shuffle ? this.drawn : this.size;
+        for (int position = this.playing + 1; position < known && songs.size() < count; position++)
+            songs.add(new File(this.tracks.get(this.entries[this.entryAt(position)])));
+        return songs;
+    }
+
+    /**
+     * Moves on to the next song: a song put in front with playNext(File) if there is one,
+     * otherwise the next song in playing order, depending on the repeat mode.
+     *
+     * @return the next song, or null if there is none
+     */
+    public synchronized File next() {
+        int track = this.nextTrack(true);
+        return track < 0 ? null : new File(this.tracks.get(track));
+    }
+
+    /**
+     * Moves back to the song played before the current one in playing order, wrapping to the last one.
+     * When shuffling, this steps back through the songs drawn so far. A song played from the ones put in
+     * front goes back to the song of the queue that played before it.
+     *
+     * @return the previous song, or null if the queue is empty
+     */
+    public synchronized File previous() {
+        int played = this.shuffle ? this.drawn : this.size;
+        if (played == 0)
+            return null;
+        int position = this.fromUpNext && this.playing >= 0 ? this.playing : this.playing - 1;
+        if (position < 0)
+            position = played - 1;
+        this.playing = position;
+        this.playingTrack = this.entries[this.entryAt(position)];
+        this.fromUpNext = false;
+        return new File(this.tracks.get(this.playingTrack));
+    }
+
+    /**
+     * Moves straight to a song by its place in the queue's own order. When shuffling, the song becomes
+     * the next one drawn if it has not been played yet, and the shuffle goes on from there.
+     *
+     * @param index place of the song
+     * @return the song
+     */
+    public synchronized File jump(int index) {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("song " + index + " of " + this.size);
+        if (!this.shuffle) {
+            this.playing = index;
+        } else {
+            int position = this.positionOf(index);
+            if (position >= this.drawn) {
+                this.swap(this.drawn, position);
+                position = this.drawn++;
+            }
+            this.playing = position;
+        }
+        this.playingTrack = this.entries[index];
+        this.fromUpNext = false;
+        return new File(this.tracks.get(this.playingTrack));
+    }
+
+    /**
+     * Turns shuffling on or off. Turning it on starts a new shuffled order whose first song is the current
+     * one; turning it off carries on in the queue's own order from the current song.
+     *
+     * @param shuffle true to shuffle
+     */
+    public synchronized void setShuffle(boolean shuffle) {
+        if (!shuffle && !this.shuffle)
+            return;
+        int current = this.playing < 0 ? -1 : this.entryAt(this.playing);
+        if (shuffle) {
+            // zeros mean every song is in its own place; the order is only written where songs are swapped
+            this.order = new int[this.entries.length];
+            this.where = new int[this.entries.length];
+            this.shuffle = true;
+            this.drawn = 0;
+            this.playing = -1;
+            if (current >= 0) {
+                this.swap(0, current);
+                this.drawn = 1;
+                this.playing = 0;
+            }
+        } else {
+            this.shuffle = false;
+            this.order = null;
+            this.where = null;
+            this.drawn = 0;
+            this.playing = current;
+        }
+    }
+
+    public synchronized boolean isShuffle() {
+        return this.shuffle;
+    }
+
+    public synchronized void setRepeatMode(RepeatMode repeatMode) {
+        this.repeatMode = repeatMode;
+    }
+
+    public synchronized RepeatMode getRepeatMode() {
+        return this.repeatMode;
+    }
+
+    /**
+     * Finds the next track, and moves on to it if asked to.
+     *
+     * @param advance true to move on, false to only look
+     * @return id of the next track, or -1 if there is none
+     */
+    private int nextTrack(boolean advance) {
+        if (this.upNextSize > 0) {
+            int track = this.upNext[this.upNextHead];
+            if (advance) {
+                this.upNextHead = (this.upNextHead + 1) % this.upNext.length;
+                this.upNextSize--;
+                this.playingTrack = track;
+                this.fromUpNext = true;
+            }
+            return track;
+        }
+        if (this.repeatMode == RepeatMode.ONE && this.fromUpNext)
+            return this.playingTrack;
+        if (this.size == 0)
+            return -1;
+        if (this.repeatMode == RepeatMode.ONE && this.playing >= 0)
+            return this.entries[this.entryAt(this.playing)];
+        int position = this.playing + 1;
+        if (position >= this.size) {
+            // a second time round a shuffled queue plays the same shuffled order again
+            if (this.repeatMode == RepeatMode.OFF)
+                return -1;
+            position = 0;
+        }
+        if (this.shuffle && position == this.drawn) {
+            // incremental Fisher-Yates: draw one of the songs not drawn yet into the next place
+            this.swap(this.drawn, this.drawn + this.random.nextInt(this.size - this.drawn));
+            this.drawn++;
+        }
+        int track = this.entries[this.entryAt(position)];
+        if (advance) {
+            this.playing = position;
+            this.playingTrack = track;
+            this.fromUpNext = false;
+        }
+        return track;
+    }
+
+    /**
+     * @return place in the queue's own order of the song at a place in playing order
+     */
+    private int entryAt(int position) {
+        if (!this.shuffle)
+            return position;
+        int entry = this.order[position];
+        return entry == 0 ? position : entry - 1;
+    }
+
+    /**
+     * @return place in playing order of the song at a place in the queue's own order
+     */
+    private int positionOf(int entry) {
+        int position = this.where[entry];
+        return position == 0 ? entry : position - 1;
+    }
+
+    /**
+     * Swaps two places of the shuffled order. Both arrays store their values plus one, so that the
+     * zeros of a new array mean "in its own place" and turning shuffle on costs no pass over the queue.
+     */
+    private void swap(int a, int b) {
+        int entryA = this.entryAt(a);
+        int entryB = this.entryAt(b);
+        this.order[a] = entryB + 1;
+        this.order[b] = entryA + 1;
+        this.where[entryB] = a + 1;
+        this.where[entryA] = b + 1;
+    }
+
+    /**
+     * Reads ints straight from the saved file into a new array, leaving room for more.
+     *
+     * @param count number of ints saved
+     * @param capacity length of the array
+     */
+    private static int[] readInts(ByteBuffer data, int count, int capacity) {
+        int[] values = new int[capacity];
+        data.asIntBuffer().get(values, 0, count);
+        data.position(data.position() + count * 4);
+        return values;
+    }
+
+    /**
+     * Writes the first ints of an array through a buffer, flushing the buffer to the file as it fills.
+     */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int count)
+            throws IOException {
+        for (int at = 0; at < count; ) {
+            if (buffer.remaining() < 4)
+                flush(channel, buffer);
+            int n = Math.min(buffer.remaining() / 4, count - at);
+            buffer.asIntBuffer().put(values, at, n);
+            buffer.position(buffer.position() + n * 4);
+            at += n;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
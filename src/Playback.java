@@ -0,0 +1,91 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineListener;
+
+/**
+ * Output side of the MusicPlayerModel.
+ * A Playback owns whatever is needed to make the decoded song audible
+ * (a fully decoded Clip, or a line fed while decoding) and exposes the
+ * transport controls the model needs.
+ */
+public interface Playback {
+
+    /**
+     * Starts or resumes the song from its current position.
+     */
+    void start();
+
+    /**
+     * Pauses the song, keeping its current position.
+     */
+    void stop();
+
+    /**
+     * Returns whether or not audio is currently being played.
+     *
+     * @return true if playing, false otherwise
+     */
+    boolean isRunning();
+
+    /**
+     * Returns whether the song has played to its very end. Unlike a position near the length, this is only true
+     * once the last frame of the song has been played, and stays true until the song is moved or started again.
+     *
+     * @return true if the whole song has been played, false otherwise
+     */
+    boolean isEnded();
+
+    /**
+     * Gets the format the song is played in, whose frame rate turns frames into time.
+     *
+     * @return PCM format of the song
+     */
+    AudioFormat getFormat();
+
+    /**
+     * Gets the total length of the song in sample frames.
+     *
+     * @return length of the song
+     */
+    long getFrameLength();
+
+    /**
+     * Gets the current position of the song in sample frames.
+     *
+     * @return current position of the song
+     */
+    long getFramePosition();
+
+    /**
+     * Moves the song to a new position. Does not change whether or not the song is running.
+     *
+     * @param position frame position to move to (0 <= position <= getFrameLength())
+     */
+    void setFramePosition(long position);
+
+    /**
+     * Sets the volume of the song.
+     *
+     * @param decibels gain in decibels, between DspChain.MIN_GAIN_DB (silence) and DspChain.MAX_GAIN_DB
+     */
+    void setGain(float decibels);
+
+    /**
+     * Sets the loudness normalization gain of the song, added to its volume.
+     *
+     * @param decibels normalization gain in decibels, 0 to play the song as it is
+     */
+    void setTrackGain(float decibels);
+
+    /**
+     * Sets the listener told with START and STOP events when the song starts and stops playing,
+     * including when it plays to its end. Events may arrive on an audio thread.
+     *
+     * @param listener listener to tell, null for none
+     */
+    void setLineListener(LineListener listener);
+
+    /**
+     * Releases the line and any streams held by this playback. The playback cannot be used afterwards.
+     */
+    void close();
+}
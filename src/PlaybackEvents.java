@@ -0,0 +1,136 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the audio path. They are recorded by any flight recording,
+ * for instance one started with -XX:StartFlightRecording, and show up in JDK Mission Control
+ * under MusicPlayer. Without a recording, an event is a few field writes the JIT compiler removes.
+ */
+public final class PlaybackEvents {
+
+    private PlaybackEvents() {
+    }
+
+    /**
+     * A song was loaded, or failed to load, by the model. Its duration is the time the load took,
+     * including a whole decode in CLIP mode.
+     */
+    @Name("musicplayer.TrackLoad")
+    @Label("Track Load")
+    @Category({"MusicPlayer", "Playback"})
+    @StackTrace(false)
+    public static final class TrackLoad extends Event {
+        @Label("Song")
+        public String song;
+
+        @Label("Playback Mode")
+        public String mode;
+
+        @Label("Preloaded")
+        @Description("The song had been decoded in the background before it was asked for")
+        public boolean preloaded;
+
+        @Label("File Size")
+        @DataAmount
+        public long fileBytes;
+
+        @Label("Decoded Size")
+        @Description("Bytes of PCM decoded before the song was ready, the whole song in CLIP mode")
+        @DataAmount
+        public long decodedBytes;
+
+        @Label("Format")
+        public String format;
+
+        @Label("Failure")
+        @Description("Why the song did not load, empty if it did")
+        public String failure;
+    }
+
+    /**
+     * The current song was moved to another position.
+     */
+    @Name("musicplayer.Seek")
+    @Label("Seek")
+    @Category({"MusicPlayer", "Playback"})
+    @StackTrace(false)
+    public static final class Seek extends Event {
+        @Label("Song")
+        public String song;
+
+        @Label("From Frame")
+        public long fromFrame;
+
+        @Label("To Frame")
+        public long toFrame;
+    }
+
+    /**
+     * The output line played everything it had been given while the song was still playing,
+     * so the listener heard a gap.
+     */
+    @Name("musicplayer.BufferUnderrun")
+    @Label("Buffer Underrun")
+    @Category({"MusicPlayer", "Playback"})
+    @StackTrace(false)
+    public static final class BufferUnderrun extends Event {
+        @Label("Song")
+        public String song;
+
+        @Label("Frame")
+        @Description("Position in the song where the gap was heard")
+        public long frame;
+    }
+
+    /**
+     * An output line was taken from the pool, opened anew or reused.
+     */
+    @Name("musicplayer.LineOpen")
+    @Label("Output Line Open")
+    @Category({"MusicPlayer", "Output"})
+    @StackTrace(false)
+    public static final class LineOpen extends Event {
+        @Label("Format")
+        public String format;
+
+        @Label("Buffer Size")
+        @DataAmount
+        public int bufferSize;
+
+        @Label("Reused")
+        public boolean reused;
+    }
+
+    /**
+     * An output line was closed.
+     */
+    @Name("musicplayer.LineClose")
+    @Label("Output Line Close")
+    @Category({"MusicPlayer", "Output"})
+    @StackTrace(false)
+    public static final class LineClose extends Event {
+        @Label("Format")
+        public String format;
+    }
+
+    /**
+     * Something on the audio path failed, so a song stopped early, a seek was lost or a command did nothing.
+     */
+    @Name("musicplayer.Failure")
+    @Label("Failure")
+    @Category({"MusicPlayer", "Playback"})
+    @StackTrace(false)
+    public static final class Failure extends Event {
+        @Label("Operation")
+        @Description("What was being done: load, decode, seek, command or playlist")
+        public String operation;
+
+        @Label("Cause")
+        public String cause;
+    }
+}
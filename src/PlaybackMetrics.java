@@ -0,0 +1,204 @@
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of the audio path, taken from a MetricsRegistry once so recording one is a plain call.
+ * Times are recorded in microseconds. With MetricsRegistry.NONE nothing is measured at all:
+ * isEnabled() is false, and the audio threads skip their timing.
+ */
+public final class PlaybackMetrics {
+
+    /** Metrics that measure nothing */
+    public static final PlaybackMetrics NONE = new PlaybackMetrics(MetricsRegistry.NONE);
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final MetricsRegistry registry;
+    private final boolean enabled;
+    private final MetricsRegistry.Counter loads;
+    private final MetricsRegistry.Counter loadFailures;
+    private final MetricsRegistry.Histogram loadTime;
+    private final MetricsRegistry.Histogram timeToFirstSample;
+    private final MetricsRegistry.Counter decodedBytes;
+    private final MetricsRegistry.Histogram decodeThroughput;
+    private final MetricsRegistry.Counter decodeFailures;
+    private final MetricsRegistry.Histogram seekTime;
+    private final MetricsRegistry.Counter seekFailures;
+    private final MetricsRegistry.Histogram scrubLatency;
+    private final MetricsRegistry.Counter scrubFailures;
+    private final MetricsRegistry.Counter underruns;
+    private final MetricsRegistry.Histogram uiUpdateTime;
+    private final MetricsRegistry.Counter commandFailures;
+    private final MetricsRegistry.Counter playlistFailures;
+    private volatile Throwable lastFailure;
+
+    /**
+     * Constructor for the metrics.
+     *
+     * @param registry registry to record into
+     */
+    public PlaybackMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        this.enabled = registry != MetricsRegistry.NONE;
+        this.loads = registry.counter("load.count");
+        this.loadFailures = registry.counter("load.failures");
+        this.loadTime = registry.histogram("load.time_us");
+        this.timeToFirstSample = registry.histogram("load.time_to_first_sample_us");
+        this.decodedBytes = registry.counter("decode.bytes");
+        this.decodeThroughput = registry.histogram("decode.throughput_kb_per_s");
+        this.decodeFailures = registry.counter("decode.failures");
+        this.seekTime = registry.histogram("seek.time_us");
+        this.seekFailures = registry.counter("seek.failures");
+        this.scrubLatency = registry.histogram("scrub.latency_us");
+        this.scrubFailures = registry.counter("scrub.failures");
+        this.underruns = registry.counter("playback.underruns");
+        this.uiUpdateTime = registry.histogram("ui.update_us");
+        this.commandFailures = registry.counter("command.failures");
+        this.playlistFailures = registry.counter("playlist.failures");
+    }
+
+    /**
+     * @return false if nothing is recorded, so callers can skip measuring
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Registers a value read whenever the metrics are reported.
+     *
+     * @param name name of the gauge
+     * @param value reads the current value
+     */
+    public void gauge(String name, LongSupplier value) {
+        this.registry.gauge(name, value);
+    }
+
+    /**
+     * @param nanos time the load took
+     */
+    public void loaded(long nanos) {
+        this.loads.add(1);
+        this.loadTime.record(nanos / 1000);
+    }
+
+    /**
+     * @param cause why the song did not load
+     */
+    public void loadFailed(Throwable cause) {
+        this.loadFailures.add(1);
+        this.failed("load", cause);
+    }
+
+    /**
+     * @param nanos time from asking for a song to the first of its samples being ready to play
+     */
+    public void firstSample(long nanos) {
+        this.timeToFirstSample.record(nanos / 1000);
+    }
+
+    /**
+     * @param bytes bytes of PCM decoded
+     * @param nanos time decoding them took
+     */
+    public void decoded(long bytes, long nanos) {
+        if (!this.enabled)
+            return;
+        this.decodedBytes.add(bytes);
+        if (nanos > 0)
+            this.decodeThroughput.record(bytes * 1000000 / nanos);
+    }
+
+    /**
+     * @param cause why decoding stopped before the end of the song
+     */
+    public void decodeFailed(Throwable cause) {
+        this.decodeFailures.add(1);
+        this.failed("decode", cause);
+    }
+
+    /**
+     * @param nanos time the seek took
+     */
+    public void seeked(long nanos) {
+        this.seekTime.record(nanos / 1000);
+    }
+
+    /**
+     * @param cause why the song could not be moved to its new position
+     */
+    public void seekFailed(Throwable cause) {
+        this.seekFailures.add(1);
+        this.failed("seek", cause);
+    }
+
+    /**
+     * @param nanos time from the song slider moving to a grain at its position being queued to play
+     */
+    public void scrubbed(long nanos) {
+        this.scrubLatency.record(nanos / 1000);
+    }
+
+    public void scrubFailed() {
+        this.scrubFailures.add(1);
+    }
+
+    public void underrun() {
+        this.underruns.add(1);
+    }
+
+    /**
+     * @param nanos time the GUI's JavaFX thread spent on one update from the model
+     */
+    public void uiUpdated(long nanos) {
+        this.uiUpdateTime.record(nanos / 1000);
+    }
+
+    /**
+     * @param cause what a command on the model's command loop threw
+     */
+    public void commandFailed(Throwable cause) {
+        this.commandFailures.add(1);
+        this.failed("command", cause);
+    }
+
+    /**
+     * @param cause why a playlist file could not be read
+     */
+    public void playlistFailed(Throwable cause) {
+        this.playlistFailures.add(1);
+        this.failed("playlist", cause);
+    }
+
+    /**
+     * @return the cause of the latest failure recorded with its cause, null if there was none
+     */
+    public Throwable getLastFailure() {
+        return this.lastFailure;
+    }
+
+    /**
+     * @return the registry's report of every metric, one line each
+     */
+    public List<String> report() {
+        return this.registry.report();
+    }
+
+    /**
+     * Keeps the cause of a failure unless nothing is measured, and records it for any flight recording.
+     *
+     * @param operation what failed
+     * @param cause why it failed
+     */
+    private void failed(String operation, Throwable cause) {
+        if (this.enabled)
+            this.lastFailure = cause;
+        PlaybackEvents.Failure event = new PlaybackEvents.Failure();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.cause = cause.toString();
+            event.commit();
+        }
+    }
+}
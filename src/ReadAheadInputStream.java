@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Input stream reading a channel ahead of its reader, in large blocks, on a background thread.
+ * Meant for files on network mounts, where every read is a round trip to the server: a decoder reading
+ * a few hundred bytes at a time through a small buffer waits on the network for every buffer, while
+ * here it reads from blocks that have already arrived, and the next ones are on their way while it decodes.
+ * The first block is small so the decoder can start on the header early, and each one after it doubles,
+ * up to BLOCK_SIZE. Blocks are reused once read, so a stream holds at most BLOCKS_AHEAD + 1 of them,
+ * and blocks dropped by a skip that have not been read yet are never read.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /** CONSTANTS FOR THE READ-AHEAD */
+    public static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int FIRST_BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCKS_AHEAD = 4;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final SeekableByteChannel channel;
+    private final Executor executor;
+    private final long end;
+    private final ArrayDeque<CompletableFuture<ByteBuffer>> pending;
+    private final ArrayDeque<ByteBuffer> spare;
+    private ByteBuffer current;
+    private long position;
+    private long fetchPosition;
+    private int blockSize;
+    private boolean closed;
+
+    /**
+     * Constructor for the stream. The first blocks are requested straight away.
+     *
+     * @param channel channel to read, closed with the stream
+     * @param offset where to start reading
+     * @param executor runs the reads in the background
+     * @throws IOException if the size of the channel cannot be read
+     */
+    public ReadAheadInputStream(SeekableByteChannel channel, long offset, Executor executor) throws IOException {
+        this.channel = channel;
+        this.executor = executor;
+        this.end = channel.size();
+        this.pending = new ArrayDeque<>();
+        this.spare = new ArrayDeque<>();
+        this.current = null;
+        this.position = Math.min(Math.max(0, offset), this.end);
+        this.fetchPosition = this.position;
+        this.blockSize = FIRST_BLOCK_SIZE;
+        this.closed = false;
+        this.fill();
+    }
+
+    @Override
+    public int read() throws IOException {
+        ByteBuffer buffer = this.current();
+        if (buffer == null)
+            return -1;
+        this.position++;
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        int total = 0;
+        // only wait for a block if nothing has been read yet, so the reader gets what has arrived straight away
+        while (total < len && (total == 0 || (this.current != null && this.current.hasRemaining())
+                || (!this.pending.isEmpty() && this.pending.peek().isDone()))) {
+            ByteBuffer buffer = this.current();
+            if (buffer == null)
+                break;
+            int n = Math.min(len - total, buffer.remaining());
+            buffer.get(b, off + total, n);
+            total += n;
+            this.position += n;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || this.closed)
+            return 0;
+        long start = this.position;
+        long target = Math.min(this.end, this.position + n);
+        if (target >= this.fetchPosition) {
+            // past everything requested so far, so start over at the target rather than wait for it all
+            this.drop();
+            this.position = target;
+            this.fetchPosition = target;
+            this.blockSize = FIRST_BLOCK_SIZE;
+            this.fill();
+            return target - start;
+        }
+        while (this.position < target) {
+            ByteBuffer buffer = this.current();
+            if (buffer == null)
+                break;
+            int step = (int) Math.min(buffer.remaining(), target - this.position);
+            buffer.position(buffer.position() + step);
+            this.position += step;
+        }
+        return this.position - start;
+    }
+
+    @Override
+    public int available() {
+        return this.current == null ? 0 : this.current.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        this.drop();
+        this.channel.close();
+    }
+
+    /**
+     * Gets the block being read, waiting for the next one once it runs out.
+     *
+     * @return block with bytes remaining, or null at the end of the channel
+     */
+    private ByteBuffer current() throws IOException {
+        if (this.closed)
+            throw new IOException("stream closed");
+        while (this.current == null || !this.current.hasRemaining()) {
+            if (this.current != null) {
+                this.spare.add(this.current);
+                this.current = null;
+            }
+            CompletableFuture<ByteBuffer> next = this.pending.poll();
+            if (next == null)
+                return null;
+            this.fill();
+            try {
+                this.current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a block");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        return this.current;
+    }
+
+    /**
+     * Requests blocks until BLOCKS_AHEAD are on their way, or the end of the channel is.
+     */
+    private void fill() throws IOException {
+        while (this.pending.size() < BLOCKS_AHEAD && this.fetchPosition < this.end) {
+            long at = this.fetchPosition;
+            int size = (int) Math.min(this.blockSize, this.end - at);
+            ByteBuffer spare = this.spare.poll();
+            ByteBuffer block = spare != null && spare.capacity() >= size ? spare : ByteBuffer.allocate(size);
+            block.clear().limit(size);
+            CompletableFuture<ByteBuffer> read = new CompletableFuture<>();
+            try {
+                this.executor.execute(() -> this.readBlock(read, block, at));
+                this.pending.add(read);
+            } catch (RejectedExecutionException e) {
+                throw new IOException("read-ahead stopped", e);
+            }
+            this.fetchPosition += size;
+            this.blockSize = Math.min(BLOCK_SIZE, this.blockSize * 2);
+        }
+    }
+
+    /**
+     * Reads a block, unless it was dropped while it waited. Runs on the executor.
+     */
+    private void readBlock(CompletableFuture<ByteBuffer> read, ByteBuffer block, long at) {
+        if (read.isCancelled())
+            return;
+        try {
+            synchronized (this.channel) {
+                this.channel.position(at);
+                while (block.hasRemaining() && this.channel.read(block) >= 0) {
+                    // read until the block is full or the channel ends
+                }
+            }
+            read.complete(block.flip());
+        } catch (IOException e) {
+            read.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Forgets the blocks requested. Blocks waiting for the executor are never read, and blocks being read
+     * are left to finish and be collected.
+     */
+    private void drop() {
+        for (CompletableFuture<ByteBuffer> block : this.pending)
+            block.cancel(false);
+        this.pending.clear();
+        if (this.current != null) {
+            this.spare.add(this.current);
+            this.current = null;
+        }
+    }
+}
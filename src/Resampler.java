@@ -0,0 +1,312 @@
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts 16-bit PCM from one sample rate to another with a polyphase windowed-sinc filter, so songs
+ * play at a rate the output device supports without leaving the conversion to the mixer.
+ *
+ * For rates in the ratio L:M in lowest terms (160:147 from 44.1kHz to 48kHz), every output frame falls
+ * on one of L fractional positions between two input frames, so the filter is a table of L phases of
+ * Kaiser-windowed sinc taps, worked out once per pair of rates and quality and shared by every resampler
+ * that needs it. Each output frame is then a single dot product of one phase with the input around it.
+ * Ratios with more phases than MAX_PHASES use the nearest phase below, which is off by less than a
+ * thousandth of a frame. Input is kept as floats in a buffer allocated once, sized for the largest
+ * block given at once, so converting allocates nothing.
+ */
+public class Resampler {
+
+    /**
+     * Trade-offs between quality and CPU. The taps are per phase at the input rate and grow as the output
+     * rate falls below it. Each filter rolls off just below the lower Nyquist frequency, so what it keeps
+     * flat is set by how steep its taps let the roll-off be; the bands given are at 44.1kHz.
+     */
+    public enum Quality {
+        /** 24 taps: about 55dB of image rejection and flat to 16kHz, for slow machines */
+        FAST(24, 5.0),
+        /** 64 taps: about 80dB and flat to 18.5kHz */
+        STANDARD(64, 8.0),
+        /** 128 taps: about 100dB, past what 16-bit output can show, and flat to 19.8kHz */
+        BEST(128, 10.0);
+
+        private final int taps;
+        private final double beta;
+
+        Quality(int taps, double beta) {
+            this.taps = taps;
+            this.beta = beta;
+        }
+
+        /**
+         * Works out the cutoff as a share of the Nyquist frequency, half a transition band below it,
+         * from Kaiser's estimate of the transition band a window of this many taps and this beta gives.
+         */
+        private double cutoff() {
+            double attenuation = this.beta / 0.1102 + 8.7;
+            double transition = 2 * (attenuation - 7.95) / (14.36 * this.taps);
+            return 1 - transition / 2;
+        }
+    }
+
+    /** CONSTANTS FOR THE FILTER */
+    private static final int MAX_PHASES = 1024;
+    private static final Map<String, float[]> TABLES = new ConcurrentHashMap<>();
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final int channels;
+    private final boolean bigEndian;
+    private final int up;
+    private final int down;
+    private final int phases;
+    private final int taps;
+    private final float[] table;
+    private final float[] buffer;
+    private int start;
+    private int end;
+    private int phase;
+
+    /**
+     * Constructor for the resampler.
+     *
+     * @param channels number of interleaved channels
+     * @param inputRate sample rate of the input, a whole number of hertz
+     * @param outputRate sample rate to convert to, a whole number of hertz
+     * @param quality filter quality
+     * @param maxInputFrames most frames given to process() at once
+     * @param bigEndian byte order of the PCM, in and out
+     */
+    public Resampler(int channels, int inputRate, int outputRate, Quality quality, int maxInputFrames,
+                     boolean bigEndian) {
+        int gcd = gcd(inputRate, outputRate);
+        this.channels = channels;
+        this.bigEndian = bigEndian;
+        this.up = outputRate / gcd;
+        this.down = inputRate / gcd;
+        this.phases = Math.min(this.up, MAX_PHASES);
+        double cutoff = Math.min(1.0, (double) outputRate / inputRate) * quality.cutoff();
+        // a lower cutoff needs proportionally more taps for the same transition band, in input frames
+        this.taps = 2 * (int) Math.ceil(quality.taps / 2.0 / Math.min(1.0, (double) outputRate / inputRate));
+        this.table = TABLES.computeIfAbsent(this.phases + "/" + this.taps + "/" + cutoff + "/" + quality.beta,
+                key -> buildTable(this.phases, this.taps, cutoff, quality.beta));
+        this.buffer = new float[(2 * this.taps + maxInputFrames) * channels];
+        this.reset(0, 0);
+    }
+
+    /**
+     * Checks whether a format is one the resampler converts: 16-bit signed PCM at a whole number of hertz.
+     *
+     * @param format format to check
+     * @return true if streams of the format can be resampled
+     */
+    public static boolean canResample(AudioFormat format) {
+        return format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED) && format.getSampleSizeInBits() == 16
+                && format.getSampleRate() > 0 && format.getSampleRate() == Math.rint(format.getSampleRate());
+    }
+
+    /**
+     * Number of input frames before an output frame's position that its filter reads, which a stream
+     * opened part way into a song should start with so its first frames are filtered like the rest.
+     *
+     * @return frames of history the filter reads
+     */
+    public int getHistoryFrames() {
+        return this.taps / 2 - 1;
+    }
+
+    /**
+     * Starts over, for input that begins with the given number of history frames before the first frame
+     * to produce output from, and an output position that many L-ths of an input frame after it.
+     *
+     * @param historyFrames input frames given before the first output's position, at most getHistoryFrames()
+     * @param phase position of the first output between input frames, in units of 1/L of a frame
+     */
+    public void reset(int historyFrames, int phase) {
+        int zeros = this.getHistoryFrames() - Math.min(historyFrames, this.getHistoryFrames());
+        Arrays.fill(this.buffer, 0, zeros * this.channels, 0f);
+        this.start = 0;
+        this.end = zeros;
+        this.phase = phase;
+    }
+
+    /**
+     * @return the numerator L of the ratio of the output rate to the input rate in lowest terms
+     */
+    public int getUp() {
+        return this.up;
+    }
+
+    /**
+     * @return the denominator M of the ratio of the output rate to the input rate in lowest terms
+     */
+    public int getDown() {
+        return this.down;
+    }
+
+    /**
+     * Most output frames process() can produce from a block of input.
+     *
+     * @param inputFrames frames of input in the block
+     * @return upper bound of the output frames
+     */
+    public int maxOutputFrames(int inputFrames) {
+        return (int) (((long) inputFrames + this.taps) * this.up / this.down) + 1;
+    }
+
+    /**
+     * Converts a block of input. Output frames whose filter reaches past the input given so far are
+     * held back until the next block, or until flush().
+     *
+     * @param in input PCM
+     * @param off offset of the first input frame in bytes
+     * @param frames number of input frames
+     * @param out array for the output, at least maxOutputFrames(frames) frames long from outOff
+     * @param outOff offset in out to write at, in bytes
+     * @return number of output frames written
+     */
+    public int process(byte[] in, int off, int frames, byte[] out, int outOff) {
+        this.compact();
+        int channels = this.channels;
+        int at = this.end * channels;
+        for (int i = 0, n = frames * channels; i < n; i++, off += 2)
+            this.buffer[at + i] = this.bigEndian ? (short) (in[off] << 8 | in[off + 1] & 0xff)
+                    : (short) (in[off + 1] << 8 | in[off] & 0xff);
+        this.end += frames;
+        return this.produce(out, outOff);
+    }
+
+    /**
+     * Feeds silence after the end of the input so the output frames held back come out.
+     *
+     * @param out array for the output, at least maxOutputFrames(0) frames long from outOff
+     * @param outOff offset in out to write at, in bytes
+     * @return number of output frames written
+     */
+    public int flush(byte[] out, int outOff) {
+        this.compact();
+        int zeros = this.taps / 2 + 1;
+        Arrays.fill(this.buffer, this.end * this.channels, (this.end + zeros) * this.channels, 0f);
+        this.end += zeros;
+        return this.produce(out, outOff);
+    }
+
+    /**
+     * Writes every output frame whose filter is inside the buffered input.
+     */
+    private int produce(byte[] out, int outOff) {
+        int channels = this.channels;
+        int taps = this.taps;
+        float[] buffer = this.buffer;
+        float[] table = this.table;
+        int produced = 0;
+        // an output frame at position start + history + phase / up reads input frames start to start + taps - 1
+        while (this.start + taps <= this.end) {
+            int row = (this.phases == this.up ? this.phase : (int) ((long) this.phase * this.phases / this.up)) * taps;
+            int from = this.start * channels;
+            if (channels == 2) {
+                float left = 0;
+                float right = 0;
+                for (int k = 0; k < taps; k++) {
+                    float c = table[row + k];
+                    left += c * buffer[from + 2 * k];
+                    right += c * buffer[from + 2 * k + 1];
+                }
+                outOff = this.write(out, outOff, left);
+                outOff = this.write(out, outOff, right);
+            } else {
+                for (int ch = 0; ch < channels; ch++) {
+                    float sum = 0;
+                    for (int k = 0; k < taps; k++)
+                        sum += table[row + k] * buffer[from + k * channels + ch];
+                    outOff = this.write(out, outOff, sum);
+                }
+            }
+            produced++;
+            this.phase += this.down;
+            this.start += this.phase / this.up;
+            this.phase %= this.up;
+        }
+        return produced;
+    }
+
+    private int write(byte[] out, int off, float value) {
+        int sample = Math.round(value);
+        if (sample > Short.MAX_VALUE)
+            sample = Short.MAX_VALUE;
+        else if (sample < Short.MIN_VALUE)
+            sample = Short.MIN_VALUE;
+        if (this.bigEndian) {
+            out[off] = (byte) (sample >> 8);
+            out[off + 1] = (byte) sample;
+        } else {
+            out[off] = (byte) sample;
+            out[off + 1] = (byte) (sample >> 8);
+        }
+        return off + 2;
+    }
+
+    /**
+     * Moves the input still needed to the front of the buffer.
+     */
+    private void compact() {
+        if (this.start == 0)
+            return;
+        System.arraycopy(this.buffer, this.start * this.channels, this.buffer, 0, (this.end - this.start) * this.channels);
+        this.end -= this.start;
+        this.start = 0;
+    }
+
+    /**
+     * Works out the filter: for each phase p, the taps of a sinc at cutoff (a share of the input Nyquist
+     * frequency) centred p / phases of a frame past the middle of the taps, under a Kaiser window.
+     * Each phase is scaled to a gain of exactly 1 at DC, so no phase is louder than another.
+     */
+    private static float[] buildTable(int phases, int taps, double cutoff, double beta) {
+        float[] table = new float[phases * taps];
+        int half = taps / 2;
+        double norm = besselI0(beta);
+        for (int p = 0; p < phases; p++) {
+            double fraction = (double) p / phases;
+            double[] row = new double[taps];
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                // distance from the output position to input frame k, in input frames
+                double x = k - (half - 1) - fraction;
+                double u = x / half;
+                double window = Math.abs(u) >= 1 ? 0 : besselI0(beta * Math.sqrt(1 - u * u)) / norm;
+                double arg = Math.PI * cutoff * x;
+                double sinc = x == 0 ? 1 : Math.sin(arg) / arg;
+                row[k] = cutoff * sinc * window;
+                sum += row[k];
+            }
+            for (int k = 0; k < taps; k++)
+                table[p * taps + k] = (float) (row[k] / sum);
+        }
+        return table;
+    }
+
+    /**
+     * Zeroth-order modified Bessel function of the first kind, by its power series.
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double quarter = x * x / 4;
+        for (int k = 1; k < 50 && term > 1e-12 * sum; k++) {
+            term *= quarter / ((double) k * k);
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,182 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream converting a PCM stream to another sample rate through a Resampler, a block at a time,
+ * with its input and output buffers allocated once. The stream ends with exactly as many frames as the
+ * input lasts at the new rate, the last of them filtered against silence after the input.
+ */
+public class ResamplingInputStream extends InputStream {
+
+    /** Input frames converted at once */
+    private static final int BLOCK_FRAMES = 4096;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final AudioInputStream source;
+    private final Resampler resampler;
+    private final int inFrameSize;
+    private final int outFrameSize;
+    private final byte[] in;
+    private final byte[] out;
+    private int inFilled;
+    private int outPosition;
+    private int outLimit;
+    private long inputEnd;
+    private long produced;
+    private final long firstOutput;
+    private boolean flushed;
+
+    /**
+     * Constructor for the stream.
+     *
+     * @param source PCM stream to convert, positioned resampler.getHistoryFrames() frames (or as many as there are)
+     *               before the input frame the first output frame falls after
+     * @param resampler resampler to convert with, reset for the source's history and the first output's phase
+     * @param sourceFrame frame of the song the source is positioned at
+     * @param firstOutput frame of the song at the new rate the stream starts with
+     */
+    public ResamplingInputStream(AudioInputStream source, Resampler resampler, long sourceFrame, long firstOutput) {
+        this.source = source;
+        this.resampler = resampler;
+        this.inFrameSize = source.getFormat().getFrameSize();
+        this.outFrameSize = this.inFrameSize;
+        this.in = new byte[BLOCK_FRAMES * this.inFrameSize];
+        this.out = new byte[resampler.maxOutputFrames(BLOCK_FRAMES) * this.outFrameSize];
+        this.inFilled = 0;
+        this.outPosition = 0;
+        this.outLimit = 0;
+        this.inputEnd = sourceFrame;
+        this.produced = 0;
+        this.firstOutput = firstOutput;
+        this.flushed = false;
+    }
+
+    /**
+     * Opens a song at a sample rate, from a frame part way into it. The song is opened a few frames
+     * before the one the position falls after, so the first frames are filtered like the rest.
+     *
+     * @param opener opens the song at its own rate
+     * @param song the song
+     * @param position frame to start at, at the new rate
+     * @param format format the song decodes to, which Resampler.canResample(format) must accept
+     * @param rate rate to convert to
+     * @param quality resampler quality
+     * @return stream of the song at the new rate, from the position
+     * @throws IOException if the song cannot be read
+     * @throws UnsupportedAudioFileException if the song cannot be decoded
+     */
+    public static AudioInputStream open(SongOpener opener, File song, long position, AudioFormat format,
+                                        int rate, Resampler.Quality quality)
+            throws IOException, UnsupportedAudioFileException {
+        Resampler resampler = new Resampler(format.getChannels(), (int) format.getSampleRate(), rate, quality,
+                BLOCK_FRAMES, format.isBigEndian());
+        // the output frame at position falls phase / up of a frame after input frame sourceFrame
+        long scaled = position * resampler.getDown();
+        long sourceFrame = scaled / resampler.getUp();
+        int phase = (int) (scaled % resampler.getUp());
+        long history = Math.min(sourceFrame, resampler.getHistoryFrames());
+        resampler.reset((int) history, phase);
+        return resample(opener.open(song, sourceFrame - history), resampler, sourceFrame - history, position);
+    }
+
+    /**
+     * Converts a PCM stream from its start to a sample rate.
+     *
+     * @param source stream to convert, positioned at its start, in a format Resampler.canResample(format) accepts
+     * @param rate rate to convert to
+     * @param quality resampler quality
+     * @return stream of the source at the new rate
+     */
+    public static AudioInputStream resample(AudioInputStream source, int rate, Resampler.Quality quality) {
+        AudioFormat format = source.getFormat();
+        return resample(source, new Resampler(format.getChannels(), (int) format.getSampleRate(), rate, quality,
+                BLOCK_FRAMES, format.isBigEndian()), 0, 0);
+    }
+
+    private static AudioInputStream resample(AudioInputStream source, Resampler resampler, long sourceFrame,
+                                             long position) {
+        AudioFormat format = source.getFormat();
+        float rate = (long) format.getSampleRate() * resampler.getUp() / resampler.getDown();
+        AudioFormat resampled = new AudioFormat(format.getEncoding(), rate, format.getSampleSizeInBits(),
+                format.getChannels(), format.getFrameSize(), rate, format.isBigEndian());
+        long frameLength = source.getFrameLength() == AudioSystem.NOT_SPECIFIED ? AudioSystem.NOT_SPECIFIED
+                : Math.max(0, ceilDiv((sourceFrame + source.getFrameLength()) * resampler.getUp(),
+                        resampler.getDown()) - position);
+        return new AudioInputStream(new ResamplingInputStream(source, resampler, sourceFrame, position),
+                resampled, frameLength);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (this.outPosition == this.outLimit) {
+            if (!this.convert())
+                return -1;
+        }
+        int n = Math.min(len, this.outLimit - this.outPosition);
+        System.arraycopy(this.out, this.outPosition, b, off, n);
+        this.outPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.outLimit - this.outPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.source.close();
+    }
+
+    /**
+     * Converts the next block of input.
+     *
+     * @return false once the input and the frames held back are all out
+     */
+    private boolean convert() throws IOException {
+        if (this.flushed)
+            return false;
+        int n = PcmStreams.read(this.source, this.in, this.inFilled, this.in.length - this.inFilled);
+        if (n < 0) {
+            int frames = this.resampler.flush(this.out, 0);
+            // as many frames as the input lasts at the new rate, and no more
+            long total = ceilDiv(this.inputEnd * this.resampler.getUp(), this.resampler.getDown()) - this.firstOutput;
+            frames = (int) Math.max(0, Math.min(frames, total - this.produced));
+            this.produced += frames;
+            this.outPosition = 0;
+            this.outLimit = frames * this.outFrameSize;
+            this.flushed = true;
+            return frames > 0;
+        }
+        this.inFilled += n;
+        int frames = this.inFilled / this.inFrameSize;
+        int produced = this.resampler.process(this.in, 0, frames, this.out, 0);
+        int rest = this.inFilled - frames * this.inFrameSize;
+        System.arraycopy(this.in, frames * this.inFrameSize, this.in, 0, rest);
+        this.inFilled = rest;
+        this.inputEnd += frames;
+        this.produced += produced;
+        this.outPosition = 0;
+        this.outLimit = produced * this.outFrameSize;
+        return true;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
+}
@@ -0,0 +1,416 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays short grains of a song at the position of the song slider while it is dragged, so the song
+ * can be heard while looking for a place in it. The grains come from a cache of decoded blocks of the
+ * song around the playhead, filled ahead of the drag in the direction it moves, so a grain is usually
+ * only a copy out of memory: the time from the slider moving to the grain being queued on the line is
+ * well under the 20ms the ear takes as immediate, in every playback mode.
+ *
+ * The slider moves far more often than grains can be played, so moves are not queued: the grain thread
+ * cuts the grain playing short with a fade and starts one at the latest position, and positions passed over
+ * in between are never decoded at all. Grains fade in and out so they join without clicks.
+ */
+public class Scrubber {
+
+    /** CONSTANTS FOR THE GRAINS */
+    private static final int BLOCK_FRAMES = 2048;
+    private static final int MAX_BLOCKS = 256;
+    private static final int PREFETCH_BLOCKS = 8;
+    private static final int PREFETCH_GRAINS = 4;
+    private static final int MAX_PREFETCH_BLOCKS = 96;
+    private static final double GRAIN_SECONDS = 0.04;
+    private static final double PIECE_SECONDS = 0.004;
+
+    /**
+     * The song being scrubbed, and the blocks of it decoded so far.
+     */
+    private static final class Session {
+        private final File song;
+        private final AudioFormat format;
+        private final long frameLength;
+        private final Map<Long, byte[]> blocks;
+
+        private Session(File song, AudioFormat format, long frameLength) {
+            this.song = song;
+            this.format = format;
+            this.frameLength = frameLength;
+            this.blocks = new LinkedHashMap<>(MAX_BLOCKS * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                    return this.size() > MAX_BLOCKS;
+                }
+            };
+        }
+
+        private byte[] block(long index) {
+            synchronized (this.blocks) {
+                return this.blocks.get(index);
+            }
+        }
+
+        private boolean has(long index) {
+            synchronized (this.blocks) {
+                return this.blocks.containsKey(index);
+            }
+        }
+
+        private void put(long index, byte[] block) {
+            synchronized (this.blocks) {
+                this.blocks.put(index, block);
+            }
+        }
+    }
+
+    /**
+     * Runs of blocks of a song waiting to be decoded ahead of the playhead, nearest first.
+     */
+    private static final class Prefetch {
+        private final Session session;
+        private final List<long[]> runs;
+
+        private Prefetch(Session session, List<long[]> runs) {
+            this.session = session;
+            this.runs = runs;
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final SongOpener opener;
+    private final OutputLinePool linePool;
+    private final PlaybackMetrics metrics;
+    private final ExecutorService prefetcher;
+    private final AtomicLong target;
+    private final AtomicReference<Prefetch> prefetch;
+    private volatile long targetSince;
+    private volatile Session session;
+    private volatile Thread grains;
+    private volatile float volumeDecibels;
+    private volatile float trackDecibels;
+
+    /**
+     * Constructor for the scrubber.
+     *
+     * @param opener opens songs as PCM streams from a frame position
+     * @param linePool pool to take the grains' output line from
+     * @param metrics metrics to record how long grains take to play
+     */
+    public Scrubber(SongOpener opener, OutputLinePool linePool, PlaybackMetrics metrics) {
+        this.opener = opener;
+        this.linePool = linePool;
+        this.metrics = metrics;
+        this.prefetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "scrub-prefetcher");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        this.target = new AtomicLong(-1);
+        this.prefetch = new AtomicReference<>();
+        this.session = null;
+        this.grains = null;
+    }
+
+    /**
+     * Starts scrubbing a song. Blocks already decoded are kept if it is the song scrubbed last.
+     *
+     * @param song song to scrub
+     * @param format PCM format the song decodes to
+     * @param frameLength length of the song in frames, or AudioSystem.NOT_SPECIFIED
+     * @param position frame the playhead is at, decoded around straight away
+     * @param volumeDecibels volume to play the grains at
+     * @param trackDecibels normalization gain of the song
+     */
+    public synchronized void begin(File song, AudioFormat format, long frameLength, long position,
+                                   float volumeDecibels, float trackDecibels) {
+        this.end();
+        Session last = this.session;
+        if (last == null || !last.song.equals(song) || !last.format.matches(format))
+            this.session = new Session(song, format, frameLength);
+        this.volumeDecibels = volumeDecibels;
+        this.trackDecibels = trackDecibels;
+        this.target.set(-1);
+        this.prefetch(this.session, position, 0);
+        Session scrubbed = this.session;
+        Thread thread = new Thread(() -> this.play(scrubbed), "scrub-grains");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        this.grains = thread;
+        thread.start();
+    }
+
+    /**
+     * Moves the playhead. Can be called from any thread, as often as the slider moves;
+     * only the latest position is played.
+     *
+     * @param position frame to play a grain at
+     */
+    public void moveTo(long position) {
+        this.targetSince = System.nanoTime();
+        this.target.set(Math.max(0, position));
+        Thread thread = this.grains;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stops scrubbing. The grain being played is cut off, and the decoded blocks are kept
+     * in case the same song is scrubbed again.
+     */
+    public synchronized void end() {
+        Thread thread = this.grains;
+        this.grains = null;
+        if (thread == null)
+            return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true between begin() and end()
+     */
+    public boolean isScrubbing() {
+        return this.grains != null;
+    }
+
+    /**
+     * Stops scrubbing and prefetching, and forgets every decoded block.
+     */
+    public synchronized void close() {
+        this.end();
+        this.prefetcher.shutdownNow();
+        this.session = null;
+    }
+
+    /**
+     * Plays grains at the latest position until interrupted. Runs on the grain thread.
+     * Grains are written a few milliseconds at a time, keeping no more than that queued on the line,
+     * so when the playhead moves the grain playing fades out within one piece and the next one starts.
+     */
+    private void play(Session session) {
+        AudioFormat format = session.format;
+        int frameSize = format.getFrameSize();
+        int grainFrames = Math.max(1, (int) (format.getFrameRate() * GRAIN_SECONDS));
+        int pieceFrames = Math.max(1, (int) (format.getFrameRate() * PIECE_SECONDS));
+        byte[] piece = new byte[pieceFrames * frameSize];
+        DspChain dsp = new DspChain(format, piece.length);
+        dsp.setGain(this.volumeDecibels);
+        dsp.startTrack(this.trackDecibels);
+        SourceDataLine line;
+        try {
+            line = this.linePool.acquireLine(format);
+        } catch (LineUnavailableException e) {
+            this.metrics.scrubFailed();
+            return;
+        }
+        long last = -1;
+        long next = -1;
+        long since = 0;
+        long position = 0;
+        int played = 0;
+        int left = 0;
+        try {
+            line.start();
+            while (!Thread.currentThread().isInterrupted()) {
+                if (line.getBufferSize() - line.available() > piece.length) {
+                    LockSupport.parkNanos(500_000);
+                    continue;
+                }
+                long moved = this.target.getAndSet(-1);
+                if (moved >= 0) {
+                    next = moved;
+                    since = this.targetSince;
+                    // the grain playing fades out over the next piece rather than finishing
+                    left = Math.min(left, pieceFrames);
+                }
+                if (left == 0) {
+                    if (next < 0) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    this.prefetch(session, next, last < 0 ? 0 : next - last);
+                    position = next;
+                    last = next;
+                    next = -1;
+                    played = 0;
+                    left = grainFrames;
+                }
+                int frames = this.fill(session, position, piece, Math.min(pieceFrames, left));
+                if (frames == 0) {
+                    left = 0;
+                    continue;
+                }
+                fade(piece, frames, played, left, pieceFrames, format);
+                dsp.process(piece, 0, frames * frameSize);
+                line.write(piece, 0, frames * frameSize);
+                if (played == 0)
+                    this.metrics.scrubbed(System.nanoTime() - since);
+                position += frames;
+                played += frames;
+                left -= frames;
+            }
+        } finally {
+            this.linePool.release(line);
+        }
+    }
+
+    /**
+     * Copies part of a grain out of the decoded blocks, decoding the blocks it needs that are not there yet.
+     *
+     * @return number of frames copied, less than asked for only at the end of the song
+     */
+    private int fill(Session session, long position, byte[] grain, int grainFrames) {
+        int frameSize = session.format.getFrameSize();
+        int copied = 0;
+        while (copied < grainFrames) {
+            long frame = position + copied;
+            long index = frame / BLOCK_FRAMES;
+            byte[] block = session.block(index);
+            if (block == null) {
+                this.decode(session, index, 2);
+                block = session.block(index);
+                if (block == null)
+                    break;
+            }
+            int offset = (int) (frame - index * BLOCK_FRAMES);
+            int frames = Math.min(grainFrames - copied, block.length / frameSize - offset);
+            if (frames <= 0)
+                break;
+            System.arraycopy(block, offset * frameSize, grain, copied * frameSize, frames * frameSize);
+            copied += frames;
+        }
+        return copied;
+    }
+
+    /**
+     * Decodes blocks ahead of the playhead on the prefetch thread. A slow drag gets the blocks next to the
+     * playhead in the direction it moves, or on both sides of it before it moves at all, and the faster the
+     * drag, the further ahead its next few grains will be and the further the blocks decoded reach.
+     * Requests are coalesced: while one is decoding, only the latest one waits, and it is taken up
+     * once the run being decoded is done.
+     *
+     * @param step frames the playhead moved since the last grain, 0 if there was none
+     */
+    private void prefetch(Session session, long position, long step) {
+        long index = position / BLOCK_FRAMES;
+        // reach as far as the next few grains will, since decoding on from a block costs far less than seeking to it
+        long reach = Math.min(MAX_PREFETCH_BLOCKS,
+                Math.max(PREFETCH_BLOCKS, PREFETCH_GRAINS * Math.abs(step) / BLOCK_FRAMES + 1));
+        List<long[]> runs = new ArrayList<>();
+        if (step == 0)
+            this.addRun(session, runs, index - PREFETCH_BLOCKS / 2, index + PREFETCH_BLOCKS / 2);
+        else if (step > 0)
+            this.addRun(session, runs, index + 1, index + reach);
+        else {
+            // blocks decode forwards, so a backward drag gets short runs, the nearest first
+            for (long end = index - 1; end >= index - reach; end -= PREFETCH_BLOCKS)
+                this.addRun(session, runs, Math.max(index - reach, end - PREFETCH_BLOCKS + 1), end);
+        }
+        if (runs.isEmpty() || this.prefetch.getAndSet(new Prefetch(session, runs)) != null)
+            return;
+        try {
+            this.prefetcher.execute(() -> {
+                Prefetch request;
+                while ((request = this.prefetch.getAndSet(null)) != null) {
+                    for (long[] run : request.runs) {
+                        if (this.prefetch.get() != null)
+                            break;
+                        this.decode(request.session, run[0], (int) run[1]);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.prefetch.set(null);
+        }
+    }
+
+    /**
+     * Adds the blocks from first to last that are in the song and not decoded yet to a prefetch request.
+     */
+    private void addRun(Session session, List<long[]> runs, long first, long last) {
+        first = Math.max(0, first);
+        if (session.frameLength > 0)
+            last = Math.min(last, (session.frameLength - 1) / BLOCK_FRAMES);
+        while (first <= last && session.has(first))
+            first++;
+        if (first <= last)
+            runs.add(new long[] {first, last - first + 1});
+    }
+
+    /**
+     * Decodes consecutive blocks into the session's cache, skipping over those already there.
+     *
+     * @param first index of the first block
+     * @param count number of blocks
+     */
+    private void decode(Session session, long first, int count) {
+        int frameSize = session.format.getFrameSize();
+        try (AudioInputStream pcm = this.opener.open(session.song, first * BLOCK_FRAMES)) {
+            for (long index = first; index < first + count; index++) {
+                byte[] block = new byte[BLOCK_FRAMES * frameSize];
+                int filled = PcmStreams.readFully(pcm, block, 0, block.length);
+                filled -= filled % frameSize;
+                if (filled == 0)
+                    return;
+                if (!session.has(index))
+                    session.put(index, filled == block.length ? block : Arrays.copyOf(block, filled));
+                if (filled < block.length)
+                    return;
+            }
+        } catch (IOException | UnsupportedAudioFileException e) {
+            // grains that need the block are skipped, as at the end of the song
+            this.metrics.scrubFailed();
+        }
+    }
+
+    /**
+     * Fades a piece of a grain in over the grain's first fade frames and out over its last ones.
+     *
+     * @param played frames of the grain played before the piece
+     * @param left frames of the grain left, the piece included
+     */
+    private static void fade(byte[] piece, int frames, int played, int left, int fadeFrames, AudioFormat format) {
+        int channels = format.getChannels();
+        boolean bigEndian = format.isBigEndian();
+        for (int i = 0; i < frames; i++) {
+            int edge = Math.min(played + i + 1, left - i);
+            if (edge < fadeFrames)
+                scale(piece, i, channels, (float) edge / fadeFrames, bigEndian);
+        }
+    }
+
+    private static void scale(byte[] pcm, int frame, int channels, float gain, boolean bigEndian) {
+        for (int c = 0; c < channels; c++) {
+            int at = (frame * channels + c) * 2;
+            int hi = bigEndian ? at : at + 1;
+            int lo = bigEndian ? at + 1 : at;
+            int sample = (short) ((pcm[hi] << 8) | (pcm[lo] & 0xff));
+            sample = Math.round(sample * gain);
+            pcm[hi] = (byte) (sample >> 8);
+            pcm[lo] = (byte) sample;
+        }
+    }
+}
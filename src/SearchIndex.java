@@ -0,0 +1,471 @@
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Instant search over the file names, artists, albums and titles of the music library.
+ *
+ * Every track's text is folded to lower case without accents and split into words. Each distinct word
+ * gets a posting list of the tracks holding it, and the words themselves are indexed by n-grams: each run
+ * of three characters, plus the first one and first two characters of the word. All lists live in flat
+ * int arrays, found through an open addressing table of primitive keys, so the index holds no boxed objects.
+ *
+ * A query matches the tracks holding each of its words: words of three characters or more inside any word
+ * of the track, shorter words at the start of one. The n-grams find the distinct words that match a query
+ * word, their posting lists are OR-ed into a bit set per query word and the sets are AND-ed, so a search
+ * costs about as much as the tracks it finds, never a pass over the whole library.
+ */
+public final class SearchIndex {
+
+    /** CONSTANTS FOR N-GRAM KEYS */
+    private static final long TRIGRAM = 1L << 48;
+    private static final long WORD_START = 2L << 48;
+    private static final long WORD_START_PAIR = 3L << 48;
+    private static final char SEPARATOR = ' ';
+    private static final int MAX_CHECKED_WITHOUT_INTERSECTING = 64;
+
+    /**
+     * Distinct words met while building the index, stored back to back in one char array
+     * and found through an open addressing table of word numbers.
+     */
+    private static final class Vocabulary {
+        private char[] chars = new char[64 * 1024];
+        private int[] starts = new int[4 * 1024];
+        private int[] table = new int[8 * 1024];
+        private int size = 0;
+
+        private Vocabulary() {
+            Arrays.fill(this.table, -1);
+        }
+
+        /**
+         * @return number of the word in text[from, to), added if it is new
+         */
+        private int add(StringBuilder text, int from, int to) {
+            int hash = 0;
+            for (int i = from; i < to; i++)
+                hash = 31 * hash + text.charAt(i);
+            int mask = this.table.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for (int word; (word = this.table[slot]) >= 0; slot = (slot + 1) & mask) {
+                if (this.equals(word, text, from, to))
+                    return word;
+            }
+            int length = to - from;
+            int start = this.starts[this.size];
+            if (start + length > this.chars.length)
+                this.chars = Arrays.copyOf(this.chars, Math.max(this.chars.length * 2, start + length));
+            if (this.size + 2 > this.starts.length)
+                this.starts = Arrays.copyOf(this.starts, this.starts.length * 2);
+            text.getChars(from, to, this.chars, start);
+            this.starts[this.size + 1] = start + length;
+            this.table[slot] = this.size;
+            this.size++;
+            if (2 * this.size > this.table.length)
+                this.rehash();
+            return this.size - 1;
+        }
+
+        private boolean equals(int word, StringBuilder text, int from, int to) {
+            int start = this.starts[word];
+            if (this.starts[word + 1] - start != to - from)
+                return false;
+            for (int i = from; i < to; i++) {
+                if (this.chars[start + i - from] != text.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        private void rehash() {
+            this.table = new int[this.table.length * 2];
+            Arrays.fill(this.table, -1);
+            int mask = this.table.length - 1;
+            for (int word = 0; word < this.size; word++) {
+                int hash = 0;
+                for (int i = this.starts[word]; i < this.starts[word + 1]; i++)
+                    hash = 31 * hash + this.chars[i];
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (this.table[slot] >= 0)
+                    slot = (slot + 1) & mask;
+                this.table[slot] = word;
+            }
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final int count;
+    private final char[] words;
+    private final int[] wordStart;
+    private final int[] trackStart;
+    private final int[] tracks;
+    private final long[] keys;
+    private final int[] listStart;
+    private final int[] listEnd;
+    private final int[] postings;
+
+    /**
+     * Builds the index over the tracks of the library. Takes a few seconds for half a million tracks,
+     * so it should be built off the JavaFX thread.
+     *
+     * @param tracks tracks to index; search results are positions in this list
+     */
+    public SearchIndex(List<TrackInfo> tracks) {
+        this.count = tracks.size();
+
+        // split each track's text into words, numbering the distinct ones
+        Vocabulary vocabulary = new Vocabulary();
+        int[] tokens = new int[Math.max(16, this.count * 8)];
+        int[] tokenStart = new int[this.count + 1];
+        int tokenCount = 0;
+        StringBuilder folded = new StringBuilder(256);
+        for (int i = 0; i < this.count; i++) {
+            TrackInfo track = tracks.get(i);
+            String name = track.getFile().getName();
+            int dot = name.lastIndexOf('.');
+            folded.setLength(0);
+            fold(dot > 0 ? name.substring(0, dot) : name, folded);
+            fold(track.getArtist(), folded);
+            fold(track.getAlbum(), folded);
+            fold(track.getTitle(), folded);
+            tokenStart[i] = tokenCount;
+            for (int at = 0, end; at < folded.length(); at = end + 1) {
+                end = folded.indexOf(" ", at);
+                if (tokenCount == tokens.length)
+                    tokens = Arrays.copyOf(tokens, tokens.length * 2);
+                tokens[tokenCount++] = vocabulary.add(folded, at, end);
+            }
+        }
+        tokenStart[this.count] = tokenCount;
+        int size = vocabulary.size;
+        this.wordStart = Arrays.copyOf(vocabulary.starts, size + 1);
+        this.words = Arrays.copyOf(vocabulary.chars, this.wordStart[size]);
+
+        // turn the words of each track into the tracks of each word, in track order
+        int[] last = new int[size];
+        int[] sizes = new int[size];
+        Arrays.fill(last, -1);
+        for (int track = 0; track < this.count; track++) {
+            for (int t = tokenStart[track]; t < tokenStart[track + 1]; t++) {
+                if (last[tokens[t]] != track) {
+                    last[tokens[t]] = track;
+                    sizes[tokens[t]]++;
+                }
+            }
+        }
+        this.trackStart = new int[size + 1];
+        for (int word = 0; word < size; word++)
+            this.trackStart[word + 1] = this.trackStart[word] + sizes[word];
+        this.tracks = new int[this.trackStart[size]];
+        int[] fill = Arrays.copyOf(this.trackStart, size);
+        Arrays.fill(last, -1);
+        for (int track = 0; track < this.count; track++) {
+            for (int t = tokenStart[track]; t < tokenStart[track + 1]; t++) {
+                if (last[tokens[t]] != track) {
+                    last[tokens[t]] = track;
+                    this.tracks[fill[tokens[t]]++] = track;
+                }
+            }
+        }
+
+        // index the words by n-gram: first count the words holding each n-gram, then lay the lists out
+        long[] keys = new long[Integer.highestOneBit(Math.max(1024, this.words.length)) * 2];
+        int[] counts = new int[keys.length];
+        int used = 0;
+        for (int word = 0; word < size; word++) {
+            int start = this.wordStart[word];
+            int end = this.wordStart[word + 1];
+            for (int at = start; at < end; at++) {
+                for (int kind = 0; kind < 3; kind++) {
+                    long key = key(this.words, start, at, end, kind);
+                    // a word repeating a trigram is listed once, at the trigram's first position
+                    if (key == 0 || !firstOccurrence(this.words, start, at, kind))
+                        continue;
+                    int slot = find(keys, key);
+                    if (keys[slot] == 0) {
+                        if (2 * (used + 1) > keys.length) {
+                            long[] oldKeys = keys;
+                            int[] oldCounts = counts;
+                            keys = new long[oldKeys.length * 2];
+                            counts = new int[keys.length];
+                            for (int s = 0; s < oldKeys.length; s++) {
+                                if (oldKeys[s] != 0) {
+                                    int moved = find(keys, oldKeys[s]);
+                                    keys[moved] = oldKeys[s];
+                                    counts[moved] = oldCounts[s];
+                                }
+                            }
+                            slot = find(keys, key);
+                        }
+                        keys[slot] = key;
+                        used++;
+                    }
+                    counts[slot]++;
+                }
+            }
+        }
+        this.keys = keys;
+        this.listStart = new int[keys.length];
+        this.listEnd = new int[keys.length];
+        int total = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            this.listStart[slot] = total;
+            this.listEnd[slot] = total;
+            total += counts[slot];
+        }
+        this.postings = new int[total];
+        for (int word = 0; word < size; word++) {
+            int start = this.wordStart[word];
+            int end = this.wordStart[word + 1];
+            for (int at = start; at < end; at++) {
+                for (int kind = 0; kind < 3; kind++) {
+                    long key = key(this.words, start, at, end, kind);
+                    if (key != 0 && firstOccurrence(this.words, start, at, kind))
+                        this.postings[this.listEnd[find(keys, key)]++] = word;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of tracks indexed
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Finds the tracks matching a query.
+     *
+     * @param query words to look for, in any case and with or without accents
+     * @return positions of the matching tracks in the indexed list, in ascending order;
+     * every track if the query has no words
+     */
+    public int[] search(String query) {
+        StringBuilder folded = new StringBuilder(query.length() + 1);
+        fold(query, folded);
+        if (folded.length() == 0) {
+            int[] all = new int[this.count];
+            for (int i = 0; i < all.length; i++)
+                all[i] = i;
+            return all;
+        }
+        long[] result = null;
+        long[] found = new long[(this.count + 63) >>> 6];
+        for (int at = 0, end; at < folded.length(); at = end + 1) {
+            end = folded.indexOf(" ", at);
+            char[] word = new char[end - at];
+            folded.getChars(at, end, word, 0);
+            int[] matches = this.matchingWords(word);
+            if (matches.length == 0)
+                return new int[0];
+            long[] bits = result == null ? new long[found.length] : found;
+            for (int match : matches) {
+                for (int i = this.trackStart[match], to = this.trackStart[match + 1]; i < to; i++)
+                    bits[this.tracks[i] >>> 6] |= 1L << this.tracks[i];
+            }
+            if (result == null) {
+                result = bits;
+            } else {
+                for (int i = 0; i < result.length; i++)
+                    result[i] &= found[i];
+                Arrays.fill(found, 0);
+            }
+        }
+        int hits = 0;
+        for (long bits : result)
+            hits += Long.bitCount(bits);
+        int[] tracks = new int[hits];
+        int n = 0;
+        for (int i = 0; i < result.length; i++) {
+            for (long bits = result[i]; bits != 0; bits &= bits - 1)
+                tracks[n++] = (i << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        return tracks;
+    }
+
+    /**
+     * Finds the distinct words a query word matches: words holding it if it has three characters
+     * or more, words starting with it otherwise.
+     *
+     * @param word folded query word
+     * @return numbers of the matching words
+     */
+    private int[] matchingWords(char[] word) {
+        if (word.length < 3) {
+            int slot = this.slot(key(word, 0, 0, word.length, word.length));
+            return slot < 0 ? new int[0] : Arrays.copyOfRange(this.postings, this.listStart[slot], this.listEnd[slot]);
+        }
+        int[] slots = new int[word.length - 2];
+        int unique = 0;
+        for (int at = 0; at + 3 <= word.length; at++) {
+            int slot = this.slot(key(word, 0, at, word.length, 0));
+            if (slot < 0)
+                return new int[0];
+            boolean seen = false;
+            for (int i = 0; i < unique; i++)
+                seen |= slots[i] == slot;
+            if (!seen)
+                slots[unique++] = slot;
+        }
+        // intersect the lists smallest first, so the running result only ever shrinks
+        this.sortBySize(slots, unique);
+        int[] result = Arrays.copyOfRange(this.postings, this.listStart[slots[0]], this.listEnd[slots[0]]);
+        int size = result.length;
+        for (int i = 1; i < unique && size > MAX_CHECKED_WITHOUT_INTERSECTING; i++)
+            size = this.intersect(result, size, slots[i]);
+        if (word.length > 3) {
+            // the trigrams of a longer word may be present without being next to each other
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (this.contains(result[i], word))
+                    result[kept++] = result[i];
+            }
+            size = kept;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Keeps the words of the running result that are also in a posting list. Each word is looked for
+     * by galloping ahead from the last one found, so a small result costs little against a long list.
+     *
+     * @return size of the new result
+     */
+    private int intersect(int[] result, int size, int slot) {
+        int[] postings = this.postings;
+        int from = this.listStart[slot];
+        int to = this.listEnd[slot];
+        int kept = 0;
+        for (int i = 0; i < size && from < to; i++) {
+            int word = result[i];
+            int step = 1;
+            int high = from;
+            while (high < to && postings[high] < word) {
+                from = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(postings, from, Math.min(high + 1, to), word);
+            if (found >= 0) {
+                result[kept++] = word;
+                from = found + 1;
+            } else {
+                from = -found - 1;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * @return true if a distinct word holds the query word
+     */
+    private boolean contains(int word, char[] query) {
+        int end = this.wordStart[word + 1];
+        for (int at = this.wordStart[word]; at + query.length <= end; at++) {
+            int i = 0;
+            while (i < query.length && this.words[at + i] == query[i])
+                i++;
+            if (i == query.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sorts slots by the length of their lists, shortest first. Queries have a handful of n-grams.
+     */
+    private void sortBySize(int[] slots, int n) {
+        for (int i = 1; i < n; i++) {
+            int slot = slots[i];
+            int size = this.listEnd[slot] - this.listStart[slot];
+            int j = i - 1;
+            while (j >= 0 && this.listEnd[slots[j]] - this.listStart[slots[j]] > size) {
+                slots[j + 1] = slots[j];
+                j--;
+            }
+            slots[j + 1] = slot;
+        }
+    }
+
+    /**
+     * @return slot of an n-gram's posting list, or -1 if no word holds it
+     */
+    private int slot(long key) {
+        if (key == 0)
+            return -1;
+        int slot = find(this.keys, key);
+        return this.keys[slot] == 0 ? -1 : slot;
+    }
+
+    /**
+     * Linear probing over a power of two table. Returns the key's slot, or the empty slot where it belongs.
+     */
+    private static int find(long[] keys, long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Builds the key of an n-gram of a word.
+     *
+     * @param start position of the word's first character
+     * @param at position of the n-gram
+     * @param end position just past the word
+     * @param kind 0 for the three characters at the position, 1 for the first character of the word
+     * and 2 for its first two characters
+     * @return the key, or 0 if the word has no such n-gram at the position
+     */
+    private static long key(char[] text, int start, int at, int end, int kind) {
+        if (kind == 0)
+            return at + 3 > end ? 0 : TRIGRAM | (long) text[at] << 32 | (long) text[at + 1] << 16 | text[at + 2];
+        if (at != start)
+            return 0;
+        if (kind == 1)
+            return WORD_START | text[at];
+        return at + 2 > end ? 0 : WORD_START_PAIR | (long) text[at] << 16 | text[at + 1];
+    }
+
+    /**
+     * @return true unless the n-gram is a trigram that already appears earlier in the same word
+     */
+    private static boolean firstOccurrence(char[] text, int start, int at, int kind) {
+        if (kind != 0)
+            return true;
+        for (int before = start; before < at; before++) {
+            if (text[before] == text[at] && text[before + 1] == text[at + 1] && text[before + 2] == text[at + 2])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends text folded for matching: lower case, accents removed, and every run of characters
+     * other than letters and digits turned into one space, so each word is followed by a space.
+     */
+    private static void fold(String value, StringBuilder out) {
+        boolean plain = true;
+        for (int i = 0; i < value.length() && plain; i++)
+            plain = value.charAt(i) < 0x80;
+        String source = plain ? value : Normalizer.normalize(value, Normalizer.Form.NFD);
+        boolean space = true;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                out.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space && Character.getType(c) != Character.NON_SPACING_MARK) {
+                out.append(SEPARATOR);
+                space = true;
+            }
+        }
+        if (!space)
+            out.append(SEPARATOR);
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics registry that keeps its metrics in memory and reports them as text.
+ * Counters and histograms are striped adders, so threads recording at once do not contend.
+ * Histograms keep one bucket per power of two, which puts their percentiles within a factor of two.
+ */
+public class SimpleMetricsRegistry implements MetricsRegistry {
+
+    /**
+     * Counter adding up in a LongAdder.
+     */
+    private static final class SimpleCounter implements Counter {
+        private final LongAdder sum = new LongAdder();
+
+        @Override
+        public void add(long amount) {
+            this.sum.add(amount);
+        }
+    }
+
+    /**
+     * Histogram with a bucket per power of two.
+     */
+    private static final class SimpleHistogram implements Histogram {
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private SimpleHistogram() {
+            this.buckets = new LongAdder[Long.SIZE];
+            for (int i = 0; i < this.buckets.length; i++)
+                this.buckets[i] = new LongAdder();
+        }
+
+        @Override
+        public void record(long value) {
+            value = Math.max(0, value);
+            // bucket b holds the values from 2^(b-1) up to 2^b - 1, and bucket 0 holds 0
+            this.buckets[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+            this.count.increment();
+            this.sum.add(value);
+            this.max.accumulateAndGet(value, Math::max);
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given fraction of the values
+         */
+        private long percentile(double fraction, long count) {
+            long wanted = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int b = 0; b < this.buckets.length; b++) {
+                seen += this.buckets[b].sum();
+                if (seen >= wanted)
+                    return Math.min(this.max.get(), b == 0 ? 0 : (1L << b) - 1);
+            }
+            return this.max.get();
+        }
+
+        private String describe() {
+            long count = this.count.sum();
+            if (count == 0)
+                return "count=0";
+            return String.format(Locale.ROOT, "count=%d mean=%.1f p50<=%d p99<=%d max=%d", count,
+                    (double) this.sum.sum() / count, this.percentile(0.5, count), this.percentile(0.99, count),
+                    this.max.get());
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Map<String, SimpleCounter> counters;
+    private final Map<String, SimpleHistogram> histograms;
+    private final Map<String, LongSupplier> gauges;
+
+    /**
+     * Constructor for the registry, which starts without metrics.
+     */
+    public SimpleMetricsRegistry() {
+        this.counters = new ConcurrentSkipListMap<>();
+        this.histograms = new ConcurrentSkipListMap<>();
+        this.gauges = new ConcurrentSkipListMap<>();
+    }
+
+    @Override
+    public Counter counter(String name) {
+        return this.counters.computeIfAbsent(name, n -> new SimpleCounter());
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+        return this.histograms.computeIfAbsent(name, n -> new SimpleHistogram());
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        this.gauges.put(name, value);
+    }
+
+    /**
+     * @param name name of a counter
+     * @return its count, 0 if there is no counter of that name
+     */
+    public long getCount(String name) {
+        SimpleCounter counter = this.counters.get(name);
+        return counter == null ? 0 : counter.sum.sum();
+    }
+
+    @Override
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, SimpleCounter> counter : this.counters.entrySet())
+            lines.add(counter.getKey() + " " + counter.getValue().sum.sum());
+        for (Map.Entry<String, LongSupplier> gauge : this.gauges.entrySet())
+            lines.add(gauge.getKey() + " " + gauge.getValue().getAsLong());
+        for (Map.Entry<String, SimpleHistogram> histogram : this.histograms.entrySet())
+            lines.add(histogram.getKey() + " " + histogram.getValue().describe());
+        return lines;
+    }
+}
@@ -0,0 +1,51 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes songs of one kind of audio file into the 16-bit signed PCM the model plays.
+ * The model asks its decoders in turn, the ones added with MusicPlayerModel.addDecoder() first,
+ * and opens a song with the first one that can decode it. Decoders for other formats, FLAC or Ogg
+ * for instance, can be added the same way, or picked up by AudioSystemDecoder once their
+ * javax.sound.sampled service provider is on the classpath.
+ */
+public interface SongDecoder extends SongOpener {
+
+    /**
+     * Checks whether this decoder can decode a song. Called for every song opened, so it should only look
+     * at the file's name or the first bytes of the file.
+     *
+     * @param song audio file
+     * @return true if open() can decode the song
+     */
+    boolean canDecode(File song);
+
+    /**
+     * Gets the format a song decodes to.
+     *
+     * @param song audio file
+     * @return 16-bit signed PCM format of the decoded song
+     * @throws IOException if the file cannot be read
+     * @throws UnsupportedAudioFileException if the file is not a song this decoder can decode
+     */
+    AudioFormat getFormat(File song) throws IOException, UnsupportedAudioFileException;
+
+    /**
+     * Returns whether decoding songs costs enough for the decoded PCM to be worth keeping in the model's caches.
+     * Songs that are PCM already are read as they are instead.
+     *
+     * @return true if decoded songs should be cached
+     */
+    default boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * Gets ready for seeks in a song that has just loaded, in the background.
+     *
+     * @param song the loaded song
+     */
+    default void prepare(File song) {
+    }
+}
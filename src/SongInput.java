@@ -0,0 +1,156 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opens song files for the decoders. The decoders read a few hundred bytes at a time, which the
+ * FileInputStream AudioSystem opens by itself turns into a system call for every 8 KB buffer.
+ * Here, files on local disks are memory-mapped instead, so reading them is copying from the page cache,
+ * and files on network mounts, where mapping would fault in a page per round trip, are read ahead
+ * in large blocks on a background I/O thread. Songs opened for playback and songs opened for a background
+ * analysis are read ahead on threads of their own, so the blocks of the playing song never wait behind
+ * the blocks of a song being measured.
+ *
+ * Which one a file gets is decided by the type of the file store holding it, once per directory.
+ * The musicplayer.input property can force either: "mapped" or "readahead".
+ */
+public final class SongInput {
+
+    /** CONSTANTS FOR THE FILE STORES */
+    private static final Set<String> NETWORK_STORES = Set.of("nfs", "nfs4", "cifs", "smbfs", "smb3", "afpfs",
+            "webdav", "davfs", "ncpfs", "9p", "fuse.sshfs", "sshfs", "fuse.rclone", "fuse.s3fs");
+    private static final String MODE = System.getProperty("musicplayer.input", "auto").toLowerCase(Locale.ROOT);
+
+    private static final ExecutorService READ_AHEAD = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "song-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService BACKGROUND_READ_AHEAD = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "song-read-ahead-background");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private static final ThreadLocal<Boolean> OPENING_IN_BACKGROUND = ThreadLocal.withInitial(() -> false);
+    private static final Map<Path, Boolean> NETWORK_DIRECTORIES = new ConcurrentHashMap<>();
+
+    private SongInput() {
+    }
+
+    /**
+     * Wraps an opener so the song files it opens are read ahead on the background thread,
+     * for work such as measuring songs that must not slow down playback.
+     *
+     * @param opener opener to wrap
+     * @return opener opening songs as the given one does, reading them ahead in the background
+     */
+    public static SongOpener background(SongOpener opener) {
+        return (song, position) -> {
+            boolean outer = OPENING_IN_BACKGROUND.get();
+            OPENING_IN_BACKGROUND.set(true);
+            try {
+                return opener.open(song, position);
+            } finally {
+                OPENING_IN_BACKGROUND.set(outer);
+            }
+        };
+    }
+
+    /**
+     * Opens a song file, mapped or read ahead depending on where it is.
+     *
+     * @param song audio file
+     * @param offset where in the file to start
+     * @return stream over the file from the offset, supporting mark and reset
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream open(File song, long offset) throws IOException {
+        Path path = song.toPath();
+        if (!isNetwork(path)) {
+            try {
+                return mapped(path, offset);
+            } catch (IOException | UnsupportedOperationException e) {
+                // some file systems cannot map files, and they are read ahead like remote ones
+            }
+        }
+        return readAhead(FileChannel.open(path, StandardOpenOption.READ), offset);
+    }
+
+    /**
+     * Opens a file by memory-mapping it from an offset to its end.
+     *
+     * @param file file to map
+     * @param offset where in the file to start
+     * @return stream over the mapped file, supporting mark and reset
+     * @throws IOException if the file cannot be mapped
+     */
+    public static InputStream mapped(Path file, long offset) throws IOException {
+        List<ByteBuffer> mapped = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = Math.min(Math.max(0, offset), channel.size());
+            long length = channel.size() - start;
+            for (long at = 0; at < length; at += Integer.MAX_VALUE)
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start + at, Math.min(Integer.MAX_VALUE, length - at)));
+        }
+        return new ByteBufferInputStream(mapped.toArray(new ByteBuffer[0]));
+    }
+
+    /**
+     * Opens a channel to be read ahead on a background I/O thread, the one for background work
+     * when opened through an opener from background(SongOpener).
+     *
+     * @param channel channel to read, closed with the stream
+     * @param offset where in the channel to start
+     * @return stream over the channel from the offset, supporting mark and reset
+     * @throws IOException if the size of the channel cannot be read
+     */
+    public static InputStream readAhead(SeekableByteChannel channel, long offset) throws IOException {
+        try {
+            // the blocks are large already, so the buffer is only here for the decoder's marks
+            ExecutorService executor = OPENING_IN_BACKGROUND.get() ? BACKGROUND_READ_AHEAD : READ_AHEAD;
+            return new BufferedInputStream(new ReadAheadInputStream(channel, offset, executor), 8 * 1024);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether a file is on a network mount.
+     *
+     * @param file file to check
+     * @return true if the file should be read ahead rather than mapped
+     */
+    public static boolean isNetwork(Path file) {
+        if (MODE.equals("mapped"))
+            return false;
+        if (MODE.equals("readahead"))
+            return true;
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory == null)
+            return false;
+        return NETWORK_DIRECTORIES.computeIfAbsent(directory, d -> {
+            try {
+                return NETWORK_STORES.contains(Files.getFileStore(d).type().toLowerCase(Locale.ROOT));
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+}
@@ -0,0 +1,23 @@
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opens songs as decoded PCM streams for the playbacks and the preloader.
+ * Provided by the MusicPlayerModel so that every open goes through the same
+ * decoding and caching decisions.
+ */
+public interface SongOpener {
+
+    /**
+     * Opens a song as a decoded PCM stream positioned at the given frame.
+     *
+     * @param song file to open
+     * @param position frame the stream should start at
+     * @return decoded stream of the song starting at position
+     * @throws IOException if the file cannot be read
+     * @throws UnsupportedAudioFileException if the file is not a supported audio file
+     */
+    AudioInputStream open(File song, long position) throws IOException, UnsupportedAudioFileException;
+}
@@ -0,0 +1,243 @@
+import javax.sound.sampled.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Opens and decodes ahead the next song of the playlist on a background thread,
+ * so it is ready by the time the current song ends.
+ * Only one song is preloaded at a time; asking for another one cancels the previous request.
+ */
+public class SongPreloader {
+
+    /** CONSTANTS FOR PRELOADING */
+    private static final float HEAD_SECONDS = 2.0f;
+    /** Bytes a whole song is first decoded into when its length is unknown */
+    private static final int UNKNOWN_LENGTH_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_ARRAY_BYTES = Integer.MAX_VALUE - 8;
+
+    /**
+     * A song opened and partially (or fully) decoded ahead of time.
+     */
+    public static class PreloadedSong {
+        private final File song;
+        private final AudioInputStream decodedStream;
+        private final long frameLength;
+
+        private PreloadedSong(File song, AudioInputStream decodedStream, long frameLength) {
+            this.song = song;
+            this.decodedStream = decodedStream;
+            this.frameLength = frameLength;
+        }
+
+        /**
+         * @return the preloaded file
+         */
+        public File getSong() {
+            return this.song;
+        }
+
+        /**
+         * @return PCM stream of the song positioned at its start, replaying whatever was decoded ahead
+         */
+        public AudioInputStream getDecodedStream() {
+            return this.decodedStream;
+        }
+
+        /**
+         * @return length of the song in frames, estimated unless the song was fully decoded
+         */
+        public long getFrameLength() {
+            return this.frameLength;
+        }
+
+        /**
+         * Releases the streams of the song.
+         */
+        public void close() {
+            try {
+                this.decodedStream.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final ExecutorService executor;
+    private final SongOpener opener;
+    private final SongOpener wholeOpener;
+    private File song;
+    private Future<PreloadedSong> pending;
+    private PreloadedSong ready;
+    private int generation;
+
+    /**
+     * Constructor for the preloader. Creates the background thread songs are decoded on.
+     *
+     * @param opener opens the songs to preload
+     * @param wholeOpener opens the songs to preload whole
+     */
+    public SongPreloader(SongOpener opener, SongOpener wholeOpener) {
+        this.opener = opener;
+        this.wholeOpener = wholeOpener;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "song-preloader");
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+        this.song = null;
+        this.pending = null;
+        this.ready = null;
+        this.generation = 0;
+    }
+
+    /**
+     * Starts preloading a song in the background, cancelling any earlier request.
+     *
+     * @param song file to preload
+     * @param whole true to decode the whole song, false to decode only its first seconds
+     * @param onReady called on the preloader thread once the song is ready to be handed off
+     */
+    public synchronized void preload(File song, boolean whole, Consumer<File> onReady) {
+        this.cancel();
+        final int request = this.generation;
+        this.song = song;
+        this.pending = this.executor.submit(() -> {
+            PreloadedSong loaded = this.load(song, whole);
+            synchronized (this) {
+                if (request != this.generation) {
+                    loaded.close();
+                    return null;
+                }
+                this.ready = loaded;
+            }
+            onReady.accept(song);
+            return loaded;
+        });
+    }
+
+    /**
+     * Offers the preloaded song to a consumer. If the consumer accepts it,
+     * ownership of its streams passes to the consumer and the preloader forgets it.
+     *
+     * @param song file the caller expects to be preloaded
+     * @param consumer returns true when it takes the song
+     * @return true if the song was handed off
+     */
+    public synchronized boolean handOff(File song, Predicate<PreloadedSong> consumer) {
+        if (this.ready == null || !this.ready.song.equals(song))
+            return false;
+        if (!consumer.test(this.ready))
+            return false;
+        this.ready = null;
+        this.song = null;
+        this.pending = null;
+        return true;
+    }
+
+    /**
+     * Takes the preloaded song, waiting for the preload to finish if it is still running.
+     *
+     * @param song file the caller wants
+     * @return the preloaded song, or null if a different song was preloaded or preloading failed
+     */
+    public PreloadedSong take(File song) {
+        Future<PreloadedSong> waitFor;
+        synchronized (this) {
+            if (this.song == null || !this.song.equals(song))
+                return null;
+            waitFor = this.pending;
+        }
+        try {
+            waitFor.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        }
+        synchronized (this) {
+            PreloadedSong taken = this.ready;
+            if (taken == null || !taken.song.equals(song))
+                return null;
+            this.ready = null;
+            this.song = null;
+            this.pending = null;
+            return taken;
+        }
+    }
+
+    /**
+     * Cancels the current preload and releases anything it has decoded.
+     */
+    public synchronized void cancel() {
+        this.generation++;
+        if (this.pending != null)
+            this.pending.cancel(true);
+        if (this.ready != null)
+            this.ready.close();
+        this.song = null;
+        this.pending = null;
+        this.ready = null;
+    }
+
+    /**
+     * Opens and decodes ahead a song. The PCM is decoded straight into an array sized for it, from the song's
+     * frame length or its estimate, so a whole song is only held once; the array grows if the estimate was short.
+     *
+     * @param song file to load
+     * @param whole true to decode the whole song
+     * @return the loaded song
+     */
+    private PreloadedSong load(File song, boolean whole) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream decodedStream = (whole ? this.wholeOpener : this.opener).open(song, 0);
+        AudioFormat decodeFormat = decodedStream.getFormat();
+        int frameSize = decodeFormat.getFrameSize();
+        long frameLength = MusicPlayerModel.estimateFrameLength(song, decodedStream, decodeFormat);
+        long limit = whole ? Long.MAX_VALUE : (long) (decodeFormat.getFrameRate() * HEAD_SECONDS) * frameSize;
+        long expected = frameLength == Long.MAX_VALUE ? Math.min(limit, UNKNOWN_LENGTH_BYTES)
+                : Math.min(limit, frameLength * frameSize);
+        byte[] pcm = new byte[(int) Math.min(expected, MAX_ARRAY_BYTES)];
+        int size = 0;
+        int chunk = 16 * 1024 - (16 * 1024) % frameSize;
+        while (size < limit) {
+            if (size == pcm.length) {
+                // the rest of a short head plays from the stream
+                if (!whole)
+                    break;
+                if (size == MAX_ARRAY_BYTES) {
+                    decodedStream.close();
+                    throw new IOException("song too long to preload whole");
+                }
+                pcm = Arrays.copyOf(pcm, (int) Math.min(MAX_ARRAY_BYTES, pcm.length + Math.max(chunk, pcm.length / 4L)));
+            }
+            int n = PcmStreams.read(decodedStream, pcm, size, Math.min(chunk, pcm.length - size));
+            if (n < 0)
+                break;
+            if (Thread.currentThread().isInterrupted()) {
+                decodedStream.close();
+                throw new CancellationException();
+            }
+            size += n;
+        }
+        if (whole) {
+            int frames = size / frameSize;
+            decodedStream.close();
+            AudioInputStream decoded = new AudioInputStream(new ByteArrayInputStream(pcm, 0, size), decodeFormat, frames);
+            return new PreloadedSong(song, decoded, frames);
+        }
+        AudioInputStream decoded = new AudioInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(pcm, 0, size), decodedStream),
+                decodeFormat, AudioSystem.NOT_SPECIFIED);
+        return new PreloadedSong(song, decoded, frameLength);
+    }
+}
@@ -0,0 +1,689 @@
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Playback that decodes the song chunk by chunk while it plays.
+ * A decoder thread reads the decoded stream into a bounded PcmRingBuffer and a dedicated
+ * audio thread drains that buffer through a DspChain into a SourceDataLine, so time to first
+ * sample and memory use do not depend on the length of the song. Volume is applied by the
+ * DspChain on the audio thread, just before the line, so it does not depend on the line's controls.
+ *
+ * A following song can be queued with queueNext(). When the current stream ends the decoder
+ * carries straight on with the queued stream, optionally crossfading the two, so the line never
+ * runs dry between songs.
+ */
+public class StreamingPlayback implements Playback {
+
+    /** CONSTANTS FOR STREAMING */
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final float RING_BUFFER_SECONDS = 0.5f;
+
+    /**
+     * Notified by the audio threads when the song being heard changes.
+     */
+    public interface TransitionListener {
+
+        /**
+         * Called when the first sample of a queued song reaches the line.
+         *
+         * @param song the song that is now playing
+         */
+        void songChanged(File song);
+
+        /**
+         * Called when a queued song was thrown away before it became audible,
+         * because the current song was repositioned or the playback was closed.
+         *
+         * @param song the song that will no longer follow the current one
+         */
+        void nextDiscarded(File song);
+    }
+
+    /**
+     * A song on the line. Frame 0 of the song is heard when the line reaches lineStart.
+     */
+    private static class Track {
+        private final File song;
+        private volatile long frameLength;
+        private volatile long lineStart;
+        private volatile float gain;
+
+        private Track(File song, long frameLength, float gain) {
+            this.song = song;
+            this.frameLength = frameLength;
+            this.gain = gain;
+        }
+    }
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final AudioFormat format;
+    private final SourceDataLine line;
+    private final OutputLinePool pool;
+    private final SongOpener opener;
+    private final PcmRingBuffer ring;
+    private final DspChain dsp;
+    private final Object transitionLock;
+    private final ConcurrentLinkedQueue<Track> upcoming;
+    private volatile Track playing;
+    private Track queued;
+    private AudioInputStream queuedStream;
+    private boolean decoderFinished;
+    private volatile TransitionListener listener;
+    private volatile LineListener lineListener;
+    private volatile int crossfadeFrames;
+    private AudioInputStream stream;
+    private Thread decoderThread;
+    private Thread outputThread;
+    private volatile int generation;
+    private volatile boolean running;
+    private volatile boolean ended;
+    private final PlaybackMetrics metrics;
+    private volatile long firstSampleRequested;
+
+    /**
+     * Constructor for the streaming playback. Starts decoding into the ring buffer straight away,
+     * but does not make any sound until start() is called.
+     *
+     * @param song file the stream was decoded from
+     * @param decodedStream PCM stream of the song, positioned at its start
+     * @param frameLength estimated length of the song in frames, corrected once the end of the stream is reached
+     * @param pool pool the line is taken from and given back to
+     * @param opener reopens songs when the playback is repositioned
+     * @throws LineUnavailableException if no line accepting the format of decodedStream can be opened
+     */
+    public StreamingPlayback(File song, AudioInputStream decodedStream, long frameLength, OutputLinePool pool,
+                             SongOpener opener) throws LineUnavailableException {
+        this(song, decodedStream, frameLength, pool, opener, PlaybackMetrics.NONE, -1);
+    }
+
+    /**
+     * Constructor for the streaming playback, recording decode throughput, underruns and
+     * the time to the song's first sample into the given metrics.
+     *
+     * @param song file the stream was decoded from
+     * @param decodedStream PCM stream of the song, positioned at its start
+     * @param frameLength estimated length of the song in frames, corrected once the end of the stream is reached
+     * @param pool pool the line is taken from and given back to
+     * @param opener reopens songs when the playback is repositioned
+     * @param metrics metrics to record into
+     * @param requested System.nanoTime() when the song was asked for, negative to not record the time to first sample
+     * @throws LineUnavailableException if no line accepting the format of decodedStream can be opened
+     */
+    public StreamingPlayback(File song, AudioInputStream decodedStream, long frameLength, OutputLinePool pool,
+                             SongOpener opener, PlaybackMetrics metrics, long requested)
+            throws LineUnavailableException {
+        this.metrics = metrics;
+        this.firstSampleRequested = requested;
+        this.format = decodedStream.getFormat();
+        this.pool = pool;
+        this.line = pool.acquireLine(this.format);
+        this.opener = opener;
+        int frameSize = this.format.getFrameSize();
+        int ringFrames = Math.max(1, (int) (this.format.getFrameRate() * RING_BUFFER_SECONDS));
+        this.ring = new PcmRingBuffer(ringFrames * frameSize);
+        this.dsp = new DspChain(this.format, CHUNK_SIZE);
+        this.transitionLock = new Object();
+        this.upcoming = new ConcurrentLinkedQueue<>();
+        this.playing = new Track(song, frameLength, 0);
+        this.queued = null;
+        this.queuedStream = null;
+        this.listener = null;
+        this.crossfadeFrames = 0;
+        this.running = false;
+        this.ended = false;
+        this.startSegment(decodedStream, 0);
+    }
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            if (this.ended)
+                return;
+            this.running = true;
+            this.line.start();
+        }
+        this.fireLineEvent(LineEvent.Type.START);
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            this.running = false;
+            this.line.stop();
+        }
+        this.fireLineEvent(LineEvent.Type.STOP);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * Returns whether the song has played to its end. The decoder marks the end of the last stream,
+     * and the audio thread only reports it once the line has played every frame before that mark.
+     *
+     * @return true if the whole song has been played, false otherwise
+     */
+    @Override
+    public boolean isEnded() {
+        return this.ended;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return this.format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        this.checkTransition();
+        return this.playing.frameLength;
+    }
+
+    @Override
+    public long getFramePosition() {
+        this.checkTransition();
+        Track track = this.playing;
+        if (this.ended)
+            return track.frameLength;
+        long played = this.line.getLongFramePosition() - track.lineStart;
+        return Math.max(0, Math.min(played, track.frameLength));
+    }
+
+    @Override
+    public synchronized void setFramePosition(long position) {
+        boolean prevRun = this.running;
+        this.stopSegment();
+        this.line.stop();
+        this.line.flush();
+        this.ring.clear();
+        this.dsp.reset();
+        this.discardUpcoming();
+        try {
+            this.startSegment(this.opener.open(this.playing.song, position), position);
+            if (prevRun) {
+                this.running = true;
+                this.line.start();
+            }
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            this.metrics.seekFailed(e);
+            this.running = false;
+            this.ended = true;
+        }
+    }
+
+    @Override
+    public void setGain(float decibels) {
+        this.dsp.setGain(decibels);
+    }
+
+    /**
+     * Sets the normalization gain of the song being heard. Songs joined on after it bring their own,
+     * which the audio thread switches to at their first frame.
+     *
+     * @param decibels normalization gain in decibels
+     */
+    @Override
+    public void setTrackGain(float decibels) {
+        this.playing.gain = decibels;
+        this.dsp.setTrackGain(decibels);
+    }
+
+    /**
+     * Gets the DSP chain the song plays through, to change its effects.
+     *
+     * @return the playback's DSP chain
+     */
+    public DspChain getDspChain() {
+        return this.dsp;
+    }
+
+    /**
+     * Sets the listener told when the song starts and stops. The events describe the transport rather than
+     * the line itself, whose own START and STOP events also follow every underrun, and the line's events are
+     * never seen by a listener that outlives this playback, since the line goes back to the pool.
+     *
+     * @param listener listener to tell, null for none
+     */
+    @Override
+    public void setLineListener(LineListener listener) {
+        this.lineListener = listener;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.lineListener = null;
+        this.running = false;
+        this.stopSegment();
+        this.pool.release(this.line);
+        this.discardUpcoming();
+        File dropped = null;
+        synchronized (this.transitionLock) {
+            if (this.queued != null) {
+                closeQuietly(this.queuedStream);
+                dropped = this.queued.song;
+                this.queued = null;
+                this.queuedStream = null;
+            }
+        }
+        if (dropped != null)
+            this.notifyDiscarded(dropped);
+    }
+
+    /*******************************************************
+    *                                                      *
+    *  GAPLESS TRANSITIONS                                 *
+    *                                                      *
+    *******************************************************/
+
+    /**
+     * Queues the song to continue with once the current stream runs out.
+     * Only accepted while the current stream is still being decoded and when the
+     * stream has exactly the format of this playback, so the samples can be joined as they are.
+     * Replaces (and closes) a song queued earlier.
+     *
+     * @param song file the stream was decoded from
+     * @param decodedStream PCM stream of the song, positioned at its start
+     * @param frameLength estimated length of the song in frames
+     * @param trackGain normalization gain of the song in decibels, applied from its first frame on
+     * @return true if the song was queued, false if the caller has to load it itself
+     */
+    public boolean queueNext(File song, AudioInputStream decodedStream, long frameLength, float trackGain) {
+        if (!this.format.matches(decodedStream.getFormat()))
+            return false;
+        synchronized (this.transitionLock) {
+            if (this.decoderFinished)
+                return false;
+            if (this.queued != null)
+                closeQuietly(this.queuedStream);
+            this.queued = new Track(song, frameLength, trackGain);
+            this.queuedStream = decodedStream;
+            return true;
+        }
+    }
+
+    /**
+     * Removes the queued song, if the decoder has not moved on to it yet, and closes its stream.
+     *
+     * @return true if a queued song was removed
+     */
+    public boolean cancelNext() {
+        synchronized (this.transitionLock) {
+            if (this.queued == null)
+                return false;
+            closeQuietly(this.queuedStream);
+            this.queued = null;
+            this.queuedStream = null;
+            return true;
+        }
+    }
+
+    /**
+     * Sets the listener told about songs starting and queued songs being thrown away.
+     *
+     * @param listener listener to notify, or null
+     */
+    public void setTransitionListener(TransitionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets how long the end of one song overlaps the start of the next.
+     * Takes effect from the next time the playback is positioned.
+     *
+     * @param frames length of the crossfade in frames, 0 for a plain gapless join
+     */
+    public void setCrossfadeFrames(int frames) {
+        this.crossfadeFrames = Math.max(0, frames);
+    }
+
+    /**
+     * Gets the song currently being heard.
+     *
+     * @return file of the song being heard
+     */
+    public File getSong() {
+        this.checkTransition();
+        return this.playing.song;
+    }
+
+    /**
+     * Makes the next upcoming song the playing one once the line has reached its first frame.
+     */
+    private void checkTransition() {
+        Track next = this.upcoming.peek();
+        if (next == null || this.line.getLongFramePosition() < next.lineStart)
+            return;
+        File changed = null;
+        synchronized (this.transitionLock) {
+            next = this.upcoming.peek();
+            if (next != null && this.line.getLongFramePosition() >= next.lineStart) {
+                this.playing = this.upcoming.poll();
+                changed = next.song;
+            }
+        }
+        TransitionListener l = this.listener;
+        if (changed != null && l != null)
+            l.songChanged(changed);
+    }
+
+    /**
+     * Throws away songs the decoder has moved on to but that have not been heard yet.
+     */
+    private void discardUpcoming() {
+        Track skipped;
+        while ((skipped = this.upcoming.poll()) != null)
+            this.notifyDiscarded(skipped.song);
+    }
+
+    /**
+     * Tells the listener that a queued song will not be played.
+     *
+     * @param song the discarded song
+     */
+    private void notifyDiscarded(File song) {
+        TransitionListener l = this.listener;
+        if (l != null)
+            l.nextDiscarded(song);
+    }
+
+    /*******************************************************
+    *                                                      *
+    *  HELPER METHODS FOR THE AUDIO THREADS                *
+    *                                                      *
+    *******************************************************/
+
+    /**
+     * Starts a decoder thread and an audio thread for a stream of the playing song beginning at the given frame.
+     *
+     * @param decodedStream stream to play
+     * @param position frame of the song the stream starts at
+     */
+    private void startSegment(AudioInputStream decodedStream, long position) {
+        final int segment = ++this.generation;
+        this.stream = decodedStream;
+        long lineBase = this.line.getLongFramePosition();
+        this.playing.lineStart = lineBase - position;
+        this.dsp.setTrackGain(this.playing.gain);
+        this.ended = false;
+        synchronized (this.transitionLock) {
+            this.decoderFinished = false;
+        }
+        this.decoderThread = new Thread(() -> decode(decodedStream, position, segment), "audio-decoder");
+        this.outputThread = new Thread(() -> output(segment, lineBase), "audio-output");
+        this.decoderThread.setDaemon(true);
+        this.outputThread.setDaemon(true);
+        this.outputThread.setPriority(Thread.MAX_PRIORITY);
+        this.decoderThread.start();
+        this.outputThread.start();
+    }
+
+    /**
+     * Stops the threads of the current segment and closes its stream.
+     */
+    private void stopSegment() {
+        this.generation++;
+        this.decoderThread.interrupt();
+        this.outputThread.interrupt();
+        try {
+            this.decoderThread.join();
+            // flushing releases an audio thread blocked on a full, stopped line
+            while (this.outputThread.isAlive()) {
+                this.line.flush();
+                this.outputThread.join(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeQuietly(this.stream);
+    }
+
+    /**
+     * Body of the decoder thread. Decodes the stream chunk by chunk into the ring buffer,
+     * moving on to the queued song whenever a stream runs out.
+     * When crossfading, the last crossfadeFrames of each stream are held back so they can be
+     * mixed with the start of the next song.
+     *
+     * @param decodedStream stream to decode
+     * @param position frame of the song the stream starts at
+     * @param segment generation the thread belongs to
+     */
+    private void decode(AudioInputStream decodedStream, long position, int segment) {
+        int frameSize = this.format.getFrameSize();
+        int chunkSize = CHUNK_SIZE - CHUNK_SIZE % frameSize;
+        int holdSize = this.crossfadeFrames * frameSize;
+        // without a crossfade nothing is held back, so songs are read straight into the ring buffer
+        byte[] work = new byte[holdSize == 0 ? 0 : holdSize + chunkSize];
+        int held = 0;
+        Track track = this.playing;
+        AudioInputStream in = decodedStream;
+        long songFrames = position;
+        boolean timed = this.metrics.isEnabled();
+        try {
+            while (segment == this.generation) {
+                long readStarted = timed ? System.nanoTime() : 0;
+                // a read of 0 bytes is a priming frame after a seek, not the end of the song
+                int n;
+                if (holdSize == 0) {
+                    int free = this.ring.awaitWritable(chunkSize);
+                    n = PcmStreams.read(in, this.ring.array(), this.ring.writeOffset(), free);
+                    if (n > 0)
+                        this.ring.commitWrite(n);
+                } else {
+                    n = PcmStreams.read(in, work, held, chunkSize);
+                }
+                if (n > 0) {
+                    if (timed)
+                        this.metrics.decoded(n, System.nanoTime() - readStarted);
+                    songFrames += n / frameSize;
+                    int out = Math.max(0, held + n - holdSize);
+                    if (holdSize > 0) {
+                        this.ring.write(work, 0, out);
+                        held = held + n - out;
+                        System.arraycopy(work, out, work, 0, held);
+                    }
+                    if (out > 0 && this.firstSampleRequested >= 0) {
+                        this.metrics.firstSample(System.nanoTime() - this.firstSampleRequested);
+                        this.firstSampleRequested = -1;
+                    }
+                    continue;
+                }
+                // current stream ran out, carry on with the queued song if there is one
+                Track next;
+                AudioInputStream nextStream;
+                synchronized (this.transitionLock) {
+                    if (segment != this.generation)
+                        return;
+                    next = this.queued;
+                    nextStream = this.queuedStream;
+                    this.queued = null;
+                    this.queuedStream = null;
+                    if (next == null)
+                        this.decoderFinished = true;
+                }
+                if (next == null)
+                    break;
+                int overlap = crossfade(work, held, nextStream);
+                long boundary = songFrames - overlap / frameSize;
+                track.frameLength = boundary;
+                next.lineStart = track.lineStart + boundary;
+                this.upcoming.add(next);
+                this.ring.write(work, 0, overlap);
+                held = 0;
+                closeQuietly(in);
+                this.stream = nextStream;
+                in = nextStream;
+                track = next;
+                songFrames = overlap / frameSize;
+            }
+            if (segment == this.generation) {
+                this.ring.write(work, 0, held);
+                track.frameLength = songFrames;
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Exception e) {
+            // anything the decoder throws ends the song here rather than leaving the audio thread waiting
+            if (segment == this.generation)
+                this.metrics.decodeFailed(e);
+        } finally {
+            this.ring.markEndOfStream();
+        }
+    }
+
+    /**
+     * Mixes the held back end of a song with the start of the next one, in place.
+     * The end fades out linearly while the start fades in over the held frames.
+     *
+     * @param work buffer whose first held bytes are the end of the current song
+     * @param held number of held bytes
+     * @param next stream of the next song
+     * @return number of mixed bytes at the start of work, which now belong to the next song
+     */
+    private int crossfade(byte[] work, int held, AudioInputStream next) throws IOException {
+        if (held == 0)
+            return 0;
+        byte[] start = new byte[held];
+        int read = PcmStreams.readFully(next, start, 0, held);
+        int channels = this.format.getChannels();
+        int frames = held / this.format.getFrameSize();
+        for (int frame = 0; frame < frames; frame++) {
+            float in = (float) frame / frames;
+            for (int c = 0; c < channels; c++) {
+                int i = (frame * channels + c) * 2;
+                int outgoing = (short) ((work[i] & 0xff) | (work[i + 1] << 8));
+                int incoming = i + 1 < read ? (short) ((start[i] & 0xff) | (start[i + 1] << 8)) : 0;
+                int mixed = Math.round(outgoing * (1 - in) + incoming * in);
+                mixed = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+                work[i] = (byte) mixed;
+                work[i + 1] = (byte) (mixed >> 8);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Body of the audio thread. Drains the ring buffer into the line, processing and writing its bytes in place.
+     * The line running dry while the song plays, because the decoder fell behind, is recorded as an underrun.
+     *
+     * @param segment generation the thread belongs to
+     * @param lineFrame frame of the line the segment starts at
+     */
+    private void output(int segment, long lineFrame) {
+        int frameSize = this.format.getFrameSize();
+        int chunkSize = CHUNK_SIZE - CHUNK_SIZE % frameSize;
+        byte[] chunk = this.ring.array();
+        boolean primed = false;
+        Track gained = this.playing;
+        try {
+            while (segment == this.generation) {
+                int n = this.ring.awaitReadable(chunkSize);
+                if (n < 0) {
+                    while (segment == this.generation && this.line.available() < this.line.getBufferSize()) {
+                        this.line.drain();
+                        if (!this.running)
+                            Thread.sleep(10); // paused with audio still queued on the line
+                        this.checkTransition();
+                    }
+                    if (segment == this.generation)
+                        this.endOfSong();
+                    return;
+                }
+                if (primed && this.running && this.line.available() >= this.line.getBufferSize())
+                    this.underrun();
+                primed = true;
+                int off = this.ring.readOffset();
+                // a song joined on within this chunk brings its own normalization gain from its first frame
+                Track next = this.upcomingAfter(gained);
+                if (next != null && next.lineStart < lineFrame + n / frameSize) {
+                    int split = (int) Math.max(0, next.lineStart - lineFrame) * frameSize;
+                    this.dsp.process(chunk, off, split);
+                    this.dsp.startTrack(next.gain);
+                    this.dsp.process(chunk, off + split, n - split);
+                    gained = next;
+                } else {
+                    this.dsp.process(chunk, off, n);
+                }
+                lineFrame += n / frameSize;
+                int written = 0;
+                while (written < n && segment == this.generation)
+                    written += this.line.write(chunk, off + written, n - written);
+                if (segment == this.generation)
+                    this.ring.commitRead(n);
+                this.checkTransition();
+            }
+        } catch (InterruptedException e) {
+            // segment was replaced
+        }
+    }
+
+    /**
+     * Finds the song the decoder joined on after a song, if it has.
+     *
+     * @param track a song on the line
+     * @return the upcoming song starting after track, or null if there is none yet
+     */
+    private Track upcomingAfter(Track track) {
+        for (Track next : this.upcoming) {
+            if (next.lineStart > track.lineStart)
+                return next;
+        }
+        return null;
+    }
+
+    /**
+     * Records that the line ran dry while the song was playing.
+     */
+    private void underrun() {
+        this.metrics.underrun();
+        PlaybackEvents.BufferUnderrun event = new PlaybackEvents.BufferUnderrun();
+        if (event.shouldCommit()) {
+            Track track = this.playing;
+            event.song = track.song.getPath();
+            event.frame = this.line.getLongFramePosition() - track.lineStart;
+            event.commit();
+        }
+    }
+
+    /**
+     * Marks the song as finished once the whole stream has been played.
+     */
+    private void endOfSong() {
+        this.checkTransition();
+        this.ended = true;
+        this.running = false;
+        this.line.stop();
+        this.fireLineEvent(LineEvent.Type.STOP);
+    }
+
+    /**
+     * Tells the line listener that the song started or stopped. Called outside the playback's lock.
+     *
+     * @param type START or STOP
+     */
+    private void fireLineEvent(LineEvent.Type type) {
+        LineListener listener = this.lineListener;
+        if (listener != null)
+            listener.update(new LineEvent(this.line, type, this.getFramePosition()));
+    }
+
+    /**
+     * Closes a stream, ignoring failures.
+     *
+     * @param stream stream to close, may be null
+     */
+    private static void closeQuietly(AudioInputStream stream) {
+        if (stream == null)
+            return;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the title, artist, album, year and track number of an MP3 file from its ID3 tags.
+ * ID3v2.2, 2.3 and 2.4 tags at the start of the file are read a frame header at a time, jumping over
+ * the frames that are not wanted, so embedded pictures are never read. Whatever the ID3v2 tag lacks
+ * is taken from an ID3v1 tag at the end of the file.
+ */
+public final class TagReader {
+
+    /** CONSTANTS FOR ID3 TAGS */
+    private static final int HEADER_SIZE = 10;
+    private static final int ID3V1_SIZE = 128;
+    private static final int MAX_TEXT_FRAME = 4096;
+    private static final int MAX_UNSYNCHRONISED_TAG = 1024 * 1024;
+    private static final int TITLE = 0, ARTIST = 1, ALBUM = 2, YEAR = 3, TRACK = 4;
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final String[] fields;
+
+    private TagReader() {
+        this.fields = new String[]{"", "", "", "", ""};
+    }
+
+    /**
+     * Reads the tags of a file.
+     *
+     * @param song MP3 file
+     * @return the tags found, with empty strings for those the file does not have
+     * @throws IOException if the file cannot be read
+     */
+    public static TagReader read(File song) throws IOException {
+        TagReader tags = new TagReader();
+        try (RandomAccessFile file = new RandomAccessFile(song, "r")) {
+            tags.readId3v2(file);
+            for (String field : tags.fields) {
+                if (field.isEmpty()) {
+                    tags.readId3v1(file);
+                    break;
+                }
+            }
+        }
+        return tags;
+    }
+
+    public String getTitle() {
+        return this.fields[TITLE];
+    }
+
+    public String getArtist() {
+        return this.fields[ARTIST];
+    }
+
+    public String getAlbum() {
+        return this.fields[ALBUM];
+    }
+
+    /**
+     * @return year the song was recorded, or 0 if it is not tagged
+     */
+    public int getYear() {
+        return number(this.fields[YEAR], 4);
+    }
+
+    /**
+     * @return track number of the song on its album, or 0 if it is not tagged
+     */
+    public int getTrack() {
+        return number(this.fields[TRACK], 9);
+    }
+
+    /**
+     * Reads the wanted text frames of an ID3v2 tag at the start of the file.
+     */
+    private void readId3v2(RandomAccessFile file) throws IOException {
+        if (file.length() < HEADER_SIZE)
+            return;
+        byte[] header = new byte[HEADER_SIZE];
+        file.seek(0);
+        file.readFully(header);
+        int major = header[3];
+        if (header[0] != 'I' || header[1] != 'D' || header[2] != '3' || major < 2 || major > 4)
+            return;
+        int flags = header[5] & 0xFF;
+        if (major == 2 && (flags & 0x40) != 0)
+            return; // ID3v2.2 compression was never defined
+        long limit = Math.min(file.length(), HEADER_SIZE + syncsafe(header, 6));
+        byte[] tag = null;
+        if ((flags & 0x80) != 0 && major < 4) {
+            // before 2.4, unsynchronisation applies to the whole tag, so it must be read and undone at once
+            byte[] raw = new byte[(int) Math.min(limit - HEADER_SIZE, MAX_UNSYNCHRONISED_TAG)];
+            file.readFully(raw);
+            tag = resynchronise(raw, raw.length);
+            limit = HEADER_SIZE + tag.length;
+        }
+        long position = HEADER_SIZE;
+        if ((flags & 0x40) != 0) {
+            byte[] size = new byte[4];
+            if (!read(file, tag, position, size, 4, limit))
+                return;
+            position += major == 4 ? syncsafe(size, 0) : 4 + int32(size, 0);
+        }
+        int frameHeaderSize = major == 2 ? 6 : 10;
+        byte[] frameHeader = new byte[frameHeaderSize];
+        while (read(file, tag, position, frameHeader, frameHeaderSize, limit)) {
+            if (frameHeader[0] == 0)
+                break; // padding
+            String id = new String(frameHeader, 0, major == 2 ? 3 : 4, StandardCharsets.ISO_8859_1);
+            long size;
+            int formatFlags = 0;
+            if (major == 2) {
+                size = (frameHeader[3] & 0xFF) << 16 | (frameHeader[4] & 0xFF) << 8 | frameHeader[5] & 0xFF;
+            } else {
+                size = major == 4 ? syncsafe(frameHeader, 4) : int32(frameHeader, 4);
+                formatFlags = frameHeader[9] & 0xFF;
+            }
+            position += frameHeaderSize;
+            if (size <= 0 || position + size > limit)
+                break;
+            int field = field(id);
+            if (field >= 0 && this.fields[field].isEmpty() && size <= MAX_TEXT_FRAME)
+                this.readTextFrame(file, tag, position, (int) size, limit, major, formatFlags, field);
+            position += size;
+        }
+    }
+
+    /**
+     * Reads one text frame into a field, unless it is compressed or encrypted.
+     */
+    private void readTextFrame(RandomAccessFile file, byte[] tag, long position, int size, long limit, int major,
+                               int formatFlags, int field) throws IOException {
+        int skip = 0;
+        boolean unsynchronised = false;
+        if (major == 3) {
+            if ((formatFlags & 0xC0) != 0)
+                return;
+            skip = (formatFlags & 0x20) != 0 ? 1 : 0;
+        } else if (major == 4) {
+            if ((formatFlags & 0x0C) != 0)
+                return;
+            skip = ((formatFlags & 0x40) != 0 ? 1 : 0) + ((formatFlags & 0x01) != 0 ? 4 : 0);
+            unsynchronised = (formatFlags & 0x02) != 0;
+        }
+        byte[] data = new byte[size];
+        if (size <= skip || !read(file, tag, position, data, size, limit))
+            return;
+        if (unsynchronised)
+            data = resynchronise(data, size);
+        this.fields[field] = text(data, skip, data.length - skip);
+    }
+
+    /**
+     * Reads the ID3v1 tag at the end of the file, filling the fields the ID3v2 tag left empty.
+     */
+    private void readId3v1(RandomAccessFile file) throws IOException {
+        if (file.length() < ID3V1_SIZE)
+            return;
+        byte[] tag = new byte[ID3V1_SIZE];
+        file.seek(file.length() - ID3V1_SIZE);
+        file.readFully(tag);
+        if (tag[0] != 'T' || tag[1] != 'A' || tag[2] != 'G')
+            return;
+        this.fill(TITLE, latin1(tag, 3, 30));
+        this.fill(ARTIST, latin1(tag, 33, 30));
+        this.fill(ALBUM, latin1(tag, 63, 30));
+        this.fill(YEAR, latin1(tag, 93, 4));
+        // ID3v1.1 keeps the track number in the last byte of the comment, after a zero byte
+        if (tag[125] == 0 && tag[126] != 0)
+            this.fill(TRACK, Integer.toString(tag[126] & 0xFF));
+    }
+
+    private void fill(int field, String value) {
+        if (this.fields[field].isEmpty())
+            this.fields[field] = value;
+    }
+
+    /**
+     * Copies bytes of the tag, from the undone copy if the tag was unsynchronised and from the file otherwise.
+     *
+     * @return false if the bytes run past the end of the tag
+     */
+    private static boolean read(RandomAccessFile file, byte[] tag, long position, byte[] dst, int len, long limit)
+            throws IOException {
+        if (position + len > limit)
+            return false;
+        if (tag != null) {
+            System.arraycopy(tag, (int) (position - HEADER_SIZE), dst, 0, len);
+        } else {
+            file.seek(position);
+            file.readFully(dst, 0, len);
+        }
+        return true;
+    }
+
+    /**
+     * @return which field a frame holds, or -1 if it is not wanted
+     */
+    private static int field(String id) {
+        switch (id) {
+            case "TIT2": case "TT2":
+                return TITLE;
+            case "TPE1": case "TP1":
+                return ARTIST;
+            case "TALB": case "TAL":
+                return ALBUM;
+            case "TYER": case "TYE": case "TDRC":
+                return YEAR;
+            case "TRCK": case "TRK":
+                return TRACK;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Decodes the body of a text frame: an encoding byte followed by the text.
+     * ID3v2.4 separates several values with zero characters; only the first is kept.
+     */
+    private static String text(byte[] data, int off, int len) {
+        if (len < 2)
+            return "";
+        Charset charset;
+        switch (data[off]) {
+            case 1:
+                charset = StandardCharsets.UTF_16;
+                break;
+            case 2:
+                charset = StandardCharsets.UTF_16BE;
+                break;
+            case 3:
+                charset = StandardCharsets.UTF_8;
+                break;
+            default:
+                charset = StandardCharsets.ISO_8859_1;
+        }
+        String text = new String(data, off + 1, len - 1, charset);
+        int end = text.indexOf('\0');
+        return (end < 0 ? text : text.substring(0, end)).trim();
+    }
+
+    private static String latin1(byte[] data, int off, int len) {
+        int end = off;
+        while (end < off + len && data[end] != 0)
+            end++;
+        return new String(data, off, end - off, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    /**
+     * Undoes unsynchronisation, which inserts a zero byte after every 0xFF.
+     */
+    private static byte[] resynchronise(byte[] data, int len) {
+        byte[] out = new byte[len];
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            out[n++] = data[i];
+            if (data[i] == (byte) 0xFF && i + 1 < len && data[i + 1] == 0)
+                i++;
+        }
+        return n == len ? out : Arrays.copyOf(out, n);
+    }
+
+    private static long syncsafe(byte[] b, int off) {
+        return (b[off] & 0x7F) << 21 | (b[off + 1] & 0x7F) << 14 | (b[off + 2] & 0x7F) << 7 | b[off + 3] & 0x7F;
+    }
+
+    private static long int32(byte[] b, int off) {
+        return ((long) (b[off] & 0xFF) << 24) | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | b[off + 3] & 0xFF;
+    }
+
+    /**
+     * @return the number at the start of a tag, such as 3 for the track "3/12", or 0 if there is none
+     */
+    private static int number(String value, int maxDigits) {
+        int n = 0;
+        for (int i = 0; i < value.length() && i < maxDigits && Character.isDigit(value.charAt(i)); i++)
+            n = n * 10 + (value.charAt(i) - '0');
+        return n;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.File;
+
+/**
+ * Metadata of one song in the music library: where the file is, what its tags say,
+ * and what its frame headers say about the audio.
+ * Missing tags are empty strings, or 0 for the year and track number.
+ */
+public final class TrackInfo {
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final int year;
+    private final int track;
+    private final long durationMicros;
+    private final int bitrate;
+    private final int sampleRate;
+    private final int channels;
+
+    /**
+     * Constructor for the track.
+     *
+     * @param path absolute path of the file
+     * @param size size of the file in bytes
+     * @param lastModified modification time of the file, in milliseconds since the epoch
+     * @param title title tag
+     * @param artist artist tag
+     * @param album album tag
+     * @param year year tag
+     * @param track track number tag
+     * @param durationMicros length of the song in microseconds
+     * @param bitrate bitrate in kilobits per second
+     * @param sampleRate samples per second per channel
+     * @param channels number of channels
+     */
+    public TrackInfo(String path, long size, long lastModified, String title, String artist, String album,
+                     int year, int track, long durationMicros, int bitrate, int sampleRate, int channels) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.year = year;
+        this.track = track;
+        this.durationMicros = durationMicros;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    /**
+     * @return absolute path of the file
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return the file of the song
+     */
+    public File getFile() {
+        return new File(this.path);
+    }
+
+    /**
+     * @return size of the file in bytes, as it was when the file was scanned
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return modification time of the file when it was scanned, in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * @return title tag, or the file name without its extension if the file has none
+     */
+    public String getTitle() {
+        return this.title;
+    }
+
+    public String getArtist() {
+        return this.artist;
+    }
+
+    public String getAlbum() {
+        return this.album;
+    }
+
+    public int getYear() {
+        return this.year;
+    }
+
+    public int getTrack() {
+        return this.track;
+    }
+
+    public long getDurationMicros() {
+        return this.durationMicros;
+    }
+
+    /**
+     * @return bitrate in kilobits per second, averaged over the song if it is VBR
+     */
+    public int getBitrate() {
+        return this.bitrate;
+    }
+
+    public int getSampleRate() {
+        return this.sampleRate;
+    }
+
+    public int getChannels() {
+        return this.channels;
+    }
+
+    @Override
+    public String toString() {
+        return this.artist.isEmpty() ? this.title : this.artist + " - " + this.title;
+    }
+}
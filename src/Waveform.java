@@ -0,0 +1,266 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Overview of a song's waveform: the lowest and highest sample and the RMS level of each bucket of
+ * frames, over every channel. Each value is kept in a single byte, so an overview of any song is
+ * a few kilobytes. An overview still being computed covers the start of the song only; it is drawn
+ * against the song's estimated length until the complete one replaces it.
+ */
+public final class Waveform {
+
+    /**
+     * PRIVATE DATA MEMBERS
+     * peaks holds three bytes per bucket: the lowest sample, the highest sample and the RMS level,
+     * each scaled to -128..127 of full scale.
+     */
+    private final byte[] peaks;
+    private final int buckets;
+    private final long framesPerBucket;
+    private final long frameLength;
+    private final float frameRate;
+    private final boolean complete;
+
+    /**
+     * Constructor for the overview. Takes peaks over without copying them.
+     *
+     * @param peaks three bytes per bucket
+     * @param buckets number of buckets filled
+     * @param framesPerBucket frames of the song summed up by each bucket
+     * @param frameLength frames of the song, estimated unless complete
+     * @param frameRate frames per second of the song
+     * @param complete true if every frame of the song has been summed up
+     */
+    Waveform(byte[] peaks, int buckets, long framesPerBucket, long frameLength, float frameRate, boolean complete) {
+        this.peaks = peaks;
+        this.buckets = buckets;
+        this.framesPerBucket = framesPerBucket;
+        this.frameLength = frameLength;
+        this.frameRate = frameRate;
+        this.complete = complete;
+    }
+
+    /**
+     * @return number of buckets summed up so far
+     */
+    public int getBuckets() {
+        return this.buckets;
+    }
+
+    /**
+     * @return frames of the song each bucket sums up
+     */
+    public long getFramesPerBucket() {
+        return this.framesPerBucket;
+    }
+
+    /**
+     * @return frames of the song, exact once the overview is complete and estimated before
+     */
+    public long getFrameLength() {
+        return this.frameLength;
+    }
+
+    /**
+     * @return frames per second of the song
+     */
+    public float getFrameRate() {
+        return this.frameRate;
+    }
+
+    /**
+     * @return true if the overview covers the whole song
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * @param bucket index of a bucket
+     * @return lowest sample of the bucket, from -1 to 1
+     */
+    public float getMin(int bucket) {
+        return this.peaks[bucket * 3] / 128f;
+    }
+
+    /**
+     * @param bucket index of a bucket
+     * @return highest sample of the bucket, from -1 to 1
+     */
+    public float getMax(int bucket) {
+        return this.peaks[bucket * 3 + 1] / 128f;
+    }
+
+    /**
+     * @param bucket index of a bucket
+     * @return RMS level of the bucket, from 0 to 1
+     */
+    public float getRms(int bucket) {
+        return this.peaks[bucket * 3 + 2] / 128f;
+    }
+
+    /**
+     * Writes the overview after the header of a peak file.
+     *
+     * @param out stream to write to
+     * @throws IOException if writing fails
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeFloat(this.frameRate);
+        out.writeLong(this.frameLength);
+        out.writeLong(this.framesPerBucket);
+        out.writeInt(this.buckets);
+        out.write(this.peaks, 0, this.buckets * 3);
+    }
+
+    /**
+     * Reads an overview written by write(). Overviews read back are always complete.
+     *
+     * @param in stream positioned after the header of a peak file
+     * @return the overview
+     * @throws IOException if the stream is cut short or does not hold an overview
+     */
+    static Waveform read(DataInputStream in) throws IOException {
+        float frameRate = in.readFloat();
+        long frameLength = in.readLong();
+        long framesPerBucket = in.readLong();
+        int buckets = in.readInt();
+        if (buckets < 0 || buckets > WaveformCache.MAX_BUCKETS || framesPerBucket <= 0)
+            throw new IOException("not a waveform overview");
+        byte[] peaks = new byte[buckets * 3];
+        in.readFully(peaks);
+        return new Waveform(peaks, buckets, framesPerBucket, frameLength, frameRate, true);
+    }
+
+    /**
+     * Builds an overview bucket by bucket from a stream of 16-bit PCM. A song of unknown length is summed up
+     * into as many buckets as it takes; whenever they run out, neighbouring buckets are merged in pairs
+     * and each covers twice the frames from then on, so memory stays bounded whatever the song's length.
+     */
+    static final class Builder {
+        private final byte[] peaks;
+        private final long estimatedLength;
+        private final float frameRate;
+        private final int channels;
+        private final boolean bigEndian;
+        private int buckets;
+        private long framesPerBucket;
+        private long frames;
+        private long inBucket;
+        private int low;
+        private int high;
+        private double squares;
+
+        /**
+         * @param estimatedLength estimated frames of the song, Long.MAX_VALUE if unknown
+         * @param targetBuckets buckets the song is divided into if its estimated length is right
+         * @param frameRate frames per second of the song
+         * @param channels channels of the PCM
+         * @param bigEndian true if the PCM's samples are big-endian
+         */
+        Builder(long estimatedLength, int targetBuckets, float frameRate, int channels, boolean bigEndian) {
+            this.peaks = new byte[targetBuckets * 2 * 3];
+            this.estimatedLength = estimatedLength;
+            this.frameRate = frameRate;
+            this.channels = channels;
+            this.bigEndian = bigEndian;
+            this.framesPerBucket = estimatedLength == Long.MAX_VALUE
+                    ? Math.max(1, (long) frameRate / 10)
+                    : Math.max(1, (estimatedLength + targetBuckets - 1) / targetBuckets);
+            this.resetBucket();
+        }
+
+        /**
+         * Sums up whole frames of PCM.
+         *
+         * @param pcm buffer of 16-bit samples
+         * @param length bytes of the buffer to sum up, a multiple of the frame size
+         */
+        void add(byte[] pcm, int length) {
+            int frameSize = this.channels * 2;
+            for (int frame = 0; frame + frameSize <= length; frame += frameSize) {
+                for (int i = frame; i < frame + frameSize; i += 2) {
+                    int sample = this.bigEndian
+                            ? (pcm[i] << 8) | (pcm[i + 1] & 0xff)
+                            : (pcm[i + 1] << 8) | (pcm[i] & 0xff);
+                    if (sample < this.low)
+                        this.low = sample;
+                    if (sample > this.high)
+                        this.high = sample;
+                    this.squares += (double) sample * sample;
+                }
+                this.frames++;
+                if (++this.inBucket < this.framesPerBucket)
+                    continue;
+                if (this.buckets * 3 == this.peaks.length)
+                    this.mergePairs(); // the bucket carries on to the new, doubled size
+                else
+                    this.closeBucket();
+            }
+        }
+
+        /**
+         * @param complete true if the whole song has been added
+         * @return overview of the frames added so far
+         */
+        Waveform build(boolean complete) {
+            int buckets = this.buckets;
+            byte[] peaks = Arrays.copyOf(this.peaks, (buckets + 1) * 3);
+            if (complete && this.inBucket > 0) {
+                // the song's last frames fill part of a bucket
+                this.store(peaks, buckets);
+                buckets++;
+            }
+            long length = complete ? this.frames : Math.max(this.frames, this.estimatedLength == Long.MAX_VALUE
+                    ? this.frames : this.estimatedLength);
+            return new Waveform(Arrays.copyOf(peaks, buckets * 3), buckets, this.framesPerBucket, length,
+                    this.frameRate, complete);
+        }
+
+        /**
+         * Stores the bucket being summed up and starts the next one.
+         */
+        private void closeBucket() {
+            this.store(this.peaks, this.buckets++);
+            this.resetBucket();
+        }
+
+        /**
+         * Writes the bucket being summed up into peaks at the given index.
+         */
+        private void store(byte[] peaks, int bucket) {
+            double rms = Math.sqrt(this.squares / (this.inBucket * this.channels));
+            peaks[bucket * 3] = (byte) (this.low >> 8);
+            peaks[bucket * 3 + 1] = (byte) (this.high >> 8);
+            peaks[bucket * 3 + 2] = (byte) Math.min(127, Math.round(rms / 256));
+        }
+
+        /**
+         * Halves the number of buckets by merging each with its neighbour. Only called once every bucket
+         * is filled, so there is always an even number of them.
+         */
+        private void mergePairs() {
+            int merged = 0;
+            for (int i = 0; i < this.buckets; i += 2, merged++) {
+                int a = i * 3;
+                int b = a + 3;
+                double rmsA = this.peaks[a + 2];
+                double rmsB = this.peaks[b + 2];
+                this.peaks[merged * 3] = (byte) Math.min(this.peaks[a], this.peaks[b]);
+                this.peaks[merged * 3 + 1] = (byte) Math.max(this.peaks[a + 1], this.peaks[b + 1]);
+                this.peaks[merged * 3 + 2] = (byte) Math.round(Math.sqrt((rmsA * rmsA + rmsB * rmsB) / 2));
+            }
+            this.buckets = merged;
+            this.framesPerBucket *= 2;
+        }
+
+        private void resetBucket() {
+            this.inBucket = 0;
+            this.low = Integer.MAX_VALUE;
+            this.high = Integer.MIN_VALUE;
+            this.squares = 0;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Computes waveform overviews of songs on a background thread and keeps them, in memory for the songs
+ * used recently and on disk between sessions, so a song opened again shows its overview at once.
+ * A song's overview is summed up from its decoded PCM as it streams past, a buffer at a time, so a long
+ * song never needs to be in memory whole, and partial overviews are handed out while decoding goes on.
+ *
+ * Each song's overview is saved in its own peak file:
+ * <pre>
+ *   int    magic "MPWF"
+ *   int    container version
+ *   long   length of the source file
+ *   long   modification time of the source file
+ *   float  sample rate
+ *   long   frame count
+ *   long   frames per bucket
+ *   int    bucket count
+ *   bytes  lowest sample, highest sample and RMS level of each bucket
+ * </pre>
+ */
+public class WaveformCache {
+
+    /** CONSTANTS FOR THE OVERVIEWS */
+    static final int BUCKETS = 2048;
+    static final int MAX_BUCKETS = BUCKETS * 2 + 1;
+    private static final long UPDATE_INTERVAL_NANOS = 100_000_000L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** CONSTANTS FOR THE CACHE */
+    private static final int MEMORY_ENTRIES = 32;
+    private static final int MAGIC = 0x4D505746;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".peaks";
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private final Path directory;
+    private final SongOpener opener;
+    private final LinkedHashMap<String, Waveform> recent;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor for the cache.
+     *
+     * @param directory directory to save peak files in, created when the first one is saved
+     * @param opener opens songs as PCM streams from their start
+     */
+    public WaveformCache(Path directory, SongOpener opener) {
+        this.directory = directory;
+        this.opener = opener;
+        this.recent = new LinkedHashMap<String, Waveform>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Waveform> eldest) {
+                return this.size() > MEMORY_ENTRIES;
+            }
+        };
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "waveform");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * Gets the overview of a song. A known overview is handed to progress straight away; otherwise it is
+     * read from its peak file or computed on the background thread, and progress is called on that thread
+     * with partial overviews as decoding goes on, and with the complete one last.
+     * Cancelling the returned future stops the computation, and progress is not called again.
+     *
+     * @param song file to get the overview of
+     * @param progress called with each overview of the song, partial or complete
+     * @return future completing with the complete overview, or exceptionally if the song cannot be decoded
+     */
+    public CompletableFuture<Waveform> request(File song, Consumer<Waveform> progress) {
+        String key = song.getAbsolutePath() + '|' + song.length() + '|' + song.lastModified();
+        Waveform known;
+        synchronized (this) {
+            known = this.recent.get(key);
+        }
+        CompletableFuture<Waveform> result = new CompletableFuture<>();
+        if (known != null) {
+            progress.accept(known);
+            result.complete(known);
+            return result;
+        }
+        try {
+            this.executor.execute(() -> {
+                if (result.isDone())
+                    return; // cancelled while queued behind another song
+                try {
+                    Waveform waveform = this.load(song, key, result, progress);
+                    if (waveform != null)
+                        result.complete(waveform);
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Reads the peak file of a song, or computes its overview and saves the peak file.
+     *
+     * @param song file to get the overview of
+     * @param key memory key of the song
+     * @param result future of the request, polled for cancellation
+     * @param progress called with each overview of the song
+     * @return the complete overview, or null if the request was cancelled
+     * @throws IOException if the song cannot be decoded
+     */
+    private Waveform load(File song, String key, CompletableFuture<Waveform> result, Consumer<Waveform> progress)
+            throws IOException {
+        Path entry = this.entryFor(song);
+        Waveform waveform = Files.isRegularFile(entry) ? this.read(entry, song) : null;
+        if (waveform == null) {
+            waveform = this.compute(song, result, progress);
+            if (waveform == null)
+                return null;
+            this.save(song, waveform, entry);
+        } else {
+            progress.accept(waveform);
+        }
+        synchronized (this) {
+            this.recent.put(key, waveform);
+        }
+        return waveform;
+    }
+
+    /**
+     * Decodes a song from its start and sums it up, handing out a partial overview every
+     * UPDATE_INTERVAL_NANOS.
+     *
+     * @return the complete overview, or null if the request was cancelled
+     */
+    private Waveform compute(File song, CompletableFuture<Waveform> result, Consumer<Waveform> progress)
+            throws IOException {
+        try (AudioInputStream pcm = this.opener.open(song, 0)) {
+            AudioFormat format = pcm.getFormat();
+            if (format.getSampleSizeInBits() != 16 || format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED)
+                throw new IOException("waveforms are computed from 16-bit PCM, not " + format);
+            Waveform.Builder builder = new Waveform.Builder(
+                    MusicPlayerModel.estimateFrameLength(song, pcm, format), BUCKETS, format.getFrameRate(),
+                    format.getChannels(), format.isBigEndian());
+            int frameSize = format.getFrameSize();
+            byte[] buffer = new byte[BUFFER_SIZE - BUFFER_SIZE % frameSize];
+            int filled = 0;
+            long lastUpdate = System.nanoTime();
+            while (!result.isDone()) {
+                int n = PcmStreams.read(pcm, buffer, filled, buffer.length - filled);
+                if (n < 0)
+                    break;
+                filled += n;
+                int whole = filled - filled % frameSize;
+                builder.add(buffer, whole);
+                System.arraycopy(buffer, whole, buffer, 0, filled - whole);
+                filled -= whole;
+                if (System.nanoTime() - lastUpdate >= UPDATE_INTERVAL_NANOS) {
+                    lastUpdate = System.nanoTime();
+                    progress.accept(builder.build(false));
+                }
+            }
+            if (result.isDone())
+                return null;
+            Waveform waveform = builder.build(true);
+            progress.accept(waveform);
+            return waveform;
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads a peak file, deleting it if its song has changed since it was written or it cannot be read.
+     *
+     * @return the overview, or null if the peak file is stale or damaged
+     */
+    private Waveform read(Path entry, File song) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == song.length()
+                    && in.readLong() == song.lastModified())
+                return Waveform.read(in);
+        } catch (IOException e) {
+            // damaged, so it is deleted and computed again
+        }
+        try {
+            Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            // overwritten once the overview is computed again
+        }
+        return null;
+    }
+
+    /**
+     * Writes a peak file to a temporary file and moves it into place.
+     */
+    private void save(File song, Waveform waveform, Path entry) {
+        Path temp = null;
+        try {
+            Files.createDirectories(this.directory);
+            temp = Files.createTempFile(this.directory, "peaks", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(song.length());
+                out.writeLong(song.lastModified());
+                waveform.write(out);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // the overview is simply computed again next time
+            }
+        }
+    }
+
+    /**
+     * Gets the peak file of a song. The name is a digest of the song's path.
+     *
+     * @param song audio file
+     * @return path of the peak file
+     */
+    private Path entryFor(File song) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(song.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash)
+                name.append(String.format("%02x", b));
+            return this.directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+}
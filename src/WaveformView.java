@@ -0,0 +1,75 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a song's waveform overview behind the song slider, so the loud and quiet parts of the song
+ * can be seen while scrubbing. Each column of pixels shows the lowest and highest samples of the
+ * frames it covers, with their RMS level drawn darker on top. A partial overview is drawn as far as
+ * it goes, and redrawn as more of the song is summed up.
+ */
+public class WaveformView extends Canvas {
+
+    /** CONSTANTS FOR DRAWING */
+    private static final Color PEAK_COLOR = Color.rgb(150, 180, 210);
+    private static final Color RMS_COLOR = Color.rgb(70, 110, 160);
+
+    /**
+     * PRIVATE DATA MEMBERS
+     */
+    private Waveform waveform;
+
+    /**
+     * Constructor for the view.
+     *
+     * @param height height of the view in pixels
+     */
+    public WaveformView(double height) {
+        super(0, height);
+        // the slider over the view takes the mouse
+        this.setMouseTransparent(true);
+        this.widthProperty().addListener((observable, oldWidth, newWidth) -> this.draw());
+    }
+
+    /**
+     * Shows an overview, replacing the one shown.
+     *
+     * @param waveform overview to show, null to show none
+     */
+    public void show(Waveform waveform) {
+        this.waveform = waveform;
+        this.draw();
+    }
+
+    /**
+     * Draws the overview across the width of the view, a column of pixels at a time.
+     */
+    private void draw() {
+        GraphicsContext g = this.getGraphicsContext2D();
+        double width = this.getWidth();
+        double height = this.getHeight();
+        g.clearRect(0, 0, width, height);
+        Waveform waveform = this.waveform;
+        if (waveform == null || waveform.getBuckets() == 0 || waveform.getFrameLength() <= 0)
+            return;
+        double middle = height / 2;
+        double bucketsPerPixel = (double) waveform.getFrameLength() / waveform.getFramesPerBucket() / width;
+        int columns = (int) Math.min(width, Math.ceil(waveform.getBuckets() / bucketsPerPixel));
+        for (int x = 0; x < columns; x++) {
+            int first = (int) (x * bucketsPerPixel);
+            int last = Math.min(waveform.getBuckets(), Math.max(first + 1, (int) ((x + 1) * bucketsPerPixel)));
+            float low = 0;
+            float high = 0;
+            float rms = 0;
+            for (int bucket = first; bucket < last; bucket++) {
+                low = Math.min(low, waveform.getMin(bucket));
+                high = Math.max(high, waveform.getMax(bucket));
+                rms = Math.max(rms, waveform.getRms(bucket));
+            }
+            g.setFill(PEAK_COLOR);
+            g.fillRect(x, middle - high * middle, 1, Math.max(1, (high - low) * middle));
+            g.setFill(RMS_COLOR);
+            g.fillRect(x, middle - rms * middle, 1, Math.max(1, 2 * rms * middle));
+        }
+    }
+}
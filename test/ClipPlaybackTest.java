@@ -0,0 +1,202 @@
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineListener;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of ClipPlayback's volume, on fake clips with and without a MASTER_GAIN control:
+ * the level the song is loaded at, and how later changes are heard.
+ */
+public class ClipPlaybackTest {
+
+    /** CONSTANTS FOR THE SONG */
+    private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    private static final int FRAMES = 44100;
+    private static final short LEVEL = 10000;
+
+    @Test
+    public void songsAreLoadedAtTheVolumeAndNormalizationGain() throws Exception {
+        FakeClips clips = new FakeClips(true);
+        new ClipPlayback(song(), clips, -6, 2);
+        assertLevel(-4, clips.last());
+        assertEquals(0, clips.last().gain.getValue(), 1e-6);
+    }
+
+    @Test
+    public void volumeChangesGoThroughMasterGain() throws Exception {
+        FakeClips clips = new FakeClips(true);
+        ClipPlayback playback = new ClipPlayback(song(), clips, -6, 2);
+        playback.setGain(-12);
+        assertEquals(-6, clips.last().gain.getValue(), 1e-4);
+        playback.setTrackGain(-1);
+        assertEquals(-9, clips.last().gain.getValue(), 1e-4);
+        assertEquals(1, clips.opened.size());
+    }
+
+    @Test
+    public void songsLoadedWhileSilentCanBeTurnedUp() throws Exception {
+        FakeClips clips = new FakeClips(true);
+        ClipPlayback playback = new ClipPlayback(song(), clips, DspChain.MIN_GAIN_DB, 2);
+        // loaded at full volume and muted, rather than loaded as silence
+        assertLevel(2, clips.last());
+        assertEquals(clips.last().gain.getMinimum(), clips.last().gain.getValue());
+        playback.setGain(-6);
+        assertEquals(-6, clips.last().gain.getValue(), 1e-4);
+    }
+
+    @Test
+    public void clipsWithoutMasterGainAreLoadedAgainAtTheNewVolume() throws Exception {
+        FakeClips clips = new FakeClips(false);
+        ClipPlayback playback = new ClipPlayback(song(), clips, -6, 2);
+        assertLevel(-4, clips.last());
+        LineListener listener = event -> { };
+        playback.setLineListener(listener);
+        playback.setFramePosition(12345);
+        playback.start();
+
+        playback.setGain(-12);
+        assertEquals(2, clips.opened.size());
+        FakeClip reloaded = clips.last();
+        assertLevel(-10, reloaded);
+        assertEquals(12345, playback.getFramePosition());
+        assertTrue(reloaded.running);
+        assertTrue(reloaded.listeners.contains(listener));
+        assertFalse(clips.opened.get(0).listeners.contains(listener));
+
+        // the same gain again needs no reload
+        playback.setGain(-12);
+        assertEquals(2, clips.opened.size());
+        playback.setGain(DspChain.MIN_GAIN_DB);
+        assertEquals(0, clips.last().pcm[0]);
+    }
+
+    private static AudioInputStream song() {
+        byte[] pcm = new byte[FRAMES * FORMAT.getFrameSize()];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i] = (byte) LEVEL;
+            pcm[i + 1] = (byte) (LEVEL >> 8);
+        }
+        return new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, FRAMES);
+    }
+
+    /**
+     * Checks that every sample a clip was loaded with is the song's level at a gain, to within rounding.
+     */
+    private static void assertLevel(double decibels, FakeClip clip) {
+        double expected = LEVEL * Math.pow(10, decibels / 20);
+        assertEquals(FRAMES * FORMAT.getFrameSize(), clip.pcm.length);
+        for (int i = 0; i < clip.pcm.length; i += 2)
+            assertEquals(expected, (short) (clip.pcm[i + 1] << 8 | clip.pcm[i] & 0xff), 1.0, "sample " + i / 2);
+    }
+
+    /**
+     * Pool handing out fake clips and keeping every one of them.
+     */
+    private static final class FakeClips extends OutputLinePool {
+        private final boolean masterGain;
+        private final List<FakeClip> opened = new ArrayList<>();
+
+        private FakeClips(boolean masterGain) {
+            this.masterGain = masterGain;
+        }
+
+        @Override
+        public synchronized Clip acquireClip() {
+            FakeClip clip = new FakeClip(this.masterGain, this.opened);
+            return (Clip) Proxy.newProxyInstance(Clip.class.getClassLoader(), new Class<?>[]{Clip.class}, clip);
+        }
+
+        private FakeClip last() {
+            return this.opened.get(this.opened.size() - 1);
+        }
+    }
+
+    /**
+     * Clip that keeps the PCM it is opened with and plays nothing.
+     */
+    private static final class FakeClip implements InvocationHandler {
+        private final FloatControl gain;
+        private final List<FakeClip> opened;
+        private final List<LineListener> listeners = new ArrayList<>();
+        private byte[] pcm;
+        private int position;
+        private boolean running;
+
+        private FakeClip(boolean masterGain, List<FakeClip> opened) {
+            this.gain = masterGain ? new FloatControl(FloatControl.Type.MASTER_GAIN, -80, 6, 0.01f, -1, 0, "dB") { }
+                    : null;
+            this.opened = opened;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws IOException {
+            switch (method.getName()) {
+                case "open":
+                    this.pcm = ((AudioInputStream) args[0]).readAllBytes();
+                    this.opened.add(this);
+                    return null;
+                case "isControlSupported":
+                    return this.gain != null && args[0] == FloatControl.Type.MASTER_GAIN;
+                case "getControl":
+                    if (this.gain == null || args[0] != FloatControl.Type.MASTER_GAIN)
+                        throw new IllegalArgumentException("unsupported control " + args[0]);
+                    return this.gain;
+                case "getControls":
+                    return this.gain == null ? new Control[0] : new Control[]{this.gain};
+                case "getFormat":
+                    return FORMAT;
+                case "getFrameLength":
+                    return this.pcm == null ? -1 : this.pcm.length / FORMAT.getFrameSize();
+                case "getFramePosition":
+                    return this.position;
+                case "getLongFramePosition":
+                    return (long) this.position;
+                case "setFramePosition":
+                    this.position = (Integer) args[0];
+                    return null;
+                case "start":
+                    this.running = true;
+                    return null;
+                case "stop":
+                    this.running = false;
+                    return null;
+                case "isRunning":
+                case "isActive":
+                    return this.running;
+                case "addLineListener":
+                    this.listeners.add((LineListener) args[0]);
+                    return null;
+                case "removeLineListener":
+                    this.listeners.remove(args[0]);
+                    return null;
+                case "flush":
+                case "drain":
+                case "close":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "fake clip";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
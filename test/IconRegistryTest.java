@@ -0,0 +1,103 @@
+import com.sun.management.ThreadMXBean;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.StackPane;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Allocation checks of the GUI's graphics, on a headless JavaFX toolkit. Once warmed up, swapping
+ * a button between cached graphics, as the play button does on every update, should allocate nothing,
+ * so an idle player leaves the garbage collector idle too.
+ */
+public class IconRegistryTest {
+
+    /** CONSTANTS FOR THE MEASUREMENTS */
+    private static final int WARMUP = 20_000;
+    private static final int MEASURED = 100_000;
+    private static final double MAX_BYTES_PER_SWAP = 1;
+
+    private static IconRegistry icons;
+
+    @BeforeAll
+    public static void startToolkit() throws Exception {
+        System.setProperty("glass.platform", "Monocle");
+        System.setProperty("monocle.platform", "Headless");
+        System.setProperty("prism.order", "sw");
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+        icons = onFxThread(IconRegistry::new);
+    }
+
+    @AfterAll
+    public static void stopToolkit() {
+        Platform.exit();
+    }
+
+    @Test
+    public void iconsAreDecodedOnce() {
+        assertSame(icons.get("play.png"), icons.get("play.png"));
+        assertSame(icons.get("play.png"), icons.view("play.png").getImage());
+        assertNotSame(icons.view("play.png"), icons.view("play.png"));
+        assertThrows(IllegalArgumentException.class, () -> icons.get("missing.png"));
+    }
+
+    @Test
+    public void swappingCachedGraphicsAllocatesNothing() throws Exception {
+        double bytes = onFxThread(() -> {
+            Button button = new Button();
+            new Scene(new StackPane(button));
+            ImageView play = icons.view("play.png");
+            ImageView pause = icons.view("pause.png");
+            boolean[] playing = {false};
+            return bytesPerCall(() -> {
+                playing[0] = !playing[0];
+                button.setGraphic(playing[0] ? pause : play);
+            });
+        });
+        assertTrue(bytes < MAX_BYTES_PER_SWAP, "a graphic swap allocated " + bytes + " bytes");
+    }
+
+    @Test
+    public void newViewsAreMeasuredAsAllocations() throws Exception {
+        // what swapping in a new view on each update would cost, which the check above must be able to see
+        double bytes = onFxThread(() -> bytesPerCall(() -> icons.view("play.png")));
+        assertTrue(bytes >= 100, "a new view allocated only " + bytes + " bytes");
+    }
+
+    /**
+     * Measures the bytes the calling thread allocates per run of an action, after warming it up.
+     */
+    private static double bytesPerCall(Runnable action) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < WARMUP; i++)
+            action.run();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED; i++)
+            action.run();
+        return (double) (threads.getCurrentThreadAllocatedBytes() - before) / MEASURED;
+    }
+
+    /**
+     * Runs a task on the JavaFX thread and waits for its result.
+     */
+    private static <T> T onFxThread(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<>(task);
+        Platform.runLater(future);
+        return future.get();
+    }
+}
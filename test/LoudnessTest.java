@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of Loudness and its meter, against the level of test signals from EBU Tech 3341.
+ */
+public class LoudnessTest {
+
+    /** Tolerance EBU Tech 3341 allows the integrated loudness of its test signals, in LU */
+    private static final double TOLERANCE_LU = 0.1;
+
+    @Test
+    public void sineAtMinus23DbfsMeasuresMinus23Lufs() {
+        for (float rate : new float[]{44100, 48000}) {
+            Loudness.Meter meter = new Loudness.Meter(rate, 2, false);
+            add(meter, rate, 20, -23, 1000, 0);
+            assertEquals(-23, meter.result().getIntegratedLufs(), TOLERANCE_LU, "at " + rate + "Hz");
+        }
+    }
+
+    @Test
+    public void loudnessFollowsTheLevel() {
+        Loudness.Meter meter = new Loudness.Meter(48000, 2, false);
+        add(meter, 48000, 20, -33, 1000, 0);
+        assertEquals(-33, meter.result().getIntegratedLufs(), TOLERANCE_LU);
+    }
+
+    @Test
+    public void quietPartsAreGatedOut() {
+        // 10 s at -36 dBFS, 60 s at -23 dBFS and 10 s at -36 dBFS, as in EBU Tech 3341 case 3
+        Loudness.Meter meter = new Loudness.Meter(48000, 2, false);
+        add(meter, 48000, 10, -36, 1000, 0);
+        add(meter, 48000, 60, -23, 1000, 0);
+        add(meter, 48000, 10, -36, 1000, 0);
+        assertEquals(-23, meter.result().getIntegratedLufs(), TOLERANCE_LU);
+    }
+
+    @Test
+    public void silenceIsLeftAsItIs() {
+        Loudness.Meter meter = new Loudness.Meter(48000, 2, false);
+        meter.add(new byte[48000 * 4 * 5], 48000 * 4 * 5);
+        Loudness silence = meter.result();
+        assertEquals(Loudness.SILENCE_LUFS, silence.getIntegratedLufs());
+        assertEquals(0, silence.getGain());
+    }
+
+    @Test
+    public void truePeakFindsPeaksBetweenSamples() {
+        // a sine at a quarter of the rate, sampled 45 degrees off its peaks: the samples reach only -3 dBFS
+        Loudness.Meter meter = new Loudness.Meter(48000, 2, false);
+        add(meter, 48000, 5, -0.5, 12000, Math.PI / 4);
+        assertEquals(-0.5, meter.result().getTruePeakDbtp(), 0.5);
+    }
+
+    @Test
+    public void gainReachesTheReferenceUnderThePeakCeiling() {
+        assertEquals(5, new Loudness(-23, -10).getGain(), 1e-6);
+        assertEquals(-8, new Loudness(-10, -0.5).getGain(), 1e-6);
+        // 12 dB would take the peak past the ceiling, so only 4 dB
+        assertEquals(4, new Loudness(-30, -5).getGain(), 1e-6);
+        // a song already peaking past the ceiling is not made quieter for it
+        assertEquals(0, new Loudness(-30, 0).getGain(), 1e-6);
+    }
+
+    /**
+     * Measures a stereo sine, the same on both channels, a second at a time.
+     */
+    private static void add(Loudness.Meter meter, float rate, int seconds, double dbfs, double frequency,
+                            double phase) {
+        double amplitude = Math.pow(10, dbfs / 20) * Short.MAX_VALUE;
+        int frames = (int) rate;
+        byte[] pcm = new byte[frames * 4];
+        for (int second = 0; second < seconds; second++) {
+            for (int i = 0; i < frames; i++) {
+                long n = (long) second * frames + i;
+                short sample = (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * n / rate + phase));
+                pcm[4 * i] = (byte) sample;
+                pcm[4 * i + 1] = (byte) (sample >> 8);
+                pcm[4 * i + 2] = (byte) sample;
+                pcm[4 * i + 3] = (byte) (sample >> 8);
+            }
+            meter.add(pcm, pcm.length);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Writes the MP3 files the benchmarks and tests play, so they run offline and on the same audio everywhere.
+ *
+ * There is no MP3 encoder in the JDK or in the bundled jars, so the frames are written directly:
+ * 44.1kHz stereo, 128kbps CBR MPEG 1 Layer III, long blocks, and no scale factors. The spectrum of
+ * every granule is coded in the count1 region with quadruple table B, as random values of -1, 0 or 1
+ * on the lowest 128 to 320 lines, under a global gain that rises and falls every few seconds.
+ * The decoder therefore runs its full Huffman, requantization, IMDCT and synthesis path on noise
+ * below about 12kHz, which costs about what it costs on music at the same bitrate.
+ *
+ * Files are kept in target/jmh-fixtures (or the directory of the jmh.fixtures property)
+ * and only written again if they are missing.
+ */
+public final class Mp3Fixtures {
+
+    /** CONSTANTS FOR THE FRAMES */
+    public static final int SAMPLE_RATE = 44100;
+    public static final int SAMPLES_PER_FRAME = 1152;
+    private static final int BITRATE = 128000;
+    private static final int BITRATE_INDEX = 9;
+    private static final int SIDE_INFO_SIZE = 32;
+    private static final int MIN_QUADS = 32, MAX_QUADS = 80;
+    private static final double NONZERO = 0.4;
+
+    private Mp3Fixtures() {
+    }
+
+    /**
+     * Gets a fixture, writing it first if it does not exist yet.
+     *
+     * @param name file name of the fixture
+     * @param seconds length of the fixture
+     * @param seed seed of its random spectra, so the same name always holds the same audio
+     * @return the fixture
+     * @throws IOException if it cannot be written
+     */
+    public static File get(String name, int seconds, long seed) throws IOException {
+        Path dir = Paths.get(System.getProperty("jmh.fixtures", "target/jmh-fixtures"));
+        Path file = dir.resolve(name);
+        if (!Files.isRegularFile(file)) {
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, name, ".tmp");
+            Files.write(temp, encode(seconds, seed));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return file.toFile();
+    }
+
+    /**
+     * Builds the frames of a fixture.
+     *
+     * @param seconds length of the audio
+     * @param seed seed of the random spectra
+     * @return the MP3 file's bytes
+     */
+    public static byte[] encode(int seconds, long seed) {
+        Random random = new Random(seed);
+        int frames = (int) ((long) seconds * SAMPLE_RATE / SAMPLES_PER_FRAME);
+        int slot = 144 * BITRATE / SAMPLE_RATE;
+        int remainder = 144 * BITRATE % SAMPLE_RATE;
+        byte[] out = new byte[frames * (slot + 1)];
+        int offset = 0;
+        int padding = 0;
+        for (int f = 0; f < frames; f++) {
+            // pad a frame whenever the fractional slots add up to a whole one, as encoders do
+            padding += remainder;
+            boolean padded = padding >= SAMPLE_RATE;
+            if (padded)
+                padding -= SAMPLE_RATE;
+            int size = slot + (padded ? 1 : 0);
+            int gain = 172 + (int) Math.round(8 * Math.sin(2 * Math.PI * f / 200.0));
+            writeFrame(out, offset, size, padded, gain, random);
+            offset += size;
+        }
+        byte[] file = new byte[offset];
+        System.arraycopy(out, 0, file, 0, offset);
+        return file;
+    }
+
+    /**
+     * Writes one frame: header, side information and the coded spectra of two granules of two channels.
+     */
+    private static void writeFrame(byte[] out, int offset, int size, boolean padded, int gain, Random random) {
+        out[offset] = (byte) 0xFF;
+        out[offset + 1] = (byte) 0xFB; // MPEG 1, layer III, no CRC
+        out[offset + 2] = (byte) (BITRATE_INDEX << 4 | (padded ? 2 : 0)); // 44.1kHz
+        out[offset + 3] = (byte) 0x04; // stereo, original
+        int mainStart = offset + 4 + SIDE_INFO_SIZE;
+        int budget = (size - 4 - SIDE_INFO_SIZE) * 8 / 4;
+        BitWriter main = new BitWriter(out, mainStart);
+        int[] lengths = new int[4];
+        for (int g = 0; g < 4; g++) {
+            int start = main.position();
+            int quads = MIN_QUADS + random.nextInt(MAX_QUADS - MIN_QUADS + 1);
+            for (int q = 0; q < quads && main.position() - start + 8 <= budget; q++) {
+                int value = 0;
+                for (int bit = 0; bit < 4; bit++)
+                    value = value << 1 | (random.nextDouble() < NONZERO ? 1 : 0);
+                // table B codes each quadruple vwxy as its four bits inverted, then a sign bit per nonzero value
+                main.write(~value & 0xF, 4);
+                for (int bit = 3; bit >= 0; bit--) {
+                    if ((value >>> bit & 1) != 0)
+                        main.write(random.nextInt(2), 1);
+                }
+            }
+            lengths[g] = main.position() - start;
+        }
+        BitWriter side = new BitWriter(out, offset + 4);
+        side.write(0, 9); // main data begins in this frame
+        side.write(0, 3); // private bits
+        side.write(0, 8); // scale factor selection of both channels
+        for (int g = 0; g < 4; g++) {
+            side.write(lengths[g], 12);
+            side.write(0, 9); // no big values
+            side.write(gain, 8);
+            side.write(0, 4); // no scale factor bits
+            side.write(0, 1); // long blocks
+            side.write(0, 15); // table selections
+            side.write(0, 4); // region 0 count
+            side.write(0, 3); // region 1 count
+            side.write(0, 1); // no pre-emphasis
+            side.write(0, 1); // scale factor scale
+            side.write(1, 1); // count1 table B
+        }
+    }
+
+    /**
+     * Writes bits into a byte array, most significant bit first.
+     */
+    private static final class BitWriter {
+        private final byte[] out;
+        private final int start;
+        private int bits;
+
+        private BitWriter(byte[] out, int start) {
+            this.out = out;
+            this.start = start;
+            this.bits = 0;
+        }
+
+        private int position() {
+            return this.bits;
+        }
+
+        private void write(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                if ((value >>> i & 1) != 0)
+                    this.out[this.start + (this.bits >>> 3)] |= (byte) (0x80 >>> (this.bits & 7));
+                this.bits++;
+            }
+        }
+    }
+}
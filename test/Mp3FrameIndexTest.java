@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of Mp3FrameIndex: scanning, probing, seeking, and saving and loading an index.
+ */
+public class Mp3FrameIndexTest {
+
+    /** CONSTANTS FOR THE FIXTURES */
+    private static final int SECONDS = 10;
+    private static final int FRAMES = SECONDS * Mp3Fixtures.SAMPLE_RATE / Mp3Fixtures.SAMPLES_PER_FRAME;
+    /** Junk between two frames, further than the saved format's short frame sizes reach */
+    private static final int JUNK = 70000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void scanFindsEveryFrame() throws IOException {
+        File song = this.song("song.mp3", Mp3Fixtures.encode(SECONDS, 1));
+        Mp3FrameIndex index = Mp3FrameIndex.scan(song);
+        assertTrue(index.isExact());
+        assertEquals(FRAMES, index.getFrameCount());
+        assertEquals((long) FRAMES * Mp3Fixtures.SAMPLES_PER_FRAME, index.getSampleCount());
+        assertEquals(Mp3Fixtures.SAMPLE_RATE, index.getSampleRate());
+    }
+
+    @Test
+    public void probeEstimatesTheLengthFromTheFirstFrame() throws IOException {
+        File song = this.song("song.mp3", Mp3Fixtures.encode(SECONDS, 1));
+        Mp3FrameIndex.StreamInfo info = Mp3FrameIndex.probe(song);
+        assertEquals(Mp3Fixtures.SAMPLE_RATE, info.getSampleRate());
+        assertEquals(2, info.getChannels());
+        assertEquals(128, info.getBitrate());
+        assertEquals(Mp3FrameIndex.scan(song).getSampleCount(), info.getSampleCount(), Mp3Fixtures.SAMPLES_PER_FRAME);
+        // a constant bitrate file has no table of contents to estimate seeks from
+        assertNull(Mp3FrameIndex.readVbrHeader(song));
+    }
+
+    @Test
+    public void seeksStartAtAFrameAtOrBeforeTheWantedSample() throws IOException {
+        File song = this.song("song.mp3", Mp3Fixtures.encode(SECONDS, 1));
+        Mp3FrameIndex index = Mp3FrameIndex.scan(song);
+        for (long sample : new long[]{0, 1, 1151, 1152, 100000, 300000, index.getSampleCount() - 1}) {
+            Mp3FrameIndex.SeekPoint point = index.seek(song, sample);
+            assertTrue(point.getSample() <= sample, "seek to " + sample + " started at " + point.getSample());
+            // back no further than the bit reservoir and the overlap of the filter banks need
+            assertTrue(sample - point.getSample() < 4 * Mp3Fixtures.SAMPLES_PER_FRAME, "seek to " + sample
+                    + " started at " + point.getSample());
+            assertEquals(0, point.getSample() % Mp3Fixtures.SAMPLES_PER_FRAME);
+            assertFrameHeaderAt(index, song, point);
+        }
+    }
+
+    @Test
+    public void savedIndexesLoadWithTheSameFrames() throws IOException {
+        File song = this.song("song.mp3", withJunk(Mp3Fixtures.encode(SECONDS, 1), FRAMES / 2));
+        Mp3FrameIndex index = Mp3FrameIndex.scan(song);
+        assertEquals(FRAMES, index.getFrameCount());
+        Path saved = this.save(index, song);
+
+        Mp3FrameIndex loaded = Mp3FrameIndex.read(saved, song);
+        assertNotNull(loaded);
+        assertTrue(loaded.isExact());
+        assertEquals(index.getFrameCount(), loaded.getFrameCount());
+        assertEquals(index.getSampleRate(), loaded.getSampleRate());
+        for (long sample = 0; sample < index.getSampleCount(); sample += 10007) {
+            Mp3FrameIndex.SeekPoint expected = index.seek(song, sample);
+            Mp3FrameIndex.SeekPoint actual = loaded.seek(song, sample);
+            assertEquals(expected.getOffset(), actual.getOffset(), "seek to " + sample);
+            assertEquals(expected.getSample(), actual.getSample(), "seek to " + sample);
+        }
+    }
+
+    @Test
+    public void savedIndexesOfChangedFilesAreStale() throws IOException {
+        File song = this.song("song.mp3", Mp3Fixtures.encode(SECONDS, 1));
+        Path saved = this.save(Mp3FrameIndex.scan(song), song);
+        assertTrue(song.setLastModified(song.lastModified() - 60_000));
+        assertNull(Mp3FrameIndex.read(saved, song));
+        assertNull(Mp3FrameIndex.read(this.directory.resolve("missing.idx"), song));
+    }
+
+    private File song(String name, byte[] bytes) throws IOException {
+        return Files.write(this.directory.resolve(name), bytes).toFile();
+    }
+
+    private Path save(Mp3FrameIndex index, File song) throws IOException {
+        Path saved = this.directory.resolve(song.getName() + ".idx");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(saved)))) {
+            index.write(out, song);
+        }
+        return saved;
+    }
+
+    /**
+     * Puts zeros after a frame, as a tag in the middle of a file would be.
+     */
+    private static byte[] withJunk(byte[] mp3, int frame) throws IOException {
+        int offset = 0;
+        for (int i = 0; i < frame; i++)
+            offset += frameSize(mp3, offset);
+        byte[] out = new byte[mp3.length + JUNK];
+        System.arraycopy(mp3, 0, out, 0, offset);
+        System.arraycopy(mp3, offset, out, offset + JUNK, mp3.length - offset);
+        return out;
+    }
+
+    /**
+     * Size of the fixture frame at an offset, which is 128kbps and padded or not.
+     */
+    private static int frameSize(byte[] mp3, int offset) throws IOException {
+        if ((mp3[offset] & 0xFF) != 0xFF || (mp3[offset + 1] & 0xE0) != 0xE0)
+            throw new IOException("no frame at " + offset);
+        return 144 * 128000 / Mp3Fixtures.SAMPLE_RATE + ((mp3[offset + 2] & 0x02) >> 1);
+    }
+
+    private static void assertFrameHeaderAt(Mp3FrameIndex index, File song, Mp3FrameIndex.SeekPoint point)
+            throws IOException {
+        try (InputStream in = index.open(song, point)) {
+            assertEquals(0xFF, in.read());
+            assertEquals(0xE0, in.read() & 0xE0);
+        }
+    }
+}
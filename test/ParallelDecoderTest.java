@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of ParallelDecoder: splitting a song across any number of workers decodes it byte for byte
+ * as decoding it from start to end does.
+ */
+public class ParallelDecoderTest {
+
+    /** Long enough for eight workers to get a segment each */
+    private static final int SECONDS = 60;
+
+    @TempDir
+    static Path directory;
+
+    private static File song;
+    private static AudioFormat format;
+    private static byte[] sequential;
+
+    @BeforeAll
+    public static void decodeSequentially() throws Exception {
+        song = Files.write(directory.resolve("song.mp3"), Mp3Fixtures.encode(SECONDS, 7)).toFile();
+        format = MusicPlayerModel.pcmFormat(AudioSystem.getAudioFileFormat(song).getFormat());
+        try (AudioInputStream decoded = AudioSystem.getAudioInputStream(format,
+                AudioSystem.getAudioInputStream(song))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = decoded.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+            sequential = out.toByteArray();
+        }
+    }
+
+    @Test
+    public void everyParallelismDecodesTheSameBytes() throws IOException {
+        Mp3FrameIndex index = Mp3FrameIndex.scan(song);
+        for (int parallelism : new int[]{1, 2, 4, 8}) {
+            ParallelDecoder decoder = new ParallelDecoder(parallelism);
+            try {
+                byte[] pcm = decoder.decodePcm(song, index, format, () -> false);
+                assertEquals(sequential.length, pcm.length, parallelism + " workers");
+                assertArrayEquals(sequential, pcm, parallelism + " workers");
+            } finally {
+                decoder.close();
+            }
+        }
+    }
+
+    @Test
+    public void streamsHaveTheExactFrameLength() throws IOException {
+        ParallelDecoder decoder = new ParallelDecoder(4);
+        try (AudioInputStream decoded = decoder.decode(song, Mp3FrameIndex.scan(song), format, () -> false)) {
+            assertEquals(sequential.length / format.getFrameSize(), decoded.getFrameLength());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void cancelledDecodesFail() throws IOException {
+        ParallelDecoder decoder = new ParallelDecoder(4);
+        try {
+            Mp3FrameIndex index = Mp3FrameIndex.scan(song);
+            assertThrows(IOException.class, () -> decoder.decodePcm(song, index, format, () -> true));
+        } finally {
+            decoder.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of PcmRingBuffer: copying through it, wrapping around its end, handing out regions in place,
+ * and the writer and reader blocking on each other.
+ */
+public class PcmRingBufferTest {
+
+    /** CONSTANTS FOR THE STREAMS */
+    private static final int STREAM_BYTES = 1_000_003;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    public void readsWhatWasWrittenAcrossTheEnd() throws InterruptedException {
+        PcmRingBuffer ring = new PcmRingBuffer(10);
+        byte[] out = new byte[10];
+        ring.write(bytes(0, 7), 0, 7);
+        assertEquals(5, ring.read(out, 0, 5));
+        // the next write wraps around the end of the array
+        ring.write(bytes(7, 8), 0, 8);
+        assertEquals(10, ring.available());
+        assertEquals(10, ring.read(out, 0, 10));
+        assertArrayEquals(bytes(5, 10), out);
+        assertEquals(0, ring.available());
+    }
+
+    @Test
+    public void readsDrainThenEndAfterTheEndOfStream() throws InterruptedException {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        ring.write(bytes(0, 3), 0, 3);
+        ring.markEndOfStream();
+        byte[] out = new byte[8];
+        assertEquals(3, ring.read(out, 0, 8));
+        assertEquals(-1, ring.read(out, 0, 8));
+        assertEquals(-1, ring.awaitReadable(8));
+        ring.clear();
+        ring.write(bytes(0, 2), 0, 2);
+        assertEquals(2, ring.read(out, 0, 8));
+    }
+
+    @Test
+    public void regionsInPlaceStopAtTheEndOfTheArray() throws InterruptedException {
+        PcmRingBuffer ring = new PcmRingBuffer(10);
+        assertEquals(10, ring.awaitWritable(100));
+        assertEquals(4, ring.awaitWritable(4));
+        System.arraycopy(bytes(0, 7), 0, ring.array(), ring.writeOffset(), 7);
+        ring.commitWrite(7);
+        assertEquals(3, ring.awaitWritable(100));
+        assertEquals(7, ring.awaitReadable(100));
+        assertEquals(0, ring.readOffset());
+        ring.commitRead(6);
+        // free space is 9 bytes, but only the 3 before the end of the array are handed out
+        assertEquals(3, ring.awaitWritable(100));
+        System.arraycopy(bytes(7, 3), 0, ring.array(), ring.writeOffset(), 3);
+        ring.commitWrite(3);
+        assertEquals(0, ring.writeOffset());
+        assertEquals(6, ring.awaitWritable(100));
+        assertEquals(4, ring.awaitReadable(100));
+        assertEquals(6, ring.array()[ring.readOffset()]);
+        ring.commitRead(4);
+        assertEquals(0, ring.readOffset());
+    }
+
+    @Test
+    public void writerBlocksWhileFullAndReaderWhileEmpty() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ring.write(bytes(0, 4), 0, 4);
+            Future<?> writer = executor.submit(() -> {
+                ring.write(bytes(4, 2), 0, 2);
+                return null;
+            });
+            assertThrows(TimeoutException.class, () -> writer.get(100, TimeUnit.MILLISECONDS));
+            byte[] out = new byte[4];
+            assertEquals(4, ring.read(out, 0, 4));
+            writer.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(2, ring.read(out, 0, 4));
+
+            Future<Integer> reader = executor.submit(() -> ring.awaitReadable(4));
+            assertThrows(TimeoutException.class, () -> reader.get(100, TimeUnit.MILLISECONDS));
+            ring.markEndOfStream();
+            assertEquals(-1, reader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void streamsPassThroughUnchangedBetweenThreads() throws Exception {
+        byte[] source = bytes(0, STREAM_BYTES);
+        byte[] copied = new byte[STREAM_BYTES];
+        // writing by copying and reading in place
+        assertArrayEquals(source, this.stream(source, copied, false));
+        // writing in place and reading by copying
+        Arrays.fill(copied, (byte) 0);
+        assertArrayEquals(source, this.stream(source, copied, true));
+    }
+
+    /**
+     * Streams bytes from a writing thread to this one through a small buffer, in uneven pieces.
+     */
+    private byte[] stream(byte[] source, byte[] sink, boolean writeInPlace)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        PcmRingBuffer ring = new PcmRingBuffer(4099);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                int at = 0;
+                for (int piece = 1; at < source.length; piece = piece % 997 + 1) {
+                    int len = Math.min(piece, source.length - at);
+                    if (writeInPlace) {
+                        len = ring.awaitWritable(len);
+                        System.arraycopy(source, at, ring.array(), ring.writeOffset(), len);
+                        ring.commitWrite(len);
+                    } else {
+                        ring.write(source, at, len);
+                    }
+                    at += len;
+                }
+                ring.markEndOfStream();
+                return null;
+            });
+            int at = 0;
+            for (int piece = 1; ; piece = piece % 1013 + 1) {
+                int n;
+                if (writeInPlace) {
+                    n = ring.read(sink, at, Math.min(piece, sink.length - at));
+                } else {
+                    n = ring.awaitReadable(piece);
+                    if (n > 0) {
+                        System.arraycopy(ring.array(), ring.readOffset(), sink, at, n);
+                        ring.commitRead(n);
+                    }
+                }
+                if (n < 0)
+                    break;
+                at += n;
+            }
+            writer.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(source.length, at);
+            assertEquals(0, ring.available());
+            return sink;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Bytes counting up from a start, wrapping at 256.
+     */
+    private static byte[] bytes(int start, int count) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++)
+            bytes[i] = (byte) (start + i);
+        return bytes;
+    }
+}
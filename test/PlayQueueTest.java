@@ -0,0 +1,220 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of PlayQueue: playing order, repeat modes, songs put in front, shuffle and saving.
+ */
+public class PlayQueueTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void playsInOrderAndRepeatsAll() {
+        PlayQueue queue = PlayQueue.of(songs(3));
+        assertEquals(song(0), queue.next());
+        assertEquals(song(1), queue.next());
+        assertEquals(song(2), queue.next());
+        assertEquals(song(0), queue.next());
+        assertEquals(song(0), queue.getCurrent());
+    }
+
+    @Test
+    public void repeatOffStopsAfterTheLastSong() {
+        PlayQueue queue = PlayQueue.of(songs(2));
+        queue.setRepeatMode(PlayQueue.RepeatMode.OFF);
+        queue.next();
+        queue.next();
+        assertNull(queue.peekNext());
+        assertNull(queue.next());
+    }
+
+    @Test
+    public void repeatOnePlaysTheSameSong() {
+        PlayQueue queue = PlayQueue.of(songs(3));
+        queue.next();
+        queue.next();
+        queue.setRepeatMode(PlayQueue.RepeatMode.ONE);
+        assertEquals(song(1), queue.next());
+        assertEquals(song(1), queue.next());
+    }
+
+    @Test
+    public void previousStepsBackAndWraps() {
+        PlayQueue queue = PlayQueue.of(songs(3));
+        queue.next();
+        queue.next();
+        assertEquals(song(0), queue.previous());
+        assertEquals(song(2), queue.previous());
+        assertEquals(song(0), queue.next());
+    }
+
+    @Test
+    public void songsPutInFrontPlayFirstInTheOrderAdded() {
+        PlayQueue queue = PlayQueue.of(songs(3));
+        queue.next();
+        queue.playNext(new File("/music/x.mp3"));
+        queue.playNext(new File("/music/y.mp3"));
+        assertEquals(List.of(new File("/music/x.mp3"), new File("/music/y.mp3"), song(1), song(2)),
+                queue.upcoming(10));
+        assertEquals(new File("/music/x.mp3"), queue.next());
+        assertEquals(new File("/music/y.mp3"), queue.next());
+        assertEquals(song(1), queue.next());
+    }
+
+    @Test
+    public void previousAfterASongPutInFrontGoesBackToTheQueue() {
+        PlayQueue queue = PlayQueue.of(songs(3));
+        queue.next();
+        queue.next();
+        queue.playNext(new File("/music/x.mp3"));
+        queue.next();
+        assertEquals(song(1), queue.previous());
+        assertEquals(song(0), queue.previous());
+    }
+
+    @Test
+    public void repeatOneAfterASongPutInFrontRepeatsThatSong() {
+        PlayQueue queue = PlayQueue.of(songs(3));
+        queue.next();
+        queue.playNext(new File("/music/x.mp3"));
+        queue.next();
+        queue.setRepeatMode(PlayQueue.RepeatMode.ONE);
+        assertEquals(new File("/music/x.mp3"), queue.next());
+        assertEquals(new File("/music/x.mp3"), queue.next());
+    }
+
+    @Test
+    public void shufflePlaysEverySongOnceARound() {
+        PlayQueue queue = PlayQueue.of(songs(50));
+        queue.setShuffle(true);
+        List<File> round = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            round.add(queue.next());
+        assertEquals(50, new HashSet<>(round).size());
+        // a second round plays the same shuffled order again
+        for (int i = 0; i < 50; i++)
+            assertEquals(round.get(i), queue.next());
+    }
+
+    @Test
+    public void shuffleStartsFromTheCurrentSongAndStepsBackThroughTheSongsDrawn() {
+        PlayQueue queue = PlayQueue.of(songs(20));
+        queue.jump(7);
+        queue.setShuffle(true);
+        assertEquals(song(7), queue.getCurrent());
+        List<File> drawn = new ArrayList<>();
+        drawn.add(song(7));
+        for (int i = 0; i < 5; i++)
+            drawn.add(queue.next());
+        for (int i = 4; i >= 0; i--)
+            assertEquals(drawn.get(i), queue.previous());
+        assertEquals(drawn.subList(1, 6), queue.upcoming(5));
+    }
+
+    @Test
+    public void jumpingWhileShufflingDrawsThatSongNext() {
+        PlayQueue queue = PlayQueue.of(songs(20));
+        queue.setShuffle(true);
+        Set<File> played = new HashSet<>();
+        played.add(queue.next());
+        File target = null;
+        for (int i = 0; i < 20 && target == null; i++) {
+            if (!played.contains(song(i)))
+                target = song(i);
+        }
+        assertEquals(target, queue.jump(Integer.parseInt(target.getName().replace(".mp3", ""))));
+        played.add(target);
+        for (int i = 0; i < 18; i++)
+            assertTrue(played.add(queue.next()));
+    }
+
+    @Test
+    public void turningShuffleOffCarriesOnFromTheCurrentSong() {
+        PlayQueue queue = PlayQueue.of(songs(20));
+        queue.setShuffle(true);
+        queue.next();
+        queue.next();
+        File current = queue.next();
+        queue.setShuffle(false);
+        int index = Integer.parseInt(current.getName().replace(".mp3", ""));
+        assertEquals(song((index + 1) % 20), queue.next());
+    }
+
+    @Test
+    public void saveAndLoadKeepTheWholeState() throws IOException {
+        PlayQueue queue = PlayQueue.of(songs(30));
+        queue.setShuffle(true);
+        for (int i = 0; i < 10; i++)
+            queue.next();
+        queue.setRepeatMode(PlayQueue.RepeatMode.OFF);
+        queue.playNext(new File("/music/x.mp3"));
+        queue.playNext(new File("/music/ü ñ.mp3"));
+        queue.next();
+        Path file = this.directory.resolve("queue.bin");
+        queue.save(file);
+
+        PlayQueue loaded = PlayQueue.load(file);
+        assertEquals(30, loaded.size());
+        assertTrue(loaded.isShuffle());
+        assertEquals(PlayQueue.RepeatMode.OFF, loaded.getRepeatMode());
+        assertEquals(new File("/music/x.mp3"), loaded.getCurrent());
+        for (int i = 0; i < 30; i++)
+            assertEquals(queue.get(i), loaded.get(i));
+        // both go on the same way: the song put in front, then back through the songs drawn so far
+        assertEquals(queue.upcoming(5), loaded.upcoming(5));
+        assertEquals(queue.next(), loaded.next());
+        for (int i = 0; i < 10; i++)
+            assertEquals(queue.previous(), loaded.previous());
+    }
+
+    @Test
+    public void savedSongPutInFrontStillStepsBackToTheQueue() throws IOException {
+        PlayQueue queue = PlayQueue.of(songs(3));
+        queue.next();
+        queue.next();
+        queue.playNext(new File("/music/x.mp3"));
+        queue.next();
+        Path file = this.directory.resolve("queue.bin");
+        queue.save(file);
+        assertEquals(song(1), PlayQueue.load(file).previous());
+    }
+
+    @Test
+    public void importsM3uPlaylists() throws IOException {
+        Path playlist = this.directory.resolve("list.m3u8");
+        Files.write(playlist, List.of("#EXTM3U", "#EXTINF:123,Artist - Title", "a.mp3", "",
+                "sub/b.mp3", "/music/c.mp3", "http://example.com/stream.mp3", "ü.mp3"), StandardCharsets.UTF_8);
+        PlayQueue queue = PlayQueue.importM3u(playlist.toFile());
+        assertEquals(4, queue.size());
+        assertEquals(this.directory.resolve("a.mp3").toFile(), queue.get(0));
+        assertEquals(this.directory.resolve("sub/b.mp3").toFile(), queue.get(1));
+        assertEquals(new File("/music/c.mp3"), queue.get(2));
+        assertEquals(new File(this.directory.toFile(), "ü.mp3"), queue.get(3));
+    }
+
+    private static List<File> songs(int count) {
+        List<File> songs = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            songs.add(song(i));
+        return songs;
+    }
+
+    private static File song(int i) {
+        return new File("/music/" + i + ".mp3");
+    }
+}
@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of Resampler through ResamplingInputStream: how long the output is, where it starts when opened
+ * part way into a song, and how closely it follows the signal it converts.
+ */
+public class ResamplerTest {
+
+    /** CONSTANTS FOR THE SIGNAL */
+    private static final int INPUT_RATE = 44100;
+    private static final int OUTPUT_RATE = 48000;
+    private static final double FREQUENCY = 1000;
+    private static final double AMPLITUDE = 16000;
+
+    @Test
+    public void outputLastsAsLongAsTheInput() throws IOException {
+        for (int frames : new int[]{0, 1, 146, 147, 148, 4096, 4097, 44100, 50000}) {
+            AudioInputStream resampled = ResamplingInputStream.resample(stream(sine(frames, INPUT_RATE), INPUT_RATE),
+                    OUTPUT_RATE, Resampler.Quality.STANDARD);
+            long expected = ((long) frames * 160 + 146) / 147;
+            assertEquals(expected, resampled.getFrameLength());
+            assertEquals(expected * 4, readAll(resampled).length, frames + " input frames");
+        }
+    }
+
+    @Test
+    public void streamsOpenedPartWayMatchTheWholeStream() throws IOException, UnsupportedAudioFileException {
+        short[] song = sine(20000, INPUT_RATE);
+        byte[] whole = readAll(ResamplingInputStream.resample(stream(song, INPUT_RATE), OUTPUT_RATE,
+                Resampler.Quality.STANDARD));
+        // every phase between two input frames, and positions close enough to the start to lack history
+        for (long position : new long[]{0, 1, 5, 159, 160, 161, 1000, 12345, 21000}) {
+            AudioInputStream part = ResamplingInputStream.open((file, from) -> stream(
+                    Arrays.copyOfRange(song, (int) from * 2, song.length), INPUT_RATE), null, position,
+                    format(INPUT_RATE), OUTPUT_RATE, Resampler.Quality.STANDARD);
+            assertEquals(whole.length / 4 - position, part.getFrameLength());
+            assertArrayEquals(Arrays.copyOfRange(whole, (int) position * 4, whole.length), readAll(part),
+                    "opened at " + position);
+        }
+    }
+
+    @Test
+    public void sinesKeepTheirPitchAndLevel() throws IOException {
+        for (Resampler.Quality quality : Resampler.Quality.values()) {
+            for (int[] rates : new int[][]{{44100, 48000}, {48000, 44100}, {22050, 48000}, {96000, 44100}}) {
+                byte[] out = readAll(ResamplingInputStream.resample(stream(sine(rates[0], rates[0]), rates[0]),
+                        rates[1], quality));
+                short[] expected = sine(rates[1], rates[1]);
+                // away from the ends, where the filter reads silence before and after the song
+                double worst = 0;
+                for (int i = rates[1] / 10; i < rates[1] * 9 / 10; i++) {
+                    for (int ch = 0; ch < 2; ch++) {
+                        short sample = (short) (out[4 * i + 2 * ch + 1] << 8 | out[4 * i + 2 * ch] & 0xff);
+                        worst = Math.max(worst, Math.abs(sample - expected[2 * i + ch]));
+                    }
+                }
+                // FAST within half a percent of the amplitude, the others within rounding of the ideal samples
+                double tolerance = quality == Resampler.Quality.FAST ? AMPLITUDE / 200 : 2;
+                assertTrue(worst <= tolerance, quality + " " + rates[0] + " to " + rates[1] + " was off by " + worst);
+            }
+        }
+    }
+
+    /**
+     * Interleaved stereo 16-bit samples of a sine, the same on both channels.
+     */
+    private static short[] sine(int frames, int rate) {
+        short[] samples = new short[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * FREQUENCY * i / rate));
+            samples[2 * i] = sample;
+            samples[2 * i + 1] = sample;
+        }
+        return samples;
+    }
+
+    private static AudioFormat format(int rate) {
+        return new AudioFormat(rate, 16, 2, true, false);
+    }
+
+    private static AudioInputStream stream(short[] samples, int rate) {
+        byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return new AudioInputStream(new ByteArrayInputStream(bytes), format(rate), samples.length / 2);
+    }
+
+    private static byte[] readAll(AudioInputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3000];
+        int n;
+        while ((n = stream.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of SearchIndex: which words of a query match which tracks.
+ */
+public class SearchIndexTest {
+
+    /** Tracks searched by every test, found by their position in this list */
+    private static final List<TrackInfo> TRACKS = List.of(
+            track("/music/Queen/A Night at the Opera/Bohemian Rhapsody.mp3", "Bohemian Rhapsody", "Queen",
+                    "A Night at the Opera"),
+            track("/music/Beyoncé/Lemonade/Formation.mp3", "Formation", "Beyoncé", "Lemonade"),
+            track("/music/Queen/News of the World/We Will Rock You.mp3", "We Will Rock You", "Queen",
+                    "News of the World"),
+            track("/music/misc/untagged song.mp3", "", "", ""),
+            track("/music/Sigur Rós/Takk/Hoppípolla.mp3", "Hoppípolla", "Sigur Rós", "Takk"));
+
+    private final SearchIndex index = new SearchIndex(TRACKS);
+
+    @Test
+    public void emptyQueryMatchesEveryTrack() {
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, this.index.search(""));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, this.index.search("  "));
+    }
+
+    @Test
+    public void wholeWordsMatchInAnyField() {
+        assertArrayEquals(new int[]{0, 2}, this.index.search("queen"));
+        assertArrayEquals(new int[]{1}, this.index.search("lemonade"));
+        assertArrayEquals(new int[]{2}, this.index.search("rock"));
+    }
+
+    @Test
+    public void caseAndAccentsAreIgnored() {
+        assertArrayEquals(new int[]{1}, this.index.search("BEYONCE"));
+        assertArrayEquals(new int[]{1}, this.index.search("beyoncé"));
+        assertArrayEquals(new int[]{4}, this.index.search("hoppipolla"));
+        assertArrayEquals(new int[]{4}, this.index.search("ROS"));
+    }
+
+    @Test
+    public void shortWordsMatchOnlyTheStartOfWords() {
+        assertArrayEquals(new int[]{0, 2}, this.index.search("q"));
+        assertArrayEquals(new int[]{0, 2}, this.index.search("qu"));
+        // "ee" is inside "queen" but starts no word
+        assertArrayEquals(new int[0], this.index.search("ee"));
+    }
+
+    @Test
+    public void longerWordsMatchInsideWords() {
+        assertArrayEquals(new int[]{0}, this.index.search("hapso"));
+        assertArrayEquals(new int[]{1}, this.index.search("mati"));
+    }
+
+    @Test
+    public void everyWordOfTheQueryMustMatch() {
+        assertArrayEquals(new int[]{2}, this.index.search("queen world"));
+        assertArrayEquals(new int[]{0}, this.index.search("opera qu"));
+        assertArrayEquals(new int[0], this.index.search("queen lemonade"));
+    }
+
+    @Test
+    public void untaggedTracksAreFoundByFileName() {
+        assertArrayEquals(new int[]{3}, this.index.search("untagged"));
+        // the extension is not part of the name
+        assertArrayEquals(new int[0], this.index.search("mp3"));
+    }
+
+    @Test
+    public void largeLibrariesFindEveryMatch() {
+        List<TrackInfo> tracks = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            tracks.add(track("/music/" + i + ".mp3", "song" + i, "artist" + (i % 50), "album" + (i % 500)));
+        SearchIndex large = new SearchIndex(tracks);
+        assertEquals(5000, large.size());
+        int[] found = large.search("artist7 album107");
+        assertEquals(10, found.length);
+        for (int i : found)
+            assertEquals(7, i % 50);
+        assertArrayEquals(new int[]{4999}, large.search("song4999"));
+    }
+
+    private static TrackInfo track(String path, String title, String artist, String album) {
+        return new TrackInfo(path, 0, 0, title, artist, album, 0, 0, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,207 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of TagReader on files built with ID3v1 and ID3v2.2, 2.3 and 2.4 tags.
+ */
+public class TagReaderTest {
+
+    /** Stand-in for the audio between the tags */
+    private static final byte[] AUDIO = new byte[4096];
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void readsId3v23TextFrames() throws IOException {
+        TagReader tags = this.read(tag(3, 0,
+                frame(3, "APIC", new byte[100_000]),
+                frame(3, "TIT2", text(0, "Bohemian Rhapsody", StandardCharsets.ISO_8859_1)),
+                frame(3, "TPE1", text(1, "Queen", StandardCharsets.UTF_16)),
+                frame(3, "TALB", text(0, "A Night at the Opera", StandardCharsets.ISO_8859_1)),
+                frame(3, "TYER", text(0, "1975", StandardCharsets.ISO_8859_1)),
+                frame(3, "TRCK", text(0, "11/12", StandardCharsets.ISO_8859_1))), null);
+        assertEquals("Bohemian Rhapsody", tags.getTitle());
+        assertEquals("Queen", tags.getArtist());
+        assertEquals("A Night at the Opera", tags.getAlbum());
+        assertEquals(1975, tags.getYear());
+        assertEquals(11, tags.getTrack());
+    }
+
+    @Test
+    public void readsId3v24TextFrames() throws IOException {
+        TagReader tags = this.read(tag(4, 0,
+                frame(4, "TIT2", text(3, "Hoppípolla", StandardCharsets.UTF_8)),
+                // several values are separated by zero characters, and only the first is kept
+                frame(4, "TPE1", text(3, "Sigur Rós\0Someone Else", StandardCharsets.UTF_8)),
+                frame(4, "TALB", text(2, "Takk…", StandardCharsets.UTF_16BE)),
+                frame(4, "TDRC", text(3, "2005-09-12", StandardCharsets.UTF_8))), null);
+        assertEquals("Hoppípolla", tags.getTitle());
+        assertEquals("Sigur Rós", tags.getArtist());
+        assertEquals("Takk…", tags.getAlbum());
+        assertEquals(2005, tags.getYear());
+        assertEquals(0, tags.getTrack());
+    }
+
+    @Test
+    public void readsId3v22TextFrames() throws IOException {
+        TagReader tags = this.read(tag(2, 0,
+                frame(2, "TT2", text(0, "Formation", StandardCharsets.ISO_8859_1)),
+                frame(2, "TP1", text(1, "Beyoncé", StandardCharsets.UTF_16)),
+                frame(2, "TRK", text(0, "12", StandardCharsets.ISO_8859_1))), null);
+        assertEquals("Formation", tags.getTitle());
+        assertEquals("Beyoncé", tags.getArtist());
+        assertEquals(12, tags.getTrack());
+    }
+
+    @Test
+    public void undoesUnsynchronisation() throws IOException {
+        // ÿ is 0xFF in ISO-8859-1, which an unsynchronised tag follows with a zero byte
+        byte[] tag = tag(3, 0x80, frame(3, "TIT2", text(0, "ÿes ÿes", StandardCharsets.ISO_8859_1)),
+                frame(3, "TPE1", text(0, "Artist", StandardCharsets.ISO_8859_1)));
+        TagReader tags = this.read(unsynchronise(tag), null);
+        assertEquals("ÿes ÿes", tags.getTitle());
+        assertEquals("Artist", tags.getArtist());
+    }
+
+    @Test
+    public void fillsWhatId3v2LacksFromId3v1() throws IOException {
+        TagReader tags = this.read(tag(3, 0, frame(3, "TIT2", text(0, "Long Title From ID3v2",
+                StandardCharsets.ISO_8859_1))), id3v1("Short Title", "Artist", "Album", "1999", 7));
+        assertEquals("Long Title From ID3v2", tags.getTitle());
+        assertEquals("Artist", tags.getArtist());
+        assertEquals("Album", tags.getAlbum());
+        assertEquals(1999, tags.getYear());
+        assertEquals(7, tags.getTrack());
+    }
+
+    @Test
+    public void readsId3v1Alone() throws IOException {
+        TagReader tags = this.read(null, id3v1("Title", "Artist", "Album", "2001", 0));
+        assertEquals("Title", tags.getTitle());
+        assertEquals("Artist", tags.getArtist());
+        assertEquals("Album", tags.getAlbum());
+        assertEquals(2001, tags.getYear());
+        assertEquals(0, tags.getTrack());
+    }
+
+    @Test
+    public void untaggedAndDamagedFilesHaveEmptyTags() throws IOException {
+        TagReader untagged = this.read(null, null);
+        assertEquals("", untagged.getTitle());
+        assertEquals(0, untagged.getYear());
+        // a frame claiming to run past the end of its tag ends the tag, keeping what came before it
+        byte[] artist = frame(3, "TPE1", text(0, "Artist", StandardCharsets.ISO_8859_1));
+        artist[4] = 0x7F;
+        byte[] damaged = tag(3, 0, frame(3, "TIT2", text(0, "Title", StandardCharsets.ISO_8859_1)), artist);
+        TagReader tags = this.read(damaged, null);
+        assertEquals("Title", tags.getTitle());
+        assertEquals("", tags.getArtist());
+    }
+
+    private TagReader read(byte[] id3v2, byte[] id3v1) throws IOException {
+        ByteArrayOutputStream song = new ByteArrayOutputStream();
+        if (id3v2 != null)
+            song.write(id3v2);
+        song.write(AUDIO);
+        if (id3v1 != null)
+            song.write(id3v1);
+        File file = this.directory.resolve("song.mp3").toFile();
+        Files.write(file.toPath(), song.toByteArray());
+        return TagReader.read(file);
+    }
+
+    /**
+     * Builds an ID3v2 tag of frames, followed by some padding.
+     */
+    private static byte[] tag(int major, int flags, byte[]... frames) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] frame : frames)
+            body.write(frame);
+        body.write(new byte[20]);
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        tag.write(new byte[]{'I', 'D', '3', (byte) major, 0, (byte) flags});
+        tag.write(syncsafe(body.size()));
+        tag.write(body.toByteArray());
+        return tag.toByteArray();
+    }
+
+    /**
+     * Builds a frame with the header of an ID3v2 major version.
+     */
+    private static byte[] frame(int major, String id, byte[] body) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(id.getBytes(StandardCharsets.ISO_8859_1));
+        int size = body.length;
+        if (major == 2) {
+            frame.write(new byte[]{(byte) (size >> 16), (byte) (size >> 8), (byte) size});
+        } else {
+            frame.write(major == 4 ? syncsafe(size)
+                    : new byte[]{(byte) (size >> 24), (byte) (size >> 16), (byte) (size >> 8), (byte) size});
+            frame.write(new byte[2]);
+        }
+        frame.write(body);
+        return frame.toByteArray();
+    }
+
+    /**
+     * Builds the body of a text frame: its encoding byte, then the text.
+     */
+    private static byte[] text(int encoding, String value, Charset charset) {
+        byte[] text = value.getBytes(charset);
+        byte[] body = new byte[1 + text.length];
+        body[0] = (byte) encoding;
+        System.arraycopy(text, 0, body, 1, text.length);
+        return body;
+    }
+
+    private static byte[] id3v1(String title, String artist, String album, String year, int track) {
+        byte[] tag = new byte[128];
+        tag[0] = 'T';
+        tag[1] = 'A';
+        tag[2] = 'G';
+        put(tag, 3, title);
+        put(tag, 33, artist);
+        put(tag, 63, album);
+        put(tag, 93, year);
+        tag[126] = (byte) track;
+        return tag;
+    }
+
+    private static void put(byte[] tag, int off, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(bytes, 0, tag, off, bytes.length);
+    }
+
+    /**
+     * Puts a zero byte after every 0xFF of a tag's body, as an unsynchronised ID3v2.3 tag has.
+     */
+    private static byte[] unsynchronise(byte[] tag) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 10; i < tag.length; i++) {
+            body.write(tag[i]);
+            if (tag[i] == (byte) 0xFF)
+                body.write(0);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag, 0, 6);
+        out.write(syncsafe(body.size()));
+        out.write(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static byte[] syncsafe(int size) {
+        return new byte[]{(byte) (size >> 21 & 0x7F), (byte) (size >> 14 & 0x7F), (byte) (size >> 7 & 0x7F),
+                (byte) (size & 0x7F)};
+    }
+}